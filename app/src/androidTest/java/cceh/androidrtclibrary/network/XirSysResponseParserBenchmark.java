@@ -0,0 +1,169 @@
+package cceh.androidrtclibrary.network;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.PeerConnection;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link XirSysResponseParser} with the previous way of reading the whole body into a
+ * string and building a {@link JSONObject} tree, on large responses. Logs parse time and bytes
+ * allocated per parse.
+ */
+@RunWith(AndroidJUnit4.class)
+public class XirSysResponseParserBenchmark {
+  private static final String TAG = "XirSysParserBenchmark";
+  private static final int SERVERS = 2000;
+  private static final int WARMUP_ITERATIONS = 5;
+  private static final int ITERATIONS = 20;
+
+  @Test
+  public void streamingParserMatchesTreeParser() throws Exception {
+    byte[] response = buildResponse(50);
+
+    List<PeerConnection.IceServer> streamed =
+        XirSysResponseParser.parse(new ByteArrayInputStream(response));
+    List<PeerConnection.IceServer> tree = parseWithTree(new ByteArrayInputStream(response));
+
+    assertEquals(tree.size(), streamed.size());
+    for (int i = 0; i < tree.size(); i++) {
+      assertEquals(tree.get(i).uri, streamed.get(i).uri);
+      assertEquals(tree.get(i).username, streamed.get(i).username);
+      assertEquals(tree.get(i).password, streamed.get(i).password);
+    }
+  }
+
+  @Test
+  public void errorResponseFails() throws Exception {
+    try {
+      XirSysResponseParser.parse(new ByteArrayInputStream(
+          "{\"s\":401,\"d\":null,\"e\":\"Unauthorized\"}".getBytes("UTF-8")));
+      fail("Error response should fail.");
+    } catch (NetworkException expected) {
+    }
+  }
+
+  @Test
+  public void benchmarkLargeResponse() throws Exception {
+    final byte[] response = buildResponse(SERVERS);
+
+    Result tree = measure(new Parse() {
+      @Override
+      public int run() throws Exception {
+        return parseWithTree(new ByteArrayInputStream(response)).size();
+      }
+    });
+    Result streaming = measure(new Parse() {
+      @Override
+      public int run() throws Exception {
+        return XirSysResponseParser.parse(new ByteArrayInputStream(response)).size();
+      }
+    });
+
+    Log.i(TAG, String.format(
+        "%d servers, %d bytes. Tree: %.2fms, %d bytes allocated. "
+            + "Streaming: %.2fms, %d bytes allocated.",
+        SERVERS, response.length,
+        tree.millisPerParse, tree.bytesPerParse,
+        streaming.millisPerParse, streaming.bytesPerParse));
+    assertEquals(SERVERS, tree.servers);
+    assertEquals(SERVERS, streaming.servers);
+  }
+
+  private interface Parse {
+    int run() throws Exception;
+  }
+
+  private static class Result {
+    private final int servers;
+    private final double millisPerParse;
+    private final long bytesPerParse;
+
+    private Result(int servers, double millisPerParse, long bytesPerParse) {
+      this.servers = servers;
+      this.millisPerParse = millisPerParse;
+      this.bytesPerParse = bytesPerParse;
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private static Result measure(Parse parse) throws Exception {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      parse.run();
+    }
+    int servers = 0;
+    Debug.startAllocCounting();
+    Debug.resetThreadAllocSize();
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      servers = parse.run();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    long allocated = Debug.getThreadAllocSize();
+    Debug.stopAllocCounting();
+    return new Result(servers, elapsedNanos / 1e6 / ITERATIONS, allocated / ITERATIONS);
+  }
+
+  /** The parsing XirSysStunTurnServerProvider did before the streaming parser. */
+  private static List<PeerConnection.IceServer> parseWithTree(InputStream in)
+      throws IOException, JSONException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    StringBuilder builder = new StringBuilder();
+    for (String line = null; (line = reader.readLine()) != null;) {
+      builder.append(line).append("\n");
+    }
+    JSONObject json = new JSONObject(new JSONTokener(builder.toString()));
+    List<PeerConnection.IceServer> servers = new ArrayList<>();
+    JSONArray iceServers = json.getJSONObject("d").getJSONArray("iceServers");
+    for (int i = 0; i < iceServers.length(); i++) {
+      JSONObject srv = iceServers.getJSONObject(i);
+      if (srv.has("username")) {
+        servers.add(new PeerConnection.IceServer(
+            srv.getString("url"), srv.getString("username"), srv.getString("credential")));
+      } else {
+        servers.add(new PeerConnection.IceServer(srv.getString("url")));
+      }
+    }
+    return servers;
+  }
+
+  /** A pretty printed response, like XirSys sends, with STUN and TURN servers. */
+  private static byte[] buildResponse(int servers) throws IOException {
+    StringBuilder json = new StringBuilder("{\n  \"e\": null,\n  \"s\": 200,\n  \"d\": {\n"
+        + "    \"iceServers\": [\n");
+    for (int i = 0; i < servers; i++) {
+      if (i > 0) json.append(",\n");
+      if (i % 3 == 0) {
+        json.append("      {\n        \"url\": \"stun:turn").append(i)
+            .append(".xirsys.com\"\n      }");
+      } else {
+        json.append("      {\n        \"username\": \"")
+            .append(String.format("%08x-5a1f-11e7-8a3c-%012d", i, i))
+            .append("\",\n        \"url\": \"turn:turn").append(i)
+            .append(".xirsys.com:443?transport=").append(i % 2 == 0 ? "udp" : "tcp")
+            .append("\",\n        \"credential\": \"")
+            .append(String.format("%08x-5a1f-11e7-b3c4-%012d", i * 31, i))
+            .append("\"\n      }");
+      }
+    }
+    json.append("\n    ]\n  }\n}\n");
+    return json.toString().getBytes("UTF-8");
+  }
+}
@@ -0,0 +1,224 @@
+package cceh.androidrtclibrary.signaling;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link CompactSignalCodec} with {@link JsonSignalCodec} on a real-world offer, and
+ * checks both round trip.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CompactSignalCodecTest {
+  private static final String TAG = "CompactSignalCodecTest";
+  private static final int ITERATIONS = 200;
+
+  private static final String OFFER_SDP = "v=0\r\n"
+      + "o=- 6426389455384640397 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n"
+      + "a=group:BUNDLE audio video\r\n"
+      + "a=msid-semantic: WMS local_media_stream\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 126\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=ice-ufrag:Fq9mVd0cUb4Jyhx1\r\n"
+      + "a=ice-pwd:LBnGBP1TWvTvAu5mGGJKSXtx\r\n"
+      + "a=fingerprint:sha-256 A4:3B:9E:0D:22:6E:1F:93:7C:FA:10:55:31:88:B2:47:"
+      + "E1:7D:6A:C0:93:18:F5:2B:4E:68:AC:39:D2:01:7B:C6\r\n"
+      + "a=setup:actpass\r\n"
+      + "a=mid:audio\r\n"
+      + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+      + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10; useinbandfec=1\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:104 ISAC/32000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\n"
+      + "a=rtpmap:8 PCMA/8000\r\n"
+      + "a=rtpmap:106 CN/32000\r\n"
+      + "a=rtpmap:105 CN/16000\r\n"
+      + "a=rtpmap:13 CN/8000\r\n"
+      + "a=rtpmap:126 telephone-event/8000\r\n"
+      + "a=maxptime:60\r\n"
+      + "a=ssrc:2733381468 cname:Y6Kx7sIbF4cZ8hP1\r\n"
+      + "a=ssrc:2733381468 msid:local_media_stream audio_track\r\n"
+      + "a=ssrc:2733381468 mslabel:local_media_stream\r\n"
+      + "a=ssrc:2733381468 label:audio_track\r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 100 116 117 96\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=ice-ufrag:Fq9mVd0cUb4Jyhx1\r\n"
+      + "a=ice-pwd:LBnGBP1TWvTvAu5mGGJKSXtx\r\n"
+      + "a=fingerprint:sha-256 A4:3B:9E:0D:22:6E:1F:93:7C:FA:10:55:31:88:B2:47:"
+      + "E1:7D:6A:C0:93:18:F5:2B:4E:68:AC:39:D2:01:7B:C6\r\n"
+      + "a=setup:actpass\r\n"
+      + "a=mid:video\r\n"
+      + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+      + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+      + "a=extmap:4 urn:3gpp:video-orientation\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:100 VP8/90000\r\n"
+      + "a=rtcp-fb:100 ccm fir\r\n"
+      + "a=rtcp-fb:100 nack\r\n"
+      + "a=rtcp-fb:100 nack pli\r\n"
+      + "a=rtcp-fb:100 goog-remb\r\n"
+      + "a=rtpmap:116 red/90000\r\n"
+      + "a=rtpmap:117 ulpfec/90000\r\n"
+      + "a=rtpmap:96 rtx/90000\r\n"
+      + "a=fmtp:96 apt=100\r\n"
+      + "a=ssrc-group:FID 3120416390 1549832187\r\n"
+      + "a=ssrc:3120416390 cname:Y6Kx7sIbF4cZ8hP1\r\n"
+      + "a=ssrc:3120416390 msid:local_media_stream video_track\r\n"
+      + "a=ssrc:3120416390 mslabel:local_media_stream\r\n"
+      + "a=ssrc:3120416390 label:video_track\r\n"
+      + "a=ssrc:1549832187 cname:Y6Kx7sIbF4cZ8hP1\r\n"
+      + "a=ssrc:1549832187 msid:local_media_stream video_track\r\n"
+      + "a=ssrc:1549832187 mslabel:local_media_stream\r\n"
+      + "a=ssrc:1549832187 label:video_track\r\n";
+
+  @Test
+  public void offerRoundTrips() throws Exception {
+    Signal offer = Signal.offer("alice", new SessionDescription(
+        SessionDescription.Type.OFFER, OFFER_SDP));
+
+    Signal decoded = decodeFromWire(new CompactSignalCodec(), offer);
+
+    assertEquals("alice", decoded.getSender());
+    assertEquals(SignalMessages.TYPE_OFFER, decoded.getType());
+    assertEquals(SessionDescription.Type.OFFER, decoded.getSessionDescription().type);
+    assertEquals(OFFER_SDP, decoded.getSessionDescription().description);
+  }
+
+  @Test
+  public void iceCandidatesRoundTrip() throws Exception {
+    List<IceCandidate> candidates = Arrays.asList(
+        new IceCandidate("audio", 0,
+            "candidate:1467250027 1 udp 2122260223 192.168.0.196 46243 typ host generation 0"),
+        new IceCandidate("video", 1,
+            "candidate:435653019 1 tcp 1845501695 37.20.11.5 9 typ srflx raddr 192.168.0.196"
+                + " rport 9 tcptype active generation 0"));
+
+    Signal decoded = decodeFromWire(
+        new CompactSignalCodec(), Signal.iceCandidates("bob", candidates));
+
+    assertEquals(SignalMessages.TYPE_ICE_CANDIDATES, decoded.getType());
+    assertEquals(2, decoded.getIceCandidates().size());
+    for (int i = 0; i < candidates.size(); i++) {
+      assertEquals(candidates.get(i).sdpMid, decoded.getIceCandidates().get(i).sdpMid);
+      assertEquals(candidates.get(i).sdpMLineIndex,
+          decoded.getIceCandidates().get(i).sdpMLineIndex);
+      assertEquals(candidates.get(i).sdp, decoded.getIceCandidates().get(i).sdp);
+    }
+  }
+
+  @Test
+  public void renegotiateRoundTrips() throws Exception {
+    Signal decoded = decodeFromWire(new CompactSignalCodec(), Signal.renegotiate("bob"));
+
+    assertEquals("bob", decoded.getSender());
+    assertEquals(SignalMessages.TYPE_RENEGOTIATE, decoded.getType());
+  }
+
+  @Test
+  public void decodesDefaultCodecMessages() throws Exception {
+    JSONObject message = new JsonSignalCodec().encode(Signal.disconnect("carol"));
+
+    Signal decoded = new CompactSignalCodec().decode(new JSONObject(message.toString()));
+
+    assertEquals("carol", decoded.getSender());
+    assertEquals(SignalMessages.TYPE_DISCONNECT, decoded.getType());
+  }
+
+  @Test
+  public void defaultCodecDecodesCompactMessages() throws Exception {
+    Signal offer = Signal.offer("alice", new SessionDescription(
+        SessionDescription.Type.OFFER, OFFER_SDP));
+    JSONObject message = new CompactSignalCodec().encode(offer);
+
+    Signal decoded = new JsonSignalCodec().decode(new JSONObject(message.toString()));
+
+    assertEquals("alice", decoded.getSender());
+    assertEquals(OFFER_SDP, decoded.getSessionDescription().description);
+  }
+
+  @Test
+  public void rejectsSdpInflatingBeyondTheLimit() throws Exception {
+    // A few KB on the wire, a MB once inflated.
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    deflater.setInput(new byte[1024 * 1024]);
+    deflater.finish();
+    byte[] buffer = new byte[64 * 1024];
+    int length = deflater.deflate(buffer);
+    assertTrue(deflater.finished());
+    deflater.end();
+    JSONObject message = new JSONObject()
+        .put("v", 1)
+        .put("s", "mallory")
+        .put("t", "o")
+        .put("p", Base64.encodeToString(Arrays.copyOf(buffer, length), Base64.NO_WRAP));
+
+    try {
+      new CompactSignalCodec().decode(message);
+      fail();
+    } catch (SignalingException e) {
+      assertTrue(e.getMessage().contains("inflates beyond"));
+    }
+  }
+
+  @Test
+  public void compactOfferIsSmaller() throws Exception {
+    Signal offer = Signal.offer("alice", new SessionDescription(
+        SessionDescription.Type.OFFER, OFFER_SDP));
+
+    int jsonBytes = measure("json", new JsonSignalCodec(), offer);
+    int compactBytes = measure("compact", new CompactSignalCodec(), offer);
+
+    assertTrue("Compact offer should be less than half the size, was " + compactBytes
+        + " vs " + jsonBytes, compactBytes * 2 < jsonBytes);
+  }
+
+  private static Signal decodeFromWire(SignalCodec codec, Signal signal) throws Exception {
+    return codec.decode(new JSONObject(codec.encode(signal).toString()));
+  }
+
+  private static int measure(String name, SignalCodec codec, Signal signal) throws Exception {
+    String wire = codec.encode(signal).toString();
+    // Warm up before timing.
+    for (int i = 0; i < ITERATIONS; i++) {
+      codec.decode(new JSONObject(codec.encode(signal).toString()));
+    }
+
+    long encodeNanos = 0;
+    long decodeNanos = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      String encoded = codec.encode(signal).toString();
+      long encodedAt = System.nanoTime();
+      codec.decode(new JSONObject(encoded));
+      decodeNanos += System.nanoTime() - encodedAt;
+      encodeNanos += encodedAt - start;
+    }
+
+    int bytes = wire.getBytes("UTF-8").length;
+    Log.i(TAG, name + " offer: " + bytes + " bytes, encode "
+        + encodeNanos / ITERATIONS / 1000 + "us, decode " + decodeNanos / ITERATIONS / 1000 + "us");
+    return bytes;
+  }
+}
@@ -0,0 +1,19 @@
+package cceh.androidrtclibrary;
+
+/**
+ * Decides whether a {@link RtcClient} sets up a connection with a peer it is not connected with,
+ * e.g. to only accept calls from contacts. Connections beyond
+ * {@link RtcClientParams#getMaxConnections()} are refused regardless.
+ *
+ * Called from signaling and caller threads, so it needs to be thread safe and quick.
+ */
+public interface AdmissionController {
+
+  /**
+   * Returns whether to set up a connection with the peer.
+   *
+   * @param incoming true when the peer calls, false when the local user calls the peer
+   * @param connectionCount number of connections the client currently has
+   */
+  boolean admit(String peerId, boolean incoming, int connectionCount);
+}
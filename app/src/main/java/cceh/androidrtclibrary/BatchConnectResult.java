@@ -0,0 +1,116 @@
+package cceh.androidrtclibrary;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link RtcClient#connectTo(java.util.Collection, Callback)}, with the result and
+ * setup timing of every peer.
+ */
+public class BatchConnectResult {
+
+  /** Called once, after every peer of the batch connected or failed. */
+  public interface Callback {
+    void onBatchConnectCompleted(BatchConnectResult result);
+  }
+
+  private final List<PeerResult> peerResults;
+  private final long totalMillis;
+
+  BatchConnectResult(List<PeerResult> peerResults, long totalMillis) {
+    this.peerResults = Collections.unmodifiableList(peerResults);
+    this.totalMillis = totalMillis;
+  }
+
+  /** Results in the order the peers were given. */
+  public List<PeerResult> getPeerResults() {
+    return peerResults;
+  }
+
+  public List<String> getConnectedPeers() {
+    List<String> peers = new ArrayList<>();
+    for (PeerResult result : peerResults) {
+      if (result.isConnected()) peers.add(result.getPeerId());
+    }
+    return peers;
+  }
+
+  public List<String> getFailedPeers() {
+    List<String> peers = new ArrayList<>();
+    for (PeerResult result : peerResults) {
+      if (!result.isConnected()) peers.add(result.getPeerId());
+    }
+    return peers;
+  }
+
+  public boolean isAllConnected() {
+    return getFailedPeers().isEmpty();
+  }
+
+  /** Time from the call until the last peer connected or failed. */
+  public long getTotalMillis() {
+    return totalMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "BatchConnectResult{" + getConnectedPeers().size() + "/" + peerResults.size()
+        + " connected in " + totalMillis + "ms, " + peerResults + "}";
+  }
+
+  /** Result of one peer of the batch. */
+  public static class PeerResult {
+    private final String peerId;
+    private final boolean connected;
+    private final long queuedMillis;
+    private final long setupMillis;
+    @Nullable private final String failure;
+
+    PeerResult(
+        String peerId,
+        boolean connected,
+        long queuedMillis,
+        long setupMillis,
+        @Nullable String failure) {
+      this.peerId = peerId;
+      this.connected = connected;
+      this.queuedMillis = queuedMillis;
+      this.setupMillis = setupMillis;
+      this.failure = failure;
+    }
+
+    public String getPeerId() {
+      return peerId;
+    }
+
+    /** Whether ice connected to the peer. */
+    public boolean isConnected() {
+      return connected;
+    }
+
+    /** Time the peer waited for its turn, because of the concurrency limit and pacing. */
+    public long getQueuedMillis() {
+      return queuedMillis;
+    }
+
+    /** Time from starting the call to the peer until it connected or failed. */
+    public long getSetupMillis() {
+      return setupMillis;
+    }
+
+    /** Why the peer did not connect, null if it did. */
+    @Nullable
+    public String getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      return peerId + (connected ? " connected" : " failed (" + failure + ")")
+          + " queued=" + queuedMillis + "ms setup=" + setupMillis + "ms";
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package cceh.androidrtclibrary;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls a group of peers a few at a time, for {@link RtcClient#connectTo(Collection,
+ * BatchConnectResult.Callback)}.
+ *
+ * At most a number of peers are starting at once, a peer holds its slot until its session
+ * description is sent (or it failed), and starts are spaced by a min interval. A peer which does
+ * not connect within the timeout is reported failed. The callback is called once, on the thread
+ * which finished the last peer.
+ */
+class BatchConnector {
+
+  /** Starts calling a peer and reports back to the batch, right away or later. */
+  interface Starter {
+    void start(String peerId, BatchConnector batch);
+  }
+
+  private final Starter starter;
+  private final ScheduledExecutorService scheduler;
+  private final int concurrency;
+  private final long intervalNanos;
+  private final long timeoutMillis;
+  private final BatchConnectResult.Callback callback;
+  private final long createdNanos;
+  private final Runnable pumpTask;
+  private final Object lock;
+
+  // Guarded by lock.
+  private final Map<String, PeerState> peers;
+  private final Queue<PeerState> pending;
+  private int inFlight;
+  private int unfinished;
+  private boolean anyStarted;
+  private long lastStartNanos;
+  private boolean pumpScheduled;
+  private boolean completed;
+
+  BatchConnector(
+      Collection<String> peerIds,
+      Starter starter,
+      ScheduledExecutorService scheduler,
+      int concurrency,
+      long intervalMillis,
+      long timeoutMillis,
+      BatchConnectResult.Callback callback) {
+    this.starter = starter;
+    this.scheduler = scheduler;
+    this.concurrency = Math.max(1, concurrency);
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.timeoutMillis = timeoutMillis;
+    this.callback = callback;
+    this.createdNanos = System.nanoTime();
+    this.lock = new Object();
+    this.pumpTask = new Runnable() {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          pumpScheduled = false;
+        }
+        pump();
+      }
+    };
+
+    this.peers = new LinkedHashMap<>();
+    this.pending = new ArrayDeque<>();
+    for (String peerId : peerIds) {
+      if (!peers.containsKey(peerId)) {
+        PeerState state = new PeerState(peerId);
+        peers.put(peerId, state);
+        pending.add(state);
+      }
+    }
+    this.inFlight = 0;
+    this.unfinished = peers.size();
+    this.anyStarted = false;
+    this.lastStartNanos = 0;
+    this.pumpScheduled = false;
+    this.completed = false;
+  }
+
+  void start() {
+    if (isDone()) {
+      // Nothing to call, or cancelled already.
+      complete();
+      return;
+    }
+    schedulePump(0);
+  }
+
+  boolean isDone() {
+    synchronized (lock) {
+      return unfinished == 0;
+    }
+  }
+
+  /** The offer or answer to the peer went out, it no longer needs a slot. */
+  void onSessionDescriptionSent(String peerId) {
+    boolean released;
+    synchronized (lock) {
+      PeerState state = peers.get(peerId);
+      released = state != null && releaseSlotLocked(state);
+    }
+    if (released) {
+      schedulePump(0);
+    }
+  }
+
+  void onConnected(String peerId) {
+    finish(peerId, true, null);
+  }
+
+  void onFailed(String peerId, String failure) {
+    finish(peerId, false, failure);
+  }
+
+  /** Fails every peer which did not finish yet. */
+  void cancel(String failure) {
+    List<String> unfinishedPeers = new ArrayList<>();
+    synchronized (lock) {
+      pending.clear();
+      for (PeerState state : peers.values()) {
+        if (!state.finished) unfinishedPeers.add(state.peerId);
+      }
+    }
+    for (String peerId : unfinishedPeers) {
+      onFailed(peerId, failure);
+    }
+  }
+
+  private void finish(String peerId, boolean connected, @Nullable String failure) {
+    boolean released;
+    boolean completed;
+    synchronized (lock) {
+      PeerState state = peers.get(peerId);
+      if (state == null || state.finished) return;
+      long now = System.nanoTime();
+      if (!state.started) {
+        // Failed before its turn, e.g. cancelled.
+        pending.remove(state);
+        state.started = true;
+        state.startedNanos = now;
+      }
+      state.finished = true;
+      state.connected = connected;
+      state.failure = failure;
+      state.finishedNanos = now;
+      if (state.timeout != null) {
+        state.timeout.cancel(false);
+        state.timeout = null;
+      }
+      released = releaseSlotLocked(state);
+      unfinished--;
+      completed = unfinished == 0;
+    }
+    if (completed) {
+      complete();
+    } else if (released) {
+      schedulePump(0);
+    }
+  }
+
+  /** Starts the next peers while slots are free, and the interval since the last start passed. */
+  private void pump() {
+    while (true) {
+      final PeerState next;
+      synchronized (lock) {
+        if (inFlight >= concurrency || pending.isEmpty()) return;
+        long now = System.nanoTime();
+        long waitNanos = lastStartNanos + intervalNanos - now;
+        if (anyStarted && waitNanos > 0) {
+          schedulePumpLocked(waitNanos);
+          return;
+        }
+        next = pending.poll();
+        next.started = true;
+        next.startedNanos = now;
+        next.holdsSlot = true;
+        inFlight++;
+        anyStarted = true;
+        lastStartNanos = now;
+        if (timeoutMillis > 0) {
+          next.timeout = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              onFailed(next.peerId, "Timed out after " + timeoutMillis + "ms");
+            }
+          }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+      }
+      starter.start(next.peerId, this);
+    }
+  }
+
+  private void schedulePump(long delayNanos) {
+    synchronized (lock) {
+      if (pending.isEmpty()) return;
+      schedulePumpLocked(delayNanos);
+    }
+  }
+
+  private void schedulePumpLocked(long delayNanos) {
+    if (pumpScheduled) return;
+    pumpScheduled = true;
+    scheduler.schedule(pumpTask, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private boolean releaseSlotLocked(PeerState state) {
+    if (!state.holdsSlot) return false;
+    state.holdsSlot = false;
+    inFlight--;
+    return true;
+  }
+
+  private void complete() {
+    List<BatchConnectResult.PeerResult> results = new ArrayList<>();
+    synchronized (lock) {
+      if (completed) return;
+      completed = true;
+      for (PeerState state : peers.values()) {
+        results.add(new BatchConnectResult.PeerResult(
+            state.peerId,
+            state.connected,
+            TimeUnit.NANOSECONDS.toMillis(state.startedNanos - createdNanos),
+            TimeUnit.NANOSECONDS.toMillis(state.finishedNanos - state.startedNanos),
+            state.failure));
+      }
+    }
+    callback.onBatchConnectCompleted(new BatchConnectResult(
+        results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos)));
+  }
+
+  private static class PeerState {
+    private final String peerId;
+    private boolean started;
+    private long startedNanos;
+    private long finishedNanos;
+    private boolean holdsSlot;
+    private boolean finished;
+    private boolean connected;
+    @Nullable private String failure;
+    @Nullable private ScheduledFuture<?> timeout;
+
+    private PeerState(String peerId) {
+      this.peerId = peerId;
+      this.started = false;
+      this.startedNanos = 0;
+      this.finishedNanos = 0;
+      this.holdsSlot = false;
+      this.finished = false;
+      this.connected = false;
+      this.failure = null;
+      this.timeout = null;
+    }
+  }
+}
@@ -0,0 +1,262 @@
+package cceh.androidrtclibrary;
+
+import android.support.annotation.Nullable;
+
+import org.webrtc.MediaStream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the events of a {@link RtcClient} to its {@link RtcEventListener} on the delivery
+ * executor, e.g. the main thread, in the order they happened.
+ *
+ * Events of a peer which are superseded before they are delivered are dropped: a connect followed
+ * by a disconnect, with every other event of that connection, and a remote stream added then
+ * removed. Repeated connects or disconnects are delivered once. Client events are never dropped.
+ * Without an executor, events are delivered right away on the thread they happened on.
+ */
+class EventDispatcher implements RtcEventListener {
+  private static final int MAX_EVENTS_PER_DRAIN = 64;
+
+  private static final int CLIENT_READY = 0;
+  private static final int CLIENT_DIED = 1;
+  private static final int CONNECTED = 2;
+  private static final int DISCONNECTED = 3;
+  private static final int STREAM_ADDED = 4;
+  private static final int STREAM_REMOVED = 5;
+
+  private final RtcEventListener listener;
+  @Nullable private final Executor executor;
+  private final Runnable drainTask;
+  private final AtomicLong eventsCoalesced;
+  private final Object lock;
+
+  // Guarded by lock.
+  private final Queue<Event> queue;
+  private final Map<String, List<Event>> pendingByPeer;
+  private boolean drainScheduled;
+
+  EventDispatcher(RtcEventListener listener, @Nullable Executor executor) {
+    this.listener = listener;
+    this.executor = executor;
+    this.drainTask = new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    };
+    this.eventsCoalesced = new AtomicLong();
+    this.lock = new Object();
+
+    this.queue = new ArrayDeque<>();
+    this.pendingByPeer = new HashMap<>();
+    this.drainScheduled = false;
+  }
+
+  /** Number of events dropped because a later event superseded them. */
+  long getEventsCoalesced() {
+    return eventsCoalesced.get();
+  }
+
+  @Override
+  public void onClientReady() {
+    dispatch(new Event(CLIENT_READY, null, null, null));
+  }
+
+  @Override
+  public void onClientDied(Throwable e) {
+    dispatch(new Event(CLIENT_DIED, null, null, e));
+  }
+
+  @Override
+  public void onConnected(String peerId) {
+    dispatch(new Event(CONNECTED, peerId, null, null));
+  }
+
+  @Override
+  public void onDisconnected(String peerId) {
+    dispatch(new Event(DISCONNECTED, peerId, null, null));
+  }
+
+  @Override
+  public void onRemoteStreamAdded(String peerId, MediaStream mediaStream) {
+    dispatch(new Event(STREAM_ADDED, peerId, mediaStream, null));
+  }
+
+  @Override
+  public void onRemoteStreamRemoved(String peerId, MediaStream mediaStream) {
+    dispatch(new Event(STREAM_REMOVED, peerId, mediaStream, null));
+  }
+
+  private void dispatch(Event event) {
+    if (executor == null) {
+      deliver(event);
+      return;
+    }
+    synchronized (lock) {
+      if (event.peerId != null && !coalesceLocked(event)) {
+        List<Event> pending = pendingByPeer.get(event.peerId);
+        if (pending != null && pending.isEmpty()) {
+          pendingByPeer.remove(event.peerId);
+        }
+        return;
+      }
+      queue.add(event);
+      if (drainScheduled) return;
+      drainScheduled = true;
+    }
+    executor.execute(drainTask);
+  }
+
+  /** Drops the events the new one supersedes, returns whether the new one is still needed. */
+  private boolean coalesceLocked(Event event) {
+    List<Event> pending = pendingByPeer.get(event.peerId);
+    if (pending == null) {
+      pending = new ArrayList<>();
+      pendingByPeer.put(event.peerId, pending);
+    }
+    Event last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+
+    switch (event.type) {
+      case CONNECTED:
+        if (last != null && last.type == CONNECTED) {
+          return drop();
+        }
+        break;
+      case STREAM_REMOVED:
+        for (int i = pending.size() - 1; i >= 0; i--) {
+          Event added = pending.get(i);
+          if (added.type == STREAM_ADDED && added.mediaStream == event.mediaStream) {
+            cancel(pending.remove(i));
+            return drop();
+          }
+        }
+        break;
+      case DISCONNECTED:
+        for (int i = pending.size() - 1; i >= 0; i--) {
+          if (pending.get(i).type == CONNECTED) {
+            // The listener never saw this connection, nothing of it needs delivering: neither
+            // what came after the connect, nor a stream added before it, e.g. while the
+            // callee applied the offer.
+            int start = i;
+            while (start > 0 && pending.get(start - 1).type != DISCONNECTED) {
+              start--;
+            }
+            while (pending.size() > start) {
+              cancel(pending.remove(pending.size() - 1));
+            }
+            return drop();
+          }
+        }
+        // Streams of the connection which the listener did not see yet.
+        for (int i = pending.size() - 1; i >= 0; i--) {
+          if (pending.get(i).type == STREAM_ADDED) {
+            cancel(pending.remove(i));
+          }
+        }
+        last = pending.isEmpty() ? null : pending.get(pending.size() - 1);
+        if (last != null && last.type == DISCONNECTED) {
+          return drop();
+        }
+        break;
+      default:
+        break;
+    }
+    pending.add(event);
+    return true;
+  }
+
+  private void cancel(Event event) {
+    event.cancelled = true;
+    eventsCoalesced.incrementAndGet();
+  }
+
+  private boolean drop() {
+    eventsCoalesced.incrementAndGet();
+    return false;
+  }
+
+  /** Delivers a bounded number of events, so a busy executor like the main thread is shared. */
+  private void drain() {
+    for (int delivered = 0; delivered < MAX_EVENTS_PER_DRAIN; ) {
+      Event event;
+      synchronized (lock) {
+        event = queue.poll();
+        if (event == null) {
+          drainScheduled = false;
+          return;
+        }
+        if (event.cancelled) continue;
+        if (event.peerId != null) {
+          List<Event> pending = pendingByPeer.get(event.peerId);
+          pending.remove(event);
+          if (pending.isEmpty()) {
+            pendingByPeer.remove(event.peerId);
+          }
+        }
+      }
+      try {
+        deliver(event);
+      } catch (RuntimeException e) {
+        // Keeps later events flowing, the listener's exception still surfaces.
+        executor.execute(drainTask);
+        throw e;
+      }
+      delivered++;
+    }
+    executor.execute(drainTask);
+  }
+
+  private void deliver(Event event) {
+    switch (event.type) {
+      case CLIENT_READY:
+        listener.onClientReady();
+        break;
+      case CLIENT_DIED:
+        listener.onClientDied(event.error);
+        break;
+      case CONNECTED:
+        listener.onConnected(event.peerId);
+        break;
+      case DISCONNECTED:
+        listener.onDisconnected(event.peerId);
+        break;
+      case STREAM_ADDED:
+        listener.onRemoteStreamAdded(event.peerId, event.mediaStream);
+        break;
+      case STREAM_REMOVED:
+        listener.onRemoteStreamRemoved(event.peerId, event.mediaStream);
+        break;
+      default:
+        throw new IllegalStateException("Unknown event type: " + event.type);
+    }
+  }
+
+  private static class Event {
+    private final int type;
+    @Nullable private final String peerId;
+    @Nullable private final MediaStream mediaStream;
+    @Nullable private final Throwable error;
+    // Guarded by the dispatcher lock.
+    private boolean cancelled;
+
+    private Event(
+        int type,
+        @Nullable String peerId,
+        @Nullable MediaStream mediaStream,
+        @Nullable Throwable error) {
+      this.type = type;
+      this.peerId = peerId;
+      this.mediaStream = mediaStream;
+      this.error = error;
+      this.cancelled = false;
+    }
+  }
+}
@@ -1,25 +1,61 @@
 package cceh.androidrtclibrary;
 
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.MediaStream;
+import org.webrtc.StatsObserver;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import cceh.androidrtclibrary.connection.Connection;
-import cceh.androidrtclibrary.connection.ConnectionParams;
+import cceh.androidrtclibrary.connection.ConnectionMetrics;
+import cceh.androidrtclibrary.connection.PeerConnectionFactoryPool;
+import cceh.androidrtclibrary.connection.PeerConnectionPool;
+import cceh.androidrtclibrary.connection.PeerRegistry;
 import cceh.androidrtclibrary.network.NetworkException;
 import cceh.androidrtclibrary.network.StunTurnServerProvider;
+import cceh.androidrtclibrary.signaling.Signal;
 import cceh.androidrtclibrary.signaling.SignalMessages;
+import cceh.androidrtclibrary.signaling.SignalSender;
 import cceh.androidrtclibrary.signaling.SignalingException;
 import cceh.androidrtclibrary.signaling.SignalingService;
+import cceh.androidrtclibrary.stats.AdaptiveBitrateController;
+import cceh.androidrtclibrary.stats.CaptureFormatListener;
+import cceh.androidrtclibrary.stats.ConnectionStats;
+import cceh.androidrtclibrary.stats.QualityLevel;
+import cceh.androidrtclibrary.stats.StatsCollector;
+import cceh.androidrtclibrary.stats.StatsListener;
 
 /**
  * The client which manages peer connections.
  *
+ * The client can be used from any thread. Every {@link Connection} runs on its own serial lane
+ * over a shared pool, so signals of different peers are handled in parallel and signals of the
+ * same peer in order.
+ *
+ * The number of connections is bounded by {@link RtcClientParams#getMaxConnections()}. Connections
+ * which stay idle or do not connect in time while setting up are evicted, and an
+ * {@link AdmissionController} can refuse peers.
+ *
+ * The stats of established connections are polled in the background, see
+ * {@link #getConnectionStats(String)} and {@link RtcClientParams#getStatsListener()}. They can
+ * drive the bitrate sent to each peer, see {@link RtcClientParams#getAdaptiveBitrateParams()}.
+ *
  * Created by Charlie Chen (ccehshmily@gmail.com) on 4/5/17.
  */
 public class RtcClient implements
@@ -27,18 +63,37 @@ public class RtcClient implements
     StunTurnServerProvider.Callback,
     Connection.ConnectionHandler {
   private static final String TAG = "RtcClient";
+  private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+  private static final long EVICTION_INTERVAL_MILLIS = 1000;
 
   private final String userId;
-  private final MediaStream localMediaStream;
+  private volatile MediaStream localMediaStream;
   private final SignalingService signalingService;
   private final StunTurnServerProvider stunTurnServerProvider;
-  private final RtcEventListener rtcEventListener;
-  private final Map<String, Connection> connections;
+  private final EventDispatcher rtcEventListener;
+  private final RtcClientParams rtcClientParams;
+  private final PeerConnectionFactoryPool peerConnectionFactoryPool;
+  @Nullable private final PeerConnectionPool peerConnectionPool;
+  private final ScheduledExecutorService scheduler;
+  private final ConnectionMetrics connectionMetrics;
+  private final SignalSender signalSender;
+  private final ExecutorService connectionExecutor;
+  private final PeerRegistry<Connection> connections;
+  private final PeerRegistry.Factory<Connection> connectionFactory;
+  private final StartupTrace startupTrace;
+  private final List<BatchConnector> batchConnectors;
+  private final BatchConnector.Starter batchStarter;
+  @Nullable private final AdaptiveBitrateController adaptiveBitrateController;
+  @Nullable private final StatsCollector statsCollector;
   private final Object lock;
 
+  // Guarded by lock, clientInitialized is also read without it.
   private boolean signalingServiceInitialized;
   private boolean stunTurnServerProviderInitialized;
-  private boolean clientInitialized;
+  private volatile boolean clientInitialized;
+  private boolean clientDied;
+  private volatile boolean closed;
+  @Nullable private ScheduledFuture<?> readyTimeout;
 
   public RtcClient(
       String userId,
@@ -46,83 +101,511 @@ public class RtcClient implements
       SignalingService signalingService,
       StunTurnServerProvider stunTurnServerProvider,
       RtcEventListener rtcEventListener) {
+    this(
+        userId,
+        localMediaStream,
+        signalingService,
+        stunTurnServerProvider,
+        rtcEventListener,
+        RtcClientParams.defaults());
+  }
+
+  public RtcClient(
+      String userId,
+      MediaStream localMediaStream,
+      SignalingService signalingService,
+      StunTurnServerProvider stunTurnServerProvider,
+      RtcEventListener rtcEventListener,
+      RtcClientParams rtcClientParams) {
     this.userId = userId;
     this.localMediaStream = localMediaStream;
     this.signalingService = signalingService;
     this.stunTurnServerProvider = stunTurnServerProvider;
-    this.rtcEventListener = rtcEventListener;
-    this.connections = new HashMap<>();
+    this.rtcEventListener =
+        new EventDispatcher(rtcEventListener, rtcClientParams.getEventExecutor());
+    this.rtcClientParams = rtcClientParams;
+    this.peerConnectionFactoryPool = new PeerConnectionFactoryPool();
+    // Peer connections still call back after close, what they post then is dropped.
+    ScheduledThreadPoolExecutor timerExecutor = new ScheduledThreadPoolExecutor(1);
+    timerExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+    this.scheduler = timerExecutor;
+    this.connectionMetrics = new ConnectionMetrics();
+    this.signalSender = new SignalSender(signalingService, scheduler);
+    int connectionThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    this.connectionExecutor = new ThreadPoolExecutor(
+        connectionThreads,
+        connectionThreads,
+        0,
+        TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "RtcConnection");
+            thread.setDaemon(true);
+            return thread;
+          }
+        },
+        new ThreadPoolExecutor.DiscardPolicy());
+    this.peerConnectionPool = rtcClientParams.getPeerConnectionPoolSize() > 0
+        ? new PeerConnectionPool(
+            peerConnectionFactoryPool,
+            localMediaStream,
+            rtcClientParams.getConnectionParams().getConnectionConstraints(),
+            rtcClientParams.getPeerConnectionPoolSize(),
+            connectionExecutor)
+        : null;
+    this.connections = new PeerRegistry<>(connectionExecutor, rtcClientParams.getMaxConnections());
+    this.connectionFactory = new PeerRegistry.Factory<Connection>() {
+      @Override
+      public Connection create(String peerId, Executor lane) {
+        return createConnection(peerId, lane);
+      }
+    };
+    this.startupTrace = new StartupTrace();
+    this.batchConnectors = new CopyOnWriteArrayList<>();
+    this.batchStarter = new BatchConnector.Starter() {
+      @Override
+      public void start(String peerId, BatchConnector batch) {
+        startBatchPeer(peerId, batch);
+      }
+    };
+    this.adaptiveBitrateController = rtcClientParams.getStatsIntervalMillis() > 0
+        && rtcClientParams.getAdaptiveBitrateParams() != null
+        ? createAdaptiveBitrateController()
+        : null;
+    this.statsCollector = rtcClientParams.getStatsIntervalMillis() > 0
+        ? createStatsCollector()
+        : null;
     this.lock = new Object();
 
     this.signalingServiceInitialized = false;
     this.stunTurnServerProviderInitialized = false;
     this.clientInitialized = false;
+    this.clientDied = false;
+    this.closed = false;
+    this.readyTimeout = null;
     initializeClient();
+    if (rtcClientParams.getIdleTimeoutMillis() > 0 || rtcClientParams.getSetupTimeoutMillis() > 0) {
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          evictStaleConnections();
+        }
+      }, EVICTION_INTERVAL_MILLIS, EVICTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    if (statsCollector != null) {
+      statsCollector.start();
+    }
   }
 
   public void connectTo(String peerId) {
-    if (!clientInitialized) {
+    if (!clientInitialized || closed) {
       return;
     }
-    getConnectionTo(peerId).connect();
+    Connection connection = getConnectionTo(peerId, false);
+    if (connection != null) {
+      connection.connect();
+    }
+  }
+
+  /**
+   * Calls a group of peers, a few at a time and paced as set in {@link RtcClientParams}, instead
+   * of all at once. The callback gets the result of every peer once all connected or failed.
+   */
+  public void connectTo(Collection<String> peerIds, final BatchConnectResult.Callback callback) {
+    final BatchConnector[] holder = new BatchConnector[1];
+    BatchConnector batch = new BatchConnector(
+        peerIds,
+        batchStarter,
+        scheduler,
+        rtcClientParams.getBatchConnectConcurrency(),
+        rtcClientParams.getBatchConnectIntervalMillis(),
+        rtcClientParams.getBatchConnectTimeoutMillis(),
+        new BatchConnectResult.Callback() {
+          @Override
+          public void onBatchConnectCompleted(BatchConnectResult result) {
+            batchConnectors.remove(holder[0]);
+            Log.i(TAG, "Batch connect done, " + result);
+            callback.onBatchConnectCompleted(result);
+          }
+        });
+    holder[0] = batch;
+    if (!clientInitialized || closed) {
+      batch.cancel("Client is not ready.");
+      batch.start();
+      return;
+    }
+    batchConnectors.add(batch);
+    batch.start();
   }
 
   public void disconnectFrom(String peerId) {
-    if (!clientInitialized) {
+    if (!clientInitialized || closed) {
       return;
     }
-    getConnectionTo(peerId).disconnect();
+    Connection connection = connections.get(peerId);
+    if (connection != null) {
+      connection.disconnect();
+    }
   }
 
-  public void close() {
+  /**
+   * Sends another stream to every peer, e.g. the screen instead of the camera, and to peers
+   * connected later. Live connections are renegotiated in place, which takes one offer and answer
+   * instead of a reconnect.
+   */
+  public void setLocalMediaStream(MediaStream mediaStream) {
+    localMediaStream = mediaStream;
+    if (peerConnectionPool != null) {
+      peerConnectionPool.setLocalMediaStream(mediaStream);
+    }
     for (Connection connection : connections.values()) {
-      connection.disconnect();
+      connection.setLocalMediaStream(mediaStream);
+    }
+  }
+
+  /**
+   * Disconnects from every peer and releases the client. Waits a short while for the
+   * connections to send their disconnect signals.
+   */
+  public void close() {
+    closed = true;
+    stunTurnServerProvider.cancelFetch();
+    for (BatchConnector batch : batchConnectors) {
+      batch.cancel("Client closed.");
+    }
+    synchronized (lock) {
+      // Closing is not dying, no more client events are reported.
+      clientDied = true;
+      if (readyTimeout != null) {
+        readyTimeout.cancel(false);
+        readyTimeout = null;
+      }
+    }
+    if (statsCollector != null) {
+      statsCollector.stop();
     }
-    connections.clear();
     signalingService.stopListening(userId);
+    List<Connection> closing = connections.values();
+    connections.clear();
+    for (Connection connection : closing) {
+      connection.disconnect();
+    }
+    long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+    try {
+      for (Connection connection : closing) {
+        if (!connection.awaitIdle(Math.max(0, deadline - System.currentTimeMillis()))) {
+          Log.w(TAG, "Timed out waiting for connections to disconnect.");
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (peerConnectionPool != null) {
+      peerConnectionPool.close();
+    }
+    peerConnectionFactoryPool.close();
+    connectionExecutor.shutdown();
+    scheduler.shutdown();
+  }
+
+  /** Number of peers with a connection, in any status but disconnected. */
+  public int getConnectionCount() {
+    return connections.size();
   }
 
+  public ConnectionMetrics getConnectionMetrics() {
+    return connectionMetrics;
+  }
+
+  /** Number of listener events dropped because a later event of the peer superseded them. */
+  public long getEventsCoalesced() {
+    return rtcEventListener.getEventsCoalesced();
+  }
+
+  /**
+   * Rolling stats of the connection to the peer, null if it is not sampled yet or the stats are
+   * turned off.
+   */
+  @Nullable
+  public ConnectionStats getConnectionStats(String peerId) {
+    return statsCollector == null ? null : statsCollector.getStats(peerId);
+  }
+
+  /** Timing of the startup phases, complete once the client is ready. */
+  public StartupTrace getStartupTrace() {
+    return startupTrace;
+  }
+
+  /** Subscribes to the signaling service and fetches the ice servers at the same time. */
   private void initializeClient() {
+    long readyTimeoutMillis = rtcClientParams.getReadyTimeoutMillis();
+    if (readyTimeoutMillis > 0) {
+      synchronized (lock) {
+        readyTimeout = scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            die(new RtcException("Client not ready in time: " + startupTrace));
+          }
+        }, readyTimeoutMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    // Started on its own thread, so a provider which blocks delays neither subscribing nor the
+    // timer work of the scheduler, e.g. the ready timeout meant to catch it.
+    Thread fetchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        stunTurnServerProvider.fetchServers(RtcClient.this);
+      }
+    }, "RtcServerFetch");
+    fetchThread.setDaemon(true);
+    fetchThread.start();
     try {
       signalingService.listenOn(userId, this);
-      stunTurnServerProvider.fetchServers(this);
     } catch (SignalingException e) {
-      rtcEventListener.onClientDied(new RtcException(e));
+      die(new RtcException(e));
     }
   }
 
+  /** Reports ready once, after both startup phases completed, from whichever completes last. */
   private void checkInitStatus() {
-    if (!clientInitialized && signalingServiceInitialized && stunTurnServerProviderInitialized) {
+    synchronized (lock) {
+      if (clientInitialized || clientDied
+          || !signalingServiceInitialized || !stunTurnServerProviderInitialized) {
+        return;
+      }
       clientInitialized = true;
-      rtcEventListener.onClientReady();
+      if (readyTimeout != null) {
+        readyTimeout.cancel(false);
+        readyTimeout = null;
+      }
     }
+    startupTrace.markReady();
+    Log.i(TAG, "Client ready, " + startupTrace);
+    rtcEventListener.onClientReady();
   }
 
-  private void dispatchSignal(JSONObject signal) {
-    if (!clientInitialized) {
+  /** Reports the client died, only once. */
+  private void die(RtcException e) {
+    synchronized (lock) {
+      if (clientDied) return;
+      clientDied = true;
+      if (readyTimeout != null) {
+        readyTimeout.cancel(false);
+        readyTimeout = null;
+      }
+    }
+    rtcEventListener.onClientDied(e);
+  }
+
+  private void dispatchSignal(JSONObject message) {
+    if (!clientInitialized || closed) {
       return;
     }
 
+    Signal signal;
     try {
-      String senderId = signal.getString(SignalMessages.SENDER);
-      getConnectionTo(senderId).handleIncomingSignal(signal);
-    } catch (JSONException e) {
-      Log.w(TAG, "Failed parsing signal: " + signal);
+      signal = rtcClientParams.getConnectionParams().getSignalCodec().decode(message);
+    } catch (SignalingException e) {
+      Log.w(TAG, "Failed parsing signal: " + message, e);
+      return;
+    }
+
+    Connection connection;
+    switch (signal.getType()) {
+      case SignalMessages.TYPE_OFFER:
+      case SignalMessages.TYPE_ICE_CANDIDATE:
+      case SignalMessages.TYPE_ICE_CANDIDATES:
+        // Candidates may overtake the offer, they are kept until it arrives.
+        connection = getConnectionTo(signal.getSender(), true);
+        break;
+      default:
+        // Answers, disconnects and renegotiate requests only make sense for an existing
+        // connection.
+        connection = connections.get(signal.getSender());
+    }
+    if (connection != null) {
+      connection.handleIncomingSignal(signal);
+    } else if (signal.getType().equals(SignalMessages.TYPE_OFFER)) {
+      rejectOffer(signal.getSender());
+    }
+  }
+
+  /**
+   * Returns the connection to the peer, creating it if the peer is admitted and there is room.
+   * Returns null if the peer is refused.
+   */
+  @Nullable
+  private Connection getConnectionTo(String peerId, boolean incoming) {
+    Connection connection = connections.get(peerId);
+    if (connection != null) {
+      return connection;
+    }
+    AdmissionController admissionController = rtcClientParams.getAdmissionController();
+    if (admissionController != null
+        && !admissionController.admit(peerId, incoming, connections.size())) {
+      Log.w(TAG, "Connection to " + peerId + " not admitted.");
+      connectionMetrics.recordConnectionRejected();
+      return null;
+    }
+    connection = connections.getOrCreate(peerId, connectionFactory);
+    if (connection == null) {
+      // Full, make room from connections which are stuck before refusing.
+      evictStaleConnections();
+      connection = connections.getOrCreate(peerId, connectionFactory);
     }
+    if (connection == null) {
+      Log.w(TAG, "Too many connections, refusing " + peerId);
+      connectionMetrics.recordConnectionRejected();
+    }
+    return connection;
   }
 
-  private Connection getConnectionTo(String peerId) {
+  private void startBatchPeer(String peerId, BatchConnector batch) {
+    if (closed) {
+      batch.onFailed(peerId, "Client closed.");
+      return;
+    }
+    Connection connection = getConnectionTo(peerId, false);
+    if (connection == null) {
+      batch.onFailed(peerId, "Refused.");
+    } else if (connection.isEstablished()) {
+      batch.onConnected(peerId);
+    } else if (connection.getStatus() == Connection.Status.NEW) {
+      connection.connect();
+    }
+    // Otherwise already calling or being called by the peer, its events finish it.
+  }
+
+  /** Tells a refused caller to stop waiting for an answer. */
+  private void rejectOffer(String peerId) {
     try {
-      if (!connections.containsKey(peerId)) {
-        connections.put(peerId, new Connection(
-            userId,
-            peerId,
-            localMediaStream,
-            signalingService,
-            new ConnectionParams(stunTurnServerProvider.getServers()),
-            this));
+      signalSender.send(peerId, SignalMessages.createDisconnectMessage(
+          rtcClientParams.getConnectionParams().getSignalCodec(), userId));
+    } catch (SignalingException e) {
+      Log.w(TAG, "Failed to send disconnect signal.", e);
+    }
+  }
+
+  /** Evicts connections which are setting up and idle, or setting up for too long. */
+  private void evictStaleConnections() {
+    long idleTimeoutMillis = rtcClientParams.getIdleTimeoutMillis();
+    long setupTimeoutMillis = rtcClientParams.getSetupTimeoutMillis();
+    long now = SystemClock.elapsedRealtime();
+    for (Connection connection : connections.values()) {
+      if (connection.isEstablished()) continue;
+      boolean idle = idleTimeoutMillis > 0
+          && now - connection.getLastActivityMillis() > idleTimeoutMillis;
+      boolean stuck = setupTimeoutMillis > 0
+          && now - connection.getCreatedMillis() > setupTimeoutMillis;
+      // Unregistered right away, so its room is free before it is torn down on its lane.
+      if ((idle || stuck) && connections.remove(connection.getPeerId(), connection)) {
+        connection.evict();
       }
-      return connections.get(peerId);
+    }
+  }
+
+  private StatsCollector createStatsCollector() {
+    StatsCollector.Target target = new StatsCollector.Target() {
+      @Override
+      public List<String> getPeerIds() {
+        List<String> peerIds = new ArrayList<>();
+        for (Connection connection : connections.values()) {
+          if (connection.isEstablished()) {
+            peerIds.add(connection.getPeerId());
+          }
+        }
+        return peerIds;
+      }
+
+      @Override
+      public boolean requestStats(String peerId, StatsObserver observer) {
+        Connection connection = connections.get(peerId);
+        if (connection == null) return false;
+        connection.requestStats(observer);
+        return true;
+      }
+    };
+    final StatsListener statsListener = rtcClientParams.getStatsListener();
+    final Executor eventExecutor = rtcClientParams.getEventExecutor();
+    StatsListener listener = new StatsListener() {
+      @Override
+      public void onStatsUpdated(final ConnectionStats stats) {
+        if (adaptiveBitrateController != null) {
+          adaptiveBitrateController.onStatsUpdated(stats);
+        }
+        if (statsListener == null) return;
+        if (eventExecutor == null) {
+          statsListener.onStatsUpdated(stats);
+          return;
+        }
+        eventExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            statsListener.onStatsUpdated(stats);
+          }
+        });
+      }
+    };
+    return new StatsCollector(
+        target,
+        scheduler,
+        rtcClientParams.getStatsIntervalMillis(),
+        rtcClientParams.getStatsWindowSize(),
+        rtcClientParams.getMaxStatsRequestsPerTick(),
+        listener);
+  }
+
+  private AdaptiveBitrateController createAdaptiveBitrateController() {
+    final CaptureFormatListener captureFormatListener =
+        rtcClientParams.getCaptureFormatListener();
+    final Executor eventExecutor = rtcClientParams.getEventExecutor();
+    return new AdaptiveBitrateController(
+        rtcClientParams.getAdaptiveBitrateParams(),
+        new AdaptiveBitrateController.Callback() {
+          @Override
+          public void onMaxBitrateChanged(String peerId, int maxBitrateKbps) {
+            Connection connection = connections.get(peerId);
+            if (connection != null) {
+              connection.setMaxSendBitrate(maxBitrateKbps);
+            }
+          }
+
+          @Override
+          public void onCaptureFormatChanged(final QualityLevel level) {
+            if (captureFormatListener == null) return;
+            if (eventExecutor == null) {
+              captureFormatListener.onCaptureFormatChanged(level);
+              return;
+            }
+            eventExecutor.execute(new Runnable() {
+              @Override
+              public void run() {
+                captureFormatListener.onCaptureFormatChanged(level);
+              }
+            });
+          }
+        });
+  }
+
+  private Connection createConnection(String peerId, Executor lane) {
+    try {
+      return new Connection(
+          userId,
+          peerId,
+          localMediaStream,
+          signalSender,
+          rtcClientParams.getConnectionParams().toBuilder()
+              .setIceServers(stunTurnServerProvider.getServers())
+              .build(),
+          this,
+          peerConnectionFactoryPool,
+          peerConnectionPool,
+          scheduler,
+          lane,
+          connectionMetrics);
     } catch (NetworkException e) {
       throw new IllegalStateException("Should have initialized, unexpected network exception..", e);
     }
@@ -131,13 +614,16 @@ public class RtcClient implements
   // SignalingService.SignalHandler
   @Override
   public void onConnected(String userId) {
-    signalingServiceInitialized = true;
+    startupTrace.markSubscribed();
+    synchronized (lock) {
+      signalingServiceInitialized = true;
+    }
     checkInitStatus();
   }
 
   @Override
   public void onDisconnected(String userId) {
-    rtcEventListener.onClientDied(new RtcException("SignalingService disconnected."));
+    die(new RtcException("SignalingService disconnected."));
   }
 
   @Override
@@ -149,13 +635,23 @@ public class RtcClient implements
   // StunTurnServerProvider.Callback
   @Override
   public void onServersFetched() {
-    stunTurnServerProviderInitialized = true;
+    startupTrace.markIceServersFetched();
+    synchronized (lock) {
+      stunTurnServerProviderInitialized = true;
+    }
     checkInitStatus();
+    if (peerConnectionPool != null && !closed) {
+      try {
+        peerConnectionPool.warmUp(stunTurnServerProvider.getServers());
+      } catch (NetworkException e) {
+        Log.w(TAG, "Failed warming up peer connections.", e);
+      }
+    }
   }
 
   @Override
   public void onServerFetchFails(NetworkException e) {
-    rtcEventListener.onClientDied(new RtcException("Failed fetching STUN TURN servers.", e));
+    die(new RtcException("Failed fetching STUN TURN servers.", e));
   }
   // StunTurnServerProvider.Callback Ends
 
@@ -163,12 +659,41 @@ public class RtcClient implements
   @Override
   public void onConnectionStateChanged(
       String peerId, Connection.Status oldStatus, Connection.Status newStatus) {
+    if (newStatus.equals(Connection.Status.CALLING_WAITING_ANSWER)
+        || newStatus.equals(Connection.Status.ANSWERED)) {
+      for (BatchConnector batch : batchConnectors) {
+        batch.onSessionDescriptionSent(peerId);
+      }
+    }
     if (newStatus.equals(Connection.Status.ANSWER_RECEIVED)
         || newStatus.equals(Connection.Status.ANSWERED)) {
-      rtcEventListener.onConnected(peerId);
+      // After a renegotiation the listener knows the connection already.
+      if (!oldStatus.equals(Connection.Status.RESTARTING_ICE)
+          && !oldStatus.equals(Connection.Status.RENEGOTIATING)) {
+        rtcEventListener.onConnected(peerId);
+      }
     } else if (newStatus.equals(Connection.Status.DISCONNECTED)) {
+      for (BatchConnector batch : batchConnectors) {
+        batch.onFailed(peerId, "Disconnected in status " + oldStatus + ".");
+      }
       rtcEventListener.onDisconnected(peerId);
-      connections.remove(peerId);
+      if (statsCollector != null) {
+        statsCollector.removePeer(peerId);
+      }
+      if (adaptiveBitrateController != null) {
+        adaptiveBitrateController.removePeer(peerId);
+      }
+      Connection connection = connections.get(peerId);
+      if (connection != null && connection.getStatus() == Connection.Status.DISCONNECTED) {
+        connections.remove(peerId, connection);
+      }
+    }
+  }
+
+  @Override
+  public void onConnectionEstablished(String peerId) {
+    for (BatchConnector batch : batchConnectors) {
+      batch.onConnected(peerId);
     }
   }
 
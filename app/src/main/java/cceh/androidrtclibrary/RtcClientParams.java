@@ -0,0 +1,330 @@
+package cceh.androidrtclibrary;
+
+import android.support.annotation.Nullable;
+
+import org.webrtc.PeerConnection;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+
+import cceh.androidrtclibrary.connection.ConnectionParams;
+import cceh.androidrtclibrary.stats.AdaptiveBitrateParams;
+import cceh.androidrtclibrary.stats.CaptureFormatListener;
+import cceh.androidrtclibrary.stats.StatsListener;
+
+/**
+ * Params of a {@link RtcClient}.
+ */
+public class RtcClientParams {
+  public static final int DEFAULT_MAX_CONNECTIONS = 16;
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 15000;
+  public static final long DEFAULT_SETUP_TIMEOUT_MILLIS = 60000;
+  public static final int DEFAULT_BATCH_CONNECT_CONCURRENCY = 3;
+  public static final long DEFAULT_BATCH_CONNECT_INTERVAL_MILLIS = 100;
+  public static final long DEFAULT_BATCH_CONNECT_TIMEOUT_MILLIS = 30000;
+  public static final long DEFAULT_STATS_INTERVAL_MILLIS = 2000;
+  public static final int DEFAULT_STATS_WINDOW_SIZE = 15;
+  public static final int DEFAULT_MAX_STATS_REQUESTS_PER_TICK = 8;
+
+  private final ConnectionParams connectionParams;
+  private final long readyTimeoutMillis;
+  private final int peerConnectionPoolSize;
+  private final int maxConnections;
+  private final long idleTimeoutMillis;
+  private final long setupTimeoutMillis;
+  @Nullable private final AdmissionController admissionController;
+  private final int batchConnectConcurrency;
+  private final long batchConnectIntervalMillis;
+  private final long batchConnectTimeoutMillis;
+  @Nullable private final Executor eventExecutor;
+  private final long statsIntervalMillis;
+  private final int statsWindowSize;
+  private final int maxStatsRequestsPerTick;
+  @Nullable private final StatsListener statsListener;
+  @Nullable private final AdaptiveBitrateParams adaptiveBitrateParams;
+  @Nullable private final CaptureFormatListener captureFormatListener;
+
+  private RtcClientParams(Builder builder) {
+    this.connectionParams = builder.connectionParams;
+    this.readyTimeoutMillis = builder.readyTimeoutMillis;
+    this.peerConnectionPoolSize = builder.peerConnectionPoolSize;
+    this.maxConnections = builder.maxConnections;
+    this.idleTimeoutMillis = builder.idleTimeoutMillis;
+    this.setupTimeoutMillis = builder.setupTimeoutMillis;
+    this.admissionController = builder.admissionController;
+    this.batchConnectConcurrency = builder.batchConnectConcurrency;
+    this.batchConnectIntervalMillis = builder.batchConnectIntervalMillis;
+    this.batchConnectTimeoutMillis = builder.batchConnectTimeoutMillis;
+    this.eventExecutor = builder.eventExecutor;
+    this.statsIntervalMillis = builder.statsIntervalMillis;
+    this.statsWindowSize = builder.statsWindowSize;
+    this.maxStatsRequestsPerTick = builder.maxStatsRequestsPerTick;
+    this.statsListener = builder.statsListener;
+    this.adaptiveBitrateParams = builder.adaptiveBitrateParams;
+    this.captureFormatListener = builder.captureFormatListener;
+  }
+
+  /** Returns the params with all defaults. */
+  public static RtcClientParams defaults() {
+    return new Builder().build();
+  }
+
+  /**
+   * The params used for every {@link cceh.androidrtclibrary.connection.Connection}, the ice servers
+   * are replaced with the ones from the {@link cceh.androidrtclibrary.network.StunTurnServerProvider}.
+   */
+  public ConnectionParams getConnectionParams() {
+    return connectionParams;
+  }
+
+  /**
+   * Time after which a client which is not ready yet reports
+   * {@link RtcEventListener#onClientDied(Throwable)}, 0 to wait forever.
+   */
+  public long getReadyTimeoutMillis() {
+    return readyTimeoutMillis;
+  }
+
+  /**
+   * Number of peer connections kept created ahead of time, see
+   * {@link cceh.androidrtclibrary.connection.PeerConnectionPool}. 0, the default, turns the pool
+   * off.
+   */
+  public int getPeerConnectionPoolSize() {
+    return peerConnectionPoolSize;
+  }
+
+  /** Max number of connections at a time, further peers are refused. */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Time without signals or status changes after which a connection which is still setting up is
+   * evicted, 0 to never evict idle connections.
+   */
+  public long getIdleTimeoutMillis() {
+    return idleTimeoutMillis;
+  }
+
+  /**
+   * Time after which a connection which did not connect yet is evicted, even if it is not idle.
+   * 0 to never evict connections which are setting up.
+   */
+  public long getSetupTimeoutMillis() {
+    return setupTimeoutMillis;
+  }
+
+  /** Decides on connections to new peers, null to admit everyone up to the max. */
+  @Nullable
+  public AdmissionController getAdmissionController() {
+    return admissionController;
+  }
+
+  /** Max number of peers of a batch connect setting up their session at once. */
+  public int getBatchConnectConcurrency() {
+    return batchConnectConcurrency;
+  }
+
+  /** Min time between starting two peers of a batch connect, 0 to start them back to back. */
+  public long getBatchConnectIntervalMillis() {
+    return batchConnectIntervalMillis;
+  }
+
+  /** Time for a peer of a batch connect to connect before it is reported failed, 0 for none. */
+  public long getBatchConnectTimeoutMillis() {
+    return batchConnectTimeoutMillis;
+  }
+
+  /**
+   * Executor the {@link RtcEventListener} is called on, e.g. one posting to the main looper. Events
+   * of a peer superseded while waiting for delivery are dropped. Null, the default, calls the
+   * listener right away on the thread the event happened on.
+   */
+  @Nullable
+  public Executor getEventExecutor() {
+    return eventExecutor;
+  }
+
+  /**
+   * Time between two polls of the connection stats, see
+   * {@link cceh.androidrtclibrary.stats.StatsCollector}. 0 turns the stats off.
+   */
+  public long getStatsIntervalMillis() {
+    return statsIntervalMillis;
+  }
+
+  /** Number of samples the stats of a connection are aggregated over. */
+  public int getStatsWindowSize() {
+    return statsWindowSize;
+  }
+
+  /**
+   * Max number of connections sampled by one poll, the others wait for the next polls. Bounds the
+   * cost of the stats with many peers.
+   */
+  public int getMaxStatsRequestsPerTick() {
+    return maxStatsRequestsPerTick;
+  }
+
+  /**
+   * Listener of the connection stats, called on the event executor if there is one. Null, the
+   * default, still collects the stats for {@link RtcClient#getConnectionStats(String)}.
+   */
+  @Nullable
+  public StatsListener getStatsListener() {
+    return statsListener;
+  }
+
+  /**
+   * Adapts the bitrate sent to every peer to its connection stats, see
+   * {@link cceh.androidrtclibrary.stats.AdaptiveBitrateController}. Null, the default, sends
+   * without a cap. Needs the stats on.
+   */
+  @Nullable
+  public AdaptiveBitrateParams getAdaptiveBitrateParams() {
+    return adaptiveBitrateParams;
+  }
+
+  /**
+   * Listener of the capture format of the adaptive bitrate, called on the event executor if there
+   * is one. Null keeps the capture as it is.
+   */
+  @Nullable
+  public CaptureFormatListener getCaptureFormatListener() {
+    return captureFormatListener;
+  }
+
+  /** Builder of {@link RtcClientParams}, for overriding the defaults. */
+  public static class Builder {
+    private ConnectionParams connectionParams;
+    private long readyTimeoutMillis;
+    private int peerConnectionPoolSize;
+    private int maxConnections;
+    private long idleTimeoutMillis;
+    private long setupTimeoutMillis;
+    @Nullable private AdmissionController admissionController;
+    private int batchConnectConcurrency;
+    private long batchConnectIntervalMillis;
+    private long batchConnectTimeoutMillis;
+    @Nullable private Executor eventExecutor;
+    private long statsIntervalMillis;
+    private int statsWindowSize;
+    private int maxStatsRequestsPerTick;
+    @Nullable private StatsListener statsListener;
+    @Nullable private AdaptiveBitrateParams adaptiveBitrateParams;
+    @Nullable private CaptureFormatListener captureFormatListener;
+
+    public Builder() {
+      this.connectionParams = new ConnectionParams(
+          Collections.<PeerConnection.IceServer>emptyList());
+      this.readyTimeoutMillis = 0;
+      this.peerConnectionPoolSize = 0;
+      this.maxConnections = DEFAULT_MAX_CONNECTIONS;
+      this.idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+      this.setupTimeoutMillis = DEFAULT_SETUP_TIMEOUT_MILLIS;
+      this.admissionController = null;
+      this.batchConnectConcurrency = DEFAULT_BATCH_CONNECT_CONCURRENCY;
+      this.batchConnectIntervalMillis = DEFAULT_BATCH_CONNECT_INTERVAL_MILLIS;
+      this.batchConnectTimeoutMillis = DEFAULT_BATCH_CONNECT_TIMEOUT_MILLIS;
+      this.eventExecutor = null;
+      this.statsIntervalMillis = DEFAULT_STATS_INTERVAL_MILLIS;
+      this.statsWindowSize = DEFAULT_STATS_WINDOW_SIZE;
+      this.maxStatsRequestsPerTick = DEFAULT_MAX_STATS_REQUESTS_PER_TICK;
+      this.statsListener = null;
+      this.adaptiveBitrateParams = null;
+      this.captureFormatListener = null;
+    }
+
+    public Builder setConnectionParams(ConnectionParams connectionParams) {
+      this.connectionParams = connectionParams;
+      return this;
+    }
+
+    public Builder setReadyTimeoutMillis(long readyTimeoutMillis) {
+      this.readyTimeoutMillis = readyTimeoutMillis;
+      return this;
+    }
+
+    public Builder setPeerConnectionPoolSize(int peerConnectionPoolSize) {
+      this.peerConnectionPoolSize = peerConnectionPoolSize;
+      return this;
+    }
+
+    public Builder setMaxConnections(int maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      return this;
+    }
+
+    public Builder setSetupTimeoutMillis(long setupTimeoutMillis) {
+      this.setupTimeoutMillis = setupTimeoutMillis;
+      return this;
+    }
+
+    public Builder setAdmissionController(@Nullable AdmissionController admissionController) {
+      this.admissionController = admissionController;
+      return this;
+    }
+
+    public Builder setBatchConnectConcurrency(int batchConnectConcurrency) {
+      this.batchConnectConcurrency = batchConnectConcurrency;
+      return this;
+    }
+
+    public Builder setBatchConnectIntervalMillis(long batchConnectIntervalMillis) {
+      this.batchConnectIntervalMillis = batchConnectIntervalMillis;
+      return this;
+    }
+
+    public Builder setBatchConnectTimeoutMillis(long batchConnectTimeoutMillis) {
+      this.batchConnectTimeoutMillis = batchConnectTimeoutMillis;
+      return this;
+    }
+
+    public Builder setEventExecutor(@Nullable Executor eventExecutor) {
+      this.eventExecutor = eventExecutor;
+      return this;
+    }
+
+    public Builder setStatsIntervalMillis(long statsIntervalMillis) {
+      this.statsIntervalMillis = statsIntervalMillis;
+      return this;
+    }
+
+    public Builder setStatsWindowSize(int statsWindowSize) {
+      this.statsWindowSize = statsWindowSize;
+      return this;
+    }
+
+    public Builder setMaxStatsRequestsPerTick(int maxStatsRequestsPerTick) {
+      this.maxStatsRequestsPerTick = maxStatsRequestsPerTick;
+      return this;
+    }
+
+    public Builder setStatsListener(@Nullable StatsListener statsListener) {
+      this.statsListener = statsListener;
+      return this;
+    }
+
+    public Builder setAdaptiveBitrateParams(
+        @Nullable AdaptiveBitrateParams adaptiveBitrateParams) {
+      this.adaptiveBitrateParams = adaptiveBitrateParams;
+      return this;
+    }
+
+    public Builder setCaptureFormatListener(
+        @Nullable CaptureFormatListener captureFormatListener) {
+      this.captureFormatListener = captureFormatListener;
+      return this;
+    }
+
+    public RtcClientParams build() {
+      return new RtcClientParams(this);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package cceh.androidrtclibrary;
+
+/**
+ * Timing of the startup of a {@link RtcClient}, from its construction until
+ * {@link RtcEventListener#onClientReady()}. Durations are -1 until the phase completed.
+ */
+public class StartupTrace {
+  private final long startedAtNanos;
+  private volatile long subscribedAtNanos;
+  private volatile long iceServersFetchedAtNanos;
+  private volatile long readyAtNanos;
+
+  StartupTrace() {
+    this.startedAtNanos = System.nanoTime();
+    this.subscribedAtNanos = -1;
+    this.iceServersFetchedAtNanos = -1;
+    this.readyAtNanos = -1;
+  }
+
+  void markSubscribed() {
+    if (subscribedAtNanos < 0) subscribedAtNanos = System.nanoTime();
+  }
+
+  void markIceServersFetched() {
+    if (iceServersFetchedAtNanos < 0) iceServersFetchedAtNanos = System.nanoTime();
+  }
+
+  void markReady() {
+    if (readyAtNanos < 0) readyAtNanos = System.nanoTime();
+  }
+
+  /** Time until listening on the signaling service succeeded. */
+  public long getSubscribeMillis() {
+    return millisSinceStart(subscribedAtNanos);
+  }
+
+  /** Time until the STUN and TURN servers were fetched. */
+  public long getIceFetchMillis() {
+    return millisSinceStart(iceServersFetchedAtNanos);
+  }
+
+  /** Time until the client was ready, the longer of the two phases plus any overhead. */
+  public long getReadyMillis() {
+    return millisSinceStart(readyAtNanos);
+  }
+
+  public boolean isReady() {
+    return readyAtNanos >= 0;
+  }
+
+  private long millisSinceStart(long atNanos) {
+    return atNanos < 0 ? -1 : (atNanos - startedAtNanos) / 1000000;
+  }
+
+  @Override
+  public String toString() {
+    return "StartupTrace{subscribe=" + getSubscribeMillis()
+        + "ms, iceFetch=" + getIceFetchMillis()
+        + "ms, ready=" + getReadyMillis() + "ms}";
+  }
+}
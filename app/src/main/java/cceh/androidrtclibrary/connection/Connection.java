@@ -1,29 +1,59 @@
 package cceh.androidrtclibrary.connection;
 
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.DataChannel;
 import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
 import org.webrtc.MediaStream;
 import org.webrtc.PeerConnection;
-import org.webrtc.PeerConnectionFactory;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
-
+import org.webrtc.StatsObserver;
+import org.webrtc.StatsReport;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import cceh.androidrtclibrary.sdp.MediaSection;
+import cceh.androidrtclibrary.sdp.SdpTransformers;
+import cceh.androidrtclibrary.signaling.Signal;
 import cceh.androidrtclibrary.signaling.SignalMessages;
+import cceh.androidrtclibrary.signaling.SignalSender;
 import cceh.androidrtclibrary.signaling.SignalingException;
 import cceh.androidrtclibrary.signaling.SignalingService;
 
 /**
  * Maintains information of the {@link org.webrtc.PeerConnection} to another peer.
  *
+ * A connection is an actor on its own serial lane: the public methods and all WebRTC callbacks
+ * only enqueue work on the lane, so its state is touched by one thread at a time and events of
+ * the peer are handled in the order they came in. The {@link ConnectionHandler} is called on the
+ * lane.
+ *
+ * Changes to the local stream are renegotiated on the live peer connection: the caller sends a new
+ * offer, the callee asks the caller for one. One offer and answer is in flight at a time, later
+ * changes wait for it and are sent together.
+ *
+ * An established connection which loses ice is given a grace period to come back by itself, then
+ * the caller restarts ice over the same peer connection. It is only torn down when ice fails, or
+ * does not come back within {@link ConnectionParams#getIceRestartTimeoutMillis()}.
+ *
+ * When both peers call each other at once, the offers are resolved by {@link GlareResolver}.
+ *
  * Created by Charlie Chen (ccehshmily@gmail.com) on 4/6/17.
  */
-public class Connection implements
-    PeerConnection.Observer,
-    SdpObserver {
+public class Connection implements IceCandidateCoalescer.FlushHandler {
 
   /** Handler which processes status changes on a {@link Connection}. */
   public interface ConnectionHandler {
@@ -36,6 +66,9 @@ public class Connection implements
 
     /** Called when connection status to the peer changes. */
     void onConnectionStateChanged(String peerId, Status oldStatus, Status newStatus);
+
+    /** Called when ice connected for the first time, media can flow from now on. */
+    void onConnectionEstablished(String peerId);
   }
 
   /** The status of a {@link Connection}. */
@@ -51,145 +84,447 @@ public class Connection implements
 
     // Receiver status
     RECEIVED_WAITING_ANSWER,
-    ANSWERED
+    ANSWERED,
+
+    // Renegotiation status, on the live peer connection
+    RESTARTING_ICE, // Caller only
+    RENEGOTIATING
   }
 
   private static final String TAG = "Connection";
 
   private final String userId;
   private final String peerId;
-  private final MediaStream localMediaStream;
-  private final SignalingService signalingService;
+  private final SignalSender signalSender;
   private final ConnectionParams connectionParams;
   private final ConnectionHandler connectionHandler;
-  private final PeerConnection peerConnection;
-
-  private Status status;
+  private final PeerConnectionFactoryPool peerConnectionFactoryPool;
+  @Nullable private final PeerConnectionPool peerConnectionPool;
+  private final ConnectionMetrics connectionMetrics;
+  private final Executor lane;
+  private final ScheduledExecutorService scheduler;
+  private final boolean polite;
+  private final IceCandidateCoalescer iceCandidateCoalescer;
+  private final Queue<IceCandidate> pendingRemoteIceCandidates;
+  private final long createdMillis;
+
+  // Confined to the lane, status is also read from other threads.
+  private PeerConnection peerConnection;
+  private MediaStream localMediaStream;
+  private PeerConnectionEvents peerConnectionEvents;
+  private volatile Status status;
+  private volatile long lastActivityMillis;
+  private long setupStartedMillis;
+  private volatile boolean established;
+  private boolean caller;
+  private boolean iceLost;
+  private int iceLossGeneration;
+  private boolean awaitingRenegotiationAnswer;
+  private boolean renegotiationPending;
+  private boolean iceRestartPending;
+  private int maxSendBitrateKbps;
+  @Nullable private ScheduledFuture<?> iceRestartTimer;
+  @Nullable private ScheduledFuture<?> iceTeardownTimer;
 
   public Connection(
       String userId,
       String peerId,
       MediaStream localMediaStream,
-      SignalingService signalingService,
+      SignalSender signalSender,
       ConnectionParams connectionParams,
-      ConnectionHandler connectionHandler) {
+      ConnectionHandler connectionHandler,
+      PeerConnectionFactoryPool peerConnectionFactoryPool,
+      @Nullable PeerConnectionPool peerConnectionPool,
+      ScheduledExecutorService scheduler,
+      Executor lane,
+      ConnectionMetrics connectionMetrics) {
     this.userId = userId;
     this.peerId = peerId;
     this.localMediaStream = localMediaStream;
-    this.signalingService = signalingService;
+    this.signalSender = signalSender;
     this.connectionParams = connectionParams;
     this.connectionHandler = connectionHandler;
-    this.status = Status.NEW;
-
-    this.peerConnection = new PeerConnectionFactory().createPeerConnection(
-        this.connectionParams.getIceServers(),
-        this.connectionParams.getConnectionConstraints(),
+    this.peerConnectionFactoryPool = peerConnectionFactoryPool;
+    this.peerConnectionPool = peerConnectionPool;
+    this.connectionMetrics = connectionMetrics;
+    this.lane = lane;
+    this.scheduler = scheduler;
+    this.polite = GlareResolver.isPolite(userId, peerId);
+    this.iceCandidateCoalescer = new IceCandidateCoalescer(
+        scheduler,
+        connectionParams.getIceCandidateBatchWindowMillis(),
+        connectionParams.getIceCandidateBatchMaxSize(),
         this);
-    this.peerConnection.addStream(this.localMediaStream);
+    this.pendingRemoteIceCandidates = new ArrayDeque<>();
+    this.createdMillis = SystemClock.elapsedRealtime();
+    this.status = Status.NEW;
+    this.lastActivityMillis = createdMillis;
+    this.setupStartedMillis = 0;
+    this.established = false;
+    this.caller = false;
+    this.iceLost = false;
+    this.iceLossGeneration = 0;
+    this.awaitingRenegotiationAnswer = false;
+    this.renegotiationPending = false;
+    this.iceRestartPending = false;
+    this.maxSendBitrateKbps = 0;
+    this.iceRestartTimer = null;
+    this.iceTeardownTimer = null;
+
+    // The native peer connection is created on the lane, off the caller's thread.
+    this.peerConnection = null;
+    this.peerConnectionEvents = null;
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        createPeerConnection();
+      }
+    });
   }
 
   public void connect() {
-    offerToConnect();
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        offerToConnect();
+      }
+    });
   }
 
   public void disconnect() {
-    destroyConnection();
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        sendDisconnect();
+      }
+    });
+  }
 
-    try {
-      signalingService.sendSignal(peerId, SignalMessages.createDisconnectMessage(userId));
-    } catch (SignalingException e) {
-      Log.w(TAG, "Failed to send disconnect signal.", e);
-    }
+  /**
+   * Sends another stream to the peer, e.g. the screen instead of the camera. The peer connection
+   * is kept, only a new offer and answer are exchanged.
+   */
+  public void setLocalMediaStream(final MediaStream mediaStream) {
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (disconnected() || mediaStream == localMediaStream) return;
+        peerConnection.removeStream(localMediaStream);
+        peerConnection.addStream(mediaStream);
+        localMediaStream = mediaStream;
+        handleRenegotiationNeeded();
+      }
+    });
+  }
+
+  /**
+   * Caps the bitrate of the video sent to the peer, 0 for no cap. A live connection is
+   * renegotiated to apply it.
+   */
+  public void setMaxSendBitrate(final int maxBitrateKbps) {
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (disconnected() || maxBitrateKbps == maxSendBitrateKbps) return;
+        maxSendBitrateKbps = maxBitrateKbps;
+        // Otherwise the remote description still to come carries it.
+        if (established) {
+          renegotiate(false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Requests the stats of the peer connection, the observer gets them on a WebRTC thread. A
+   * disconnected connection completes the request with no reports.
+   */
+  public void requestStats(final StatsObserver observer) {
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (disconnected() || !peerConnection.getStats(observer, null)) {
+          observer.onComplete(new StatsReport[0]);
+        }
+      }
+    });
+  }
+
+  /**
+   * Disconnects because the client needs the resources, e.g. when the connection is stuck in
+   * setup. Counted in {@link ConnectionMetrics#getConnectionsEvicted()}.
+   */
+  public void evict() {
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (disconnected()) return;
+        Log.w(TAG, "Evicting connection to " + peerId + " in status " + status);
+        connectionMetrics.recordConnectionEvicted();
+        sendDisconnect();
+      }
+    });
+  }
+
+  public String getPeerId() {
+    return peerId;
   }
 
   public Status getStatus() {
     return status;
   }
 
-  public void handleIncomingSignal(JSONObject signal) {
-    try {
-      String signalType = signal.getString(SignalMessages.SIGNAL_TYPE);
-      switch (signalType) {
-        case SignalMessages.TYPE_OFFER:
-          handleOffer(signal.getJSONObject(SignalMessages.SIGNAL_CONTENT));
-          break;
-        case SignalMessages.TYPE_ANSWER:
-          handleAnswer(signal.getJSONObject(SignalMessages.SIGNAL_CONTENT));
-          break;
-        case SignalMessages.TYPE_ICE_CANDIDATE:
-          handleRemoteIceCandidate(signal.getJSONObject(SignalMessages.SIGNAL_CONTENT));
-          break;
-        case SignalMessages.TYPE_DISCONNECT:
-          handleDisconnectMessage();
-          break;
-        default:
-          Log.w(TAG, "Unhandled signal type received: " + signalType);
+  /** Whether ice ever connected, a connection which did not is still setting up. */
+  public boolean isEstablished() {
+    return established;
+  }
+
+  /** {@link SystemClock#elapsedRealtime()} when the connection was created. */
+  public long getCreatedMillis() {
+    return createdMillis;
+  }
+
+  /** {@link SystemClock#elapsedRealtime()} of the last signal or status change. */
+  public long getLastActivityMillis() {
+    return lastActivityMillis;
+  }
+
+  public void handleIncomingSignal(final Signal signal) {
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        processIncomingSignal(signal);
+      }
+    });
+  }
+
+  /**
+   * Waits until the work enqueued so far on the lane is done, e.g. a {@link #disconnect()}.
+   * Returns false on timeout.
+   */
+  public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+    final CountDownLatch idle = new CountDownLatch(1);
+    lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        idle.countDown();
+      }
+    });
+    return idle.await(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void createPeerConnection() {
+    if (disconnected()) return;
+    peerConnectionEvents = new PeerConnectionEvents();
+    if (peerConnectionPool != null) {
+      PeerConnectionPool.WarmPeerConnection warm =
+          peerConnectionPool.take(connectionParams.getIceServers());
+      if (warm != null) {
+        peerConnection = warm.attach(peerConnectionEvents);
+        if (warm.getMediaStream() != localMediaStream) {
+          // Made before the local stream was switched, nothing is negotiated yet.
+          peerConnection.removeStream(warm.getMediaStream());
+          peerConnection.addStream(localMediaStream);
+        }
+        connectionMetrics.recordPeerConnectionPoolHit(warm.getCreationMillis());
+        return;
       }
-    } catch (JSONException e) {
-      Log.w(TAG, "Error when handling incoming signal.", e);
+      connectionMetrics.recordPeerConnectionPoolMiss();
+    }
+    try {
+      peerConnection = peerConnectionFactoryPool.acquire().createPeerConnection(
+          connectionParams.getIceServers(),
+          connectionParams.getConnectionConstraints(),
+          peerConnectionEvents);
+    } catch (IllegalStateException e) {
+      // The client is closing.
+      Log.w(TAG, "Failed to create peer connection to " + peerId, e);
+      setStatus(Status.DISCONNECTED);
+      return;
+    }
+    peerConnection.addStream(localMediaStream);
+  }
+
+  private void sendDisconnect() {
+    destroyConnection();
+
+    try {
+      signalSender.send(peerId, SignalMessages.createDisconnectMessage(
+          connectionParams.getSignalCodec(), userId));
+    } catch (SignalingException e) {
+      Log.w(TAG, "Failed to send disconnect signal.", e);
+    }
+  }
+
+  private void processIncomingSignal(Signal signal) {
+    lastActivityMillis = SystemClock.elapsedRealtime();
+    switch (signal.getType()) {
+      case SignalMessages.TYPE_OFFER:
+        handleOffer(signal.getSessionDescription());
+        break;
+      case SignalMessages.TYPE_ANSWER:
+        handleAnswer(signal.getSessionDescription());
+        break;
+      case SignalMessages.TYPE_ICE_CANDIDATE:
+      case SignalMessages.TYPE_ICE_CANDIDATES:
+        handleRemoteIceCandidates(signal.getIceCandidates());
+        break;
+      case SignalMessages.TYPE_DISCONNECT:
+        handleDisconnectMessage();
+        break;
+      case SignalMessages.TYPE_RENEGOTIATE:
+        if (caller) {
+          renegotiate(false);
+        } else {
+          Log.w(TAG, "Renegotiation requested from the callee " + peerId);
+        }
+        break;
+      default:
+        Log.w(TAG, "Unhandled signal type received: " + signal.getType());
     }
   }
 
   private void offerToConnect() {
+    if (!status.equals(Status.NEW)) {
+      Log.w(TAG, "Connecting in unexpected status: " + status);
+      return;
+    }
+
+    setupStartedMillis = SystemClock.elapsedRealtime();
+    caller = true;
     setStatus(Status.STARTED_WAITING_CALL);
-    this.peerConnection.createOffer(this, connectionParams.getConnectionConstraints());
+    this.peerConnection.createOffer(
+        peerConnectionEvents, connectionParams.getConnectionConstraints());
   }
 
-  private void handleOffer(JSONObject offer) throws JSONException {
-    if (outgoingCalling() || disconnected()) {
-      Log.w(TAG, "Receiving offer in unexpected status: " + status);
-      return;
+  private void handleOffer(SessionDescription offer) {
+    switch (GlareResolver.onOffer(status, polite)) {
+      case ANSWER:
+        setupStartedMillis = SystemClock.elapsedRealtime();
+        setStatus(Status.RECEIVED_WAITING_ANSWER);
+        break;
+      case ROLLBACK_AND_ANSWER:
+        Log.i(TAG, "Offer collided with the one of " + peerId + ", answering theirs.");
+        rollbackLocalOffer();
+        if (disconnected()) return;
+        setStatus(Status.RECEIVED_WAITING_ANSWER);
+        break;
+      case ANSWER_RENEGOTIATION:
+        // The caller renegotiates over the live peer connection, maybe restarting ice.
+        setStatus(Status.RENEGOTIATING);
+        break;
+      default:
+        Log.w(TAG, "Ignoring offer in status: " + status);
+        return;
     }
 
-    setStatus(Status.RECEIVED_WAITING_ANSWER);
-    this.peerConnection.setRemoteDescription(this, extractSdp(offer));
-    this.peerConnection.createAnswer(this, connectionParams.getConnectionConstraints());
+    setRemoteDescription(offer);
+    this.peerConnection.createAnswer(
+        peerConnectionEvents, connectionParams.getConnectionConstraints());
   }
 
-  private void handleAnswer(JSONObject answer) throws JSONException {
+  /**
+   * Drops the local offer by replacing the peer connection, this libjingle can not roll back a
+   * local description. Remote candidates held for the peer's offer are kept.
+   */
+  private void rollbackLocalOffer() {
+    caller = false;
+    iceCandidateCoalescer.clear();
+    disposePeerConnection();
+    createPeerConnection();
+  }
+
+  private void handleAnswer(SessionDescription answer) {
+    if (awaitingRenegotiationAnswer) {
+      awaitingRenegotiationAnswer = false;
+      setStatus(Status.ANSWER_RECEIVED);
+      // Buffered candidates of a restarted session are drained once the answer is set.
+      setRemoteDescription(answer);
+      runPendingRenegotiation();
+      return;
+    }
     if (!status.equals(Status.CALLING_WAITING_ANSWER)) {
       Log.w(TAG, "Receiving answer in unexpected status: " + status);
       return;
     }
 
     setStatus(Status.ANSWER_RECEIVED);
-    this.peerConnection.setRemoteDescription(this, extractSdp(answer));
+    setRemoteDescription(answer);
+    runPendingRenegotiation();
   }
 
-  private void handleRemoteIceCandidate(JSONObject iceCandidate) throws JSONException {
-    if (this.peerConnection.getRemoteDescription() == null) {
-      Log.w(TAG, "Receiving remote ice candidate when remote sdp is null. Status: " + status);
+  /** Sets the description of the peer, capped at the max send bitrate. */
+  private void setRemoteDescription(SessionDescription description) {
+    if (maxSendBitrateKbps > 0) {
+      description = SdpTransformers.apply(
+          Collections.singletonList(
+              SdpTransformers.limitBandwidth(MediaSection.VIDEO, maxSendBitrateKbps)),
+          description);
+    }
+    this.peerConnection.setRemoteDescription(peerConnectionEvents, description);
+  }
+
+  private void handleRemoteIceCandidate(IceCandidate candidate) {
+    if (disconnected()) return;
+    // Keep buffering until drained, so that candidates are added in the order they came in.
+    if (this.peerConnection.getRemoteDescription() == null
+        || awaitingRenegotiationAnswer
+        || !pendingRemoteIceCandidates.isEmpty()) {
+      bufferRemoteIceCandidate(candidate);
       return;
     }
-    this.peerConnection.addIceCandidate(extractIceCandidate(iceCandidate));
+    this.peerConnection.addIceCandidate(candidate);
   }
 
-  private void handleDisconnectMessage() {
-    destroyConnection();
+  private void handleRemoteIceCandidates(List<IceCandidate> iceCandidates) {
+    for (IceCandidate iceCandidate : iceCandidates) {
+      handleRemoteIceCandidate(iceCandidate);
+    }
   }
 
-  private SessionDescription extractSdp(JSONObject content) throws JSONException {
-    String sdpType = content.getString(SignalMessages.SDP_TYPE);
-    String sdpDescription = content.getString(SignalMessages.SDP_DESCRIPTION);
-    return new SessionDescription(
-        SessionDescription.Type.fromCanonicalForm(sdpType),
-        sdpDescription);
+  private void bufferRemoteIceCandidate(IceCandidate iceCandidate) {
+    if (pendingRemoteIceCandidates.size() >= connectionParams.getMaxPendingRemoteIceCandidates()) {
+      Log.w(TAG, "Dropping remote ice candidate, too many received before remote sdp. Status: "
+          + status);
+      connectionMetrics.recordRemoteIceCandidateDropped();
+      return;
+    }
+    pendingRemoteIceCandidates.add(iceCandidate);
+    connectionMetrics.recordRemoteIceCandidateBuffered();
+  }
+
+  private void drainPendingRemoteIceCandidates() {
+    if (disconnected()
+        || this.peerConnection.getRemoteDescription() == null
+        || awaitingRenegotiationAnswer) {
+      return;
+    }
+    while (!pendingRemoteIceCandidates.isEmpty()) {
+      this.peerConnection.addIceCandidate(pendingRemoteIceCandidates.poll());
+    }
   }
 
-  private IceCandidate extractIceCandidate(JSONObject iceCandidate) throws JSONException {
-    int sdpMLineIndex = iceCandidate.getInt(SignalMessages.CANDIDATE_SDP_M_LINE_INDEX);
-    String sdpMid = iceCandidate.getString(SignalMessages.CANDIDATE_SDP_MID);
-    String sdp = iceCandidate.getString(SignalMessages.CANDIDATE_SDP);
-    return new IceCandidate(sdpMid, sdpMLineIndex, sdp);
+  private void handleDisconnectMessage() {
+    destroyConnection();
   }
 
   private void destroyConnection() {
     if (disconnected()) return; // Already disconnected.
 
     setStatus(Status.DISCONNECTED);
+    cancelIceRecoveryTimers();
+    this.iceCandidateCoalescer.cancel();
+    pendingRemoteIceCandidates.clear();
+    disposePeerConnection();
+  }
+
+  private void disposePeerConnection() {
+    // Later events of the peer connection are dropped.
+    peerConnectionEvents = null;
     this.peerConnection.removeStream(this.localMediaStream);
     this.peerConnection.close();
     this.peerConnection.dispose();
+    this.peerConnectionFactoryPool.release();
   }
 
   private boolean disconnected() {
@@ -202,95 +537,396 @@ public class Connection implements
         || status.equals(Status.ANSWER_RECEIVED);
   }
 
+  /** Sends an offer or answer, the connection is torn down if it can not be delivered. */
+  private void sendSessionDescription(JSONObject message) {
+    signalSender.send(peerId, message).addCallback(new SignalingService.SendCallback() {
+      @Override
+      public void onSendSucceeded() {}
+
+      @Override
+      public void onSendFailed(final SignalingException e) {
+        lane.execute(new Runnable() {
+          @Override
+          public void run() {
+            Log.e(TAG, "Failed to send session description to " + peerId, e);
+            destroyConnection();
+          }
+        });
+      }
+    });
+  }
+
   private void setStatus(Status newStatus) {
     Status oldStatus = status;
     status = newStatus;
+    lastActivityMillis = SystemClock.elapsedRealtime();
     connectionHandler.onConnectionStateChanged(peerId, oldStatus, newStatus);
     Log.d(TAG, "Connection status to user " + peerId + " changed from " + oldStatus + " to " + newStatus);
   }
 
-  // PeerConnection.Observer
-  @Override
-  public void onSignalingChange(PeerConnection.SignalingState signalingState) {}
-
-  @Override
-  public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
-    if (iceConnectionState == PeerConnection.IceConnectionState.DISCONNECTED) {
-      destroyConnection();
+  private void handleIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
+    if (disconnected()) return;
+    switch (iceConnectionState) {
+      case CONNECTED:
+      case COMPLETED:
+        if (!established) {
+          established = true;
+          connectionMetrics.recordConnectionEstablished(
+              SystemClock.elapsedRealtime() - setupStartedMillis);
+          connectionHandler.onConnectionEstablished(peerId);
+        } else if (iceLost) {
+          handleIceRecovered();
+        }
+        break;
+      case DISCONNECTED:
+        if (!established) {
+          destroyConnection();
+        } else if (!iceLost) {
+          handleIceLost();
+        }
+        break;
+      case FAILED:
+        Log.w(TAG, "Ice failed on connection to " + peerId + " in status " + status);
+        if (established) {
+          connectionMetrics.recordIceTeardown();
+        }
+        sendDisconnect();
+        break;
+      default:
+        break;
     }
   }
 
-  @Override
-  public void onIceConnectionReceivingChange(boolean b) {}
+  /** Waits for ice to come back by itself, then restarts it, and at last gives up. */
+  private void handleIceLost() {
+    iceLost = true;
+    final int generation = ++iceLossGeneration;
+    Log.w(TAG, "Ice disconnected on connection to " + peerId + ", waiting to recover.");
+    iceRestartTimer = scheduleOnLane(new Runnable() {
+      @Override
+      public void run() {
+        if (generation == iceLossGeneration) restartIce();
+      }
+    }, connectionParams.getIceDisconnectGraceMillis());
+    iceTeardownTimer = scheduleOnLane(new Runnable() {
+      @Override
+      public void run() {
+        if (generation != iceLossGeneration || disconnected()) return;
+        Log.w(TAG, "Ice did not recover on connection to " + peerId + ", disconnecting.");
+        connectionMetrics.recordIceTeardown();
+        sendDisconnect();
+      }
+    }, connectionParams.getIceRestartTimeoutMillis());
+  }
 
-  @Override
-  public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {}
+  private void restartIce() {
+    if (disconnected() || !iceLost) return;
+    renegotiate(true);
+  }
 
-  @Override
-  public void onIceCandidate(IceCandidate iceCandidate) {
+  /**
+   * Sends a new offer over the live peer connection, or asks the caller for one. Waits if an
+   * offer and answer are in flight.
+   */
+  private void renegotiate(boolean iceRestart) {
+    if (disconnected()) return;
+    if (!caller) {
+      // Offers come from the caller, so both sides never offer at once.
+      if (iceRestart) {
+        Log.d(TAG, "Waiting for ice restart offer from " + peerId);
+      } else if (status.equals(Status.ANSWERED)) {
+        renegotiationPending = false;
+        sendRenegotiateRequest();
+      } else {
+        renegotiationPending = true;
+      }
+      return;
+    }
+    if (!status.equals(Status.ANSWER_RECEIVED)) {
+      if (iceRestart) {
+        iceRestartPending = true;
+      } else {
+        renegotiationPending = true;
+      }
+      return;
+    }
+
+    renegotiationPending = false;
+    iceRestartPending = false;
+    if (iceRestart) {
+      Log.i(TAG, "Restarting ice on connection to " + peerId);
+      connectionMetrics.recordIceRestart();
+      setStatus(Status.RESTARTING_ICE);
+      this.peerConnection.createOffer(peerConnectionEvents, iceRestartConstraints());
+    } else {
+      Log.i(TAG, "Renegotiating connection to " + peerId);
+      connectionMetrics.recordRenegotiation();
+      setStatus(Status.RENEGOTIATING);
+      this.peerConnection.createOffer(
+          peerConnectionEvents, connectionParams.getConnectionConstraints());
+    }
+  }
+
+  /** Starts the renegotiation which waited for the offer and answer just done. */
+  private void runPendingRenegotiation() {
+    boolean iceRestart = iceRestartPending && iceLost;
+    if (!renegotiationPending && !iceRestart) return;
+    // Any new offer carries the current streams, an ice restart one as well.
+    renegotiate(iceRestart);
+  }
+
+  private void sendRenegotiateRequest() {
     try {
-      signalingService.sendSignal(peerId,
-          SignalMessages.createIceCandidateMessage(userId, iceCandidate));
+      signalSender.send(peerId, SignalMessages.createRenegotiateMessage(
+          connectionParams.getSignalCodec(), userId));
     } catch (SignalingException e) {
-      Log.w(TAG, "Failed to send Ice candidate information.", e);
+      Log.w(TAG, "Failed to send renegotiate signal.", e);
     }
   }
 
-  @Override
-  public void onAddStream(MediaStream mediaStream) {
-    connectionHandler.onRemoteStreamAdded(peerId, mediaStream);
+  private void handleIceRecovered() {
+    iceLost = false;
+    iceLossGeneration++;
+    cancelIceRecoveryTimers();
+    connectionMetrics.recordIceRecovery();
+    Log.i(TAG, "Ice recovered on connection to " + peerId);
   }
 
-  @Override
-  public void onRemoveStream(MediaStream mediaStream) {
-    connectionHandler.onRemoteStreamRemoved(peerId, mediaStream);
-    disconnect();
+  private void cancelIceRecoveryTimers() {
+    if (iceRestartTimer != null) {
+      iceRestartTimer.cancel(false);
+      iceRestartTimer = null;
+    }
+    if (iceTeardownTimer != null) {
+      iceTeardownTimer.cancel(false);
+      iceTeardownTimer = null;
+    }
   }
 
-  @Override
-  public void onDataChannel(DataChannel dataChannel) {}
+  private ScheduledFuture<?> scheduleOnLane(final Runnable task, long delayMillis) {
+    return scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        lane.execute(task);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
 
-  @Override
-  public void onRenegotiationNeeded() {}
-  // PeerConnection.Observer Ends
+  /** The connection constraints, asking for new ice credentials so ice starts over. */
+  private MediaConstraints iceRestartConstraints() {
+    MediaConstraints constraints = new MediaConstraints();
+    constraints.mandatory.addAll(connectionParams.getConnectionConstraints().mandatory);
+    constraints.optional.addAll(connectionParams.getConnectionConstraints().optional);
+    constraints.mandatory.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+    return constraints;
+  }
 
-  // SdpObserver
-  @Override
-  public void onCreateSuccess(SessionDescription sdp) {
-    this.peerConnection.setLocalDescription(this, sdp);
+  /** Tracks of the local stream were added or removed. */
+  private void handleRenegotiationNeeded() {
+    switch (status) {
+      case NEW:
+      case STARTED_WAITING_CALL:
+      case RECEIVED_WAITING_ANSWER:
+        // The offer or answer being created carries the change.
+        return;
+      default:
+        renegotiate(false);
+    }
+  }
+
+  private void handleSessionCreated(SessionDescription createdSdp) {
+    if (disconnected()) return;
+    SessionDescription sdp =
+        SdpTransformers.apply(connectionParams.getLocalSdpTransformers(), createdSdp);
+    this.peerConnection.setLocalDescription(peerConnectionEvents, sdp);
 
     try {
       switch (status) {
         case STARTED_WAITING_CALL: // Created an Offer sdp
           setStatus(Status.CALLING_WAITING_ANSWER);
-          signalingService.sendSignal(peerId, SignalMessages.createOfferMessage(userId, sdp));
+          sendSessionDescription(SignalMessages.createOfferMessage(
+              connectionParams.getSignalCodec(), userId, sdp));
           break;
         case RECEIVED_WAITING_ANSWER: // Created an Answer sdp
           setStatus(Status.ANSWERED);
-          signalingService.sendSignal(peerId, SignalMessages.createAnswerMessage(userId, sdp));
+          sendSessionDescription(SignalMessages.createAnswerMessage(
+              connectionParams.getSignalCodec(), userId, sdp));
+          runPendingRenegotiation();
+          break;
+        case RESTARTING_ICE: // Created an Offer sdp
+          awaitingRenegotiationAnswer = true;
+          sendSessionDescription(SignalMessages.createOfferMessage(
+              connectionParams.getSignalCodec(), userId, sdp));
+          break;
+        case RENEGOTIATING:
+          if (sdp.type == SessionDescription.Type.OFFER) {
+            awaitingRenegotiationAnswer = true;
+            sendSessionDescription(SignalMessages.createOfferMessage(
+                connectionParams.getSignalCodec(), userId, sdp));
+          } else {
+            setStatus(Status.ANSWERED);
+            sendSessionDescription(SignalMessages.createAnswerMessage(
+                connectionParams.getSignalCodec(), userId, sdp));
+            runPendingRenegotiation();
+          }
           break;
         default:
           Log.w(TAG, "Connection in illeagal state when session is created: " + status);
       }
     } catch (SignalingException e) {
       Log.e(TAG, "Failed when creating signal message.", e);
-      disconnect();
+      sendDisconnect();
     }
   }
 
-  @Override
-  public void onSetSuccess() {}
 
+  // IceCandidateCoalescer.FlushHandler
   @Override
-  public void onCreateFailure(String s) {
-    Log.e(TAG, "Failed to create session: " + s);
-    disconnect();
+  public void onFlush(List<IceCandidate> iceCandidates) {
+    try {
+      signalSender.send(peerId,
+          SignalMessages.createIceCandidatesMessage(
+              connectionParams.getSignalCodec(), userId, iceCandidates));
+      connectionMetrics.recordIceCandidateMessageSent();
+    } catch (SignalingException e) {
+      Log.w(TAG, "Failed to send Ice candidate information.", e);
+    }
   }
+  // IceCandidateCoalescer.FlushHandler Ends
+
+  /**
+   * Observer of one peer connection of this connection. Its events are handled on the lane, and
+   * dropped once the peer connection was disposed or replaced.
+   */
+  private class PeerConnectionEvents implements PeerConnection.Observer, SdpObserver {
+
+    private void post(final Runnable task) {
+      lane.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (peerConnectionEvents == PeerConnectionEvents.this) task.run();
+        }
+      });
+    }
 
-  @Override
-  public void onSetFailure(String s) {
-    Log.e(TAG, "Failed to set SessionDescription: " + s);
-    disconnect();
+    // PeerConnection.Observer
+    @Override
+    public void onSignalingChange(PeerConnection.SignalingState signalingState) {}
+
+    @Override
+    public void onIceConnectionChange(final PeerConnection.IceConnectionState iceConnectionState) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          handleIceConnectionChange(iceConnectionState);
+        }
+      });
+    }
+
+    @Override
+    public void onIceConnectionReceivingChange(boolean b) {}
+
+    @Override
+    public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
+      if (iceGatheringState == PeerConnection.IceGatheringState.COMPLETE) {
+        post(new Runnable() {
+          @Override
+          public void run() {
+            iceCandidateCoalescer.flush();
+          }
+        });
+      }
+    }
+
+    @Override
+    public void onIceCandidate(final IceCandidate iceCandidate) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          connectionMetrics.recordIceCandidatesGathered(1);
+          iceCandidateCoalescer.add(iceCandidate);
+        }
+      });
+    }
+
+    @Override
+    public void onAddStream(final MediaStream mediaStream) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          connectionHandler.onRemoteStreamAdded(peerId, mediaStream);
+        }
+      });
+    }
+
+    @Override
+    public void onRemoveStream(final MediaStream mediaStream) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          // The peer may be switching streams, it sends a disconnect signal when it leaves.
+          connectionHandler.onRemoteStreamRemoved(peerId, mediaStream);
+        }
+      });
+    }
+
+    @Override
+    public void onDataChannel(DataChannel dataChannel) {}
+
+    @Override
+    public void onRenegotiationNeeded() {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          handleRenegotiationNeeded();
+        }
+      });
+    }
+    // PeerConnection.Observer Ends
+
+    // SdpObserver
+    @Override
+    public void onCreateSuccess(final SessionDescription sdp) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          handleSessionCreated(sdp);
+        }
+      });
+    }
+
+    @Override
+    public void onSetSuccess() {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          // Candidates which arrived before the remote sdp can be added once it is set.
+          drainPendingRemoteIceCandidates();
+        }
+      });
+    }
+
+    @Override
+    public void onCreateFailure(final String s) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          Log.e(TAG, "Failed to create session: " + s);
+          sendDisconnect();
+        }
+      });
+    }
+
+    @Override
+    public void onSetFailure(final String s) {
+      post(new Runnable() {
+        @Override
+        public void run() {
+          Log.e(TAG, "Failed to set SessionDescription: " + s);
+          sendDisconnect();
+        }
+      });
+    }
+    // SdpObserver Ends
   }
-  // SdpObserver Ends
 }
@@ -0,0 +1,181 @@
+package cceh.androidrtclibrary.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters shared by all {@link Connection}s of a client, to keep track of signaling volume and
+ * connection setup latency.
+ */
+public class ConnectionMetrics {
+  private final AtomicLong iceCandidatesGathered;
+  private final AtomicLong iceCandidateMessagesSent;
+  private final AtomicLong remoteIceCandidatesBuffered;
+  private final AtomicLong remoteIceCandidatesDropped;
+  private final AtomicLong connectionsEstablished;
+  private final AtomicLong totalTimeToConnectMillis;
+  private final AtomicLong peerConnectionPoolHits;
+  private final AtomicLong peerConnectionPoolMisses;
+  private final AtomicLong setupMillisSavedByPool;
+  private final AtomicLong connectionsRejected;
+  private final AtomicLong connectionsEvicted;
+  private final AtomicLong iceRestarts;
+  private final AtomicLong iceRecoveries;
+  private final AtomicLong iceTeardowns;
+  private final AtomicLong renegotiations;
+
+  public ConnectionMetrics() {
+    this.iceCandidatesGathered = new AtomicLong();
+    this.iceCandidateMessagesSent = new AtomicLong();
+    this.remoteIceCandidatesBuffered = new AtomicLong();
+    this.remoteIceCandidatesDropped = new AtomicLong();
+    this.connectionsEstablished = new AtomicLong();
+    this.totalTimeToConnectMillis = new AtomicLong();
+    this.peerConnectionPoolHits = new AtomicLong();
+    this.peerConnectionPoolMisses = new AtomicLong();
+    this.setupMillisSavedByPool = new AtomicLong();
+    this.connectionsRejected = new AtomicLong();
+    this.connectionsEvicted = new AtomicLong();
+    this.iceRestarts = new AtomicLong();
+    this.iceRecoveries = new AtomicLong();
+    this.iceTeardowns = new AtomicLong();
+    this.renegotiations = new AtomicLong();
+  }
+
+  /** Number of local ice candidates gathered. */
+  public long getIceCandidatesGathered() {
+    return iceCandidatesGathered.get();
+  }
+
+  /** Number of signal messages published to carry local ice candidates. */
+  public long getIceCandidateMessagesSent() {
+    return iceCandidateMessagesSent.get();
+  }
+
+  /** Number of remote ice candidates held back because they arrived before the remote sdp. */
+  public long getRemoteIceCandidatesBuffered() {
+    return remoteIceCandidatesBuffered.get();
+  }
+
+  /** Number of early remote ice candidates dropped because the buffer was full. */
+  public long getRemoteIceCandidatesDropped() {
+    return remoteIceCandidatesDropped.get();
+  }
+
+  /** Number of connections which reached ice connected state. */
+  public long getConnectionsEstablished() {
+    return connectionsEstablished.get();
+  }
+
+  /** Average time from starting a call or receiving an offer, to ice connected. */
+  public long getAverageTimeToConnectMillis() {
+    long established = connectionsEstablished.get();
+    return established == 0 ? 0 : totalTimeToConnectMillis.get() / established;
+  }
+
+  /** Number of connections which got a peer connection from the {@link PeerConnectionPool}. */
+  public long getPeerConnectionPoolHits() {
+    return peerConnectionPoolHits.get();
+  }
+
+  /** Number of connections which had to create their peer connection while the pool is on. */
+  public long getPeerConnectionPoolMisses() {
+    return peerConnectionPoolMisses.get();
+  }
+
+  /** Share of connections served by the pool, 0 if the pool is off or not used yet. */
+  public double getPeerConnectionPoolHitRate() {
+    long hits = peerConnectionPoolHits.get();
+    long total = hits + peerConnectionPoolMisses.get();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /** Total time of creating peer connections taken off the call setup by the pool. */
+  public long getSetupMillisSavedByPool() {
+    return setupMillisSavedByPool.get();
+  }
+
+  /** Number of peers refused a connection, by admission control or because of the limit. */
+  public long getConnectionsRejected() {
+    return connectionsRejected.get();
+  }
+
+  /** Number of connections torn down while setting up, to free resources. */
+  public long getConnectionsEvicted() {
+    return connectionsEvicted.get();
+  }
+
+  /** Number of ice restart offers sent after an established connection lost ice. */
+  public long getIceRestarts() {
+    return iceRestarts.get();
+  }
+
+  /** Number of times an established connection lost ice and got it back, restarted or not. */
+  public long getIceRecoveries() {
+    return iceRecoveries.get();
+  }
+
+  /** Number of established connections torn down because ice failed or did not come back. */
+  public long getIceTeardowns() {
+    return iceTeardowns.get();
+  }
+
+  /** Number of offers sent over live connections because the local stream changed. */
+  public long getRenegotiations() {
+    return renegotiations.get();
+  }
+
+  /** Called by the client when it refuses to set up a connection. */
+  public void recordConnectionRejected() {
+    connectionsRejected.incrementAndGet();
+  }
+
+  void recordIceCandidatesGathered(int count) {
+    iceCandidatesGathered.addAndGet(count);
+  }
+
+  void recordIceCandidateMessageSent() {
+    iceCandidateMessagesSent.incrementAndGet();
+  }
+
+  void recordRemoteIceCandidateBuffered() {
+    remoteIceCandidatesBuffered.incrementAndGet();
+  }
+
+  void recordRemoteIceCandidateDropped() {
+    remoteIceCandidatesDropped.incrementAndGet();
+  }
+
+  void recordConnectionEstablished(long timeToConnectMillis) {
+    connectionsEstablished.incrementAndGet();
+    totalTimeToConnectMillis.addAndGet(timeToConnectMillis);
+  }
+
+  void recordPeerConnectionPoolHit(long savedMillis) {
+    peerConnectionPoolHits.incrementAndGet();
+    setupMillisSavedByPool.addAndGet(savedMillis);
+  }
+
+  void recordPeerConnectionPoolMiss() {
+    peerConnectionPoolMisses.incrementAndGet();
+  }
+
+  void recordConnectionEvicted() {
+    connectionsEvicted.incrementAndGet();
+  }
+
+  void recordIceRestart() {
+    iceRestarts.incrementAndGet();
+  }
+
+  void recordIceRecovery() {
+    iceRecoveries.incrementAndGet();
+  }
+
+  void recordIceTeardown() {
+    iceTeardowns.incrementAndGet();
+  }
+
+  void recordRenegotiation() {
+    renegotiations.incrementAndGet();
+  }
+}
@@ -3,8 +3,13 @@ package cceh.androidrtclibrary.connection;
 import org.webrtc.MediaConstraints;
 import org.webrtc.PeerConnection;
 
+import java.util.Collections;
 import java.util.List;
 
+import cceh.androidrtclibrary.sdp.SdpTransformer;
+import cceh.androidrtclibrary.signaling.JsonSignalCodec;
+import cceh.androidrtclibrary.signaling.SignalCodec;
+
 /**
  * Params of a {@link Connection}, including {@link org.webrtc.PeerConnection.IceServer}s
  * and {@link org.webrtc.MediaConstraints}.
@@ -12,8 +17,21 @@ import java.util.List;
  * Created by Charlie Chen (ccehshmily@gmail.com) on 4/6/17.
  */
 public class ConnectionParams {
+  public static final long DEFAULT_ICE_CANDIDATE_BATCH_WINDOW_MILLIS = 50;
+  public static final int DEFAULT_ICE_CANDIDATE_BATCH_MAX_SIZE = 10;
+  public static final int DEFAULT_MAX_PENDING_REMOTE_ICE_CANDIDATES = 50;
+  public static final long DEFAULT_ICE_DISCONNECT_GRACE_MILLIS = 2000;
+  public static final long DEFAULT_ICE_RESTART_TIMEOUT_MILLIS = 15000;
+
   private final List<PeerConnection.IceServer> iceServers;
   private final MediaConstraints connectionConstraints;
+  private final long iceCandidateBatchWindowMillis;
+  private final int iceCandidateBatchMaxSize;
+  private final int maxPendingRemoteIceCandidates;
+  private final SignalCodec signalCodec;
+  private final long iceDisconnectGraceMillis;
+  private final long iceRestartTimeoutMillis;
+  private final List<SdpTransformer> localSdpTransformers;
 
   public ConnectionParams(List<PeerConnection.IceServer> iceServers) {
     this(
@@ -24,8 +42,19 @@ public class ConnectionParams {
   public ConnectionParams(
       List<PeerConnection.IceServer> iceServers,
       MediaConstraints connectionConstraints) {
-    this.iceServers = iceServers;
-    this.connectionConstraints = connectionConstraints;
+    this(new Builder(iceServers).setConnectionConstraints(connectionConstraints));
+  }
+
+  private ConnectionParams(Builder builder) {
+    this.iceServers = builder.iceServers;
+    this.connectionConstraints = builder.connectionConstraints;
+    this.iceCandidateBatchWindowMillis = builder.iceCandidateBatchWindowMillis;
+    this.iceCandidateBatchMaxSize = builder.iceCandidateBatchMaxSize;
+    this.maxPendingRemoteIceCandidates = builder.maxPendingRemoteIceCandidates;
+    this.signalCodec = builder.signalCodec;
+    this.iceDisconnectGraceMillis = builder.iceDisconnectGraceMillis;
+    this.iceRestartTimeoutMillis = builder.iceRestartTimeoutMillis;
+    this.localSdpTransformers = builder.localSdpTransformers;
   }
 
   public List<PeerConnection.IceServer> getIceServers() {
@@ -36,6 +65,69 @@ public class ConnectionParams {
     return connectionConstraints;
   }
 
+  /**
+   * How long local ice candidates are held to be sent together, 0 sends every candidate in its
+   * own signal message.
+   */
+  public long getIceCandidateBatchWindowMillis() {
+    return iceCandidateBatchWindowMillis;
+  }
+
+  /** Max number of local ice candidates sent in one signal message. */
+  public int getIceCandidateBatchMaxSize() {
+    return iceCandidateBatchMaxSize;
+  }
+
+  /**
+   * Max number of remote ice candidates held back while the remote sdp is not set yet, later ones
+   * are dropped.
+   */
+  public int getMaxPendingRemoteIceCandidates() {
+    return maxPendingRemoteIceCandidates;
+  }
+
+  /** The codec of the signals sent and received by the connection. */
+  public SignalCodec getSignalCodec() {
+    return signalCodec;
+  }
+
+  /**
+   * How long an established connection may stay ice disconnected before ice is restarted, it
+   * often comes back by itself, e.g. after a short network switch.
+   */
+  public long getIceDisconnectGraceMillis() {
+    return iceDisconnectGraceMillis;
+  }
+
+  /**
+   * How long an established connection may take to reconnect after losing ice, including the
+   * grace period, before it is torn down.
+   */
+  public long getIceRestartTimeoutMillis() {
+    return iceRestartTimeoutMillis;
+  }
+
+  /**
+   * Transformers run in order on every local offer and answer, before it is set and sent, e.g.
+   * from {@link cceh.androidrtclibrary.sdp.SdpTransformers}. None by default.
+   */
+  public List<SdpTransformer> getLocalSdpTransformers() {
+    return localSdpTransformers;
+  }
+
+  /** Returns a {@link Builder} initialized with the values of these params. */
+  public Builder toBuilder() {
+    return new Builder(iceServers)
+        .setConnectionConstraints(connectionConstraints)
+        .setIceCandidateBatchWindowMillis(iceCandidateBatchWindowMillis)
+        .setIceCandidateBatchMaxSize(iceCandidateBatchMaxSize)
+        .setMaxPendingRemoteIceCandidates(maxPendingRemoteIceCandidates)
+        .setSignalCodec(signalCodec)
+        .setIceDisconnectGraceMillis(iceDisconnectGraceMillis)
+        .setIceRestartTimeoutMillis(iceRestartTimeoutMillis)
+        .setLocalSdpTransformers(localSdpTransformers);
+  }
+
   private static MediaConstraints defaultConnectionConstraints() {
     MediaConstraints constraints = new MediaConstraints();
     constraints.optional.add(new MediaConstraints.KeyValuePair("DtlsSrtpKeyAgreement", "true"));
@@ -46,4 +138,78 @@ public class ConnectionParams {
     constraints.optional.add(new MediaConstraints.KeyValuePair("internalSctpDataChannels", "true"));
     return constraints;
   }
+
+  /** Builder of {@link ConnectionParams}, for overriding the defaults. */
+  public static class Builder {
+    private List<PeerConnection.IceServer> iceServers;
+    private MediaConstraints connectionConstraints;
+    private long iceCandidateBatchWindowMillis;
+    private int iceCandidateBatchMaxSize;
+    private int maxPendingRemoteIceCandidates;
+    private SignalCodec signalCodec;
+    private long iceDisconnectGraceMillis;
+    private long iceRestartTimeoutMillis;
+    private List<SdpTransformer> localSdpTransformers;
+
+    public Builder(List<PeerConnection.IceServer> iceServers) {
+      this.iceServers = iceServers;
+      this.connectionConstraints = defaultConnectionConstraints();
+      this.iceCandidateBatchWindowMillis = DEFAULT_ICE_CANDIDATE_BATCH_WINDOW_MILLIS;
+      this.iceCandidateBatchMaxSize = DEFAULT_ICE_CANDIDATE_BATCH_MAX_SIZE;
+      this.maxPendingRemoteIceCandidates = DEFAULT_MAX_PENDING_REMOTE_ICE_CANDIDATES;
+      this.signalCodec = new JsonSignalCodec();
+      this.iceDisconnectGraceMillis = DEFAULT_ICE_DISCONNECT_GRACE_MILLIS;
+      this.iceRestartTimeoutMillis = DEFAULT_ICE_RESTART_TIMEOUT_MILLIS;
+      this.localSdpTransformers = Collections.emptyList();
+    }
+
+    public Builder setIceServers(List<PeerConnection.IceServer> iceServers) {
+      this.iceServers = iceServers;
+      return this;
+    }
+
+    public Builder setConnectionConstraints(MediaConstraints connectionConstraints) {
+      this.connectionConstraints = connectionConstraints;
+      return this;
+    }
+
+    public Builder setIceCandidateBatchWindowMillis(long iceCandidateBatchWindowMillis) {
+      this.iceCandidateBatchWindowMillis = iceCandidateBatchWindowMillis;
+      return this;
+    }
+
+    public Builder setIceCandidateBatchMaxSize(int iceCandidateBatchMaxSize) {
+      this.iceCandidateBatchMaxSize = iceCandidateBatchMaxSize;
+      return this;
+    }
+
+    public Builder setMaxPendingRemoteIceCandidates(int maxPendingRemoteIceCandidates) {
+      this.maxPendingRemoteIceCandidates = maxPendingRemoteIceCandidates;
+      return this;
+    }
+
+    public Builder setSignalCodec(SignalCodec signalCodec) {
+      this.signalCodec = signalCodec;
+      return this;
+    }
+
+    public Builder setIceDisconnectGraceMillis(long iceDisconnectGraceMillis) {
+      this.iceDisconnectGraceMillis = iceDisconnectGraceMillis;
+      return this;
+    }
+
+    public Builder setIceRestartTimeoutMillis(long iceRestartTimeoutMillis) {
+      this.iceRestartTimeoutMillis = iceRestartTimeoutMillis;
+      return this;
+    }
+
+    public Builder setLocalSdpTransformers(List<SdpTransformer> localSdpTransformers) {
+      this.localSdpTransformers = localSdpTransformers;
+      return this;
+    }
+
+    public ConnectionParams build() {
+      return new ConnectionParams(this);
+    }
+  }
 }
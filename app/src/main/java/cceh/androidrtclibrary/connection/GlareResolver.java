@@ -0,0 +1,44 @@
+package cceh.androidrtclibrary.connection;
+
+/**
+ * Decides what a {@link Connection} does with an offer from its peer, including glare, when the
+ * two peers called each other at the same time.
+ *
+ * Both sides resolve glare the same way without another round trip: the peer with the greater
+ * user id is polite, it rolls back its own offer and answers the other one, the impolite peer
+ * ignores the offer and waits for the answer to its own.
+ */
+final class GlareResolver {
+
+  /** What to do with an incoming offer. */
+  enum Action {
+    ANSWER,
+    ROLLBACK_AND_ANSWER,
+    ANSWER_RENEGOTIATION,
+    IGNORE
+  }
+
+  private GlareResolver() {}
+
+  /** Whether the user gives way to the peer when their offers collide, the other side won't. */
+  static boolean isPolite(String userId, String peerId) {
+    return userId.compareTo(peerId) > 0;
+  }
+
+  static Action onOffer(Connection.Status status, boolean polite) {
+    switch (status) {
+      case NEW:
+      case RECEIVED_WAITING_ANSWER:
+        return Action.ANSWER;
+      case ANSWERED:
+        // Only the caller offers on a live connection, to renegotiate or restart ice.
+        return Action.ANSWER_RENEGOTIATION;
+      case STARTED_WAITING_CALL:
+      case CALLING_WAITING_ANSWER:
+        return polite ? Action.ROLLBACK_AND_ANSWER : Action.IGNORE;
+      default:
+        // Disconnected, our offer was answered already, or a renegotiation is in flight.
+        return Action.IGNORE;
+    }
+  }
+}
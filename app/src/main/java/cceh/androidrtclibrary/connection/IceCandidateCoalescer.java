@@ -0,0 +1,110 @@
+package cceh.androidrtclibrary.connection;
+
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects locally gathered {@link IceCandidate}s of a {@link Connection} and hands them out in
+ * batches, so that trickle ICE costs a few signal messages instead of one per candidate.
+ *
+ * A batch is flushed when the window after its first candidate elapses, when it reaches the max
+ * batch size, or when {@link #flush()} is called at the end of gathering.
+ */
+class IceCandidateCoalescer {
+
+  /** Receives the batches of candidates to be signaled. */
+  interface FlushHandler {
+    void onFlush(List<IceCandidate> iceCandidates);
+  }
+
+  private final ScheduledExecutorService scheduler;
+  private final long windowMillis;
+  private final int maxBatchSize;
+  private final FlushHandler flushHandler;
+  private final Object lock;
+
+  private List<IceCandidate> pendingCandidates;
+  private ScheduledFuture<?> scheduledFlush;
+  private boolean cancelled;
+
+  IceCandidateCoalescer(
+      ScheduledExecutorService scheduler,
+      long windowMillis,
+      int maxBatchSize,
+      FlushHandler flushHandler) {
+    this.scheduler = scheduler;
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.flushHandler = flushHandler;
+    this.lock = new Object();
+
+    this.pendingCandidates = new ArrayList<>();
+    this.scheduledFlush = null;
+    this.cancelled = false;
+  }
+
+  void add(IceCandidate iceCandidate) {
+    List<IceCandidate> batch = null;
+    synchronized (lock) {
+      if (cancelled) return;
+      pendingCandidates.add(iceCandidate);
+      if (windowMillis <= 0 || pendingCandidates.size() >= maxBatchSize) {
+        batch = takePendingCandidates();
+      } else if (scheduledFlush == null) {
+        scheduledFlush = scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        }, windowMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    deliver(batch);
+  }
+
+  /** Flushes the pending candidates right away, e.g. when gathering completes. */
+  void flush() {
+    List<IceCandidate> batch;
+    synchronized (lock) {
+      if (cancelled) return;
+      batch = takePendingCandidates();
+    }
+    deliver(batch);
+  }
+
+  /** Drops pending candidates, e.g. of a peer connection which was replaced. */
+  void clear() {
+    synchronized (lock) {
+      takePendingCandidates();
+    }
+  }
+
+  /** Drops pending candidates and ignores any later ones. */
+  void cancel() {
+    synchronized (lock) {
+      cancelled = true;
+      takePendingCandidates();
+    }
+  }
+
+  private List<IceCandidate> takePendingCandidates() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    List<IceCandidate> batch = pendingCandidates;
+    pendingCandidates = new ArrayList<>();
+    return batch;
+  }
+
+  private void deliver(List<IceCandidate> batch) {
+    if (batch != null && !batch.isEmpty()) {
+      flushHandler.onFlush(batch);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package cceh.androidrtclibrary.connection;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.webrtc.PeerConnectionFactory;
+
+/**
+ * Owns the single {@link PeerConnectionFactory} shared by all {@link Connection}s of a client.
+ *
+ * The native factory (with its signaling and worker threads) is created lazily on the first
+ * {@link #acquire()} and reference counted, it is disposed once the pool is closed and every
+ * borrower has called {@link #release()}.
+ */
+public class PeerConnectionFactoryPool {
+  private static final String TAG = "PcFactoryPool";
+
+  private final Object lock;
+
+  @Nullable private PeerConnectionFactory peerConnectionFactory;
+  private int referenceCount;
+  private boolean closed;
+
+  public PeerConnectionFactoryPool() {
+    this.lock = new Object();
+    this.peerConnectionFactory = null;
+    this.referenceCount = 0;
+    this.closed = false;
+  }
+
+  /**
+   * Borrows the shared factory, creating it if needed. Every call must be paired with a call to
+   * {@link #release()} once the borrower disposed all objects created from the factory.
+   */
+  public PeerConnectionFactory acquire() {
+    synchronized (lock) {
+      if (closed) {
+        throw new IllegalStateException("PeerConnectionFactoryPool is already closed.");
+      }
+      if (peerConnectionFactory == null) {
+        peerConnectionFactory = new PeerConnectionFactory();
+        Log.d(TAG, "Created shared PeerConnectionFactory.");
+      }
+      referenceCount++;
+      return peerConnectionFactory;
+    }
+  }
+
+  /** Returns a factory borrowed with {@link #acquire()}. */
+  public void release() {
+    synchronized (lock) {
+      if (referenceCount == 0) {
+        Log.w(TAG, "Releasing PeerConnectionFactory which is not acquired.");
+        return;
+      }
+      referenceCount--;
+      disposeIfUnused();
+    }
+  }
+
+  /**
+   * Stops handing out the factory. The factory is disposed right away if nobody borrows it,
+   * otherwise when the last borrower releases it.
+   */
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      disposeIfUnused();
+    }
+  }
+
+  public int getReferenceCount() {
+    synchronized (lock) {
+      return referenceCount;
+    }
+  }
+
+  private void disposeIfUnused() {
+    if (closed && referenceCount == 0 && peerConnectionFactory != null) {
+      peerConnectionFactory.dispose();
+      peerConnectionFactory = null;
+      Log.d(TAG, "Disposed shared PeerConnectionFactory.");
+    }
+  }
+}
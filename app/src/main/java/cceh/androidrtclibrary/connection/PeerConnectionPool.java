@@ -0,0 +1,310 @@
+package cceh.androidrtclibrary.connection;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.webrtc.DataChannel;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps a number of {@link PeerConnection}s created ahead of time, with the local
+ * {@link MediaStream} attached, to be handed to new {@link Connection}s. Taken ones are replaced
+ * in the background.
+ *
+ * The native peer connection and its transport are set up in advance, ICE gathering itself only
+ * starts once the {@link Connection} sets a local description. Idle peer connections built for
+ * other ice servers than the current ones are dropped.
+ */
+public class PeerConnectionPool {
+  private static final String TAG = "PeerConnectionPool";
+
+  private final PeerConnectionFactoryPool peerConnectionFactoryPool;
+  private final MediaConstraints connectionConstraints;
+  private final int size;
+  private final Executor executor;
+  private final Object lock;
+
+  // Guarded by lock.
+  private final Deque<WarmPeerConnection> idle;
+  private MediaStream localMediaStream;
+  @Nullable private List<PeerConnection.IceServer> iceServers;
+  @Nullable private String iceServersKey;
+  private int creating;
+  private boolean closed;
+
+  /** Peer connections are created on the executor, one task each. */
+  public PeerConnectionPool(
+      PeerConnectionFactoryPool peerConnectionFactoryPool,
+      MediaStream localMediaStream,
+      MediaConstraints connectionConstraints,
+      int size,
+      Executor executor) {
+    this.peerConnectionFactoryPool = peerConnectionFactoryPool;
+    this.connectionConstraints = connectionConstraints;
+    this.size = size;
+    this.executor = executor;
+    this.lock = new Object();
+
+    this.idle = new ArrayDeque<>();
+    this.localMediaStream = localMediaStream;
+    this.iceServers = null;
+    this.iceServersKey = null;
+    this.creating = 0;
+    this.closed = false;
+  }
+
+  /** Fills the pool for the given ice servers, dropping idle ones built for other servers. */
+  public void warmUp(List<PeerConnection.IceServer> iceServers) {
+    List<WarmPeerConnection> stale = new ArrayList<>();
+    synchronized (lock) {
+      if (closed) return;
+      this.iceServers = iceServers;
+      this.iceServersKey = keyOf(iceServers);
+      for (WarmPeerConnection warm : idle) {
+        if (!warm.iceServersKey.equals(iceServersKey)) {
+          stale.add(warm);
+        }
+      }
+      idle.removeAll(stale);
+      refillLocked();
+    }
+    disposeAll(stale);
+  }
+
+  /** Streams of peer connections made from now on, idle ones with the old stream are dropped. */
+  public void setLocalMediaStream(MediaStream localMediaStream) {
+    List<WarmPeerConnection> stale;
+    synchronized (lock) {
+      if (closed || this.localMediaStream == localMediaStream) return;
+      this.localMediaStream = localMediaStream;
+      stale = new ArrayList<>(idle);
+      idle.clear();
+      refillLocked();
+    }
+    disposeAll(stale);
+  }
+
+  /** Number of peer connections ready to be taken. */
+  public int getIdleCount() {
+    synchronized (lock) {
+      return idle.size();
+    }
+  }
+
+  /** Disposes the idle peer connections, and any created later. */
+  public void close() {
+    List<WarmPeerConnection> closing;
+    synchronized (lock) {
+      closed = true;
+      closing = new ArrayList<>(idle);
+      idle.clear();
+    }
+    disposeAll(closing);
+  }
+
+  /**
+   * Takes an idle peer connection made for the ice servers, null if there is none. It already
+   * holds a reference on the {@link PeerConnectionFactoryPool}, like one created by the caller.
+   */
+  @Nullable
+  WarmPeerConnection take(List<PeerConnection.IceServer> iceServers) {
+    String key = keyOf(iceServers);
+    WarmPeerConnection taken = null;
+    List<WarmPeerConnection> stale = new ArrayList<>();
+    synchronized (lock) {
+      while (!idle.isEmpty() && taken == null) {
+        WarmPeerConnection warm = idle.poll();
+        if (warm.iceServersKey.equals(key)) {
+          taken = warm;
+        } else {
+          stale.add(warm);
+        }
+      }
+      refillLocked();
+    }
+    disposeAll(stale);
+    return taken;
+  }
+
+  private void refillLocked() {
+    if (closed || iceServers == null) return;
+    final List<PeerConnection.IceServer> servers = iceServers;
+    final String key = iceServersKey;
+    final MediaStream mediaStream = localMediaStream;
+    for (int missing = size - idle.size() - creating; missing > 0; missing--) {
+      creating++;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          create(servers, key, mediaStream);
+        }
+      });
+    }
+  }
+
+  private void create(
+      List<PeerConnection.IceServer> servers, String key, MediaStream mediaStream) {
+    WarmPeerConnection warm = null;
+    try {
+      long startedMillis = SystemClock.elapsedRealtime();
+      ForwardingObserver observer = new ForwardingObserver();
+      PeerConnection peerConnection = peerConnectionFactoryPool.acquire().createPeerConnection(
+          servers, connectionConstraints, observer);
+      peerConnection.addStream(mediaStream);
+      warm = new WarmPeerConnection(
+          peerConnection,
+          observer,
+          key,
+          mediaStream,
+          SystemClock.elapsedRealtime() - startedMillis);
+    } catch (IllegalStateException e) {
+      // The client is closing.
+      Log.w(TAG, "Failed to create peer connection.", e);
+    }
+
+    boolean keep;
+    synchronized (lock) {
+      creating--;
+      keep = warm != null
+          && !closed
+          && key.equals(iceServersKey)
+          && mediaStream == localMediaStream
+          && idle.size() < size;
+      if (keep) {
+        idle.add(warm);
+      }
+    }
+    if (warm != null && !keep) {
+      warm.dispose();
+    }
+  }
+
+  private static void disposeAll(List<WarmPeerConnection> warmPeerConnections) {
+    for (WarmPeerConnection warm : warmPeerConnections) {
+      warm.dispose();
+    }
+  }
+
+  private static String keyOf(List<PeerConnection.IceServer> iceServers) {
+    StringBuilder key = new StringBuilder();
+    for (PeerConnection.IceServer server : iceServers) {
+      key.append(server.uri).append('|').append(server.username).append('|')
+          .append(server.password).append('\n');
+    }
+    return key.toString();
+  }
+
+  /** A pooled peer connection, whose events go to the {@link Connection} which takes it. */
+  class WarmPeerConnection {
+    private final PeerConnection peerConnection;
+    private final ForwardingObserver observer;
+    private final String iceServersKey;
+    private final MediaStream mediaStream;
+    private final long creationMillis;
+
+    private WarmPeerConnection(
+        PeerConnection peerConnection,
+        ForwardingObserver observer,
+        String iceServersKey,
+        MediaStream mediaStream,
+        long creationMillis) {
+      this.peerConnection = peerConnection;
+      this.observer = observer;
+      this.iceServersKey = iceServersKey;
+      this.mediaStream = mediaStream;
+      this.creationMillis = creationMillis;
+    }
+
+    /** Routes the events of the peer connection to the observer and returns it. */
+    PeerConnection attach(PeerConnection.Observer target) {
+      observer.target = target;
+      return peerConnection;
+    }
+
+    /** The local stream added to the peer connection. */
+    MediaStream getMediaStream() {
+      return mediaStream;
+    }
+
+    /** Time it took to create the peer connection, which the taker does not spend. */
+    long getCreationMillis() {
+      return creationMillis;
+    }
+
+    private void dispose() {
+      peerConnection.removeStream(mediaStream);
+      peerConnection.close();
+      peerConnection.dispose();
+      peerConnectionFactoryPool.release();
+    }
+  }
+
+  /** Observer of a pooled peer connection, events before it is taken are dropped. */
+  private static class ForwardingObserver implements PeerConnection.Observer {
+    @Nullable private volatile PeerConnection.Observer target;
+
+    @Override
+    public void onSignalingChange(PeerConnection.SignalingState signalingState) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onSignalingChange(signalingState);
+    }
+
+    @Override
+    public void onIceConnectionChange(PeerConnection.IceConnectionState iceConnectionState) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onIceConnectionChange(iceConnectionState);
+    }
+
+    @Override
+    public void onIceConnectionReceivingChange(boolean receiving) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onIceConnectionReceivingChange(receiving);
+    }
+
+    @Override
+    public void onIceGatheringChange(PeerConnection.IceGatheringState iceGatheringState) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onIceGatheringChange(iceGatheringState);
+    }
+
+    @Override
+    public void onIceCandidate(IceCandidate iceCandidate) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onIceCandidate(iceCandidate);
+    }
+
+    @Override
+    public void onAddStream(MediaStream mediaStream) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onAddStream(mediaStream);
+    }
+
+    @Override
+    public void onRemoveStream(MediaStream mediaStream) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onRemoveStream(mediaStream);
+    }
+
+    @Override
+    public void onDataChannel(DataChannel dataChannel) {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onDataChannel(dataChannel);
+    }
+
+    @Override
+    public void onRenegotiationNeeded() {
+      PeerConnection.Observer current = target;
+      if (current != null) current.onRenegotiationNeeded();
+    }
+  }
+}
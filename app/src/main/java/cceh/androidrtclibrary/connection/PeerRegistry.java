@@ -0,0 +1,169 @@
+package cceh.androidrtclibrary.connection;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cceh.androidrtclibrary.util.SerialExecutor;
+
+/**
+ * Concurrent registry of per-peer actors, e.g. {@link Connection}s.
+ *
+ * Every registered value gets its own serial lane over the shared executor: work of one peer runs
+ * strictly in order, work of different peers runs in parallel. The value of a peer is created at
+ * most once while it is registered, even when several threads ask for it at the same time.
+ *
+ * The registry can be bounded, peers beyond the capacity are refused until others are removed.
+ */
+public class PeerRegistry<T> {
+
+  /** Creates the value of a peer, which should do all its work on the given lane. */
+  public interface Factory<T> {
+    T create(String peerId, Executor lane);
+  }
+
+  private final Executor executor;
+  private final int capacity;
+  private final ConcurrentMap<String, Entry<T>> entries;
+  // Registered peers, reserved before an entry is added so the capacity is never exceeded.
+  private final AtomicInteger count;
+
+  public PeerRegistry(Executor executor) {
+    this(executor, Integer.MAX_VALUE);
+  }
+
+  public PeerRegistry(Executor executor, int capacity) {
+    this.executor = executor;
+    this.capacity = capacity;
+    this.entries = new ConcurrentHashMap<>();
+    this.count = new AtomicInteger();
+  }
+
+  /**
+   * Returns the value of the peer, creating it with the factory if it is not registered. Returns
+   * null if the peer is not registered and the registry is full.
+   */
+  @Nullable
+  public T getOrCreate(String peerId, Factory<T> factory) {
+    while (true) {
+      Entry<T> entry = entries.get(peerId);
+      if (entry == null) {
+        if (count.incrementAndGet() > capacity) {
+          count.decrementAndGet();
+          entry = entries.get(peerId);
+          if (entry == null) {
+            return null;
+          }
+        } else {
+          Entry<T> created = new Entry<>(new SerialExecutor(executor));
+          entry = entries.putIfAbsent(peerId, created);
+          if (entry == null) {
+            entry = created;
+          } else {
+            count.decrementAndGet();
+          }
+        }
+      }
+      T value = getOrCreate(peerId, entry, factory);
+      if (value != null) {
+        return value;
+      }
+      // The entry was discarded after its factory failed, another caller may succeed.
+    }
+  }
+
+  /** Unregisters the entry if its factory fails, so it does not keep a slot with no value. */
+  @Nullable
+  private T getOrCreate(String peerId, Entry<T> entry, Factory<T> factory) {
+    try {
+      return entry.getOrCreate(peerId, factory);
+    } catch (RuntimeException | Error e) {
+      if (entries.remove(peerId, entry)) {
+        count.decrementAndGet();
+      }
+      throw e;
+    }
+  }
+
+  @Nullable
+  public T get(String peerId) {
+    Entry<T> entry = entries.get(peerId);
+    return entry == null ? null : entry.value;
+  }
+
+  /** Unregisters the peer if it is still registered with the given value. */
+  public boolean remove(String peerId, T value) {
+    Entry<T> entry = entries.get(peerId);
+    if (entry != null && entry.value == value && entries.remove(peerId, entry)) {
+      count.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /** Snapshot of the registered values. */
+  public List<T> values() {
+    List<T> values = new ArrayList<>(entries.size());
+    for (Entry<T> entry : entries.values()) {
+      T value = entry.value;
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return values;
+  }
+
+  public int size() {
+    return count.get();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public void clear() {
+    for (String peerId : entries.keySet()) {
+      if (entries.remove(peerId) != null) {
+        count.decrementAndGet();
+      }
+    }
+  }
+
+  private static class Entry<T> {
+    private final SerialExecutor lane;
+    @Nullable private volatile T value;
+    // Guarded by this.
+    private boolean discarded;
+
+    private Entry(SerialExecutor lane) {
+      this.lane = lane;
+      this.value = null;
+      this.discarded = false;
+    }
+
+    /** Returns null if the entry was discarded because creating its value failed. */
+    @Nullable
+    private T getOrCreate(String peerId, Factory<T> factory) {
+      T current = value;
+      if (current != null) {
+        return current;
+      }
+      synchronized (this) {
+        if (value == null && !discarded) {
+          try {
+            value = factory.create(peerId, lane);
+          } catch (RuntimeException | Error e) {
+            discarded = true;
+            throw e;
+          }
+        }
+        return value;
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package cceh.androidrtclibrary.network;
+
+import android.util.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * {@link JsonTokenReader} reading with {@link JsonReader}.
+ */
+final class AndroidJsonTokenReader implements JsonTokenReader {
+  static final Factory FACTORY = new Factory() {
+    @Override
+    public JsonTokenReader open(InputStream in) throws IOException {
+      return new AndroidJsonTokenReader(new JsonReader(new InputStreamReader(in, "UTF-8")));
+    }
+  };
+
+  private final JsonReader reader;
+
+  private AndroidJsonTokenReader(JsonReader reader) {
+    this.reader = reader;
+  }
+
+  @Override
+  public void beginArray() throws IOException {
+    reader.beginArray();
+  }
+
+  @Override
+  public void endArray() throws IOException {
+    reader.endArray();
+  }
+
+  @Override
+  public void beginObject() throws IOException {
+    reader.beginObject();
+  }
+
+  @Override
+  public void endObject() throws IOException {
+    reader.endObject();
+  }
+
+  @Override
+  public boolean hasNext() throws IOException {
+    return reader.hasNext();
+  }
+
+  @Override
+  public Token peek() throws IOException {
+    return Token.valueOf(reader.peek().name());
+  }
+
+  @Override
+  public String nextName() throws IOException {
+    return reader.nextName();
+  }
+
+  @Override
+  public String nextString() throws IOException {
+    return reader.nextString();
+  }
+
+  @Override
+  public void nextNull() throws IOException {
+    reader.nextNull();
+  }
+
+  @Override
+  public void skipValue() throws IOException {
+    reader.skipValue();
+  }
+}
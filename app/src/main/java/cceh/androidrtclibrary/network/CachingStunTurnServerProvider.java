@@ -0,0 +1,458 @@
+package cceh.androidrtclibrary.network;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.PeerConnection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StunTurnServerProvider} which caches the servers of another provider in memory and on
+ * disk, so clients started again while the credentials are valid do not wait for the network.
+ *
+ * Credentials are taken to be valid for the configured TTL, which must not be longer than the
+ * lifetime the delegate grants them. Credentials of the TURN REST API carry their expiry time in
+ * the username, e.g. {@code 1700000000:alice}, and are never cached past it.
+ *
+ * A cached list which has not expired is served right away. The delegate is asked again in the
+ * background once a share of the TTL has passed, so the cache is renewed before the credentials
+ * expire. If the renewal does not arrive in time, only servers without credentials are handed out.
+ *
+ * The cache file holds TURN credentials, the cache directory should be private to the app.
+ */
+public class CachingStunTurnServerProvider implements StunTurnServerProvider {
+  private static final String TAG = "CachingServerProvider";
+
+  /** TTL of credentials which do not carry their expiry time. */
+  public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+  public static final double DEFAULT_REFRESH_FRACTION = 0.8;
+  private static final long MIN_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  // Unix times in seconds which a TURN REST API username can plausibly start with.
+  private static final long MIN_EXPIRY_SECONDS = 1000000000L;
+  private static final long MAX_EXPIRY_SECONDS = 9999999999L;
+
+  /** Shared by all instances in the process, by cache key. */
+  private static final ConcurrentMap<String, CacheEntry> MEMORY_CACHE = new ConcurrentHashMap<>();
+
+  private final StunTurnServerProvider delegate;
+  private final String cacheKey;
+  @Nullable private final File cacheFile;
+  private final long ttlMillis;
+  private final double refreshFraction;
+  private final ScheduledExecutorService scheduler;
+  private final Object lock;
+
+  // Guarded by lock.
+  @Nullable private CacheEntry current;
+  @Nullable private ScheduledFuture<?> scheduledRefresh;
+  private final List<Callback> waitingCallbacks;
+  private boolean fetching;
+  private int generation;
+
+  private CachingStunTurnServerProvider(Builder builder) {
+    this.delegate = builder.delegate;
+    this.cacheKey = builder.cacheKey;
+    this.cacheFile = builder.cacheDir == null
+        ? null
+        : new File(builder.cacheDir, "ice_servers_"
+            + builder.cacheKey.replaceAll("[^A-Za-z0-9._-]", "_") + "_"
+            + Integer.toHexString(builder.cacheKey.hashCode()) + ".json");
+    this.ttlMillis = builder.ttlMillis;
+    this.refreshFraction = builder.refreshFraction;
+    this.scheduler = builder.scheduler != null
+        ? builder.scheduler
+        : Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.lock = new Object();
+
+    this.current = null;
+    this.scheduledRefresh = null;
+    this.waitingCallbacks = new ArrayList<>();
+    this.fetching = false;
+    this.generation = 0;
+  }
+
+  /** Cache key of a {@link XirSysStunTurnServerProvider}, by its domain, application and room. */
+  public static String cacheKeyOf(XirSysStunTurnServerProvider provider) {
+    return provider.getDomain() + "/" + provider.getApplication() + "/" + provider.getRoom();
+  }
+
+  /**
+   * Calls back right away if the servers are in memory, after reading the disk cache otherwise,
+   * and only waits for the delegate when nothing valid is cached.
+   */
+  @Override
+  public void fetchServers(final Callback callback) {
+    final int fetchGeneration;
+    synchronized (lock) {
+      fetchGeneration = generation;
+    }
+    CacheEntry cached = MEMORY_CACHE.get(cacheKey);
+    if (cached != null && !cached.isExpired()) {
+      serve(cached, callback);
+      return;
+    }
+    scheduler.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (lock) {
+          if (fetchGeneration != generation) return; // Cancelled.
+        }
+        CacheEntry fromDisk = readCacheFile();
+        if (fromDisk != null && !fromDisk.isExpired()) {
+          MEMORY_CACHE.put(cacheKey, fromDisk);
+          serve(fromDisk, callback);
+        } else {
+          fetchFromDelegate(callback);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void cancelFetch() {
+    synchronized (lock) {
+      generation++;
+      waitingCallbacks.clear();
+      fetching = false;
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+      }
+    }
+    delegate.cancelFetch();
+  }
+
+  /**
+   * Servers of the last fetch. After the credentials expired without being renewed, only the
+   * servers without credentials are returned.
+   */
+  @Override
+  public List<PeerConnection.IceServer> getServers() throws NetworkException {
+    CacheEntry entry;
+    synchronized (lock) {
+      entry = current;
+    }
+    if (entry == null) {
+      throw new NetworkException("Servers are not fetched yet.");
+    }
+    if (!entry.isExpired()) {
+      return entry.servers;
+    }
+    Log.w(TAG, "Credentials of " + cacheKey + " expired, handing out servers without them.");
+    List<PeerConnection.IceServer> withoutCredentials = new ArrayList<>();
+    for (PeerConnection.IceServer server : entry.servers) {
+      if (server.username == null || server.username.isEmpty()) {
+        withoutCredentials.add(server);
+      }
+    }
+    return withoutCredentials;
+  }
+
+  @VisibleForTesting
+  static void clearMemoryCache() {
+    MEMORY_CACHE.clear();
+  }
+
+  private void serve(CacheEntry entry, Callback callback) {
+    synchronized (lock) {
+      current = entry;
+      scheduleRefresh(entry);
+    }
+    callback.onServersFetched();
+  }
+
+  /**
+   * Asks the delegate for servers, for the given callback or in the background if it is null. A
+   * fetch already running is joined instead of started again.
+   */
+  private void fetchFromDelegate(@Nullable Callback callback) {
+    final int fetchGeneration;
+    synchronized (lock) {
+      if (callback != null) {
+        waitingCallbacks.add(callback);
+      }
+      if (fetching) return;
+      fetching = true;
+      fetchGeneration = generation;
+    }
+    delegate.fetchServers(new Callback() {
+      @Override
+      public void onServersFetched() {
+        List<PeerConnection.IceServer> servers;
+        try {
+          servers = delegate.getServers();
+        } catch (NetworkException e) {
+          onServerFetchFails(e);
+          return;
+        }
+        long now = System.currentTimeMillis();
+        final CacheEntry entry = new CacheEntry(
+            Collections.unmodifiableList(new ArrayList<>(servers)),
+            now,
+            Math.min(now + ttlMillis, credentialExpiryMillis(servers)));
+        List<Callback> toNotify;
+        synchronized (lock) {
+          if (fetchGeneration != generation) return;
+          fetching = false;
+          current = entry;
+          scheduleRefresh(entry);
+          toNotify = new ArrayList<>(waitingCallbacks);
+          waitingCallbacks.clear();
+        }
+        MEMORY_CACHE.put(cacheKey, entry);
+        scheduler.execute(new Runnable() {
+          @Override
+          public void run() {
+            writeCacheFile(entry);
+          }
+        });
+        for (Callback waiting : toNotify) {
+          waiting.onServersFetched();
+        }
+      }
+
+      @Override
+      public void onServerFetchFails(NetworkException e) {
+        List<Callback> toNotify;
+        synchronized (lock) {
+          if (fetchGeneration != generation) return;
+          fetching = false;
+          toNotify = new ArrayList<>(waitingCallbacks);
+          waitingCallbacks.clear();
+          if (toNotify.isEmpty() && current != null) {
+            // A background refresh, try again while the cached credentials are still valid.
+            long retryInMillis = Math.max(
+                MIN_RETRY_MILLIS, (current.expiresAtMillis - System.currentTimeMillis()) / 2);
+            Log.w(TAG, "Failed refreshing servers, retrying in " + retryInMillis + "ms.", e);
+            scheduleRefreshIn(retryInMillis);
+          }
+        }
+        for (Callback waiting : toNotify) {
+          waiting.onServerFetchFails(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Earliest expiry time of TURN REST API credentials, whose username is
+   * {@code <unix time>:<user>}, or {@link Long#MAX_VALUE} if no username carries one.
+   */
+  private static long credentialExpiryMillis(List<PeerConnection.IceServer> servers) {
+    long expiryMillis = Long.MAX_VALUE;
+    for (PeerConnection.IceServer server : servers) {
+      if (server.username == null) continue;
+      int colon = server.username.indexOf(':');
+      if (colon <= 0) continue;
+      long expirySeconds;
+      try {
+        expirySeconds = Long.parseLong(server.username.substring(0, colon));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      if (expirySeconds >= MIN_EXPIRY_SECONDS && expirySeconds <= MAX_EXPIRY_SECONDS) {
+        expiryMillis = Math.min(expiryMillis, TimeUnit.SECONDS.toMillis(expirySeconds));
+      }
+    }
+    return expiryMillis;
+  }
+
+  /** Must hold the {@code lock}. */
+  private void scheduleRefresh(CacheEntry entry) {
+    long refreshAtMillis = entry.fetchedAtMillis
+        + (long) ((entry.expiresAtMillis - entry.fetchedAtMillis) * refreshFraction);
+    scheduleRefreshIn(Math.max(0, refreshAtMillis - System.currentTimeMillis()));
+  }
+
+  /** Must hold the {@code lock}. */
+  private void scheduleRefreshIn(long delayMillis) {
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    scheduledRefresh = scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        fetchFromDelegate(null);
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Nullable
+  private CacheEntry readCacheFile() {
+    if (cacheFile == null || !cacheFile.exists()) return null;
+    try {
+      InputStream in = new FileInputStream(cacheFile);
+      try {
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        StringBuilder json = new StringBuilder();
+        char[] buffer = new char[4096];
+        for (int read; (read = reader.read(buffer)) != -1;) {
+          json.append(buffer, 0, read);
+        }
+        return CacheEntry.fromJson(new JSONObject(json.toString()));
+      } finally {
+        in.close();
+      }
+    } catch (IOException | JSONException e) {
+      Log.w(TAG, "Ignoring unreadable cache file " + cacheFile, e);
+      return null;
+    }
+  }
+
+  private void writeCacheFile(CacheEntry entry) {
+    if (cacheFile == null) return;
+    File tempFile = new File(cacheFile.getPath() + ".tmp");
+    try {
+      OutputStream out = new FileOutputStream(tempFile);
+      try {
+        out.write(entry.toJson().toString().getBytes("UTF-8"));
+      } finally {
+        out.close();
+      }
+      if (!tempFile.renameTo(cacheFile)) {
+        throw new IOException("Failed renaming " + tempFile + " to " + cacheFile);
+      }
+    } catch (IOException | JSONException e) {
+      Log.w(TAG, "Failed writing cache file " + cacheFile, e);
+      tempFile.delete();
+    }
+  }
+
+  /** Servers fetched at a point in time, with the wall clock time their credentials expire. */
+  private static class CacheEntry {
+    private static final String FETCHED_AT = "fetchedAt";
+    private static final String EXPIRES_AT = "expiresAt";
+    private static final String SERVERS = "servers";
+    private static final String URI = "uri";
+    private static final String USERNAME = "username";
+    private static final String PASSWORD = "password";
+
+    private final List<PeerConnection.IceServer> servers;
+    private final long fetchedAtMillis;
+    private final long expiresAtMillis;
+
+    private CacheEntry(
+        List<PeerConnection.IceServer> servers, long fetchedAtMillis, long expiresAtMillis) {
+      this.servers = servers;
+      this.fetchedAtMillis = fetchedAtMillis;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    private boolean isExpired() {
+      return System.currentTimeMillis() >= expiresAtMillis;
+    }
+
+    private JSONObject toJson() throws JSONException {
+      JSONArray serversJson = new JSONArray();
+      for (PeerConnection.IceServer server : servers) {
+        serversJson.put(new JSONObject()
+            .put(URI, server.uri)
+            .put(USERNAME, server.username)
+            .put(PASSWORD, server.password));
+      }
+      return new JSONObject()
+          .put(FETCHED_AT, fetchedAtMillis)
+          .put(EXPIRES_AT, expiresAtMillis)
+          .put(SERVERS, serversJson);
+    }
+
+    private static CacheEntry fromJson(JSONObject json) throws JSONException {
+      JSONArray serversJson = json.getJSONArray(SERVERS);
+      List<PeerConnection.IceServer> servers = new ArrayList<>(serversJson.length());
+      for (int i = 0; i < serversJson.length(); i++) {
+        JSONObject server = serversJson.getJSONObject(i);
+        servers.add(new PeerConnection.IceServer(
+            server.getString(URI),
+            server.optString(USERNAME, ""),
+            server.optString(PASSWORD, "")));
+      }
+      return new CacheEntry(
+          Collections.unmodifiableList(servers),
+          json.getLong(FETCHED_AT),
+          json.getLong(EXPIRES_AT));
+    }
+  }
+
+  /** Builder of {@link CachingStunTurnServerProvider}. */
+  public static class Builder {
+    private final StunTurnServerProvider delegate;
+    private final String cacheKey;
+    @Nullable private File cacheDir;
+    private long ttlMillis;
+    private double refreshFraction;
+    @Nullable private ScheduledExecutorService scheduler;
+
+    /**
+     * Caches the servers of the delegate under the key, which should identify the account the
+     * credentials belong to, see {@link #cacheKeyOf(XirSysStunTurnServerProvider)}.
+     */
+    public Builder(StunTurnServerProvider delegate, String cacheKey) {
+      this.delegate = delegate;
+      this.cacheKey = cacheKey;
+      this.cacheDir = null;
+      this.ttlMillis = DEFAULT_TTL_MILLIS;
+      this.refreshFraction = DEFAULT_REFRESH_FRACTION;
+      this.scheduler = null;
+    }
+
+    /** Directory of the disk cache, e.g. {@code Context#getCacheDir()}. Memory only if unset. */
+    public Builder setCacheDir(File cacheDir) {
+      this.cacheDir = cacheDir;
+      return this;
+    }
+
+    /**
+     * How long fetched credentials are valid, at most as long as the delegate grants them.
+     * Credentials carrying an earlier expiry time expire then.
+     */
+    public Builder setTtlMillis(long ttlMillis) {
+      this.ttlMillis = ttlMillis;
+      return this;
+    }
+
+    /** Share of the TTL after which the servers are fetched again in the background. */
+    public Builder setRefreshFraction(double refreshFraction) {
+      this.refreshFraction = refreshFraction;
+      return this;
+    }
+
+    /** Scheduler for disk access and refreshes, a dedicated thread by default. */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    public CachingStunTurnServerProvider build() {
+      return new CachingStunTurnServerProvider(this);
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package cceh.androidrtclibrary.network;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StunTurnServerProvider} backed by several providers, e.g. several TURN vendors.
+ *
+ * Providers are asked in the given order. The next one is asked right away when a provider fails,
+ * and also as a hedge when it is slower than its usual latency percentile. The fetch completes on
+ * the first adequate answer, with the servers of all answers received so far, without duplicates.
+ * Providers still running then complete in the background, only to feed their
+ * {@link LatencyStats}.
+ */
+public class CompositeStunTurnServerProvider implements StunTurnServerProvider {
+  private static final String TAG = "CompositeServerProvider";
+
+  public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+  public static final long DEFAULT_INITIAL_HEDGE_DELAY_MILLIS = 1000;
+  public static final int DEFAULT_MIN_TURN_SERVERS = 1;
+  /** Latencies needed before the percentile is trusted over the initial hedge delay. */
+  private static final int MIN_SAMPLES_FOR_PERCENTILE = 5;
+
+  private final List<StunTurnServerProvider> providers;
+  private final List<LatencyStats> latencyStats;
+  private final double hedgePercentile;
+  private final long initialHedgeDelayMillis;
+  private final int minTurnServers;
+  private final ScheduledExecutorService scheduler;
+  private final Object lock;
+
+  @Nullable private volatile List<PeerConnection.IceServer> iceServers;
+  @Nullable private Fetch currentFetch;
+
+  private CompositeStunTurnServerProvider(Builder builder) {
+    this.providers = Collections.unmodifiableList(new ArrayList<>(builder.providers));
+    List<LatencyStats> stats = new ArrayList<>();
+    for (int i = 0; i < providers.size(); i++) {
+      stats.add(new LatencyStats());
+    }
+    this.latencyStats = Collections.unmodifiableList(stats);
+    this.hedgePercentile = builder.hedgePercentile;
+    this.initialHedgeDelayMillis = builder.initialHedgeDelayMillis;
+    this.minTurnServers = builder.minTurnServers;
+    this.scheduler = builder.scheduler != null
+        ? builder.scheduler
+        : Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.lock = new Object();
+
+    this.iceServers = null;
+    this.currentFetch = null;
+  }
+
+  /** Starts a fetch, a fetch already running is cancelled. */
+  @Override
+  public void fetchServers(Callback callback) {
+    Fetch fetch = new Fetch(callback);
+    Fetch previous;
+    synchronized (lock) {
+      previous = currentFetch;
+      currentFetch = fetch;
+    }
+    // Outside the lock, a fetch takes its own monitor before the lock.
+    if (previous != null) {
+      previous.cancel();
+    }
+    fetch.launchNext();
+  }
+
+  @Override
+  public void cancelFetch() {
+    Fetch previous;
+    synchronized (lock) {
+      previous = currentFetch;
+      currentFetch = null;
+    }
+    if (previous != null) {
+      previous.cancel();
+    }
+    for (StunTurnServerProvider provider : providers) {
+      provider.cancelFetch();
+    }
+  }
+
+  @Override
+  public List<PeerConnection.IceServer> getServers() throws NetworkException {
+    List<PeerConnection.IceServer> servers = iceServers;
+    if (servers == null) {
+      throw new NetworkException("Servers are not fetched yet.");
+    }
+    return servers;
+  }
+
+  /** Latency stats of the provider at the index given to the {@link Builder}. */
+  public LatencyStats getLatencyStats(int providerIndex) {
+    return latencyStats.get(providerIndex);
+  }
+
+  /** How long to wait for a provider before asking the next one as well. */
+  private long hedgeDelayMillis(int providerIndex) {
+    LatencyStats stats = latencyStats.get(providerIndex);
+    if (stats.getSampleCount() < MIN_SAMPLES_FOR_PERCENTILE) {
+      return initialHedgeDelayMillis;
+    }
+    return stats.getPercentileMillis(hedgePercentile);
+  }
+
+  private static boolean isTurn(PeerConnection.IceServer server) {
+    return server.uri.startsWith("turn:") || server.uri.startsWith("turns:");
+  }
+
+  /** One call to {@link #fetchServers(Callback)}, guarded by its own monitor. */
+  private class Fetch {
+    private final Callback callback;
+    private final Map<String, PeerConnection.IceServer> collected;
+    private final List<ScheduledFuture<?>> hedgeTimers;
+    private int nextProvider;
+    private int inFlight;
+    private int turnServers;
+    private boolean done;
+    @Nullable private NetworkException lastFailure;
+
+    private Fetch(Callback callback) {
+      this.callback = callback;
+      this.collected = new LinkedHashMap<>();
+      this.hedgeTimers = new ArrayList<>();
+      this.nextProvider = 0;
+      this.inFlight = 0;
+      this.turnServers = 0;
+      this.done = false;
+      this.lastFailure = null;
+    }
+
+    /** Asks the next provider, unless all were asked or the fetch is done. */
+    private void launchNext() {
+      final int index;
+      synchronized (this) {
+        if (done) return;
+        if (nextProvider >= providers.size()) {
+          if (inFlight == 0) {
+            finish();
+          }
+          return;
+        }
+        index = nextProvider++;
+        inFlight++;
+        if (nextProvider < providers.size()) {
+          hedgeTimers.add(scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              Log.d(TAG, "Provider " + index + " is slow, hedging with the next one.");
+              launchNext();
+            }
+          }, hedgeDelayMillis(index), TimeUnit.MILLISECONDS));
+        }
+      }
+
+      final long startNanos = System.nanoTime();
+      final StunTurnServerProvider provider = providers.get(index);
+      provider.fetchServers(new Callback() {
+        @Override
+        public void onServersFetched() {
+          List<PeerConnection.IceServer> servers;
+          try {
+            servers = provider.getServers();
+          } catch (NetworkException e) {
+            onServerFetchFails(e);
+            return;
+          }
+          latencyStats.get(index).recordSuccess(
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+          onAnswer(servers);
+        }
+
+        @Override
+        public void onServerFetchFails(NetworkException e) {
+          latencyStats.get(index).recordFailure();
+          Log.w(TAG, "Provider " + index + " failed.", e);
+          onFailure(e);
+        }
+      });
+    }
+
+    private void onAnswer(List<PeerConnection.IceServer> servers) {
+      boolean askNext;
+      synchronized (this) {
+        inFlight--;
+        if (done) return;
+        for (PeerConnection.IceServer server : servers) {
+          String key = server.uri + "|" + server.username;
+          if (!collected.containsKey(key)) {
+            collected.put(key, server);
+            if (isTurn(server)) turnServers++;
+          }
+        }
+        if (!collected.isEmpty() && turnServers >= minTurnServers) {
+          finish();
+          return;
+        }
+        // Not enough yet, ask the next provider without waiting for the hedge.
+        askNext = inFlight == 0;
+      }
+      if (askNext) {
+        launchNext();
+      }
+    }
+
+    private void onFailure(NetworkException e) {
+      synchronized (this) {
+        inFlight--;
+        if (done) return;
+        lastFailure = e;
+      }
+      launchNext();
+    }
+
+    /** Must hold the monitor of this fetch. */
+    private void finish() {
+      done = true;
+      cancelHedgeTimers();
+      final List<PeerConnection.IceServer> servers =
+          Collections.unmodifiableList(new ArrayList<>(collected.values()));
+      synchronized (lock) {
+        if (currentFetch != this) return;
+        currentFetch = null;
+        if (!servers.isEmpty()) {
+          iceServers = servers;
+        }
+      }
+      // Called back from the scheduler, not while holding the monitor.
+      scheduler.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!servers.isEmpty()) {
+            callback.onServersFetched();
+          } else {
+            callback.onServerFetchFails(lastFailure != null
+                ? lastFailure
+                : new NetworkException("No provider returned any server."));
+          }
+        }
+      });
+    }
+
+    private synchronized void cancel() {
+      done = true;
+      cancelHedgeTimers();
+    }
+
+    /** Must hold the monitor of this fetch. */
+    private void cancelHedgeTimers() {
+      for (ScheduledFuture<?> timer : hedgeTimers) {
+        timer.cancel(false);
+      }
+      hedgeTimers.clear();
+    }
+  }
+
+  /** Builder of {@link CompositeStunTurnServerProvider}. */
+  public static class Builder {
+    private final List<StunTurnServerProvider> providers;
+    private double hedgePercentile;
+    private long initialHedgeDelayMillis;
+    private int minTurnServers;
+    @Nullable private ScheduledExecutorService scheduler;
+
+    public Builder() {
+      this.providers = new ArrayList<>();
+      this.hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+      this.initialHedgeDelayMillis = DEFAULT_INITIAL_HEDGE_DELAY_MILLIS;
+      this.minTurnServers = DEFAULT_MIN_TURN_SERVERS;
+      this.scheduler = null;
+    }
+
+    /** Adds a provider, providers are asked in the order they are added. */
+    public Builder addProvider(StunTurnServerProvider provider) {
+      this.providers.add(provider);
+      return this;
+    }
+
+    /** Latency percentile of a provider after which the next provider is asked as well. */
+    public Builder setHedgePercentile(double hedgePercentile) {
+      this.hedgePercentile = hedgePercentile;
+      return this;
+    }
+
+    /** Hedge delay used until a provider has enough latency samples. */
+    public Builder setInitialHedgeDelayMillis(long initialHedgeDelayMillis) {
+      this.initialHedgeDelayMillis = initialHedgeDelayMillis;
+      return this;
+    }
+
+    /**
+     * Number of TURN servers which makes an answer adequate. With 0 any server is enough. If no
+     * provider gets there, the fetch completes with whatever was received.
+     */
+    public Builder setMinTurnServers(int minTurnServers) {
+      this.minTurnServers = minTurnServers;
+      return this;
+    }
+
+    /** Scheduler of the hedge timers and callbacks, a dedicated thread by default. */
+    public Builder setScheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    public CompositeStunTurnServerProvider build() {
+      if (providers.isEmpty()) {
+        throw new IllegalStateException("At least one provider is needed.");
+      }
+      return new CompositeStunTurnServerProvider(this);
+    }
+  }
+}
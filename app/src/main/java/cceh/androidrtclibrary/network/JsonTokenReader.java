@@ -0,0 +1,52 @@
+package cceh.androidrtclibrary.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming JSON reader the {@link XirSysResponseParser} pulls tokens from. On a device it reads
+ * with {@link android.util.JsonReader}, see {@link AndroidJsonTokenReader}; tests on the JVM can
+ * read with any other streaming parser.
+ *
+ * Calls with an unexpected token throw {@link IllegalStateException}, like the android reader.
+ */
+interface JsonTokenReader {
+  /** Kinds of token, named like the ones of {@link android.util.JsonToken}. */
+  enum Token {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+  }
+
+  /** Opens a reader on a UTF-8 stream. */
+  interface Factory {
+    JsonTokenReader open(InputStream in) throws IOException;
+  }
+
+  void beginArray() throws IOException;
+
+  void endArray() throws IOException;
+
+  void beginObject() throws IOException;
+
+  void endObject() throws IOException;
+
+  boolean hasNext() throws IOException;
+
+  Token peek() throws IOException;
+
+  String nextName() throws IOException;
+
+  String nextString() throws IOException;
+
+  void nextNull() throws IOException;
+
+  void skipValue() throws IOException;
+}
@@ -0,0 +1,77 @@
+package cceh.androidrtclibrary.network;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the recent successful calls to a provider, and counts of successes and failures.
+ * Thread safe.
+ */
+public class LatencyStats {
+  public static final int DEFAULT_WINDOW_SIZE = 64;
+
+  private final long[] window;
+  private int next;
+  private int size;
+  private long successCount;
+  private long failureCount;
+
+  public LatencyStats() {
+    this(DEFAULT_WINDOW_SIZE);
+  }
+
+  /** Keeps the latencies of the last {@code windowSize} successful calls. */
+  public LatencyStats(int windowSize) {
+    this.window = new long[windowSize];
+    this.next = 0;
+    this.size = 0;
+    this.successCount = 0;
+    this.failureCount = 0;
+  }
+
+  public synchronized void recordSuccess(long latencyMillis) {
+    window[next] = latencyMillis;
+    next = (next + 1) % window.length;
+    size = Math.min(size + 1, window.length);
+    successCount++;
+  }
+
+  public synchronized void recordFailure() {
+    failureCount++;
+  }
+
+  public synchronized long getSuccessCount() {
+    return successCount;
+  }
+
+  public synchronized long getFailureCount() {
+    return failureCount;
+  }
+
+  /** Number of latencies in the window. */
+  public synchronized int getSampleCount() {
+    return size;
+  }
+
+  /**
+   * The latency under which the given share of recent calls completed, e.g. 0.95 for the 95th
+   * percentile. Returns -1 without samples.
+   */
+  public long getPercentileMillis(double percentile) {
+    long[] samples;
+    synchronized (this) {
+      if (size == 0) return -1;
+      samples = Arrays.copyOf(window, size);
+    }
+    Arrays.sort(samples);
+    int index = (int) Math.ceil(percentile * samples.length) - 1;
+    return samples[Math.max(0, Math.min(samples.length - 1, index))];
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyStats{p50=" + getPercentileMillis(0.5)
+        + "ms, p95=" + getPercentileMillis(0.95)
+        + "ms, successes=" + getSuccessCount()
+        + ", failures=" + getFailureCount() + "}";
+  }
+}
@@ -0,0 +1,140 @@
+package cceh.androidrtclibrary.network;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link StunTurnServerProvider} which probes the servers of another provider with a
+ * {@link StunServerProber}, and only hands out the fastest reachable servers of each type. Fewer
+ * servers make every PeerConnection gather faster and send fewer candidates.
+ *
+ * If no server answers at all, e.g. because UDP is blocked, the full list is kept.
+ */
+public class ProbingStunTurnServerProvider implements StunTurnServerProvider {
+  private static final String TAG = "ProbingServerProvider";
+
+  public static final int DEFAULT_MAX_SERVERS_PER_TYPE = 2;
+
+  private final StunTurnServerProvider delegate;
+  private final StunServerProber prober;
+  private final int maxServersPerType;
+  private final Executor probeExecutor;
+  private final Object lock;
+
+  @Nullable private volatile List<PeerConnection.IceServer> iceServers;
+  private int generation;
+
+  public ProbingStunTurnServerProvider(StunTurnServerProvider delegate) {
+    this(
+        delegate,
+        new StunServerProber(),
+        DEFAULT_MAX_SERVERS_PER_TYPE,
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          }
+        }));
+  }
+
+  /** Probes on the given executor, which may block for the probe timeout. */
+  public ProbingStunTurnServerProvider(
+      StunTurnServerProvider delegate,
+      StunServerProber prober,
+      int maxServersPerType,
+      Executor probeExecutor) {
+    this.delegate = delegate;
+    this.prober = prober;
+    this.maxServersPerType = maxServersPerType;
+    this.probeExecutor = probeExecutor;
+    this.lock = new Object();
+
+    this.iceServers = null;
+    this.generation = 0;
+  }
+
+  @Override
+  public void fetchServers(final Callback callback) {
+    final int fetchGeneration;
+    synchronized (lock) {
+      fetchGeneration = ++generation;
+    }
+    delegate.fetchServers(new Callback() {
+      @Override
+      public void onServersFetched() {
+        probeExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            probe(fetchGeneration, callback);
+          }
+        });
+      }
+
+      @Override
+      public void onServerFetchFails(NetworkException e) {
+        if (isCurrent(fetchGeneration)) {
+          callback.onServerFetchFails(e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void cancelFetch() {
+    synchronized (lock) {
+      generation++;
+    }
+    delegate.cancelFetch();
+  }
+
+  @Override
+  public List<PeerConnection.IceServer> getServers() throws NetworkException {
+    List<PeerConnection.IceServer> servers = iceServers;
+    if (servers == null) {
+      throw new NetworkException("Servers are not fetched yet.");
+    }
+    return servers;
+  }
+
+  private void probe(int fetchGeneration, Callback callback) {
+    if (!isCurrent(fetchGeneration)) return;
+    List<PeerConnection.IceServer> all;
+    try {
+      all = delegate.getServers();
+    } catch (NetworkException e) {
+      callback.onServerFetchFails(e);
+      return;
+    }
+
+    long start = System.nanoTime();
+    List<StunServerProber.ProbeResult> results = prober.probe(all);
+    List<PeerConnection.IceServer> ranked = StunServerProber.rank(results, maxServersPerType);
+    Log.i(TAG, "Probed " + all.size() + " servers in "
+        + (System.nanoTime() - start) / 1000000 + "ms, keeping " + ranked + " of " + results);
+    if (ranked.isEmpty()) {
+      Log.w(TAG, "No server answered, keeping all of them.");
+      ranked = all;
+    }
+
+    synchronized (lock) {
+      if (fetchGeneration != generation) return;
+      iceServers = ranked;
+    }
+    callback.onServersFetched();
+  }
+
+  private boolean isCurrent(int fetchGeneration) {
+    synchronized (lock) {
+      return fetchGeneration == generation;
+    }
+  }
+}
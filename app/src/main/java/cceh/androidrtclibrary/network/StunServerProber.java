@@ -0,0 +1,435 @@
+package cceh.androidrtclibrary.network;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.webrtc.PeerConnection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Probes STUN and TURN servers in parallel and ranks them by round trip time.
+ *
+ * Servers reached over UDP get a STUN binding request, all sent from a single non-blocking
+ * {@link DatagramChannel}. TURN servers over TCP or TLS get a non-blocking TCP connect instead.
+ * Results are cached by server url for a TTL, so probing the same list again is free.
+ */
+public class StunServerProber {
+  private static final String TAG = "StunServerProber";
+
+  public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+  public static final long DEFAULT_RESULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+  private static final int STUN_PORT = 3478;
+  private static final int STUNS_PORT = 5349;
+  private static final int BINDING_REQUEST = 0x0001;
+  private static final int BINDING_SUCCESS_RESPONSE = 0x0101;
+  private static final int BINDING_ERROR_RESPONSE = 0x0111;
+  private static final int MAGIC_COOKIE = 0x2112A442;
+  private static final int HEADER_LENGTH = 20;
+  private static final int RESOLVE_THREADS = 8;
+
+  /** How a server is reached, servers are ranked within their type. */
+  public enum ServerType {
+    STUN,
+    TURN_UDP,
+    TURN_TCP
+  }
+
+  /** Outcome of probing one server. */
+  public static class ProbeResult {
+    private final PeerConnection.IceServer server;
+    private final ServerType type;
+    private final boolean reachable;
+    private final long rttMillis;
+    private final long probedAtMillis;
+
+    private ProbeResult(
+        PeerConnection.IceServer server,
+        ServerType type,
+        boolean reachable,
+        long rttMillis,
+        long probedAtMillis) {
+      this.server = server;
+      this.type = type;
+      this.reachable = reachable;
+      this.rttMillis = rttMillis;
+      this.probedAtMillis = probedAtMillis;
+    }
+
+    public PeerConnection.IceServer getServer() {
+      return server;
+    }
+
+    public ServerType getType() {
+      return type;
+    }
+
+    public boolean isReachable() {
+      return reachable;
+    }
+
+    /** Round trip time, -1 if not reachable. */
+    public long getRttMillis() {
+      return rttMillis;
+    }
+
+    @Override
+    public String toString() {
+      return server.uri + (reachable ? " " + rttMillis + "ms" : " unreachable");
+    }
+  }
+
+  private final long timeoutMillis;
+  private final long resultTtlMillis;
+  private final Random random;
+  private final Map<String, ProbeResult> cachedResults;
+
+  public StunServerProber() {
+    this(DEFAULT_TIMEOUT_MILLIS, DEFAULT_RESULT_TTL_MILLIS);
+  }
+
+  public StunServerProber(long timeoutMillis, long resultTtlMillis) {
+    this.timeoutMillis = timeoutMillis;
+    this.resultTtlMillis = resultTtlMillis;
+    this.random = new SecureRandom();
+    this.cachedResults = new HashMap<>();
+  }
+
+  /**
+   * Probes all servers at once, blocking for about the timeout at most, plus name resolution.
+   * Returns one result per server, in the given order.
+   */
+  public List<ProbeResult> probe(List<PeerConnection.IceServer> servers) {
+    long now = System.currentTimeMillis();
+    List<ProbeResult> results =
+        new ArrayList<>(Collections.<ProbeResult>nCopies(servers.size(), null));
+    List<Probe> probes = new ArrayList<>();
+    synchronized (cachedResults) {
+      for (int i = 0; i < servers.size(); i++) {
+        ProbeResult cached = cachedResults.get(servers.get(i).uri);
+        if (cached != null && now - cached.probedAtMillis < resultTtlMillis) {
+          results.set(i, cached);
+        } else {
+          probes.add(new Probe(i, servers.get(i)));
+        }
+      }
+    }
+    if (!probes.isEmpty()) {
+      resolve(probes);
+      run(probes);
+    }
+
+    long probedAtMillis = System.currentTimeMillis();
+    synchronized (cachedResults) {
+      for (Probe probe : probes) {
+        ProbeResult result = new ProbeResult(
+            probe.server,
+            probe.type,
+            probe.rttNanos >= 0,
+            probe.rttNanos >= 0 ? TimeUnit.NANOSECONDS.toMillis(probe.rttNanos) : -1,
+            probedAtMillis);
+        cachedResults.put(probe.server.uri, result);
+        results.set(probe.index, result);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The reachable servers, fastest first, keeping at most {@code maxPerType} of each
+   * {@link ServerType}.
+   */
+  public static List<PeerConnection.IceServer> rank(List<ProbeResult> results, int maxPerType) {
+    List<ProbeResult> reachable = new ArrayList<>();
+    for (ProbeResult result : results) {
+      if (result.reachable) {
+        reachable.add(result);
+      }
+    }
+    Collections.sort(reachable, new Comparator<ProbeResult>() {
+      @Override
+      public int compare(ProbeResult a, ProbeResult b) {
+        return a.rttMillis < b.rttMillis ? -1 : a.rttMillis == b.rttMillis ? 0 : 1;
+      }
+    });
+    Map<ServerType, Integer> kept = new EnumMap<>(ServerType.class);
+    List<PeerConnection.IceServer> ranked = new ArrayList<>();
+    for (ProbeResult result : reachable) {
+      Integer count = kept.get(result.type);
+      if (count == null) count = 0;
+      if (count < maxPerType) {
+        kept.put(result.type, count + 1);
+        ranked.add(result.server);
+      }
+    }
+    return ranked;
+  }
+
+  /** Resolves host names in parallel, unresolvable servers stay unreachable. */
+  private void resolve(List<Probe> probes) {
+    ExecutorService resolver =
+        Executors.newFixedThreadPool(Math.min(RESOLVE_THREADS, probes.size()));
+    try {
+      List<Future<InetSocketAddress>> addresses = new ArrayList<>();
+      for (final Probe probe : probes) {
+        addresses.add(resolver.submit(new Callable<InetSocketAddress>() {
+          @Override
+          public InetSocketAddress call() {
+            return parseAddress(probe);
+          }
+        }));
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      for (int i = 0; i < probes.size(); i++) {
+        try {
+          probes.get(i).address = addresses.get(i).get(
+              Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+          Log.d(TAG, "Could not resolve " + probes.get(i).server.uri);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      resolver.shutdownNow();
+    }
+  }
+
+  /** Sends all probes and waits for the answers until the timeout. */
+  private void run(List<Probe> probes) {
+    Selector selector = null;
+    DatagramChannel udp = null;
+    Map<ByteBuffer, Probe> byTransactionId = new HashMap<>();
+    try {
+      selector = Selector.open();
+      udp = DatagramChannel.open();
+      udp.configureBlocking(false);
+      udp.socket().bind(null);
+      udp.register(selector, SelectionKey.OP_READ);
+
+      int pending = 0;
+      for (Probe probe : probes) {
+        if (probe.address == null) continue;
+        probe.sentAtNanos = System.nanoTime();
+        if (probe.type == ServerType.TURN_TCP) {
+          SocketChannel tcp = SocketChannel.open();
+          tcp.configureBlocking(false);
+          probe.tcp = tcp;
+          try {
+            if (tcp.connect(probe.address)) {
+              probe.rttNanos = System.nanoTime() - probe.sentAtNanos;
+              continue;
+            }
+          } catch (IOException e) {
+            Log.d(TAG, "Failed connecting to " + probe.server.uri + ": " + e.getMessage());
+            continue;
+          }
+          tcp.register(selector, SelectionKey.OP_CONNECT, probe);
+        } else {
+          probe.transactionId = new byte[12];
+          random.nextBytes(probe.transactionId);
+          byTransactionId.put(ByteBuffer.wrap(probe.transactionId), probe);
+          sendBindingRequest(udp, probe);
+        }
+        pending++;
+      }
+
+      long startNanos = System.nanoTime();
+      long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      // Send the binding requests once more halfway, in case one got lost.
+      long retransmitNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis / 2);
+      boolean retransmitted = false;
+      ByteBuffer response = ByteBuffer.allocate(1500);
+      while (pending > 0) {
+        long now = System.nanoTime();
+        if (now >= deadlineNanos) break;
+        if (!retransmitted && now >= retransmitNanos) {
+          retransmitted = true;
+          for (Probe probe : byTransactionId.values()) {
+            if (probe.rttNanos < 0) {
+              sendBindingRequest(udp, probe);
+            }
+          }
+        }
+        long waitUntil = retransmitted ? deadlineNanos : retransmitNanos;
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitUntil - now)));
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.channel() == udp) {
+            pending -= receiveResponses(udp, response, byTransactionId);
+          } else if (key.isConnectable()) {
+            Probe probe = (Probe) key.attachment();
+            try {
+              if (probe.tcp.finishConnect()) {
+                probe.rttNanos = System.nanoTime() - probe.sentAtNanos;
+                pending--;
+                key.cancel();
+              }
+            } catch (IOException e) {
+              // Refused, stays unreachable.
+              pending--;
+              key.cancel();
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Probing failed.", e);
+    } finally {
+      for (Probe probe : probes) {
+        closeQuietly(probe.tcp);
+      }
+      closeQuietly(udp);
+      closeQuietly(selector);
+    }
+  }
+
+  private static void sendBindingRequest(DatagramChannel udp, Probe probe) throws IOException {
+    ByteBuffer request = ByteBuffer.allocate(HEADER_LENGTH);
+    request.putShort((short) BINDING_REQUEST);
+    request.putShort((short) 0);
+    request.putInt(MAGIC_COOKIE);
+    request.put(probe.transactionId);
+    request.flip();
+    try {
+      udp.send(request, probe.address);
+    } catch (IOException e) {
+      // E.g. no route to the host, stays unreachable.
+      Log.d(TAG, "Failed sending to " + probe.server.uri + ": " + e.getMessage());
+    }
+  }
+
+  /** Reads all available responses, returns the number of probes answered. */
+  private static int receiveResponses(
+      DatagramChannel udp, ByteBuffer response, Map<ByteBuffer, Probe> byTransactionId)
+      throws IOException {
+    int answered = 0;
+    while (true) {
+      response.clear();
+      SocketAddress from;
+      try {
+        from = udp.receive(response);
+      } catch (IOException e) {
+        // Port unreachable reported by some platforms, that probe times out.
+        return answered;
+      }
+      if (from == null) return answered;
+      long receivedAtNanos = System.nanoTime();
+      response.flip();
+      if (response.remaining() < HEADER_LENGTH) continue;
+      int type = response.getShort(0) & 0xFFFF;
+      if ((type != BINDING_SUCCESS_RESPONSE && type != BINDING_ERROR_RESPONSE)
+          || response.getInt(4) != MAGIC_COOKIE) {
+        continue;
+      }
+      byte[] transactionId = new byte[12];
+      response.position(8);
+      response.get(transactionId);
+      Probe probe = byTransactionId.get(ByteBuffer.wrap(transactionId));
+      if (probe != null && probe.rttNanos < 0) {
+        // An error response proves the server is alive as well.
+        probe.rttNanos = receivedAtNanos - probe.sentAtNanos;
+        answered++;
+      }
+    }
+  }
+
+  /** Parses the host and port of urls like {@code turn:host:port?transport=tcp}. */
+  @Nullable
+  private static InetSocketAddress parseAddress(Probe probe) {
+    String uri = probe.server.uri;
+    int schemeEnd = uri.indexOf(':');
+    if (schemeEnd < 0) return null;
+    String scheme = uri.substring(0, schemeEnd);
+    String rest = uri.substring(schemeEnd + 1);
+    int query = rest.indexOf('?');
+    String hostPort = query < 0 ? rest : rest.substring(0, query);
+
+    String host;
+    int port = scheme.endsWith("s") ? STUNS_PORT : STUN_PORT;
+    if (hostPort.startsWith("[")) {
+      int close = hostPort.indexOf(']');
+      host = hostPort.substring(1, close);
+      if (close + 1 < hostPort.length() && hostPort.charAt(close + 1) == ':') {
+        port = Integer.parseInt(hostPort.substring(close + 2));
+      }
+    } else {
+      int colon = hostPort.lastIndexOf(':');
+      host = colon < 0 ? hostPort : hostPort.substring(0, colon);
+      if (colon >= 0) {
+        port = Integer.parseInt(hostPort.substring(colon + 1));
+      }
+    }
+    InetSocketAddress address = new InetSocketAddress(host, port);
+    return address.isUnresolved() ? null : address;
+  }
+
+  private static ServerType typeOf(PeerConnection.IceServer server) {
+    String uri = server.uri;
+    if (uri.startsWith("turns:") || uri.contains("transport=tcp")) {
+      return ServerType.TURN_TCP;
+    }
+    return uri.startsWith("turn:") ? ServerType.TURN_UDP : ServerType.STUN;
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable == null) return;
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // Nothing to do.
+    }
+  }
+
+  /** State of probing one server. */
+  private static class Probe {
+    private final int index;
+    private final PeerConnection.IceServer server;
+    private final ServerType type;
+    @Nullable private InetSocketAddress address;
+    @Nullable private byte[] transactionId;
+    @Nullable private SocketChannel tcp;
+    private long sentAtNanos;
+    private long rttNanos;
+
+    private Probe(int index, PeerConnection.IceServer server) {
+      this.index = index;
+      this.server = server;
+      this.type = typeOf(server);
+      this.address = null;
+      this.transactionId = null;
+      this.tcp = null;
+      this.sentAtNanos = 0;
+      this.rttNanos = -1;
+    }
+  }
+}
@@ -26,6 +26,9 @@ public interface StunTurnServerProvider {
    */
   void fetchServers(Callback callback);
 
+  /** Cancels a fetch in progress, its {@link Callback} will not be called. */
+  void cancelFetch();
+
   /**
    * Call this after {@link Callback#onServersFetched()} is called.
    *
@@ -0,0 +1,126 @@
+package cceh.androidrtclibrary.network;
+
+import org.webrtc.PeerConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser of the XirSys ice response, which builds {@link PeerConnection.IceServer}s straight
+ * off the stream, without reading the body into a string or building a JSON tree.
+ *
+ * The response looks like:
+ * <pre>
+ *   {"e": null, "s": 200, "d": {"iceServers": [{"url": "...", "username": "...",
+ *       "credential": "..."}, ...]}}
+ * </pre>
+ * Unknown fields are skipped.
+ */
+final class XirSysResponseParser {
+  private static final String ERROR = "e";
+  private static final String DATA = "d";
+  private static final String ICE_SERVERS = "iceServers";
+  private static final String URL = "url";
+  private static final String URLS = "urls";
+  private static final String USERNAME = "username";
+  private static final String CREDENTIAL = "credential";
+
+  private XirSysResponseParser() {}
+
+  /** Parses the response with {@link android.util.JsonReader}. Does not close the stream. */
+  static List<PeerConnection.IceServer> parse(InputStream in)
+      throws IOException, NetworkException {
+    return parse(AndroidJsonTokenReader.FACTORY.open(in));
+  }
+
+  /** Parses the response, fails if it holds an error. */
+  static List<PeerConnection.IceServer> parse(JsonTokenReader reader)
+      throws IOException, NetworkException {
+    List<PeerConnection.IceServer> servers = new ArrayList<>();
+    String error = null;
+    boolean hasData = false;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (ERROR.equals(name) && reader.peek() != JsonTokenReader.Token.NULL) {
+        if (reader.peek() == JsonTokenReader.Token.STRING) {
+          error = reader.nextString();
+        } else {
+          error = "unknown";
+          reader.skipValue();
+        }
+      } else if (DATA.equals(name) && reader.peek() == JsonTokenReader.Token.BEGIN_OBJECT) {
+        hasData = true;
+        readData(reader, servers);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (error != null) {
+      throw new NetworkException("XirSys responded with error: " + error);
+    }
+    if (!hasData) {
+      throw new NetworkException("XirSys response has no data.");
+    }
+    return servers;
+  }
+
+  private static void readData(JsonTokenReader reader, List<PeerConnection.IceServer> servers)
+      throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (ICE_SERVERS.equals(reader.nextName()) && reader.peek() == JsonTokenReader.Token.BEGIN_ARRAY) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          readServer(reader, servers);
+        }
+        reader.endArray();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  /** Reads one server entry, which may list several urls for the same credentials. */
+  private static void readServer(JsonTokenReader reader, List<PeerConnection.IceServer> servers)
+      throws IOException {
+    List<String> urls = new ArrayList<>(1);
+    String username = "";
+    String credential = "";
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonTokenReader.Token.NULL) {
+        reader.nextNull();
+      } else if (URL.equals(name) || URLS.equals(name)) {
+        if (reader.peek() == JsonTokenReader.Token.BEGIN_ARRAY) {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            urls.add(reader.nextString());
+          }
+          reader.endArray();
+        } else {
+          urls.add(reader.nextString());
+        }
+      } else if (USERNAME.equals(name)) {
+        username = reader.nextString();
+      } else if (CREDENTIAL.equals(name)) {
+        credential = reader.nextString();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    for (String url : urls) {
+      servers.add(new PeerConnection.IceServer(url, username, credential));
+    }
+  }
+}
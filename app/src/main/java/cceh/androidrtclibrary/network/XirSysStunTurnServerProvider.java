@@ -1,38 +1,38 @@
 package cceh.androidrtclibrary.network;
 
-import android.os.AsyncTask;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.webrtc.PeerConnection;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * {@link StunTurnServerProvider} which fetches server info from www.xirsys.com .
  *
+ * The request runs on a background executor with connect and read timeouts, and the result is
+ * reported on the callback executor. By default the callback is called on the background thread.
+ *
  * Created by Charlie Chen (ccehshmily@gmail.com) on 4/6/17.
  */
 public class XirSysStunTurnServerProvider implements StunTurnServerProvider {
   private static final String TAG = "XirSysServerProvider";
 
-  private static final String XIRSYS_URL = "https://service.xirsys.com/ice";
+  public static final String XIRSYS_URL = "https://service.xirsys.com/ice";
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+  public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
   private static final String DOMAIN = "domain";
   private static final String APPLICATION = "application";
   private static final String ROOM = "room";
@@ -46,8 +46,16 @@ public class XirSysStunTurnServerProvider implements StunTurnServerProvider {
   private final String identity;
   private final String secret;
   private final String secure;
+  private final String url;
+  private final int connectTimeoutMillis;
+  private final int readTimeoutMillis;
+  private final Executor fetchExecutor;
+  private final Executor callbackExecutor;
+  private final JsonTokenReader.Factory readerFactory;
+  private final Object lock;
 
-  @Nullable private List<PeerConnection.IceServer> iceServers;
+  @Nullable private volatile List<PeerConnection.IceServer> iceServers;
+  @Nullable private Fetch currentFetch;
 
   public XirSysStunTurnServerProvider(
       String domain,
@@ -56,90 +64,136 @@ public class XirSysStunTurnServerProvider implements StunTurnServerProvider {
       String identity,
       String secret,
       String secure) {
-    this.domain = domain;
-    this.application = application;
-    this.room = room;
-    this.identity = identity;
-    this.secret = secret;
-    this.secure = secure;
+    this(new Builder(domain, application, room, identity, secret, secure));
+  }
+
+  private XirSysStunTurnServerProvider(Builder builder) {
+    this.domain = builder.domain;
+    this.application = builder.application;
+    this.room = builder.room;
+    this.identity = builder.identity;
+    this.secret = builder.secret;
+    this.secure = builder.secure;
+    this.url = builder.url;
+    this.connectTimeoutMillis = builder.connectTimeoutMillis;
+    this.readTimeoutMillis = builder.readTimeoutMillis;
+    this.fetchExecutor = builder.fetchExecutor != null
+        ? builder.fetchExecutor
+        : Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    this.callbackExecutor = builder.callbackExecutor;
+    this.readerFactory = builder.readerFactory;
+    this.lock = new Object();
 
     this.iceServers = null;
+    this.currentFetch = null;
   }
 
+  /** Returns right away, a fetch already running is cancelled. */
   @Override
   public void fetchServers(Callback callback) {
-    List<PeerConnection.IceServer> servers = new ArrayList<PeerConnection.IceServer>();
-
-    final HttpClient httpClient = new DefaultHttpClient();
-    HttpPost request = new HttpPost(XIRSYS_URL);
-    List<NameValuePair> data = new ArrayList<NameValuePair>();
-    data.add(new BasicNameValuePair(DOMAIN, domain));
-    data.add(new BasicNameValuePair(APPLICATION, application));
-    data.add(new BasicNameValuePair(ROOM, room));
-    data.add(new BasicNameValuePair(IDENTITY, identity));
-    data.add(new BasicNameValuePair(SECRET, secret));
-    data.add(new BasicNameValuePair(SECURE, secure));
-
-    //Encoding POST data
-    try {
-      request.setEntity(new UrlEncodedFormEntity(data));
-      AsyncTask<HttpPost, Void, HttpResponse> postRequest = new AsyncTask<HttpPost, Void, HttpResponse>() {
-        @Override
-        protected HttpResponse doInBackground(HttpPost... request) {
-          try {
-            return httpClient.execute(request[0]);
-          } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-          }
-        }
-      };
-      HttpResponse response = postRequest.execute(new HttpPost[] {request}).get();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(
-          response.getEntity().getContent(), "UTF-8"));
-
-      StringBuilder builder = new StringBuilder();
-      for (String line=null; (line = reader.readLine()) != null;) {
-        builder.append(line).append("\n");
-      }
-      JSONTokener tokener = new JSONTokener(builder.toString());
-      JSONObject json = new JSONObject(tokener);
-      if (json.isNull("e")) {
-        JSONArray iceServers = json.getJSONObject("d").getJSONArray("iceServers");
-        for (int i = 0; i < iceServers.length(); i++) {
-          JSONObject srv = iceServers.getJSONObject(i);
-          PeerConnection.IceServer is;
-          if (srv.has("username")) {
-            is = new PeerConnection.IceServer(
-                srv.getString("url"),
-                srv.getString("username"),
-                srv.getString("credential"));
-          } else {
-            is = new PeerConnection.IceServer(srv.getString("url"));
-          }
-          servers.add(is);
-        }
+    Fetch fetch = new Fetch(callback);
+    synchronized (lock) {
+      if (currentFetch != null) {
+        currentFetch.cancel();
       }
-    } catch (IOException | JSONException | InterruptedException | ExecutionException e) {
-      callback.onServerFetchFails(new NetworkException(e));
+      currentFetch = fetch;
     }
+    fetchExecutor.execute(fetch);
+  }
 
-    Log.i(TAG, "Servers: " + servers.toString());
-    this.iceServers = servers;
-    addKnownServers();
-    callback.onServersFetched();
+  @Override
+  public void cancelFetch() {
+    synchronized (lock) {
+      if (currentFetch != null) {
+        currentFetch.cancel();
+        currentFetch = null;
+      }
+    }
   }
 
   @Override
   public List<PeerConnection.IceServer> getServers() throws NetworkException {
-    if (iceServers == null) {
+    List<PeerConnection.IceServer> servers = iceServers;
+    if (servers == null) {
       throw new NetworkException("Servers are not fetched yet.");
     } else {
-      return iceServers;
+      return servers;
     }
   }
 
-  private void addKnownServers() {
+  public String getDomain() {
+    return domain;
+  }
+
+  public String getApplication() {
+    return application;
+  }
+
+  public String getRoom() {
+    return room;
+  }
+
+  private List<PeerConnection.IceServer> requestServers(Fetch fetch)
+      throws IOException, NetworkException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    fetch.connection = connection;
+    if (fetch.cancelled) {
+      throw new IOException("Fetch cancelled.");
+    }
+    try {
+      connection.setConnectTimeout(connectTimeoutMillis);
+      connection.setReadTimeout(readTimeoutMillis);
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      byte[] body = encodeForm().getBytes("UTF-8");
+      connection.setFixedLengthStreamingMode(body.length);
+      OutputStream out = connection.getOutputStream();
+      try {
+        out.write(body);
+      } finally {
+        out.close();
+      }
+
+      int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new NetworkException("XirSys responded with HTTP " + status + ".");
+      }
+      InputStream in = connection.getInputStream();
+      try {
+        return XirSysResponseParser.parse(readerFactory.open(in));
+      } finally {
+        in.close();
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private String encodeForm() throws IOException {
+    String[][] fields = {
+        {DOMAIN, domain},
+        {APPLICATION, application},
+        {ROOM, room},
+        {IDENTITY, identity},
+        {SECRET, secret},
+        {SECURE, secure}};
+    StringBuilder form = new StringBuilder();
+    for (String[] field : fields) {
+      if (form.length() > 0) form.append('&');
+      form.append(field[0]).append('=').append(URLEncoder.encode(field[1], "UTF-8"));
+    }
+    return form.toString();
+  }
+
+  private static void addKnownServers(List<PeerConnection.IceServer> iceServers) {
     iceServers.add(new PeerConnection.IceServer("stun:stun.l.google.com:19302"));
     iceServers.add(new PeerConnection.IceServer("stun:stun.services.mozilla.com"));
     iceServers.add(new PeerConnection.IceServer("turn:turn.bistri.com:80", "homeo", "homeo"));
@@ -166,4 +220,144 @@ public class XirSysStunTurnServerProvider implements StunTurnServerProvider {
     iceServers.add(new PeerConnection.IceServer("stun:stun.voxgratia.org"));
     iceServers.add(new PeerConnection.IceServer("stun:stun.xten.com"));
   }
+
+  /** One call to {@link #fetchServers(Callback)}, reports to its callback at most once. */
+  private class Fetch implements Runnable {
+    private final Callback callback;
+    private volatile boolean cancelled;
+    @Nullable private volatile HttpURLConnection connection;
+
+    private Fetch(Callback callback) {
+      this.callback = callback;
+      this.cancelled = false;
+      this.connection = null;
+    }
+
+    /** Must hold the {@code lock}. */
+    private void cancel() {
+      cancelled = true;
+      HttpURLConnection current = connection;
+      if (current != null) {
+        // Aborts a connect or read in progress.
+        current.disconnect();
+      }
+    }
+
+    @Override
+    public void run() {
+      if (cancelled) return;
+      try {
+        List<PeerConnection.IceServer> servers = requestServers(this);
+        Log.i(TAG, "Servers: " + servers.toString());
+        addKnownServers(servers);
+        complete(servers, null);
+      } catch (IOException | RuntimeException e) {
+        // JsonReader throws IllegalStateException on unexpected structure.
+        complete(null, new NetworkException(e));
+      } catch (NetworkException e) {
+        complete(null, e);
+      }
+    }
+
+    private void complete(
+        @Nullable List<PeerConnection.IceServer> servers, @Nullable final NetworkException e) {
+      synchronized (lock) {
+        if (cancelled || currentFetch != this) return;
+        currentFetch = null;
+        if (servers != null) {
+          iceServers = servers;
+        }
+      }
+      Runnable report = new Runnable() {
+        @Override
+        public void run() {
+          if (e != null) {
+            callback.onServerFetchFails(e);
+          } else {
+            callback.onServersFetched();
+          }
+        }
+      };
+      if (callbackExecutor != null) {
+        callbackExecutor.execute(report);
+      } else {
+        report.run();
+      }
+    }
+  }
+
+  /** Builder of {@link XirSysStunTurnServerProvider}, for non default network settings. */
+  public static class Builder {
+    private final String domain;
+    private final String application;
+    private final String room;
+    private final String identity;
+    private final String secret;
+    private final String secure;
+    private String url;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    @Nullable private Executor fetchExecutor;
+    @Nullable private Executor callbackExecutor;
+    private JsonTokenReader.Factory readerFactory;
+
+    public Builder(
+        String domain,
+        String application,
+        String room,
+        String identity,
+        String secret,
+        String secure) {
+      this.domain = domain;
+      this.application = application;
+      this.room = room;
+      this.identity = identity;
+      this.secret = secret;
+      this.secure = secure;
+      this.url = XIRSYS_URL;
+      this.connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+      this.readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+      this.fetchExecutor = null;
+      this.callbackExecutor = null;
+      this.readerFactory = AndroidJsonTokenReader.FACTORY;
+    }
+
+    public Builder setUrl(String url) {
+      this.url = url;
+      return this;
+    }
+
+    public Builder setConnectTimeoutMillis(int connectTimeoutMillis) {
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      return this;
+    }
+
+    public Builder setReadTimeoutMillis(int readTimeoutMillis) {
+      this.readTimeoutMillis = readTimeoutMillis;
+      return this;
+    }
+
+    /** Executor the request runs on, a dedicated thread by default. */
+    public Builder setFetchExecutor(Executor fetchExecutor) {
+      this.fetchExecutor = fetchExecutor;
+      return this;
+    }
+
+    /** Executor the {@link Callback} is called on, the fetching thread by default. */
+    public Builder setCallbackExecutor(Executor callbackExecutor) {
+      this.callbackExecutor = callbackExecutor;
+      return this;
+    }
+
+    /** Reader the response is parsed with, for tests off the device. */
+    @VisibleForTesting
+    Builder setReaderFactory(JsonTokenReader.Factory readerFactory) {
+      this.readerFactory = readerFactory;
+      return this;
+    }
+
+    public XirSysStunTurnServerProvider build() {
+      return new XirSysStunTurnServerProvider(this);
+    }
+  }
 }
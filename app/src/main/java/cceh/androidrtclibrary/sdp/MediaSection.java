@@ -0,0 +1,312 @@
+package cceh.androidrtclibrary.sdp;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A media section of a {@link Sdp}: the "m=" line, split into its fields, and the lines after it.
+ */
+public final class MediaSection {
+  public static final String AUDIO = "audio";
+  public static final String VIDEO = "video";
+
+  private static final String RTPMAP = "a=rtpmap:";
+  private static final String FMTP = "a=fmtp:";
+  private static final String RTCP_FB = "a=rtcp-fb:";
+  private static final String BANDWIDTH = "b=AS:";
+
+  private final String type;
+  private final String port;
+  private final String protocol;
+  private final List<String> formats;
+  private final List<String> lines;
+
+  /** Parses the "m=" line, e.g. "m=audio 9 UDP/TLS/RTP/SAVPF 111 103". */
+  MediaSection(String mediaLine) {
+    this.formats = new ArrayList<>();
+    this.lines = new ArrayList<>();
+    int typeEnd = indexOfSpace(mediaLine, 2);
+    int portEnd = indexOfSpace(mediaLine, typeEnd + 1);
+    int protocolEnd = indexOfSpace(mediaLine, portEnd + 1);
+    this.type = mediaLine.substring(2, typeEnd);
+    this.port = portEnd > typeEnd ? mediaLine.substring(typeEnd + 1, portEnd) : "";
+    this.protocol = protocolEnd > portEnd ? mediaLine.substring(portEnd + 1, protocolEnd) : "";
+    int start = protocolEnd + 1;
+    while (start < mediaLine.length()) {
+      int end = indexOfSpace(mediaLine, start);
+      if (end > start) {
+        formats.add(mediaLine.substring(start, end));
+      }
+      start = end + 1;
+    }
+  }
+
+  /** The media type, e.g. {@link #AUDIO}, {@link #VIDEO} or "application". */
+  public String getType() {
+    return type;
+  }
+
+  public String getPort() {
+    return port;
+  }
+
+  public String getProtocol() {
+    return protocol;
+  }
+
+  /** The formats of the "m=" line, for rtp the payload types in order of preference. Mutable. */
+  public List<String> getFormats() {
+    return formats;
+  }
+
+  /** The lines after the "m=" line. Mutable. */
+  public List<String> getLines() {
+    return lines;
+  }
+
+  /** The payload types mapped to the codec, e.g. "opus" or "H264", ignoring case. */
+  public List<String> getPayloadTypes(String codecName) {
+    List<String> payloadTypes = new ArrayList<>(1);
+    for (String line : lines) {
+      if (!line.startsWith(RTPMAP)) continue;
+      int payloadTypeEnd = line.indexOf(' ', RTPMAP.length());
+      if (payloadTypeEnd < 0) continue;
+      int nameEnd = line.indexOf('/', payloadTypeEnd);
+      if (nameEnd < 0) {
+        nameEnd = line.length();
+      }
+      if (line.regionMatches(true, payloadTypeEnd + 1, codecName, 0, codecName.length())
+          && nameEnd - payloadTypeEnd - 1 == codecName.length()) {
+        payloadTypes.add(line.substring(RTPMAP.length(), payloadTypeEnd));
+      }
+    }
+    return payloadTypes;
+  }
+
+  /** The codec of the payload type, null if it has no rtpmap. */
+  @Nullable
+  public String getCodecName(String payloadType) {
+    String rtpmap = findLine(RTPMAP, payloadType);
+    if (rtpmap == null) return null;
+    int nameStart = RTPMAP.length() + payloadType.length() + 1;
+    int nameEnd = rtpmap.indexOf('/', nameStart);
+    return rtpmap.substring(nameStart, nameEnd < 0 ? rtpmap.length() : nameEnd);
+  }
+
+  /** A parameter of the fmtp line of the payload type, e.g. "apt" of rtx, null if not set. */
+  @Nullable
+  public String getFmtpParameter(String payloadType, String key) {
+    String fmtp = findLine(FMTP, payloadType);
+    if (fmtp == null) return null;
+    int start = FMTP.length() + payloadType.length() + 1;
+    while (start < fmtp.length()) {
+      int end = fmtp.indexOf(';', start);
+      if (end < 0) {
+        end = fmtp.length();
+      }
+      String parameter = fmtp.substring(start, end).trim();
+      int equals = parameter.indexOf('=');
+      if (equals > 0 && parameter.substring(0, equals).equals(key)) {
+        return parameter.substring(equals + 1);
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  /**
+   * Sets a parameter of the fmtp line of the payload type, adding the line after the rtpmap one
+   * if there is none.
+   */
+  public void setFmtpParameter(String payloadType, String key, String value) {
+    String prefix = FMTP + payloadType + " ";
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (!line.startsWith(prefix)) continue;
+      StringBuilder parameters = new StringBuilder(line.length() + key.length() + 8);
+      boolean found = false;
+      for (String parameter : line.substring(prefix.length()).split(";")) {
+        parameter = parameter.trim();
+        if (parameter.isEmpty()) continue;
+        int equals = parameter.indexOf('=');
+        if (equals > 0 && parameter.substring(0, equals).equals(key)) {
+          parameter = key + "=" + value;
+          found = true;
+        }
+        appendParameter(parameters, parameter);
+      }
+      if (!found) {
+        appendParameter(parameters, key + "=" + value);
+      }
+      lines.set(i, prefix + parameters);
+      return;
+    }
+    int rtpmap = indexOfLine(RTPMAP, payloadType);
+    lines.add(rtpmap < 0 ? lines.size() : rtpmap + 1, prefix + key + "=" + value);
+  }
+
+  /** The value of the attribute, "" for a flag like "a=rtcp-mux", null if it is not there. */
+  @Nullable
+  public String getAttribute(String name) {
+    for (String line : lines) {
+      if (isAttribute(line, name)) {
+        return line.length() == name.length() + 2 ? "" : line.substring(name.length() + 3);
+      }
+    }
+    return null;
+  }
+
+  /** Sets the attribute, replacing the first one of the name. An empty value sets a flag. */
+  public void setAttribute(String name, String value) {
+    String attribute = value.isEmpty() ? "a=" + name : "a=" + name + ":" + value;
+    for (int i = 0; i < lines.size(); i++) {
+      if (isAttribute(lines.get(i), name)) {
+        lines.set(i, attribute);
+        return;
+      }
+    }
+    lines.add(attribute);
+  }
+
+  /** Removes every attribute of the name. */
+  public void removeAttribute(String name) {
+    Iterator<String> iterator = lines.iterator();
+    while (iterator.hasNext()) {
+      if (isAttribute(iterator.next(), name)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /** Removes the payload types from the "m=" line with their rtpmap, fmtp and rtcp-fb lines. */
+  public void removePayloadTypes(Collection<String> payloadTypes) {
+    if (payloadTypes.isEmpty()) return;
+    formats.removeAll(payloadTypes);
+    Iterator<String> iterator = lines.iterator();
+    while (iterator.hasNext()) {
+      String payloadType = payloadTypeOf(iterator.next());
+      if (payloadType != null && payloadTypes.contains(payloadType)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /** Moves the payload types to the front of the "m=" line, in the given order. */
+  public void moveToFront(List<String> payloadTypes) {
+    List<String> preferred = new ArrayList<>(payloadTypes.size());
+    for (String payloadType : payloadTypes) {
+      if (formats.remove(payloadType)) {
+        preferred.add(payloadType);
+      }
+    }
+    formats.addAll(0, preferred);
+  }
+
+  /**
+   * Sets the max bitrate the other side may send, the "b=AS" line after the title and connection
+   * lines. 0 removes it.
+   */
+  public void setBandwidth(int maxBitrateKbps) {
+    int index = -1;
+    Iterator<String> iterator = lines.iterator();
+    int position = 0;
+    while (iterator.hasNext()) {
+      String line = iterator.next();
+      if (line.startsWith(BANDWIDTH)) {
+        iterator.remove();
+        continue;
+      }
+      if (index < 0 && !line.startsWith("i=") && !line.startsWith("c=")
+          && !line.startsWith("b=")) {
+        index = position;
+      }
+      position++;
+    }
+    if (maxBitrateKbps > 0) {
+      lines.add(index < 0 ? lines.size() : index, BANDWIDTH + maxBitrateKbps);
+    }
+  }
+
+  /** The max bitrate of the "b=AS" line, 0 if there is none. */
+  public int getBandwidth() {
+    for (String line : lines) {
+      if (line.startsWith(BANDWIDTH)) {
+        try {
+          return Integer.parseInt(line.substring(BANDWIDTH.length()).trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 0;
+  }
+
+  void writeTo(StringBuilder result) {
+    result.append("m=").append(type).append(' ').append(port).append(' ').append(protocol);
+    for (String format : formats) {
+      result.append(' ').append(format);
+    }
+    result.append(Sdp.LINE_BREAK);
+    for (String line : lines) {
+      result.append(line).append(Sdp.LINE_BREAK);
+    }
+  }
+
+  @Nullable
+  private String findLine(String attribute, String payloadType) {
+    int index = indexOfLine(attribute, payloadType);
+    return index < 0 ? null : lines.get(index);
+  }
+
+  private int indexOfLine(String attribute, String payloadType) {
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.startsWith(attribute)
+          && line.startsWith(payloadType, attribute.length())
+          && line.length() > attribute.length() + payloadType.length()
+          && line.charAt(attribute.length() + payloadType.length()) == ' ') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** The payload type of a rtpmap, fmtp or rtcp-fb line, null for other lines. */
+  @Nullable
+  private static String payloadTypeOf(String line) {
+    int start;
+    if (line.startsWith(RTPMAP)) {
+      start = RTPMAP.length();
+    } else if (line.startsWith(FMTP)) {
+      start = FMTP.length();
+    } else if (line.startsWith(RTCP_FB)) {
+      start = RTCP_FB.length();
+    } else {
+      return null;
+    }
+    int end = line.indexOf(' ', start);
+    return line.substring(start, end < 0 ? line.length() : end);
+  }
+
+  private static boolean isAttribute(String line, String name) {
+    return line.startsWith("a=")
+        && line.startsWith(name, 2)
+        && (line.length() == name.length() + 2 || line.charAt(name.length() + 2) == ':');
+  }
+
+  private static void appendParameter(StringBuilder parameters, String parameter) {
+    if (parameters.length() > 0) {
+      parameters.append(';');
+    }
+    parameters.append(parameter);
+  }
+
+  private static int indexOfSpace(String line, int start) {
+    int index = line.indexOf(' ', start);
+    return index < 0 ? line.length() : index;
+  }
+}
@@ -0,0 +1,93 @@
+package cceh.androidrtclibrary.sdp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A session description split into lines, the session lines and one {@link MediaSection} per
+ * "m=" line, for editing with {@link SdpTransformer}s.
+ *
+ * Parsing only splits lines, which is a single pass without regular expressions, the lines are
+ * interpreted on access. Writing joins the lines with CRLF, so an untouched description is
+ * written back as it was parsed.
+ */
+public final class Sdp {
+  static final String LINE_BREAK = "\r\n";
+
+  private final List<String> sessionLines;
+  private final List<MediaSection> mediaSections;
+  private final int length;
+
+  private Sdp(List<String> sessionLines, List<MediaSection> mediaSections, int length) {
+    this.sessionLines = sessionLines;
+    this.mediaSections = mediaSections;
+    this.length = length;
+  }
+
+  /** Parses the description, lines may end with CRLF or LF. Empty lines are dropped. */
+  public static Sdp parse(String description) {
+    List<String> sessionLines = new ArrayList<>();
+    List<MediaSection> mediaSections = new ArrayList<>();
+    MediaSection current = null;
+    int length = description.length();
+    int start = 0;
+    while (start < length) {
+      int end = description.indexOf('\n', start);
+      if (end < 0) {
+        end = length;
+      }
+      int lineEnd = end > start && description.charAt(end - 1) == '\r' ? end - 1 : end;
+      if (lineEnd > start) {
+        String line = description.substring(start, lineEnd);
+        if (line.startsWith("m=")) {
+          current = new MediaSection(line);
+          mediaSections.add(current);
+        } else if (current == null) {
+          sessionLines.add(line);
+        } else {
+          current.getLines().add(line);
+        }
+      }
+      start = end + 1;
+    }
+    return new Sdp(sessionLines, mediaSections, length);
+  }
+
+  /** The lines before the first media section, e.g. "v=", "o=" and "a=group". Mutable. */
+  public List<String> getSessionLines() {
+    return sessionLines;
+  }
+
+  /** The media sections in order. */
+  public List<MediaSection> getMediaSections() {
+    return mediaSections;
+  }
+
+  /** The media sections of a type, e.g. {@link MediaSection#AUDIO}. */
+  public List<MediaSection> getMediaSections(String type) {
+    List<MediaSection> sections = new ArrayList<>(1);
+    for (MediaSection section : mediaSections) {
+      if (section.getType().equals(type)) {
+        sections.add(section);
+      }
+    }
+    return sections;
+  }
+
+  /** Writes the description, every line ending with CRLF. */
+  public String write() {
+    StringBuilder result = new StringBuilder(length + 64);
+    for (String line : sessionLines) {
+      result.append(line).append(LINE_BREAK);
+    }
+    for (MediaSection section : mediaSections) {
+      section.writeTo(result);
+    }
+    return result.toString();
+  }
+
+  @Override
+  public String toString() {
+    return write();
+  }
+}
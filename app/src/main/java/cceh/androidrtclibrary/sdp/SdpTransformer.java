@@ -0,0 +1,12 @@
+package cceh.androidrtclibrary.sdp;
+
+/**
+ * Edits a session description, see
+ * {@link cceh.androidrtclibrary.connection.ConnectionParams#getLocalSdpTransformers()} and
+ * {@link SdpTransformers} for the common ones.
+ */
+public interface SdpTransformer {
+
+  /** Edits the description in place, leaving sections it does not know untouched. */
+  void transform(Sdp sdp);
+}
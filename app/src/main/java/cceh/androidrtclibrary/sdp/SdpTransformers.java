@@ -0,0 +1,138 @@
+package cceh.androidrtclibrary.sdp;
+
+import android.util.Log;
+
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The common {@link SdpTransformer}s, and running a chain of them on a description.
+ */
+public final class SdpTransformers {
+  private static final String TAG = "SdpTransformers";
+  private static final String OPUS = "opus";
+  private static final String RTX = "rtx";
+
+  private SdpTransformers() {}
+
+  /**
+   * Runs the transformers in order on the description. Returns the description as it is without
+   * transformers, or if one of them fails.
+   */
+  public static SessionDescription apply(
+      List<SdpTransformer> transformers, SessionDescription description) {
+    if (transformers.isEmpty()) return description;
+    try {
+      Sdp sdp = Sdp.parse(description.description);
+      for (SdpTransformer transformer : transformers) {
+        transformer.transform(sdp);
+      }
+      return new SessionDescription(description.type, sdp.write());
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed transforming sdp, using it as it is.", e);
+      return description;
+    }
+  }
+
+  /**
+   * Puts the codec first in the sections of the media type, so that it is negotiated if both
+   * sides have it, e.g. H264 on devices with a hardware encoder for it.
+   */
+  public static SdpTransformer preferCodec(final String mediaType, final String codecName) {
+    return new SdpTransformer() {
+      @Override
+      public void transform(Sdp sdp) {
+        for (MediaSection section : sdp.getMediaSections(mediaType)) {
+          section.moveToFront(section.getPayloadTypes(codecName));
+        }
+      }
+    };
+  }
+
+  /**
+   * Removes the codecs of the media type but the given ones, with their retransmission payload
+   * types, to shrink the description. A section left without codecs is kept as it was.
+   */
+  public static SdpTransformer keepCodecs(final String mediaType, String... codecNames) {
+    final List<String> kept = Arrays.asList(codecNames);
+    return new SdpTransformer() {
+      @Override
+      public void transform(Sdp sdp) {
+        for (MediaSection section : sdp.getMediaSections(mediaType)) {
+          Set<String> keptPayloadTypes = new HashSet<>();
+          for (String codecName : kept) {
+            keptPayloadTypes.addAll(section.getPayloadTypes(codecName));
+          }
+          if (keptPayloadTypes.isEmpty()) continue;
+          // Rtx of a kept codec is kept as well.
+          for (String payloadType : section.getPayloadTypes(RTX)) {
+            if (keptPayloadTypes.contains(section.getFmtpParameter(payloadType, "apt"))) {
+              keptPayloadTypes.add(payloadType);
+            }
+          }
+          List<String> removed = new ArrayList<>();
+          for (String payloadType : section.getFormats()) {
+            if (!keptPayloadTypes.contains(payloadType)) {
+              removed.add(payloadType);
+            }
+          }
+          section.removePayloadTypes(removed);
+        }
+      }
+    };
+  }
+
+  /**
+   * Asks the other side for opus discontinuous transmission, which sends almost nothing in
+   * silence, and in-band forward error correction, which recovers single lost packets.
+   */
+  public static SdpTransformer opus(final boolean dtx, final boolean inbandFec) {
+    return new SdpTransformer() {
+      @Override
+      public void transform(Sdp sdp) {
+        for (MediaSection section : sdp.getMediaSections(MediaSection.AUDIO)) {
+          for (String payloadType : section.getPayloadTypes(OPUS)) {
+            if (dtx) {
+              section.setFmtpParameter(payloadType, "usedtx", "1");
+            }
+            if (inbandFec) {
+              section.setFmtpParameter(payloadType, "useinbandfec", "1");
+            }
+          }
+        }
+      }
+    };
+  }
+
+  /** Sets the audio packet duration, longer packets cost less overhead and add latency. */
+  public static SdpTransformer ptime(final int ptimeMillis) {
+    return new SdpTransformer() {
+      @Override
+      public void transform(Sdp sdp) {
+        for (MediaSection section : sdp.getMediaSections(MediaSection.AUDIO)) {
+          section.setAttribute("ptime", String.valueOf(ptimeMillis));
+        }
+      }
+    };
+  }
+
+  /**
+   * Caps the bitrate the other side sends for the media type, 0 for no cap. In a remote
+   * description applied locally, it caps what the local side sends.
+   */
+  public static SdpTransformer limitBandwidth(final String mediaType, final int maxBitrateKbps) {
+    return new SdpTransformer() {
+      @Override
+      public void transform(Sdp sdp) {
+        for (MediaSection section : sdp.getMediaSections(mediaType)) {
+          section.setBandwidth(maxBitrateKbps);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,215 @@
+package cceh.androidrtclibrary.signaling;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link SignalCodec} which keeps messages small, to stay well below the message size limits of
+ * signaling services and to be cheap to parse.
+ *
+ * Keys are single letters, and sdp is deflated with a preset dictionary of common sdp lines then
+ * base64 framed. Messages without the version key are decoded with {@link JsonSignalCodec}, and
+ * the json codec decodes compact messages too, so peers can switch codecs one at a time.
+ */
+public class CompactSignalCodec implements SignalCodec {
+  private static final String VERSION = "v";
+  private static final String SENDER = "s";
+  private static final String TYPE = "t";
+  private static final String SDP = "p";
+  private static final String CANDIDATES = "c";
+
+  private static final int CURRENT_VERSION = 1;
+  /** Sdp inflating beyond this is rejected, real offers are a few KB. */
+  private static final int MAX_SDP_BYTES = 64 * 1024;
+
+  private static final String TYPE_OFFER = "o";
+  private static final String TYPE_ANSWER = "a";
+  private static final String TYPE_ICE_CANDIDATES = "c";
+  private static final String TYPE_DISCONNECT = "d";
+  private static final String TYPE_RENEGOTIATE = "r";
+
+  /**
+   * Preset deflate dictionary, part of the wire format of {@link #CURRENT_VERSION}. Zlib favors
+   * the end of the dictionary, so the most frequent strings come last.
+   */
+  private static final byte[] SDP_DICTIONARY = (
+      "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+          + "a=extmap:4 urn:3gpp:video-orientation\r\n"
+          + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+          + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+          + "a=fmtp:111 minptime=10; useinbandfec=1\r\n"
+          + "a=rtpmap:111 opus/48000/2\r\na=rtpmap:103 ISAC/16000\r\na=rtpmap:104 ISAC/32000\r\n"
+          + "a=rtpmap:9 G722/8000\r\na=rtpmap:0 PCMU/8000\r\na=rtpmap:8 PCMA/8000\r\n"
+          + "a=rtpmap:106 CN/32000\r\na=rtpmap:105 CN/16000\r\na=rtpmap:13 CN/8000\r\n"
+          + "a=rtpmap:126 telephone-event/8000\r\na=maxptime:60\r\n"
+          + "a=rtpmap:100 VP8/90000\r\na=rtpmap:116 red/90000\r\na=rtpmap:117 ulpfec/90000\r\n"
+          + "a=rtpmap:96 rtx/90000\r\na=fmtp:96 apt=100\r\n"
+          + "a=rtcp-fb:100 ccm fir\r\na=rtcp-fb:100 nack\r\na=rtcp-fb:100 nack pli\r\n"
+          + "a=rtcp-fb:100 goog-remb\r\n"
+          + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 126\r\n"
+          + "m=video 9 UDP/TLS/RTP/SAVPF 100 116 117 96\r\n"
+          + "v=0\r\no=- 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\na=group:BUNDLE audio video\r\n"
+          + "a=msid-semantic: WMS\r\nc=IN IP4 0.0.0.0\r\na=rtcp:9 IN IP4 0.0.0.0\r\n"
+          + "a=fingerprint:sha-256 \r\na=setup:actpass\r\na=setup:active\r\n"
+          + "a=mid:audio\r\na=mid:video\r\na=sendrecv\r\na=rtcp-mux\r\n"
+          + "a=ice-ufrag:\r\na=ice-pwd:\r\na=ssrc-group:FID \r\n"
+          + "typ host generation 0\r\ntyp srflx raddr rport generation 0\r\na=candidate:\r\n"
+          + " cname:\r\n msid:\r\n mslabel:\r\n label:\r\na=ssrc:")
+      .getBytes(StandardCharsets.UTF_8);
+
+  private final JsonSignalCodec fallbackCodec;
+
+  public CompactSignalCodec() {
+    this.fallbackCodec = new JsonSignalCodec();
+  }
+
+  @Override
+  public JSONObject encode(Signal signal) throws SignalingException {
+    try {
+      JSONObject message = new JSONObject();
+      message.put(VERSION, CURRENT_VERSION);
+      message.put(SENDER, signal.getSender());
+      switch (signal.getType()) {
+        case SignalMessages.TYPE_OFFER:
+          message.put(TYPE, TYPE_OFFER);
+          message.put(SDP, compress(signal.getSessionDescription().description));
+          break;
+        case SignalMessages.TYPE_ANSWER:
+          message.put(TYPE, TYPE_ANSWER);
+          message.put(SDP, compress(signal.getSessionDescription().description));
+          break;
+        case SignalMessages.TYPE_ICE_CANDIDATE:
+        case SignalMessages.TYPE_ICE_CANDIDATES:
+          message.put(TYPE, TYPE_ICE_CANDIDATES);
+          JSONArray candidates = new JSONArray();
+          for (IceCandidate iceCandidate : signal.getIceCandidates()) {
+            candidates.put(new JSONArray()
+                .put(iceCandidate.sdpMid)
+                .put(iceCandidate.sdpMLineIndex)
+                .put(iceCandidate.sdp));
+          }
+          message.put(CANDIDATES, candidates);
+          break;
+        case SignalMessages.TYPE_DISCONNECT:
+          message.put(TYPE, TYPE_DISCONNECT);
+          break;
+        case SignalMessages.TYPE_RENEGOTIATE:
+          message.put(TYPE, TYPE_RENEGOTIATE);
+          break;
+        default:
+          throw new SignalingException("Unknown signal type: " + signal.getType());
+      }
+      return message;
+    } catch (JSONException e) {
+      throw new SignalingException(e);
+    }
+  }
+
+  @Override
+  public Signal decode(JSONObject message) throws SignalingException {
+    if (!isCompact(message)) {
+      return fallbackCodec.decode(message);
+    }
+    return decodeCompact(message);
+  }
+
+  /** Whether the message was encoded by this codec. */
+  static boolean isCompact(JSONObject message) {
+    return message.has(VERSION);
+  }
+
+  static Signal decodeCompact(JSONObject message) throws SignalingException {
+    try {
+      int version = message.getInt(VERSION);
+      if (version != CURRENT_VERSION) {
+        throw new SignalingException("Unsupported compact signal version: " + version);
+      }
+      String sender = message.getString(SENDER);
+      String type = message.getString(TYPE);
+      switch (type) {
+        case TYPE_OFFER:
+          return Signal.offer(sender, new SessionDescription(
+              SessionDescription.Type.OFFER, decompress(message.getString(SDP))));
+        case TYPE_ANSWER:
+          return Signal.answer(sender, new SessionDescription(
+              SessionDescription.Type.ANSWER, decompress(message.getString(SDP))));
+        case TYPE_ICE_CANDIDATES:
+          JSONArray candidates = message.getJSONArray(CANDIDATES);
+          List<IceCandidate> iceCandidates = new ArrayList<>(candidates.length());
+          for (int i = 0; i < candidates.length(); i++) {
+            JSONArray candidate = candidates.getJSONArray(i);
+            iceCandidates.add(new IceCandidate(
+                candidate.getString(0), candidate.getInt(1), candidate.getString(2)));
+          }
+          return Signal.iceCandidates(sender, iceCandidates);
+        case TYPE_DISCONNECT:
+          return Signal.disconnect(sender);
+        case TYPE_RENEGOTIATE:
+          return Signal.renegotiate(sender);
+        default:
+          throw new SignalingException("Unknown compact signal type: " + type);
+      }
+    } catch (JSONException e) {
+      throw new SignalingException(e);
+    }
+  }
+
+  private static String compress(String text) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setDictionary(SDP_DICTIONARY);
+      deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+      deflater.finish();
+      ByteArrayOutputStream output = new ByteArrayOutputStream(text.length() / 2);
+      byte[] buffer = new byte[1024];
+      while (!deflater.finished()) {
+        output.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return Base64.encodeToString(output.toByteArray(), Base64.NO_WRAP);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static String decompress(String encoded) throws SignalingException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(Base64.decode(encoded, Base64.NO_WRAP));
+      ByteArrayOutputStream output = new ByteArrayOutputStream(encoded.length() * 3);
+      byte[] buffer = new byte[1024];
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(buffer);
+        if (inflated == 0) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(SDP_DICTIONARY);
+          } else if (inflater.needsInput()) {
+            throw new SignalingException("Truncated compressed sdp.");
+          }
+        }
+        if (output.size() + inflated > MAX_SDP_BYTES) {
+          throw new SignalingException(
+              "Compressed sdp inflates beyond " + MAX_SDP_BYTES + " bytes.");
+        }
+        output.write(buffer, 0, inflated);
+      }
+      return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    } catch (DataFormatException | IllegalArgumentException e) {
+      throw new SignalingException("Failed decompressing sdp.", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
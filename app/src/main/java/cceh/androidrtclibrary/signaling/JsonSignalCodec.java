@@ -0,0 +1,121 @@
+package cceh.androidrtclibrary.signaling;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The default {@link SignalCodec}, which sends signals as readable json with the keys defined in
+ * {@link SignalMessages}. Messages of peers using the {@link CompactSignalCodec} are decoded as
+ * well.
+ */
+public class JsonSignalCodec implements SignalCodec {
+
+  @Override
+  public JSONObject encode(Signal signal) throws SignalingException {
+    try {
+      JSONObject message = new JSONObject();
+      message.put(SignalMessages.SENDER, signal.getSender());
+      message.put(SignalMessages.SIGNAL_TYPE, signal.getType());
+      switch (signal.getType()) {
+        case SignalMessages.TYPE_OFFER:
+        case SignalMessages.TYPE_ANSWER:
+          message.put(SignalMessages.SIGNAL_CONTENT, encodeSdp(signal.getSessionDescription()));
+          break;
+        case SignalMessages.TYPE_ICE_CANDIDATE:
+          message.put(
+              SignalMessages.SIGNAL_CONTENT,
+              encodeIceCandidate(signal.getIceCandidates().get(0)));
+          break;
+        case SignalMessages.TYPE_ICE_CANDIDATES:
+          JSONArray candidates = new JSONArray();
+          for (IceCandidate iceCandidate : signal.getIceCandidates()) {
+            candidates.put(encodeIceCandidate(iceCandidate));
+          }
+          JSONObject content = new JSONObject();
+          content.put(SignalMessages.CANDIDATES, candidates);
+          message.put(SignalMessages.SIGNAL_CONTENT, content);
+          break;
+        default:
+          break;
+      }
+      return message;
+    } catch (JSONException e) {
+      throw new SignalingException(e);
+    }
+  }
+
+  @Override
+  public Signal decode(JSONObject message) throws SignalingException {
+    if (CompactSignalCodec.isCompact(message)) {
+      return CompactSignalCodec.decodeCompact(message);
+    }
+    try {
+      String sender = message.getString(SignalMessages.SENDER);
+      String signalType = message.getString(SignalMessages.SIGNAL_TYPE);
+      switch (signalType) {
+        case SignalMessages.TYPE_OFFER:
+          return Signal.offer(
+              sender, decodeSdp(message.getJSONObject(SignalMessages.SIGNAL_CONTENT)));
+        case SignalMessages.TYPE_ANSWER:
+          return Signal.answer(
+              sender, decodeSdp(message.getJSONObject(SignalMessages.SIGNAL_CONTENT)));
+        case SignalMessages.TYPE_ICE_CANDIDATE:
+          return Signal.iceCandidates(sender, Collections.singletonList(
+              decodeIceCandidate(message.getJSONObject(SignalMessages.SIGNAL_CONTENT))));
+        case SignalMessages.TYPE_ICE_CANDIDATES:
+          JSONArray candidates = message.getJSONObject(SignalMessages.SIGNAL_CONTENT)
+              .getJSONArray(SignalMessages.CANDIDATES);
+          List<IceCandidate> iceCandidates = new ArrayList<>(candidates.length());
+          for (int i = 0; i < candidates.length(); i++) {
+            iceCandidates.add(decodeIceCandidate(candidates.getJSONObject(i)));
+          }
+          return Signal.iceCandidates(sender, iceCandidates);
+        case SignalMessages.TYPE_DISCONNECT:
+          return Signal.disconnect(sender);
+        case SignalMessages.TYPE_RENEGOTIATE:
+          return Signal.renegotiate(sender);
+        default:
+          throw new SignalingException("Unknown signal type: " + signalType);
+      }
+    } catch (JSONException e) {
+      throw new SignalingException(e);
+    }
+  }
+
+  private static JSONObject encodeSdp(SessionDescription sdp) throws JSONException {
+    JSONObject content = new JSONObject();
+    content.put(SignalMessages.SDP_TYPE, sdp.type.canonicalForm());
+    content.put(SignalMessages.SDP_DESCRIPTION, sdp.description);
+    return content;
+  }
+
+  private static SessionDescription decodeSdp(JSONObject content) throws JSONException {
+    String sdpType = content.getString(SignalMessages.SDP_TYPE);
+    String sdpDescription = content.getString(SignalMessages.SDP_DESCRIPTION);
+    return new SessionDescription(
+        SessionDescription.Type.fromCanonicalForm(sdpType),
+        sdpDescription);
+  }
+
+  private static JSONObject encodeIceCandidate(IceCandidate iceCandidate) throws JSONException {
+    JSONObject content = new JSONObject();
+    content.put(SignalMessages.CANDIDATE_SDP_M_LINE_INDEX, iceCandidate.sdpMLineIndex);
+    content.put(SignalMessages.CANDIDATE_SDP_MID, iceCandidate.sdpMid);
+    content.put(SignalMessages.CANDIDATE_SDP, iceCandidate.sdp);
+    return content;
+  }
+
+  private static IceCandidate decodeIceCandidate(JSONObject content) throws JSONException {
+    int sdpMLineIndex = content.getInt(SignalMessages.CANDIDATE_SDP_M_LINE_INDEX);
+    String sdpMid = content.getString(SignalMessages.CANDIDATE_SDP_MID);
+    String sdp = content.getString(SignalMessages.CANDIDATE_SDP);
+    return new IceCandidate(sdpMid, sdpMLineIndex, sdp);
+  }
+}
@@ -0,0 +1,317 @@
+package cceh.androidrtclibrary.signaling;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cceh.androidrtclibrary.util.SerialExecutor;
+
+/**
+ * In-process {@link SignalingService} which routes signals between all user ids listened on it,
+ * e.g. between several {@link cceh.androidrtclibrary.RtcClient}s sharing one instance.
+ *
+ * Meant for tests and benchmarks without network access. Delivery can be delayed with jitter,
+ * reordered and dropped to simulate a real signaling service. Signals are serialized and parsed
+ * again on the way, so no objects are shared between sender and receiver.
+ */
+public class LoopbackSignalingService implements SignalingService {
+  private static final String TAG = "LoopbackSignaling";
+
+  private final long delayMillis;
+  private final long jitterMillis;
+  private final double reorderRate;
+  private final double dropRate;
+  private final Random random;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService dispatchExecutor;
+  private final ConcurrentMap<String, Listener> listeners;
+  private final Map<String, Deque<PendingDelivery>> inOrderQueues;
+
+  private final AtomicLong signalsSent;
+  private final AtomicLong signalsDelivered;
+  private final AtomicLong signalsDropped;
+
+  /** Creates a service delivering right away, without loss. */
+  public LoopbackSignalingService() {
+    this(new Builder());
+  }
+
+  private LoopbackSignalingService(Builder builder) {
+    this.delayMillis = builder.delayMillis;
+    this.jitterMillis = builder.jitterMillis;
+    this.reorderRate = builder.reorderRate;
+    this.dropRate = builder.dropRate;
+    this.random = new Random(builder.seed);
+    this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    this.dispatchExecutor = Executors.newCachedThreadPool();
+    this.listeners = new ConcurrentHashMap<>();
+    this.inOrderQueues = new HashMap<>();
+
+    this.signalsSent = new AtomicLong();
+    this.signalsDelivered = new AtomicLong();
+    this.signalsDropped = new AtomicLong();
+  }
+
+  @Override
+  public void listenOn(final String userId, SignalHandler signalHandler)
+      throws SignalingException {
+    final Listener listener = new Listener(signalHandler, new SerialExecutor(dispatchExecutor));
+    if (listeners.putIfAbsent(userId, listener) != null) {
+      throw new SignalingException("UserId: " + userId + " is already listened on.");
+    }
+    long connectInMillis;
+    synchronized (random) {
+      connectInMillis = nextDelayMillis();
+    }
+    // Subscribing takes a round trip to a real service.
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        listener.lane.execute(new Runnable() {
+          @Override
+          public void run() {
+            listener.signalHandler.onConnected(userId);
+          }
+        });
+      }
+    }, connectInMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stopListening(final String userId) {
+    final Listener listener = listeners.remove(userId);
+    if (listener == null) return;
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.signalHandler.onDisconnected(userId);
+      }
+    });
+  }
+
+  @Override
+  public void sendSignal(String peerUserId, JSONObject signal) {
+    sendSignal(peerUserId, signal, new SendCallback() {
+      @Override
+      public void onSendSucceeded() {}
+
+      @Override
+      public void onSendFailed(SignalingException e) {
+        Log.w(TAG, "Failed to send signal.", e);
+      }
+    });
+  }
+
+  @Override
+  public void sendSignal(
+      final String peerUserId, JSONObject signal, SendCallback sendCallback) {
+    signalsSent.incrementAndGet();
+    final String payload = signal.toString();
+
+    boolean drop;
+    boolean reorder;
+    long deliverInMillis;
+    synchronized (random) {
+      drop = random.nextDouble() < dropRate;
+      reorder = random.nextDouble() < reorderRate;
+      deliverInMillis = nextDelayMillis();
+    }
+
+    // Like a real service, the publish succeeds even if the message is lost afterwards.
+    sendCallback.onSendSucceeded();
+    if (drop) {
+      signalsDropped.incrementAndGet();
+      return;
+    }
+    if (reorder) {
+      // Hold it back long enough to arrive after signals sent later.
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          deliver(peerUserId, payload);
+        }
+      }, deliverInMillis + delayMillis + jitterMillis + 1, TimeUnit.MILLISECONDS);
+    } else {
+      enqueueInOrder(peerUserId, payload, deliverInMillis);
+    }
+  }
+
+  /** Stops the delivery threads, signals not delivered yet are lost. */
+  public void shutdown() {
+    scheduler.shutdownNow();
+    dispatchExecutor.shutdownNow();
+  }
+
+  /** Number of signals passed to {@link #sendSignal}. */
+  public long getSignalsSent() {
+    return signalsSent.get();
+  }
+
+  /** Number of signals handed to a {@link SignalHandler}. */
+  public long getSignalsDelivered() {
+    return signalsDelivered.get();
+  }
+
+  /** Number of signals lost on purpose, see {@link Builder#setDropRate(double)}. */
+  public long getSignalsDropped() {
+    return signalsDropped.get();
+  }
+
+  private void deliver(final String userId, String payload) {
+    final Listener listener = listeners.get(userId);
+    if (listener == null) {
+      Log.d(TAG, "Nobody listening on " + userId + ", signal lost.");
+      return;
+    }
+    final JSONObject signal;
+    try {
+      signal = new JSONObject(payload);
+    } catch (JSONException e) {
+      Log.w(TAG, "Failed parsing signal: " + payload, e);
+      return;
+    }
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        signalsDelivered.incrementAndGet();
+        listener.signalHandler.onSignalReiceived(userId, signal);
+      }
+    });
+  }
+
+  /** Must hold the {@code random} lock. */
+  private long nextDelayMillis() {
+    long jitter = jitterMillis > 0 ? (long) (random.nextDouble() * jitterMillis) : 0;
+    return delayMillis + jitter;
+  }
+
+  /**
+   * Queues a signal which must not overtake earlier ones to the same user, even if its own delay
+   * is shorter.
+   */
+  private void enqueueInOrder(final String userId, String payload, long deliverInMillis) {
+    long deliverAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deliverInMillis);
+    synchronized (inOrderQueues) {
+      Deque<PendingDelivery> queue = inOrderQueues.get(userId);
+      if (queue == null) {
+        queue = new ArrayDeque<>();
+        inOrderQueues.put(userId, queue);
+      } else if (!queue.isEmpty()) {
+        deliverAtNanos = Math.max(deliverAtNanos, queue.peekLast().deliverAtNanos);
+      }
+      queue.add(new PendingDelivery(payload, deliverAtNanos));
+    }
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        deliverDue(userId);
+      }
+    }, deliverAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  private void deliverDue(String userId) {
+    while (true) {
+      PendingDelivery due;
+      synchronized (inOrderQueues) {
+        Deque<PendingDelivery> queue = inOrderQueues.get(userId);
+        if (queue == null || queue.isEmpty()
+            || queue.peekFirst().deliverAtNanos > System.nanoTime()) {
+          if (queue != null && queue.isEmpty()) {
+            inOrderQueues.remove(userId);
+          }
+          return;
+        }
+        due = queue.pollFirst();
+      }
+      deliver(userId, due.payload);
+    }
+  }
+
+  private static class PendingDelivery {
+    private final String payload;
+    private final long deliverAtNanos;
+
+    private PendingDelivery(String payload, long deliverAtNanos) {
+      this.payload = payload;
+      this.deliverAtNanos = deliverAtNanos;
+    }
+  }
+
+  private static class Listener {
+    private final SignalHandler signalHandler;
+    private final SerialExecutor lane;
+
+    private Listener(SignalHandler signalHandler, SerialExecutor lane) {
+      this.signalHandler = signalHandler;
+      this.lane = lane;
+    }
+  }
+
+  /** Builder of {@link LoopbackSignalingService}, to simulate network conditions. */
+  public static class Builder {
+    private long delayMillis;
+    private long jitterMillis;
+    private double reorderRate;
+    private double dropRate;
+    private long seed;
+
+    public Builder() {
+      this.delayMillis = 0;
+      this.jitterMillis = 0;
+      this.reorderRate = 0;
+      this.dropRate = 0;
+      this.seed = System.nanoTime();
+    }
+
+    /** Base one way delay of every signal. */
+    public Builder setDelayMillis(long delayMillis) {
+      this.delayMillis = delayMillis;
+      return this;
+    }
+
+    /** Random extra delay, uniformly distributed between 0 and the given value. */
+    public Builder setJitterMillis(long jitterMillis) {
+      this.jitterMillis = jitterMillis;
+      return this;
+    }
+
+    /**
+     * Share of signals delivered after signals sent later to the same user. Other signals keep
+     * their order even with jitter.
+     */
+    public Builder setReorderRate(double reorderRate) {
+      this.reorderRate = reorderRate;
+      return this;
+    }
+
+    /** Share of signals which are lost after being sent successfully. */
+    public Builder setDropRate(double dropRate) {
+      this.dropRate = dropRate;
+      return this;
+    }
+
+    /** Seed of the randomness, for reproducible runs. */
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public LoopbackSignalingService build() {
+      return new LoopbackSignalingService(this);
+    }
+  }
+}
@@ -2,16 +2,22 @@ package cceh.androidrtclibrary.signaling;
 
 import com.pubnub.api.Callback;
 import com.pubnub.api.Pubnub;
+import com.pubnub.api.PubnubError;
 import com.pubnub.api.PubnubException;
 
 import org.json.JSONObject;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Implementation of {@link SignalingService} which uses {@link com.pubnub.api.Pubnub} apis.
  *
+ * Handlers are called off the Pubnub callback thread by a {@link SignalDispatcher}. Calls to the
+ * handler of one user id are kept in order, while a slow handler of one user id does not delay
+ * the delivery to others.
+ *
  * Created by Charlie Chen (ccehshmily@gmail.com) on 4/5/17.
  */
 public class PubnubSignalingService
@@ -19,30 +25,40 @@ public class PubnubSignalingService
     implements SignalingService {
 
   private final Pubnub pubnub;
-  private final Map<String, SignalHandler> signalHandlers;
-
-  private Object signalHandlerLock;
+  private final SignalDispatcher dispatcher;
 
   public PubnubSignalingService(
       String pubKey,
       String subKey) {
+    this(pubKey, subKey, Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "PubnubDispatcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }));
+  }
+
+  /** Calls the {@link SignalHandler}s on the given executor. */
+  public PubnubSignalingService(
+      String pubKey,
+      String subKey,
+      Executor dispatchExecutor) {
     this.pubnub = new Pubnub(pubKey, subKey);
-    this.signalHandlers = new HashMap<>();
-    this.signalHandlerLock = new Object();
+    this.dispatcher = new SignalDispatcher(dispatchExecutor);
   }
 
   @Override
   public void listenOn(String userId, SignalHandler signalHandler) throws SignalingException {
-    synchronized (signalHandlerLock) {
-      if (signalHandlers.containsKey(userId)) {
-        throw new SignalingException("UserId: " + userId + " is already listened on.");
-      }
-      signalHandlers.put(userId, signalHandler);
-      try {
-        pubnub.subscribe(userId, this);
-      } catch (PubnubException e) {
-        throw new SignalingException("Failed on listening to: " + userId, e);
-      }
+    if (!dispatcher.register(userId, signalHandler)) {
+      throw new SignalingException("UserId: " + userId + " is already listened on.");
+    }
+    try {
+      pubnub.subscribe(userId, this);
+    } catch (PubnubException e) {
+      dispatcher.unregister(userId, signalHandler);
+      throw new SignalingException("Failed on listening to: " + userId, e);
     }
   }
 
@@ -57,31 +73,35 @@ public class PubnubSignalingService
   }
 
   @Override
-  public void connectCallback(String userId, Object message) {
-    synchronized (signalHandlerLock) {
-      if (signalHandlers.containsKey(userId)) {
-        signalHandlers.get(userId).onConnected(userId);
+  public void sendSignal(
+      String peerUserId, JSONObject signal, final SendCallback sendCallback) {
+    pubnub.publish(peerUserId, signal, new Callback() {
+      @Override
+      public void successCallback(String channel, Object message) {
+        sendCallback.onSendSucceeded();
       }
-    }
+
+      @Override
+      public void errorCallback(String channel, PubnubError error) {
+        sendCallback.onSendFailed(
+            new SignalingException("Failed publishing to " + channel + ": " + error));
+      }
+    });
+  }
+
+  @Override
+  public void connectCallback(String userId, Object message) {
+    dispatcher.dispatchConnected(userId);
   }
 
   @Override
   public void disconnectCallback(String userId, Object message) {
-    synchronized (signalHandlerLock) {
-      if (signalHandlers.containsKey(userId)) {
-        signalHandlers.get(userId).onDisconnected(userId);
-        signalHandlers.remove(userId);
-      }
-    }
+    dispatcher.dispatchDisconnected(userId);
   }
 
   @Override
   public void successCallback(String userId, Object message) {
-    synchronized (signalHandlerLock) {
-      if (!(message instanceof JSONObject)) return; // Ignore if not valid JSON.
-      if (signalHandlers.containsKey(userId)) {
-        signalHandlers.get(userId).onSignalReiceived(userId, (JSONObject) message);
-      }
-    }
+    if (!(message instanceof JSONObject)) return; // Ignore if not valid JSON.
+    dispatcher.dispatchSignal(userId, (JSONObject) message);
   }
 }
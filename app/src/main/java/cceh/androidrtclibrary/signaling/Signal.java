@@ -0,0 +1,86 @@
+package cceh.androidrtclibrary.signaling;
+
+import android.support.annotation.Nullable;
+
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A decoded signal message exchanged between peers, see {@link SignalCodec} for its wire format.
+ */
+public class Signal {
+  private final String sender;
+  private final String type;
+  @Nullable private final SessionDescription sessionDescription;
+  private final List<IceCandidate> iceCandidates;
+
+  private Signal(
+      String sender,
+      String type,
+      @Nullable SessionDescription sessionDescription,
+      List<IceCandidate> iceCandidates) {
+    this.sender = sender;
+    this.type = type;
+    this.sessionDescription = sessionDescription;
+    this.iceCandidates = iceCandidates;
+  }
+
+  public static Signal offer(String sender, SessionDescription sdp) {
+    return new Signal(
+        sender, SignalMessages.TYPE_OFFER, sdp, Collections.<IceCandidate>emptyList());
+  }
+
+  public static Signal answer(String sender, SessionDescription sdp) {
+    return new Signal(
+        sender, SignalMessages.TYPE_ANSWER, sdp, Collections.<IceCandidate>emptyList());
+  }
+
+  /** Creates an ice candidate signal, in the batched form if there is more than one candidate. */
+  public static Signal iceCandidates(String sender, List<IceCandidate> iceCandidates) {
+    return new Signal(
+        sender,
+        iceCandidates.size() == 1
+            ? SignalMessages.TYPE_ICE_CANDIDATE
+            : SignalMessages.TYPE_ICE_CANDIDATES,
+        null,
+        Collections.unmodifiableList(iceCandidates));
+  }
+
+  public static Signal disconnect(String sender) {
+    return new Signal(
+        sender, SignalMessages.TYPE_DISCONNECT, null, Collections.<IceCandidate>emptyList());
+  }
+
+  public static Signal renegotiate(String sender) {
+    return new Signal(
+        sender, SignalMessages.TYPE_RENEGOTIATE, null, Collections.<IceCandidate>emptyList());
+  }
+
+  public String getSender() {
+    return sender;
+  }
+
+  /** One of the {@code TYPE_*} constants in {@link SignalMessages}. */
+  public String getType() {
+    return type;
+  }
+
+  /** The sdp of an offer or answer, null for other types. */
+  @Nullable
+  public SessionDescription getSessionDescription() {
+    return sessionDescription;
+  }
+
+  /** The ice candidates of an ice candidate signal, empty for other types. */
+  public List<IceCandidate> getIceCandidates() {
+    return iceCandidates;
+  }
+
+  @Override
+  public String toString() {
+    return "Signal{sender=" + sender + ", type=" + type + "}";
+  }
+}
@@ -0,0 +1,15 @@
+package cceh.androidrtclibrary.signaling;
+
+import org.json.JSONObject;
+
+/**
+ * Converts {@link Signal}s from and to the messages sent through a {@link SignalingService}.
+ */
+public interface SignalCodec {
+
+  /** Encodes a signal into a message to be sent with {@link SignalingService#sendSignal}. */
+  JSONObject encode(Signal signal) throws SignalingException;
+
+  /** Decodes a message received by a {@link SignalingService.SignalHandler}. */
+  Signal decode(JSONObject message) throws SignalingException;
+}
@@ -0,0 +1,87 @@
+package cceh.androidrtclibrary.signaling;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import cceh.androidrtclibrary.util.SerialExecutor;
+
+/**
+ * Calls the {@link SignalingService.SignalHandler} registered for a user id, for the callbacks of
+ * a signaling backend.
+ *
+ * Handlers are kept in a concurrent map and called without holding any lock, on the dispatch
+ * executor. Calls to the handler of one user id are kept in order on its own
+ * {@link SerialExecutor} lane, while a slow handler of one user id does not delay the delivery to
+ * others.
+ */
+class SignalDispatcher {
+  private final Executor dispatchExecutor;
+  private final ConcurrentMap<String, Listener> listeners;
+
+  SignalDispatcher(Executor dispatchExecutor) {
+    this.dispatchExecutor = dispatchExecutor;
+    this.listeners = new ConcurrentHashMap<>();
+  }
+
+  /** Returns false if the user id has a handler already. */
+  boolean register(String userId, SignalingService.SignalHandler signalHandler) {
+    Listener listener = new Listener(signalHandler, new SerialExecutor(dispatchExecutor));
+    return listeners.putIfAbsent(userId, listener) == null;
+  }
+
+  /** Removes the handler of the user id, if it is still the given one. */
+  void unregister(String userId, SignalingService.SignalHandler signalHandler) {
+    Listener listener = listeners.get(userId);
+    if (listener != null && listener.signalHandler == signalHandler) {
+      listeners.remove(userId, listener);
+    }
+  }
+
+  void dispatchConnected(final String userId) {
+    final Listener listener = listeners.get(userId);
+    if (listener == null) return;
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.signalHandler.onConnected(userId);
+      }
+    });
+  }
+
+  /** The handler is removed, it gets no calls after this one. */
+  void dispatchDisconnected(final String userId) {
+    final Listener listener = listeners.remove(userId);
+    if (listener == null) return;
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.signalHandler.onDisconnected(userId);
+      }
+    });
+  }
+
+  void dispatchSignal(final String userId, final JSONObject signal) {
+    final Listener listener = listeners.get(userId);
+    if (listener == null) return;
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.signalHandler.onSignalReiceived(userId, signal);
+      }
+    });
+  }
+
+  /** A registered {@link SignalingService.SignalHandler} and the lane its calls run on. */
+  private static class Listener {
+    private final SignalingService.SignalHandler signalHandler;
+    private final SerialExecutor lane;
+
+    private Listener(SignalingService.SignalHandler signalHandler, SerialExecutor lane) {
+      this.signalHandler = signalHandler;
+      this.lane = lane;
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package cceh.androidrtclibrary.signaling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link Future} of a signal queued in a {@link SignalSender}, completes once the signal is sent
+ * or finally failed.
+ */
+public class SignalFuture implements Future<Void> {
+  private final List<SignalingService.SendCallback> callbacks;
+
+  private boolean done;
+  private boolean cancelled;
+  private SignalingException failure;
+
+  SignalFuture() {
+    this.callbacks = new ArrayList<>();
+    this.done = false;
+    this.cancelled = false;
+    this.failure = null;
+  }
+
+  /**
+   * Registers a callback to be called on completion, right away if already completed. A cancelled
+   * future reports a failure.
+   */
+  public void addCallback(SignalingService.SendCallback callback) {
+    synchronized (this) {
+      if (!done) {
+        callbacks.add(callback);
+        return;
+      }
+    }
+    notifyCallback(callback);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return complete(new SignalingException("Signal cancelled."), true);
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public synchronized Void get() throws InterruptedException, ExecutionException {
+    while (!done) {
+      wait();
+    }
+    return getResult();
+  }
+
+  @Override
+  public synchronized Void get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!done) {
+      long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0) {
+        throw new TimeoutException();
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+    return getResult();
+  }
+
+  boolean succeed() {
+    return complete(null, false);
+  }
+
+  boolean fail(SignalingException e) {
+    return complete(e, false);
+  }
+
+  private boolean complete(SignalingException failure, boolean cancelled) {
+    List<SignalingService.SendCallback> toNotify;
+    synchronized (this) {
+      if (done) return false;
+      this.done = true;
+      this.cancelled = cancelled;
+      this.failure = failure;
+      toNotify = new ArrayList<>(callbacks);
+      callbacks.clear();
+      notifyAll();
+    }
+    for (SignalingService.SendCallback callback : toNotify) {
+      notifyCallback(callback);
+    }
+    return true;
+  }
+
+  private void notifyCallback(SignalingService.SendCallback callback) {
+    SignalingException e;
+    synchronized (this) {
+      e = failure;
+    }
+    if (e == null) {
+      callback.onSendSucceeded();
+    } else {
+      callback.onSendFailed(e);
+    }
+  }
+
+  private Void getResult() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    return null;
+  }
+}
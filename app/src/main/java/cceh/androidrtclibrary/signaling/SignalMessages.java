@@ -1,10 +1,12 @@
 package cceh.androidrtclibrary.signaling;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Factory class for generating signal messages.
  *
@@ -19,70 +21,50 @@ public class SignalMessages {
   public static final String CANDIDATE_SDP_M_LINE_INDEX = "candidate_sdp_m_line_index";
   public static final String CANDIDATE_SDP_MID = "candidate_sdp_mid";
   public static final String CANDIDATE_SDP = "candidate_sdp";
+  public static final String CANDIDATES = "candidates";
 
   public static final String TYPE_OFFER = "type_offer";
   public static final String TYPE_ANSWER = "type_answer";
   public static final String TYPE_ICE_CANDIDATE = "type_ice_candidate";
+  public static final String TYPE_ICE_CANDIDATES = "type_ice_candidates";
   public static final String TYPE_DISCONNECT = "type_disconnect";
+  public static final String TYPE_RENEGOTIATE = "type_renegotiate";
+
+  public static JSONObject createOfferMessage(
+      SignalCodec signalCodec, String userId, SessionDescription sdp) throws SignalingException {
+    return signalCodec.encode(Signal.offer(userId, sdp));
+  }
+
+  public static JSONObject createAnswerMessage(
+      SignalCodec signalCodec, String userId, SessionDescription sdp) throws SignalingException {
+    return signalCodec.encode(Signal.answer(userId, sdp));
+  }
 
-  public static JSONObject createOfferMessage(String userId, SessionDescription sdp)
+  public static JSONObject createIceCandidateMessage(
+      SignalCodec signalCodec, String userId, IceCandidate iceCandidate)
       throws SignalingException {
-    try {
-      JSONObject message = new JSONObject();
-      message.put(SENDER, userId);
-      message.put(SIGNAL_TYPE, TYPE_OFFER);
-      JSONObject content = new JSONObject();
-      content.put(SDP_TYPE, sdp.type.canonicalForm());
-      content.put(SDP_DESCRIPTION, sdp.description);
-      message.put(SIGNAL_CONTENT, content);
-      return message;
-    } catch (JSONException e) {
-      throw new SignalingException(e);
-    }
+    return signalCodec.encode(
+        Signal.iceCandidates(userId, Collections.singletonList(iceCandidate)));
   }
 
-  public static JSONObject createAnswerMessage(String userId, SessionDescription sdp)
+  /**
+   * Creates a message carrying several ice candidates, falls back to the single candidate message
+   * when there is only one of them.
+   */
+  public static JSONObject createIceCandidatesMessage(
+      SignalCodec signalCodec, String userId, List<IceCandidate> iceCandidates)
       throws SignalingException {
-    try {
-      JSONObject message = new JSONObject();
-      message.put(SENDER, userId);
-      message.put(SIGNAL_TYPE, TYPE_ANSWER);
-      JSONObject content = new JSONObject();
-      content.put(SDP_TYPE, sdp.type.canonicalForm());
-      content.put(SDP_DESCRIPTION, sdp.description);
-      message.put(SIGNAL_CONTENT, content);
-      return message;
-    } catch (JSONException e) {
-      throw new SignalingException(e);
-    }
+    return signalCodec.encode(Signal.iceCandidates(userId, iceCandidates));
   }
 
-  public static JSONObject createIceCandidateMessage(String userId, IceCandidate iceCandidate)
+  public static JSONObject createDisconnectMessage(SignalCodec signalCodec, String userId)
       throws SignalingException {
-    try {
-      JSONObject message = new JSONObject();
-      message.put(SENDER, userId);
-      message.put(SIGNAL_TYPE, TYPE_ICE_CANDIDATE);
-      JSONObject content = new JSONObject();
-      content.put(CANDIDATE_SDP_M_LINE_INDEX, iceCandidate.sdpMLineIndex);
-      content.put(CANDIDATE_SDP_MID, iceCandidate.sdpMid);
-      content.put(CANDIDATE_SDP, iceCandidate.sdp);
-      message.put(SIGNAL_CONTENT, content);
-      return message;
-    } catch (JSONException e) {
-      throw new SignalingException(e);
-    }
+    return signalCodec.encode(Signal.disconnect(userId));
   }
 
-  public static JSONObject createDisconnectMessage(String userId)
+  /** Creates a message asking the caller for a new offer, e.g. after the local stream changed. */
+  public static JSONObject createRenegotiateMessage(SignalCodec signalCodec, String userId)
       throws SignalingException {
-    try {
-      JSONObject message = new JSONObject();
-      message.put(SENDER, userId);
-      message.put(SIGNAL_TYPE, TYPE_DISCONNECT);
-      return message;
-    } catch (JSONException e) {
-      throw new SignalingException(e);
-    }
+    return signalCodec.encode(Signal.renegotiate(userId));
   }
 }
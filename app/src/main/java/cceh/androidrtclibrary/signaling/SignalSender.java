@@ -0,0 +1,262 @@
+package cceh.androidrtclibrary.signaling;
+
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends signals asynchronously through a {@link SignalingService}.
+ *
+ * Every peer has a bounded outbound queue. Signals leave the queue in the order they were
+ * submitted, with up to a number of sends in flight per peer. A failed send is retried with
+ * exponential backoff, and the queue of that peer holds back later signals until the retry is
+ * through. From the first failure on, signals to that peer go one at a time until its queue is
+ * empty, so that no later signal overtakes a retry. Signals already in flight when a send fails
+ * cannot be called back, use a {@code maxInFlight} of 1 where even those must not overtake it.
+ * The returned {@link SignalFuture} fails once all attempts failed or the queue is full.
+ */
+public class SignalSender {
+  private static final String TAG = "SignalSender";
+
+  public static final int DEFAULT_QUEUE_CAPACITY = 100;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 250;
+
+  private final SignalingService signalingService;
+  private final ScheduledExecutorService scheduler;
+  private final int queueCapacity;
+  private final int maxInFlight;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final Map<String, Outbox> outboxes;
+
+  public SignalSender(SignalingService signalingService, ScheduledExecutorService scheduler) {
+    this(
+        signalingService,
+        scheduler,
+        DEFAULT_QUEUE_CAPACITY,
+        DEFAULT_MAX_IN_FLIGHT,
+        DEFAULT_MAX_ATTEMPTS,
+        DEFAULT_INITIAL_BACKOFF_MILLIS);
+  }
+
+  /**
+   * Signals are handed to the {@link SignalingService} from the scheduler, which needs to be
+   * single threaded to keep them in order.
+   */
+  public SignalSender(
+      SignalingService signalingService,
+      ScheduledExecutorService scheduler,
+      int queueCapacity,
+      int maxInFlight,
+      int maxAttempts,
+      long initialBackoffMillis) {
+    this.signalingService = signalingService;
+    this.scheduler = scheduler;
+    this.queueCapacity = queueCapacity;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.outboxes = new HashMap<>();
+  }
+
+  /** Queues a signal to the peer, never blocks. */
+  public SignalFuture send(String peerUserId, JSONObject signal) {
+    SignalFuture future = new SignalFuture();
+    Outbox outbox;
+    synchronized (outboxes) {
+      outbox = outboxes.get(peerUserId);
+      if (outbox == null) {
+        outbox = new Outbox(peerUserId);
+        outboxes.put(peerUserId, outbox);
+      }
+      if (!outbox.offer(new PendingSignal(signal, future))) {
+        future.fail(new SignalingException("Outbound queue to " + peerUserId + " is full."));
+        return future;
+      }
+    }
+    scheduleDrain(outbox);
+    return future;
+  }
+
+  /** Number of signals queued or in flight to the peer. */
+  public int getPendingSignalCount(String peerUserId) {
+    synchronized (outboxes) {
+      Outbox outbox = outboxes.get(peerUserId);
+      return outbox == null
+          ? 0
+          : outbox.retries.size() + outbox.queue.size() + outbox.inFlight;
+    }
+  }
+
+  private void scheduleDrain(final Outbox outbox) {
+    scheduler.execute(new Runnable() {
+      @Override
+      public void run() {
+        drain(outbox);
+      }
+    });
+  }
+
+  private void drain(Outbox outbox) {
+    while (true) {
+      final PendingSignal pendingSignal;
+      synchronized (outboxes) {
+        int limit = outbox.serial ? 1 : maxInFlight;
+        if (outbox.paused || outbox.inFlight >= limit || outbox.isEmpty()) {
+          removeIfIdle(outbox);
+          return;
+        }
+        pendingSignal = outbox.poll();
+        if (pendingSignal.future.isDone()) {
+          continue; // Cancelled while queued.
+        }
+        outbox.inFlight++;
+      }
+      pendingSignal.attempts++;
+      transmit(outbox, pendingSignal);
+    }
+  }
+
+  private void transmit(final Outbox outbox, final PendingSignal pendingSignal) {
+    try {
+      signalingService.sendSignal(
+          outbox.peerUserId,
+          pendingSignal.signal,
+          new SignalingService.SendCallback() {
+            @Override
+            public void onSendSucceeded() {
+              onSent(outbox, pendingSignal);
+            }
+
+            @Override
+            public void onSendFailed(SignalingException e) {
+              onFailed(outbox, pendingSignal, e);
+            }
+          });
+    } catch (RuntimeException e) {
+      onFailed(outbox, pendingSignal, new SignalingException(e));
+    }
+  }
+
+  private void onSent(Outbox outbox, PendingSignal pendingSignal) {
+    synchronized (outboxes) {
+      outbox.inFlight--;
+    }
+    pendingSignal.future.succeed();
+    scheduleDrain(outbox);
+  }
+
+  private void onFailed(
+      final Outbox outbox, final PendingSignal pendingSignal, SignalingException e) {
+    if (pendingSignal.attempts >= maxAttempts || pendingSignal.future.isDone()) {
+      Log.w(TAG, "Giving up sending signal to " + outbox.peerUserId + " after "
+          + pendingSignal.attempts + " attempts.", e);
+      synchronized (outboxes) {
+        outbox.inFlight--;
+      }
+      pendingSignal.future.fail(e);
+      scheduleDrain(outbox);
+      return;
+    }
+
+    long backoffMillis = initialBackoffMillis << (pendingSignal.attempts - 1);
+    Log.d(TAG, "Retrying signal to " + outbox.peerUserId + " in " + backoffMillis + "ms.");
+    synchronized (outboxes) {
+      outbox.inFlight--;
+      outbox.paused = true;
+      outbox.serial = true;
+      outbox.retry(pendingSignal);
+    }
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (outboxes) {
+          outbox.paused = false;
+        }
+        drain(outbox);
+      }
+    }, backoffMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void removeIfIdle(Outbox outbox) {
+    if (outbox.isEmpty() && outbox.inFlight == 0 && !outbox.paused
+        && outboxes.get(outbox.peerUserId) == outbox) {
+      outboxes.remove(outbox.peerUserId);
+    }
+  }
+
+  /** Signals to a single peer, guarded by the {@code outboxes} lock. */
+  private class Outbox {
+    private final String peerUserId;
+    private final Deque<PendingSignal> queue;
+    /** Failed signals waiting for their retry, in the order they were submitted. */
+    private final List<PendingSignal> retries;
+    private long nextSequence;
+    private int inFlight;
+    private boolean paused;
+    /** Set by the first failure, only one signal is in flight from then on. */
+    private boolean serial;
+
+    private Outbox(String peerUserId) {
+      this.peerUserId = peerUserId;
+      this.queue = new ArrayDeque<>();
+      this.retries = new ArrayList<>();
+      this.nextSequence = 0;
+      this.inFlight = 0;
+      this.paused = false;
+      this.serial = false;
+    }
+
+    private boolean offer(PendingSignal pendingSignal) {
+      if (queue.size() >= queueCapacity) {
+        return false;
+      }
+      pendingSignal.sequence = nextSequence++;
+      queue.add(pendingSignal);
+      return true;
+    }
+
+    private boolean isEmpty() {
+      return retries.isEmpty() && queue.isEmpty();
+    }
+
+    /** Retries go out before the queue, as they were submitted before anything queued. */
+    private PendingSignal poll() {
+      return retries.isEmpty() ? queue.poll() : retries.remove(0);
+    }
+
+    /** Several signals in flight may fail, they are retried in the order they were submitted. */
+    private void retry(PendingSignal pendingSignal) {
+      int index = retries.size();
+      while (index > 0 && retries.get(index - 1).sequence > pendingSignal.sequence) {
+        index--;
+      }
+      retries.add(index, pendingSignal);
+    }
+  }
+
+  private static class PendingSignal {
+    private final JSONObject signal;
+    private final SignalFuture future;
+    private long sequence;
+    private int attempts;
+
+    private PendingSignal(JSONObject signal, SignalFuture future) {
+      this.signal = signal;
+      this.future = future;
+      this.sequence = 0;
+      this.attempts = 0;
+    }
+  }
+}
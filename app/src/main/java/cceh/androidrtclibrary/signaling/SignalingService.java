@@ -25,6 +25,16 @@ public interface SignalingService {
     void onSignalReiceived(String userId, JSONObject signal);
   }
 
+  /** Callback of {@link SignalingService#sendSignal(String, JSONObject, SendCallback)}. */
+  interface SendCallback {
+
+    /** Called when the signal is handed over to the peer's channel. */
+    void onSendSucceeded();
+
+    /** Called when the signal could not be sent. */
+    void onSendFailed(SignalingException e);
+  }
+
   /** Listens for signals sent to the specified user id. */
   void listenOn(String userId, SignalHandler signalHandler) throws SignalingException;
 
@@ -33,4 +43,10 @@ public interface SignalingService {
 
   /** Send signal message to a peer. */
   void sendSignal(String peerUserId, JSONObject signal);
+
+  /**
+   * Send signal message to a peer, and report the result to the {@link SendCallback}. Must not
+   * block the calling thread on network.
+   */
+  void sendSignal(String peerUserId, JSONObject signal, SendCallback sendCallback);
 }
@@ -0,0 +1,421 @@
+package cceh.androidrtclibrary.signaling.websocket;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cceh.androidrtclibrary.signaling.SignalingException;
+import cceh.androidrtclibrary.signaling.SignalingService;
+import cceh.androidrtclibrary.util.SerialExecutor;
+
+/**
+ * Implementation of {@link SignalingService} talking to a {@link WebSocketSignalingRelay}.
+ *
+ * All user ids listened on share one WebSocket connection, opened on first use. Outgoing messages
+ * are queued and written by a dedicated thread, so sends never block the caller and are pipelined
+ * without waiting for the previous acknowledgement. If the connection is lost, pending sends fail
+ * and every listened user id gets {@link SignalHandler#onDisconnected(String)}. The next call
+ * opens a new connection.
+ */
+public class WebSocketSignalingService implements SignalingService, Closeable {
+  private static final String TAG = "WebSocketSignaling";
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+  private final String host;
+  private final int port;
+  private final String path;
+  private final Executor dispatchExecutor;
+  private final ConcurrentMap<String, Listener> listeners;
+  private final AtomicLong nextSendId;
+  private final Random random;
+
+  private Session session;
+
+  public WebSocketSignalingService(String host, int port) {
+    this(host, port, "/", Executors.newCachedThreadPool());
+  }
+
+  /** Calls the {@link SignalHandler}s on the given executor. */
+  public WebSocketSignalingService(String host, int port, String path, Executor dispatchExecutor) {
+    this.host = host;
+    this.port = port;
+    this.path = path;
+    this.dispatchExecutor = dispatchExecutor;
+    this.listeners = new ConcurrentHashMap<>();
+    this.nextSendId = new AtomicLong();
+    this.random = new SecureRandom();
+    this.session = null;
+  }
+
+  @Override
+  public void listenOn(String userId, SignalHandler signalHandler) throws SignalingException {
+    checkUserId(userId);
+    Session current = currentSession();
+    Listener listener =
+        new Listener(signalHandler, new SerialExecutor(dispatchExecutor), current);
+    if (listeners.putIfAbsent(userId, listener) != null) {
+      throw new SignalingException("UserId: " + userId + " is already listened on.");
+    }
+    current.sendText(WebSocketSignalingRelay.OP_LISTEN + " " + userId);
+    if (current.closed) {
+      // Lost before the listener was registered, so nobody else will report it.
+      disconnect(userId, listener);
+    }
+  }
+
+  @Override
+  public void stopListening(String userId) {
+    Listener listener = listeners.get(userId);
+    if (listener == null) return;
+    listener.session.sendText(WebSocketSignalingRelay.OP_UNLISTEN + " " + userId);
+    disconnect(userId, listener);
+  }
+
+  @Override
+  public void sendSignal(String peerUserId, JSONObject signal) {
+    sendSignal(peerUserId, signal, new SendCallback() {
+      @Override
+      public void onSendSucceeded() {}
+
+      @Override
+      public void onSendFailed(SignalingException e) {
+        Log.w(TAG, "Failed to send signal.", e);
+      }
+    });
+  }
+
+  @Override
+  public void sendSignal(String peerUserId, JSONObject signal, SendCallback sendCallback) {
+    try {
+      checkUserId(peerUserId);
+    } catch (SignalingException e) {
+      sendCallback.onSendFailed(e);
+      return;
+    }
+    Session current = currentSession();
+    long id = nextSendId.incrementAndGet();
+    current.pendingSends.put(id, sendCallback);
+    current.sendText(
+        WebSocketSignalingRelay.OP_SEND + " " + id + " " + peerUserId + "\n" + signal.toString());
+    if (current.closed && current.pendingSends.remove(id) != null) {
+      sendCallback.onSendFailed(new SignalingException("Connection to the relay is lost."));
+    }
+  }
+
+  /** Closes the connection, all listened user ids are disconnected. */
+  @Override
+  public void close() {
+    Session current;
+    synchronized (this) {
+      current = session;
+      session = null;
+    }
+    if (current != null) {
+      current.shutdown(new IOException("Closed."));
+    }
+  }
+
+  private synchronized Session currentSession() {
+    if (session == null || session.closed) {
+      session = new Session();
+      Thread reader = new Thread(session, "WebSocketSignaling-" + host + ":" + port);
+      reader.setDaemon(true);
+      reader.start();
+    }
+    return session;
+  }
+
+  private void disconnect(final String userId, final Listener listener) {
+    if (!listeners.remove(userId, listener)) return;
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.signalHandler.onDisconnected(userId);
+      }
+    });
+  }
+
+  private void onMessage(Session from, String message) {
+    int headerEnd = message.indexOf('\n');
+    String header = headerEnd < 0 ? message : message.substring(0, headerEnd);
+    String[] parts = header.split(" ");
+    if (parts.length < 2) return;
+    switch (parts[0]) {
+      case WebSocketSignalingRelay.OP_SIGNAL:
+        if (headerEnd >= 0) {
+          onSignal(parts[1], message.substring(headerEnd + 1));
+        }
+        break;
+      case WebSocketSignalingRelay.OP_LISTENING:
+        onListening(parts[1]);
+        break;
+      case WebSocketSignalingRelay.OP_ACK:
+        SendCallback acked = from.pendingSends.remove(Long.parseLong(parts[1]));
+        if (acked != null) {
+          acked.onSendSucceeded();
+        }
+        break;
+      case WebSocketSignalingRelay.OP_NACK:
+        SendCallback rejected = from.pendingSends.remove(Long.parseLong(parts[1]));
+        if (rejected != null) {
+          rejected.onSendFailed(new SignalingException("Relay rejected signal: " + header));
+        }
+        break;
+      default:
+        Log.d(TAG, "Ignoring unknown message: " + header);
+    }
+  }
+
+  private void onListening(final String userId) {
+    final Listener listener = listeners.get(userId);
+    if (listener == null) return;
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.signalHandler.onConnected(userId);
+      }
+    });
+  }
+
+  private void onSignal(final String userId, final String payload) {
+    final Listener listener = listeners.get(userId);
+    if (listener == null) return;
+    // Parsed on the lane, keeping the reader thread free for other user ids.
+    listener.lane.execute(new Runnable() {
+      @Override
+      public void run() {
+        JSONObject signal;
+        try {
+          signal = new JSONObject(payload);
+        } catch (JSONException e) {
+          Log.w(TAG, "Ignoring invalid signal to " + userId, e);
+          return;
+        }
+        listener.signalHandler.onSignalReiceived(userId, signal);
+      }
+    });
+  }
+
+  private static void checkUserId(String userId) throws SignalingException {
+    if (userId == null || userId.isEmpty()
+        || userId.indexOf(' ') >= 0 || userId.indexOf('\n') >= 0) {
+      throw new SignalingException("Invalid user id: " + userId);
+    }
+  }
+
+  /** One WebSocket connection, read on its own thread and written by a writer thread. */
+  private class Session implements Runnable {
+    private final BlockingQueue<ByteBuffer> outbound;
+    private final ConcurrentMap<Long, SendCallback> pendingSends;
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    private Session() {
+      this.outbound = new LinkedBlockingQueue<>();
+      this.pendingSends = new ConcurrentHashMap<>();
+      this.closed = false;
+      this.socket = null;
+    }
+
+    private void sendText(String text) {
+      send(WebSocketFrames.OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void send(int opcode, byte[] payload) {
+      if (closed) return;
+      outbound.add(WebSocketFrames.encode(opcode, payload, random));
+    }
+
+    @Override
+    public void run() {
+      IOException failure = null;
+      try {
+        Socket connected = new Socket();
+        socket = connected;
+        if (closed) return;
+        connected.setTcpNoDelay(true);
+        connected.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        InputStream in = new BufferedInputStream(connected.getInputStream());
+        final OutputStream out = new BufferedOutputStream(connected.getOutputStream());
+        handshake(in, out);
+        Thread writer = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            writeLoop(out);
+          }
+        }, Thread.currentThread().getName() + "-writer");
+        writer.setDaemon(true);
+        writer.start();
+        readLoop(new DataInputStream(in));
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        shutdown(failure != null ? failure : new EOFException("Relay closed the connection."));
+      }
+    }
+
+    private void handshake(InputStream in, OutputStream out) throws IOException {
+      String key = WebSocketFrames.newKey(random);
+      String request = "GET " + path + " HTTP/1.1\r\n"
+          + "Host: " + host + ":" + port + "\r\n"
+          + "Upgrade: websocket\r\n"
+          + "Connection: Upgrade\r\n"
+          + "Sec-WebSocket-Key: " + key + "\r\n"
+          + "Sec-WebSocket-Version: 13\r\n\r\n";
+      out.write(request.getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      int matched = 0;
+      while (matched < 4) {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Relay closed the connection during handshake.");
+        response.write(b);
+        matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+      }
+      String headers = new String(response.toByteArray(), StandardCharsets.US_ASCII);
+      if (!headers.startsWith("HTTP/1.1 101")
+          || !headers.contains(WebSocketFrames.acceptKey(key))) {
+        throw new IOException("WebSocket handshake failed: " + headers);
+      }
+    }
+
+    private void writeLoop(OutputStream out) {
+      try {
+        while (true) {
+          ByteBuffer frame = outbound.take();
+          if (frame == END_OF_STREAM) return;
+          out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+          // Batch everything queued meanwhile into as few packets as possible.
+          if (outbound.isEmpty()) {
+            out.flush();
+          }
+        }
+      } catch (IOException e) {
+        shutdown(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void readLoop(DataInputStream in) throws IOException {
+      ByteArrayOutputStream fragments = null;
+      while (!closed) {
+        int first = in.readUnsignedByte();
+        int second = in.readUnsignedByte();
+        long length = second & 0x7F;
+        if (length == 126) {
+          length = in.readUnsignedShort();
+        } else if (length == 127) {
+          length = in.readLong();
+        }
+        if (length < 0 || length > WebSocketFrames.MAX_PAYLOAD_LENGTH) {
+          throw new IOException("Frame too large: " + length);
+        }
+        byte[] mask = null;
+        if ((second & 0x80) != 0) {
+          mask = new byte[4];
+          in.readFully(mask);
+        }
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        if (mask != null) {
+          for (int i = 0; i < payload.length; i++) {
+            payload[i] ^= mask[i & 3];
+          }
+        }
+
+        boolean fin = (first & 0x80) != 0;
+        switch (first & 0x0F) {
+          case WebSocketFrames.OPCODE_TEXT:
+          case WebSocketFrames.OPCODE_CONTINUATION:
+            if (!fin || fragments != null) {
+              if (fragments == null) fragments = new ByteArrayOutputStream();
+              fragments.write(payload);
+              if (!fin) break;
+              payload = fragments.toByteArray();
+              fragments = null;
+            }
+            onMessage(this, new String(payload, StandardCharsets.UTF_8));
+            break;
+          case WebSocketFrames.OPCODE_PING:
+            send(WebSocketFrames.OPCODE_PONG, payload);
+            break;
+          case WebSocketFrames.OPCODE_CLOSE:
+            send(WebSocketFrames.OPCODE_CLOSE, new byte[0]);
+            return;
+          default:
+            break;
+        }
+      }
+    }
+
+    private void shutdown(IOException cause) {
+      synchronized (this) {
+        if (closed) return;
+        closed = true;
+      }
+      Log.d(TAG, "Connection to " + host + ":" + port + " closed: " + cause.getMessage());
+      outbound.add(END_OF_STREAM);
+      Socket current = socket;
+      if (current != null) {
+        try {
+          current.close();
+        } catch (IOException e) {
+          // Nothing to do.
+        }
+      }
+      SignalingException failure = new SignalingException("Connection to the relay is lost.", cause);
+      for (Long id : pendingSends.keySet()) {
+        SendCallback callback = pendingSends.remove(id);
+        if (callback != null) {
+          callback.onSendFailed(failure);
+        }
+      }
+      for (Map.Entry<String, Listener> entry : listeners.entrySet()) {
+        if (entry.getValue().session == this) {
+          disconnect(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  private static class Listener {
+    private final SignalHandler signalHandler;
+    private final SerialExecutor lane;
+    private final Session session;
+
+    private Listener(SignalHandler signalHandler, SerialExecutor lane, Session session) {
+      this.signalHandler = signalHandler;
+      this.lane = lane;
+      this.session = session;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package cceh.androidrtclibrary.stats;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Steps the video quality of every peer up and down the {@link QualityLevel}s of the
+ * {@link AdaptiveBitrateParams}, following the loss and round trip time of its stats samples.
+ *
+ * Changes are damped both ways: a peer goes a level down after a few congested samples in a row,
+ * and a level up after more clear samples in a row, samples in between hold the level. A level
+ * up which congests right away doubles the clear samples needed for the next try, so a link
+ * just under a level does not flap between the two.
+ *
+ * Each peer gets its own max bitrate. There is one capture for all of them, it follows the best
+ * peer and the bitrate caps keep the others within their links.
+ */
+public class AdaptiveBitrateController implements StatsListener {
+  private static final String TAG = "AdaptiveBitrate";
+
+  /** Applies the decisions, called on the thread of the stats sample. */
+  public interface Callback {
+
+    /** The max bitrate to send to the peer changed. */
+    void onMaxBitrateChanged(String peerId, int maxBitrateKbps);
+
+    /** The level of the best peer changed. */
+    void onCaptureFormatChanged(QualityLevel level);
+  }
+
+  private final AdaptiveBitrateParams params;
+  private final List<QualityLevel> levels;
+  private final Callback callback;
+
+  // Guarded by this.
+  private final Map<String, PeerState> peers;
+  private int captureLevel;
+
+  public AdaptiveBitrateController(AdaptiveBitrateParams params, Callback callback) {
+    this.params = params;
+    this.levels = params.getLevels();
+    this.callback = callback;
+    this.peers = new HashMap<>();
+    this.captureLevel = -1;
+  }
+
+  // StatsListener
+  @Override
+  public synchronized void onStatsUpdated(ConnectionStats stats) {
+    String peerId = stats.getPeerId();
+    PeerState state = peers.get(peerId);
+    boolean changed = false;
+    if (state == null) {
+      int initialLevel = Math.max(0, Math.min(params.getInitialLevel(), levels.size() - 1));
+      state = new PeerState(initialLevel, params.getUpSamples());
+      peers.put(peerId, state);
+      // Without a cap the peer gets the best level anyway.
+      changed = initialLevel != 0;
+    }
+    if (step(state, stats)) {
+      changed = true;
+      Log.i(TAG, "Quality of " + peerId + " is now " + levels.get(state.level)
+          + " after " + stats);
+    }
+    if (changed) {
+      callback.onMaxBitrateChanged(peerId, levels.get(state.level).getMaxBitrateKbps());
+    }
+    updateCaptureLevel();
+  }
+  // StatsListener Ends
+
+  /** Forgets the peer, e.g. once disconnected, the capture may go up for the others. */
+  public synchronized void removePeer(String peerId) {
+    if (peers.remove(peerId) != null) {
+      updateCaptureLevel();
+    }
+  }
+
+  /** Index of the level of the peer, -1 for a peer without samples. */
+  public synchronized int getLevel(String peerId) {
+    PeerState state = peers.get(peerId);
+    return state == null ? -1 : state.level;
+  }
+
+  /** Returns whether the peer changed level. */
+  private boolean step(PeerState state, ConnectionStats stats) {
+    // Comparisons with NaN are false, a value missing from the sample neither congests nor clears.
+    double loss = stats.getLatestSentPacketLossPercent();
+    double rtt = stats.getLatestRttMillis();
+    boolean congested = loss > params.getCongestedLossPercent()
+        || rtt > params.getCongestedRttMillis();
+    boolean clear = !(loss > params.getClearLossPercent())
+        && !(rtt > params.getClearRttMillis())
+        && !(Double.isNaN(loss) && Double.isNaN(rtt));
+    state.samplesAtLevel++;
+
+    if (congested) {
+      state.clearSamples = 0;
+      state.congestedSamples++;
+      if (state.congestedSamples < params.getDownSamples() || state.level == levels.size() - 1) {
+        return false;
+      }
+      if (state.steppedUp && state.samplesAtLevel <= state.upSamples) {
+        state.upSamples = Math.min(state.upSamples * 2, params.getMaxUpSamples());
+      } else {
+        state.upSamples = params.getUpSamples();
+      }
+      state.changeLevel(state.level + 1, false);
+      return true;
+    }
+    if (clear) {
+      state.congestedSamples = 0;
+      state.clearSamples++;
+      if (state.clearSamples < state.upSamples || state.level == 0) {
+        return false;
+      }
+      state.changeLevel(state.level - 1, true);
+      return true;
+    }
+    state.congestedSamples = 0;
+    state.clearSamples = 0;
+    return false;
+  }
+
+  private void updateCaptureLevel() {
+    if (peers.isEmpty()) return;
+    int best = levels.size() - 1;
+    for (PeerState state : peers.values()) {
+      best = Math.min(best, state.level);
+    }
+    if (best == captureLevel) return;
+    captureLevel = best;
+    callback.onCaptureFormatChanged(levels.get(best));
+  }
+
+  private static class PeerState {
+    private int level;
+    private int congestedSamples;
+    private int clearSamples;
+    private int samplesAtLevel;
+    private boolean steppedUp;
+    private int upSamples;
+
+    private PeerState(int level, int upSamples) {
+      this.level = level;
+      this.congestedSamples = 0;
+      this.clearSamples = 0;
+      this.samplesAtLevel = 0;
+      this.steppedUp = false;
+      this.upSamples = upSamples;
+    }
+
+    private void changeLevel(int newLevel, boolean up) {
+      level = newLevel;
+      steppedUp = up;
+      congestedSamples = 0;
+      clearSamples = 0;
+      samplesAtLevel = 0;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package cceh.androidrtclibrary.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Params of a {@link AdaptiveBitrateController}.
+ */
+public class AdaptiveBitrateParams {
+  public static final double DEFAULT_CONGESTED_LOSS_PERCENT = 8;
+  public static final double DEFAULT_CONGESTED_RTT_MILLIS = 400;
+  public static final double DEFAULT_CLEAR_LOSS_PERCENT = 2;
+  public static final double DEFAULT_CLEAR_RTT_MILLIS = 250;
+  public static final int DEFAULT_DOWN_SAMPLES = 2;
+  public static final int DEFAULT_UP_SAMPLES = 5;
+  public static final int DEFAULT_MAX_UP_SAMPLES = 40;
+
+  private final List<QualityLevel> levels;
+  private final int initialLevel;
+  private final double congestedLossPercent;
+  private final double congestedRttMillis;
+  private final double clearLossPercent;
+  private final double clearRttMillis;
+  private final int downSamples;
+  private final int upSamples;
+  private final int maxUpSamples;
+
+  private AdaptiveBitrateParams(Builder builder) {
+    this.levels = Collections.unmodifiableList(new ArrayList<>(builder.levels));
+    this.initialLevel = builder.initialLevel;
+    this.congestedLossPercent = builder.congestedLossPercent;
+    this.congestedRttMillis = builder.congestedRttMillis;
+    this.clearLossPercent = builder.clearLossPercent;
+    this.clearRttMillis = builder.clearRttMillis;
+    this.downSamples = builder.downSamples;
+    this.upSamples = builder.upSamples;
+    this.maxUpSamples = builder.maxUpSamples;
+  }
+
+  /** Returns the params with all defaults. */
+  public static AdaptiveBitrateParams defaults() {
+    return new Builder().build();
+  }
+
+  /** The default levels, from 720p down to 240p. */
+  public static List<QualityLevel> defaultLevels() {
+    return Arrays.asList(
+        new QualityLevel(1700, 1280, 720, 30),
+        new QualityLevel(1100, 960, 540, 30),
+        new QualityLevel(700, 640, 480, 30),
+        new QualityLevel(400, 480, 360, 24),
+        new QualityLevel(200, 320, 240, 15));
+  }
+
+  /** The quality levels, best first, at least one. */
+  public List<QualityLevel> getLevels() {
+    return levels;
+  }
+
+  /** Index of the level a new peer starts at, 0, the default, for the best. */
+  public int getInitialLevel() {
+    return initialLevel;
+  }
+
+  /** Loss of the sent packets above which a sample is congested. */
+  public double getCongestedLossPercent() {
+    return congestedLossPercent;
+  }
+
+  /** Round trip time above which a sample is congested. */
+  public double getCongestedRttMillis() {
+    return congestedRttMillis;
+  }
+
+  /**
+   * Loss under which a sample is clear, when the rtt is clear as well. A sample between clear and
+   * congested holds the level.
+   */
+  public double getClearLossPercent() {
+    return clearLossPercent;
+  }
+
+  public double getClearRttMillis() {
+    return clearRttMillis;
+  }
+
+  /** Congested samples in a row after which a peer goes a level down. */
+  public int getDownSamples() {
+    return downSamples;
+  }
+
+  /** Clear samples in a row after which a peer goes a level up. */
+  public int getUpSamples() {
+    return upSamples;
+  }
+
+  /**
+   * Cap of the clear samples needed to go up, which double every time a level up turns out
+   * congested.
+   */
+  public int getMaxUpSamples() {
+    return maxUpSamples;
+  }
+
+  /** Builder of {@link AdaptiveBitrateParams}, for overriding the defaults. */
+  public static class Builder {
+    private List<QualityLevel> levels;
+    private int initialLevel;
+    private double congestedLossPercent;
+    private double congestedRttMillis;
+    private double clearLossPercent;
+    private double clearRttMillis;
+    private int downSamples;
+    private int upSamples;
+    private int maxUpSamples;
+
+    public Builder() {
+      this.levels = defaultLevels();
+      this.initialLevel = 0;
+      this.congestedLossPercent = DEFAULT_CONGESTED_LOSS_PERCENT;
+      this.congestedRttMillis = DEFAULT_CONGESTED_RTT_MILLIS;
+      this.clearLossPercent = DEFAULT_CLEAR_LOSS_PERCENT;
+      this.clearRttMillis = DEFAULT_CLEAR_RTT_MILLIS;
+      this.downSamples = DEFAULT_DOWN_SAMPLES;
+      this.upSamples = DEFAULT_UP_SAMPLES;
+      this.maxUpSamples = DEFAULT_MAX_UP_SAMPLES;
+    }
+
+    public Builder setLevels(List<QualityLevel> levels) {
+      this.levels = levels;
+      return this;
+    }
+
+    public Builder setInitialLevel(int initialLevel) {
+      this.initialLevel = initialLevel;
+      return this;
+    }
+
+    public Builder setCongestedLossPercent(double congestedLossPercent) {
+      this.congestedLossPercent = congestedLossPercent;
+      return this;
+    }
+
+    public Builder setCongestedRttMillis(double congestedRttMillis) {
+      this.congestedRttMillis = congestedRttMillis;
+      return this;
+    }
+
+    public Builder setClearLossPercent(double clearLossPercent) {
+      this.clearLossPercent = clearLossPercent;
+      return this;
+    }
+
+    public Builder setClearRttMillis(double clearRttMillis) {
+      this.clearRttMillis = clearRttMillis;
+      return this;
+    }
+
+    public Builder setDownSamples(int downSamples) {
+      this.downSamples = downSamples;
+      return this;
+    }
+
+    public Builder setUpSamples(int upSamples) {
+      this.upSamples = upSamples;
+      return this;
+    }
+
+    public Builder setMaxUpSamples(int maxUpSamples) {
+      this.maxUpSamples = maxUpSamples;
+      return this;
+    }
+
+    public AdaptiveBitrateParams build() {
+      return new AdaptiveBitrateParams(this);
+    }
+  }
+}
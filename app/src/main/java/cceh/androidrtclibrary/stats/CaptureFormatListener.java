@@ -0,0 +1,13 @@
+package cceh.androidrtclibrary.stats;
+
+/**
+ * Listener of the capture format the connections can carry, see
+ * {@link cceh.androidrtclibrary.RtcClientParams#getCaptureFormatListener()}. Implementations
+ * change the format of the video capturer, e.g. with
+ * {@code VideoCapturerAndroid#changeCaptureFormat}.
+ */
+public interface CaptureFormatListener {
+
+  /** Called when the quality level of the best connected peer changed. */
+  void onCaptureFormatChanged(QualityLevel level);
+}
@@ -0,0 +1,122 @@
+package cceh.androidrtclibrary.stats;
+
+import java.util.Locale;
+
+/**
+ * Quality of the connection to a peer, aggregated over the latest stats samples. A value is NaN
+ * when no sample had it, e.g. bitrates need two samples and frame rates need video.
+ */
+public class ConnectionStats {
+  private final String peerId;
+  private final int sampleCount;
+  private final double rttMillis;
+  private final double maxRttMillis;
+  private final double latestRttMillis;
+  private final double jitterMillis;
+  private final double packetLossPercent;
+  private final double sentPacketLossPercent;
+  private final double latestSentPacketLossPercent;
+  private final double sendKbps;
+  private final double receiveKbps;
+  private final double sentFrameRate;
+  private final double receivedFrameRate;
+
+  ConnectionStats(
+      String peerId,
+      int sampleCount,
+      double rttMillis,
+      double maxRttMillis,
+      double latestRttMillis,
+      double jitterMillis,
+      double packetLossPercent,
+      double sentPacketLossPercent,
+      double latestSentPacketLossPercent,
+      double sendKbps,
+      double receiveKbps,
+      double sentFrameRate,
+      double receivedFrameRate) {
+    this.peerId = peerId;
+    this.sampleCount = sampleCount;
+    this.rttMillis = rttMillis;
+    this.maxRttMillis = maxRttMillis;
+    this.latestRttMillis = latestRttMillis;
+    this.jitterMillis = jitterMillis;
+    this.packetLossPercent = packetLossPercent;
+    this.sentPacketLossPercent = sentPacketLossPercent;
+    this.latestSentPacketLossPercent = latestSentPacketLossPercent;
+    this.sendKbps = sendKbps;
+    this.receiveKbps = receiveKbps;
+    this.sentFrameRate = sentFrameRate;
+    this.receivedFrameRate = receivedFrameRate;
+  }
+
+  public String getPeerId() {
+    return peerId;
+  }
+
+  /** Number of samples the values are aggregated over, at most the window size. */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  /** Mean round trip time of the active candidate pair. */
+  public double getRttMillis() {
+    return rttMillis;
+  }
+
+  public double getMaxRttMillis() {
+    return maxRttMillis;
+  }
+
+  /** Round trip time of the last sample. */
+  public double getLatestRttMillis() {
+    return latestRttMillis;
+  }
+
+  /** Mean jitter of the received streams, the worst stream of each sample. */
+  public double getJitterMillis() {
+    return jitterMillis;
+  }
+
+  /** Mean share of the received packets lost between two samples. */
+  public double getPacketLossPercent() {
+    return packetLossPercent;
+  }
+
+  /** Mean share of the sent packets the peer reported lost between two samples. */
+  public double getSentPacketLossPercent() {
+    return sentPacketLossPercent;
+  }
+
+  /** Share of the sent packets lost in the last interval. */
+  public double getLatestSentPacketLossPercent() {
+    return latestSentPacketLossPercent;
+  }
+
+  public double getSendKbps() {
+    return sendKbps;
+  }
+
+  public double getReceiveKbps() {
+    return receiveKbps;
+  }
+
+  /** Mean frame rate of the sent video. */
+  public double getSentFrameRate() {
+    return sentFrameRate;
+  }
+
+  /** Mean frame rate of the received video. */
+  public double getReceivedFrameRate() {
+    return receivedFrameRate;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US,
+        "ConnectionStats{%s samples=%d rtt=%.0fms (max %.0fms) jitter=%.0fms loss=%.1f%%"
+            + " sentLoss=%.1f%% send=%.0fkbps receive=%.0fkbps fps=%.1f/%.1f}",
+        peerId, sampleCount, rttMillis, maxRttMillis, jitterMillis, packetLossPercent,
+        sentPacketLossPercent, sendKbps, receiveKbps, sentFrameRate, receivedFrameRate);
+  }
+}
@@ -0,0 +1,212 @@
+package cceh.androidrtclibrary.stats;
+
+import android.support.annotation.Nullable;
+
+import org.webrtc.StatsObserver;
+import org.webrtc.StatsReport;
+
+/**
+ * Stats samples of the connection to one peer. Reused for every request to the peer: the reports
+ * are reduced to one sample which goes straight into the ring buffers, bitrates and loss are the
+ * deltas of the counters since the previous sample.
+ *
+ * Reads the legacy report names: the active "googCandidatePair" has the round trip time and the
+ * bytes of the transport, the "ssrc" reports have the jitter, packets and frame rates of every
+ * stream.
+ */
+final class PeerStats implements StatsObserver {
+  static final String TYPE_CANDIDATE_PAIR = "googCandidatePair";
+  static final String TYPE_SSRC = "ssrc";
+  static final String ACTIVE_CONNECTION = "googActiveConnection";
+  static final String RTT = "googRtt";
+  static final String BYTES_SENT = "bytesSent";
+  static final String BYTES_RECEIVED = "bytesReceived";
+  static final String PACKETS_SENT = "packetsSent";
+  static final String PACKETS_RECEIVED = "packetsReceived";
+  static final String PACKETS_LOST = "packetsLost";
+  static final String JITTER_RECEIVED = "googJitterReceived";
+  static final String FRAME_RATE_SENT = "googFrameRateSent";
+  static final String FRAME_RATE_RECEIVED = "googFrameRateReceived";
+
+  private final String peerId;
+  @Nullable private final StatsListener listener;
+  private final RingBuffer rttMillis;
+  private final RingBuffer jitterMillis;
+  private final RingBuffer packetLossPercent;
+  private final RingBuffer sentPacketLossPercent;
+  private final RingBuffer sendKbps;
+  private final RingBuffer receiveKbps;
+  private final RingBuffer sentFrameRate;
+  private final RingBuffer receivedFrameRate;
+
+  // Guarded by this.
+  private long requestedNanos;
+  private double previousTimestamp;
+  private double previousBytesSent;
+  private double previousBytesReceived;
+  private double previousPacketsReceived;
+  private double previousPacketsLost;
+  private double previousPacketsSent;
+  private double previousPacketsSentLost;
+
+  PeerStats(String peerId, int windowSize, @Nullable StatsListener listener) {
+    this.peerId = peerId;
+    this.listener = listener;
+    this.rttMillis = new RingBuffer(windowSize);
+    this.jitterMillis = new RingBuffer(windowSize);
+    this.packetLossPercent = new RingBuffer(windowSize);
+    this.sentPacketLossPercent = new RingBuffer(windowSize);
+    this.sendKbps = new RingBuffer(windowSize);
+    this.receiveKbps = new RingBuffer(windowSize);
+    this.sentFrameRate = new RingBuffer(windowSize);
+    this.receivedFrameRate = new RingBuffer(windowSize);
+    this.requestedNanos = 0;
+    this.previousTimestamp = Double.NaN;
+  }
+
+  String getPeerId() {
+    return peerId;
+  }
+
+  /**
+   * Marks a request in flight, unless one is already. A request unanswered for {@code stallNanos}
+   * is given up, e.g. one lost with its peer connection.
+   */
+  synchronized boolean tryRequest(long nowNanos, long stallNanos) {
+    if (requestedNanos != 0 && nowNanos - requestedNanos < stallNanos) {
+      return false;
+    }
+    requestedNanos = nowNanos == 0 ? 1 : nowNanos;
+    return true;
+  }
+
+  /** Clears the request in flight, when it could not be sent. */
+  synchronized void cancelRequest() {
+    requestedNanos = 0;
+  }
+
+  // StatsObserver
+  @Override
+  public void onComplete(StatsReport[] reports) {
+    ConnectionStats stats;
+    synchronized (this) {
+      requestedNanos = 0;
+      if (!record(reports) || listener == null) return;
+      stats = snapshot();
+    }
+    listener.onStatsUpdated(stats);
+  }
+  // StatsObserver Ends
+
+  synchronized ConnectionStats snapshot() {
+    return new ConnectionStats(
+        peerId,
+        rttMillis.getCount(),
+        rttMillis.getMean(),
+        rttMillis.getMax(),
+        rttMillis.getLatest(),
+        jitterMillis.getMean(),
+        packetLossPercent.getMean(),
+        sentPacketLossPercent.getMean(),
+        sentPacketLossPercent.getLatest(),
+        sendKbps.getMean(),
+        receiveKbps.getMean(),
+        sentFrameRate.getMean(),
+        receivedFrameRate.getMean());
+  }
+
+  /** Adds the sample of the reports, returns false if they have none, e.g. ice is not up. */
+  private boolean record(StatsReport[] reports) {
+    StatsReport pair = null;
+    double jitter = Double.NaN;
+    double packetsReceived = 0;
+    double packetsLost = 0;
+    double packetsSent = 0;
+    double packetsSentLost = 0;
+    double framesSent = Double.NaN;
+    double framesReceived = Double.NaN;
+    for (StatsReport report : reports) {
+      if (TYPE_CANDIDATE_PAIR.equals(report.type)) {
+        if (pair == null && "true".equals(valueOf(report, ACTIVE_CONNECTION))) {
+          pair = report;
+        }
+      } else if (TYPE_SSRC.equals(report.type)) {
+        if (valueOf(report, PACKETS_RECEIVED) != null) {
+          packetsReceived += numberOf(report, PACKETS_RECEIVED);
+          packetsLost += Math.max(0, numberOf(report, PACKETS_LOST));
+          jitter = max(jitter, numberOf(report, JITTER_RECEIVED));
+          framesReceived = max(framesReceived, numberOf(report, FRAME_RATE_RECEIVED));
+        } else if (valueOf(report, PACKETS_SENT) != null) {
+          // Lost as reported back by the peer.
+          packetsSent += numberOf(report, PACKETS_SENT);
+          packetsSentLost += Math.max(0, numberOf(report, PACKETS_LOST));
+          framesSent = max(framesSent, numberOf(report, FRAME_RATE_SENT));
+        }
+      }
+    }
+    if (pair == null) return false;
+
+    double timestamp = pair.timestamp;
+    double bytesSent = numberOf(pair, BYTES_SENT);
+    double bytesReceived = numberOf(pair, BYTES_RECEIVED);
+    rttMillis.add(numberOf(pair, RTT));
+    jitterMillis.add(jitter);
+    sentFrameRate.add(framesSent);
+    receivedFrameRate.add(framesReceived);
+    double elapsedMillis = timestamp - previousTimestamp;
+    if (elapsedMillis > 0) {
+      // Counters restart with a new candidate pair, that interval has no sample.
+      if (bytesSent >= previousBytesSent) {
+        sendKbps.add((bytesSent - previousBytesSent) * 8 / elapsedMillis);
+      }
+      if (bytesReceived >= previousBytesReceived) {
+        receiveKbps.add((bytesReceived - previousBytesReceived) * 8 / elapsedMillis);
+      }
+      double received = packetsReceived - previousPacketsReceived;
+      double lost = packetsLost - previousPacketsLost;
+      if (received >= 0 && lost >= 0 && received + lost > 0) {
+        packetLossPercent.add(lost * 100 / (received + lost));
+      }
+      double sent = packetsSent - previousPacketsSent;
+      double sentLost = packetsSentLost - previousPacketsSentLost;
+      if (sent > 0 && sentLost >= 0) {
+        sentPacketLossPercent.add(Math.min(100, sentLost * 100 / sent));
+      }
+    }
+    previousTimestamp = timestamp;
+    previousBytesSent = bytesSent;
+    previousBytesReceived = bytesReceived;
+    previousPacketsReceived = packetsReceived;
+    previousPacketsLost = packetsLost;
+    previousPacketsSent = packetsSent;
+    previousPacketsSentLost = packetsSentLost;
+    return true;
+  }
+
+  @Nullable
+  private static String valueOf(StatsReport report, String name) {
+    for (StatsReport.Value value : report.values) {
+      if (name.equals(value.name)) {
+        return value.value;
+      }
+    }
+    return null;
+  }
+
+  /** The value as a number, NaN if it is missing or not a number. */
+  private static double numberOf(StatsReport report, String name) {
+    String value = valueOf(report, name);
+    if (value == null || value.isEmpty()) return Double.NaN;
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static double max(double current, double value) {
+    if (Double.isNaN(current)) return value;
+    if (Double.isNaN(value)) return current;
+    return Math.max(current, value);
+  }
+}
@@ -0,0 +1,40 @@
+package cceh.androidrtclibrary.stats;
+
+/**
+ * A step of the video quality: the max bitrate sent to a peer, and the capture format which fits
+ * in it.
+ */
+public class QualityLevel {
+  private final int maxBitrateKbps;
+  private final int width;
+  private final int height;
+  private final int framesPerSecond;
+
+  public QualityLevel(int maxBitrateKbps, int width, int height, int framesPerSecond) {
+    this.maxBitrateKbps = maxBitrateKbps;
+    this.width = width;
+    this.height = height;
+    this.framesPerSecond = framesPerSecond;
+  }
+
+  public int getMaxBitrateKbps() {
+    return maxBitrateKbps;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getFramesPerSecond() {
+    return framesPerSecond;
+  }
+
+  @Override
+  public String toString() {
+    return width + "x" + height + "@" + framesPerSecond + " " + maxBitrateKbps + "kbps";
+  }
+}
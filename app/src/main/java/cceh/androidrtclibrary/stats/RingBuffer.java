@@ -0,0 +1,61 @@
+package cceh.androidrtclibrary.stats;
+
+/**
+ * Window of the latest samples of one metric. Samples are kept in a primitive array allocated
+ * once, so adding one allocates nothing. Not thread safe.
+ */
+final class RingBuffer {
+  private final double[] samples;
+  private int next;
+  private int count;
+
+  RingBuffer(int capacity) {
+    this.samples = new double[Math.max(1, capacity)];
+    this.next = 0;
+    this.count = 0;
+  }
+
+  /** Adds a sample, replacing the oldest one once the window is full. NaN is ignored. */
+  void add(double sample) {
+    if (Double.isNaN(sample)) return;
+    samples[next] = sample;
+    next = (next + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+  }
+
+  int getCount() {
+    return count;
+  }
+
+  /** The last sample added, NaN if there is none. */
+  double getLatest() {
+    return count == 0 ? Double.NaN : samples[(next - 1 + samples.length) % samples.length];
+  }
+
+  /** Mean of the window, NaN if it is empty. */
+  double getMean() {
+    if (count == 0) return Double.NaN;
+    double sum = 0;
+    for (int i = 0; i < count; i++) {
+      sum += samples[i];
+    }
+    return sum / count;
+  }
+
+  /** Max of the window, NaN if it is empty. */
+  double getMax() {
+    if (count == 0) return Double.NaN;
+    double max = samples[0];
+    for (int i = 1; i < count; i++) {
+      max = Math.max(max, samples[i]);
+    }
+    return max;
+  }
+
+  void clear() {
+    next = 0;
+    count = 0;
+  }
+}
@@ -0,0 +1,152 @@
+package cceh.androidrtclibrary.stats;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.webrtc.StatsObserver;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the stats of every live connection on a shared scheduler and keeps the latest samples
+ * of each peer in fixed size windows, see {@link ConnectionStats}.
+ *
+ * The cost is bounded: a tick requests the stats of at most {@code maxRequestsPerTick} peers,
+ * round robin, and never a second time for a peer whose last request is still in flight. With
+ * many peers each one is sampled less often instead of the ticks getting longer.
+ */
+public class StatsCollector {
+  private static final String TAG = "StatsCollector";
+  // Ticks after which a request without an answer is given up.
+  private static final int STALL_TICKS = 5;
+
+  /** The connections to sample. */
+  public interface Target {
+
+    /** Peers with a live connection. */
+    List<String> getPeerIds();
+
+    /**
+     * Requests the stats of the connection to the peer, the observer gets them on any thread.
+     * Returns false if the peer has no connection.
+     */
+    boolean requestStats(String peerId, StatsObserver observer);
+  }
+
+  private final Target target;
+  private final ScheduledExecutorService scheduler;
+  private final long intervalMillis;
+  private final int windowSize;
+  private final int maxRequestsPerTick;
+  @Nullable private final StatsListener listener;
+  private final Map<String, PeerStats> peers;
+  private final Object lock;
+
+  // Confined to the scheduler.
+  private int cursor;
+
+  // Guarded by lock.
+  private ScheduledFuture<?> poll;
+
+  /**
+   * @param intervalMillis time between two ticks
+   * @param windowSize number of samples the stats of a peer are aggregated over
+   * @param maxRequestsPerTick max number of peers sampled by a tick
+   * @param listener called after every sample, on the thread the stats arrived on
+   */
+  public StatsCollector(
+      Target target,
+      ScheduledExecutorService scheduler,
+      long intervalMillis,
+      int windowSize,
+      int maxRequestsPerTick,
+      @Nullable StatsListener listener) {
+    this.target = target;
+    this.scheduler = scheduler;
+    this.intervalMillis = intervalMillis;
+    this.windowSize = windowSize;
+    this.maxRequestsPerTick = Math.max(1, maxRequestsPerTick);
+    this.listener = listener;
+    this.peers = new ConcurrentHashMap<>();
+    this.lock = new Object();
+    this.cursor = 0;
+    this.poll = null;
+  }
+
+  public void start() {
+    synchronized (lock) {
+      if (poll != null) return;
+      poll = scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            poll();
+          } catch (RuntimeException e) {
+            // An exception would cancel the polling for good.
+            Log.e(TAG, "Failed polling stats.", e);
+          }
+        }
+      }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public void stop() {
+    synchronized (lock) {
+      if (poll == null) return;
+      poll.cancel(false);
+      poll = null;
+    }
+  }
+
+  /** Stats of the connection to the peer, null if it was never sampled. */
+  @Nullable
+  public ConnectionStats getStats(String peerId) {
+    PeerStats peerStats = peers.get(peerId);
+    return peerStats == null ? null : peerStats.snapshot();
+  }
+
+  /** Drops the samples of the peer, e.g. once disconnected, a later connection starts over. */
+  public void removePeer(String peerId) {
+    peers.remove(peerId);
+  }
+
+  /** One tick, run on the scheduler. */
+  void poll() {
+    List<String> peerIds = target.getPeerIds();
+    if (!peers.isEmpty()) {
+      // Drops the peers which are gone without a disconnect, e.g. cleared on close.
+      Set<String> live = new HashSet<>(peerIds);
+      peers.keySet().retainAll(live);
+    }
+    int count = peerIds.size();
+    if (count == 0) return;
+
+    long nowNanos = System.nanoTime();
+    long stallNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis * STALL_TICKS);
+    int requests = 0;
+    int start = cursor % count;
+    int visited = 0;
+    while (visited < count && requests < maxRequestsPerTick) {
+      String peerId = peerIds.get((start + visited) % count);
+      visited++;
+      PeerStats peerStats = peers.get(peerId);
+      if (peerStats == null) {
+        peerStats = new PeerStats(peerId, windowSize, listener);
+        peers.put(peerId, peerStats);
+      }
+      if (!peerStats.tryRequest(nowNanos, stallNanos)) continue;
+      requests++;
+      if (!target.requestStats(peerId, peerStats)) {
+        peerStats.cancelRequest();
+      }
+    }
+    cursor = start + visited;
+  }
+}
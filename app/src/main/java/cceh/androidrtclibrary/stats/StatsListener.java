@@ -0,0 +1,11 @@
+package cceh.androidrtclibrary.stats;
+
+/**
+ * Listener of the connection quality, see
+ * {@link cceh.androidrtclibrary.RtcClientParams#getStatsListener()}.
+ */
+public interface StatsListener {
+
+  /** Called after every stats sample of a connection, with the aggregates over the window. */
+  void onStatsUpdated(ConnectionStats stats);
+}
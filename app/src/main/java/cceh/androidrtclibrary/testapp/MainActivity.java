@@ -4,6 +4,8 @@ import android.app.Activity;
 import android.content.pm.PackageManager;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
@@ -19,18 +21,25 @@ import org.webrtc.AudioSource;
 import org.webrtc.AudioTrack;
 import org.webrtc.MediaStream;
 import org.webrtc.PeerConnectionFactory;
-import org.webrtc.VideoCapturer;
 import org.webrtc.VideoCapturerAndroid;
 import org.webrtc.VideoRenderer;
 import org.webrtc.VideoRendererGui;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
 
+import java.util.concurrent.Executor;
+
 import cceh.androidrtclibrary.R;
 import cceh.androidrtclibrary.RtcClient;
+import cceh.androidrtclibrary.RtcClientParams;
 import cceh.androidrtclibrary.RtcEventListener;
+import cceh.androidrtclibrary.network.CachingStunTurnServerProvider;
+import cceh.androidrtclibrary.network.ProbingStunTurnServerProvider;
 import cceh.androidrtclibrary.network.XirSysStunTurnServerProvider;
 import cceh.androidrtclibrary.signaling.PubnubSignalingService;
+import cceh.androidrtclibrary.stats.AdaptiveBitrateParams;
+import cceh.androidrtclibrary.stats.CaptureFormatListener;
+import cceh.androidrtclibrary.stats.QualityLevel;
 
 /**
  * Testapp main activity which allows listening on a user id and make calls with it.
@@ -54,6 +63,7 @@ public class MainActivity
   @Nullable private String username;
   @Nullable private String peerUsername;
   @Nullable private RtcClient rtcClient;
+  private VideoCapturerAndroid videoCapturer;
   private VideoSource localVideoSource;
   private AudioSource localAudioSource;
   private VideoRenderer.Callbacks localRender;
@@ -180,10 +190,10 @@ public class MainActivity
         null); // Render EGL Context
 
     String frontFacingCam = VideoCapturerAndroid.getNameOfFrontFacingDevice();
-    VideoCapturer capturer = VideoCapturerAndroid.create(frontFacingCam);
+    videoCapturer = VideoCapturerAndroid.create(frontFacingCam);
 
     pcFactory = new PeerConnectionFactory();
-    localVideoSource = pcFactory.createVideoSource(capturer, MediaParams.defaultVideoConstraints());
+    localVideoSource = pcFactory.createVideoSource(videoCapturer, MediaParams.defaultVideoConstraints());
     VideoTrack localVideoTrack = pcFactory.createVideoTrack(VIDEO_TRACK_ID, localVideoSource);
 
     localAudioSource = pcFactory.createAudioSource(MediaParams.defaultAudioConstraints());
@@ -224,8 +234,30 @@ public class MainActivity
         username,
         localMediaStream,
         pubnubSignalingService,
-        xirSysStunTurnServerProvider,
-        this);
+        new CachingStunTurnServerProvider.Builder(
+            new ProbingStunTurnServerProvider(xirSysStunTurnServerProvider),
+            CachingStunTurnServerProvider.cacheKeyOf(xirSysStunTurnServerProvider))
+            .setCacheDir(getCacheDir())
+            .build(),
+        this,
+        new RtcClientParams.Builder()
+            .setEventExecutor(new Executor() {
+              private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+              @Override
+              public void execute(Runnable runnable) {
+                mainHandler.post(runnable);
+              }
+            })
+            .setAdaptiveBitrateParams(AdaptiveBitrateParams.defaults())
+            .setCaptureFormatListener(new CaptureFormatListener() {
+              @Override
+              public void onCaptureFormatChanged(QualityLevel level) {
+                videoCapturer.changeCaptureFormat(
+                    level.getWidth(), level.getHeight(), level.getFramesPerSecond());
+              }
+            })
+            .build());
   }
 
   private void promptLogin() {
@@ -266,26 +298,16 @@ public class MainActivity
     }
   }
 
-  // RtcEventListener
+  // RtcEventListener, called on the main thread.
   @Override
   public void onClientReady() {
-    MainActivity.this.runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        setupChatBox();
-        setStatusBox(username, R.string.status_waiting);
-      }
-    });
+    setupChatBox();
+    setStatusBox(username, R.string.status_waiting);
   }
 
   @Override
   public void onClientDied(Throwable e) {
-    MainActivity.this.runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        Toast.makeText(MainActivity.this, "RtcClient died, quiting activity.", Toast.LENGTH_SHORT).show();
-      }
-    });
+    Toast.makeText(MainActivity.this, "RtcClient died, quiting activity.", Toast.LENGTH_SHORT).show();
     finish();
   }
 
@@ -293,49 +315,34 @@ public class MainActivity
   public void onConnected(final String peerId) {
     peerUsername = peerId;
 
-    MainActivity.this.runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        Toast.makeText(MainActivity.this, "Connected to user: " + peerId, Toast.LENGTH_SHORT).show();
-        callButton.setEnabled(false);
-        endCallButton.setEnabled(true);
-        setStatusBox(username, R.string.status_chating, peerUsername);
-      }
-    });
+    Toast.makeText(MainActivity.this, "Connected to user: " + peerId, Toast.LENGTH_SHORT).show();
+    callButton.setEnabled(false);
+    endCallButton.setEnabled(true);
+    setStatusBox(username, R.string.status_chating, peerUsername);
   }
 
   @Override
   public void onDisconnected(final String peerId) {
     peerUsername = null;
 
-    MainActivity.this.runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        Toast.makeText(MainActivity.this, "Disconnected from user: " + peerId, Toast.LENGTH_SHORT).show();
-        callButton.setEnabled(true);
-        endCallButton.setEnabled(false);
-        VideoRendererGui.update(localRender, 0, 0, 100, 100, VideoRendererGui.ScalingType.SCALE_ASPECT_FILL, true);
-        setStatusBox(username, R.string.status_waiting);
-      }
-    });
+    Toast.makeText(MainActivity.this, "Disconnected from user: " + peerId, Toast.LENGTH_SHORT).show();
+    callButton.setEnabled(true);
+    endCallButton.setEnabled(false);
+    VideoRendererGui.update(localRender, 0, 0, 100, 100, VideoRendererGui.ScalingType.SCALE_ASPECT_FILL, true);
+    setStatusBox(username, R.string.status_waiting);
   }
 
   @Override
   public void onRemoteStreamAdded(String peerId, final MediaStream remoteStream) {
     peerUsername = peerId;
 
-    MainActivity.this.runOnUiThread(new Runnable() {
-      @Override
-      public void run() {
-        try {
-          if (remoteStream.videoTracks.size() == 0) return;
-          remoteStream.videoTracks.get(0).addRenderer(new VideoRenderer(remoteRender));
-          VideoRendererGui.update(remoteRender, 0, 0, 100, 100, VideoRendererGui.ScalingType.SCALE_ASPECT_FILL, false);
-          VideoRendererGui.update(localRender, 92, 92, 6, 6, VideoRendererGui.ScalingType.SCALE_ASPECT_FIT, true);
-        }
-        catch (Exception e){ e.printStackTrace(); }
-      }
-    });
+    try {
+      if (remoteStream.videoTracks.size() == 0) return;
+      remoteStream.videoTracks.get(0).addRenderer(new VideoRenderer(remoteRender));
+      VideoRendererGui.update(remoteRender, 0, 0, 100, 100, VideoRendererGui.ScalingType.SCALE_ASPECT_FILL, false);
+      VideoRendererGui.update(localRender, 92, 92, 6, 6, VideoRendererGui.ScalingType.SCALE_ASPECT_FIT, true);
+    }
+    catch (Exception e){ e.printStackTrace(); }
   }
 
   @Override
@@ -8,12 +8,16 @@ import org.webrtc.MediaConstraints;
  * Created by Charlie Chen (ccehshmily@gmail.com) on 4/7/17.
  */
 public class MediaParams {
+  /**
+   * The range of the capture formats of the adaptive bitrate levels, the capture starts at the
+   * best one and steps down with the connections.
+   */
   public static MediaConstraints defaultVideoConstraints() {
     MediaConstraints videoConstraints = new MediaConstraints();
-    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("maxWidth","1920"));
-    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("maxHeight","1080"));
-    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("minWidth", "640"));
-    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("minHeight","480"));
+    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("maxWidth","1280"));
+    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("maxHeight","720"));
+    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("minWidth", "320"));
+    videoConstraints.mandatory.add(new MediaConstraints.KeyValuePair("minHeight","240"));
     return videoConstraints;
   }
 
@@ -0,0 +1,63 @@
+package cceh.androidrtclibrary.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link Executor} which runs its tasks one at a time in submission order, on top of a shared
+ * (usually multi-threaded) executor. Tasks of different {@link SerialExecutor}s can run in
+ * parallel.
+ */
+public class SerialExecutor implements Executor {
+  private final Executor executor;
+  private final Queue<Runnable> tasks;
+
+  private Runnable active;
+
+  public SerialExecutor(Executor executor) {
+    this.executor = executor;
+    this.tasks = new ArrayDeque<>();
+    this.active = null;
+  }
+
+  @Override
+  public synchronized void execute(final Runnable task) {
+    tasks.add(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          scheduleNext();
+        }
+      }
+    });
+    if (active == null) {
+      scheduleNext();
+    }
+  }
+
+  /** Number of tasks waiting to run, not counting the running one. */
+  public synchronized int getPendingTaskCount() {
+    return tasks.size();
+  }
+
+  /**
+   * Hands the next task to the shared executor. If the executor rejects it, e.g. once shut down,
+   * the task is dropped and the exception propagates. The lane is not left waiting for it, so
+   * tasks submitted later still run if the executor accepts them.
+   */
+  private synchronized void scheduleNext() {
+    active = tasks.poll();
+    if (active != null) {
+      try {
+        executor.execute(active);
+      } catch (RejectedExecutionException e) {
+        active = null;
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package cceh.androidrtclibrary;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BatchConnector}.
+ */
+public class BatchConnectorTest {
+  private ScheduledExecutorService scheduler;
+  private ScheduledExecutorService peers;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    peers = Executors.newScheduledThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+    peers.shutdownNow();
+  }
+
+  @Test
+  public void startsAFewAtATimeAndReportsEveryPeer() throws Exception {
+    List<String> peerIds = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      peerIds.add("peer" + i);
+    }
+    FakePeers fakePeers = new FakePeers(30, 20, Collections.singletonList("peer5"));
+    Completion completion = new Completion();
+
+    new BatchConnector(peerIds, fakePeers, scheduler, 3, 0, 5000, completion).start();
+
+    BatchConnectResult result = completion.await();
+    assertEquals(1, completion.calls.get());
+    assertEquals(12, fakePeers.started.get());
+    assertTrue("Max concurrent " + fakePeers.maxStarting.get(), fakePeers.maxStarting.get() <= 3);
+    assertEquals(12, result.getPeerResults().size());
+    assertEquals(Collections.singletonList("peer5"), result.getFailedPeers());
+    assertEquals(11, result.getConnectedPeers().size());
+    // Later peers had to wait for a slot.
+    assertTrue(result.getPeerResults().get(11).getQueuedMillis()
+        >= result.getPeerResults().get(0).getQueuedMillis() + 60);
+    assertTrue(result.getPeerResults().get(0).getSetupMillis() >= 50);
+  }
+
+  @Test
+  public void pacesStarts() throws Exception {
+    FakePeers fakePeers = new FakePeers(0, 0, Collections.<String>emptyList());
+    Completion completion = new Completion();
+
+    new BatchConnector(Arrays.asList("a", "b", "c", "d"), fakePeers, scheduler, 10, 50, 5000,
+        completion).start();
+
+    BatchConnectResult result = completion.await();
+    assertTrue(result.isAllConnected());
+    assertTrue(result.getPeerResults().get(3).getQueuedMillis() >= 140);
+    assertTrue(fakePeers.maxStarting.get() <= 1);
+  }
+
+  @Test
+  public void peerWhichNeverConnectsTimesOut() throws Exception {
+    Completion completion = new Completion();
+    BatchConnector.Starter silent = new BatchConnector.Starter() {
+      @Override
+      public void start(String peerId, BatchConnector batch) {}
+    };
+
+    new BatchConnector(Arrays.asList("a", "b"), silent, scheduler, 1, 0, 100, completion)
+        .start();
+
+    BatchConnectResult result = completion.await();
+    assertEquals(Arrays.asList("a", "b"), result.getFailedPeers());
+    assertTrue(result.getPeerResults().get(0).getFailure().startsWith("Timed out"));
+  }
+
+  @Test
+  public void cancelFailsUnfinishedPeersOnce() throws Exception {
+    Completion completion = new Completion();
+    BatchConnector.Starter silent = new BatchConnector.Starter() {
+      @Override
+      public void start(String peerId, BatchConnector batch) {}
+    };
+    BatchConnector batch = new BatchConnector(
+        Arrays.asList("a", "b", "a"), silent, scheduler, 1, 0, 0, completion);
+
+    batch.cancel("Client closed.");
+    batch.start();
+
+    BatchConnectResult result = completion.await();
+    Thread.sleep(50);
+    assertEquals(1, completion.calls.get());
+    assertEquals(Arrays.asList("a", "b"), result.getFailedPeers());
+    assertEquals("Client closed.", result.getPeerResults().get(1).getFailure());
+  }
+
+  @Test
+  public void emptyBatchCompletesRightAway() throws Exception {
+    Completion completion = new Completion();
+    new BatchConnector(Collections.<String>emptyList(), new FakePeers(0, 0,
+        Collections.<String>emptyList()), scheduler, 1, 0, 0, completion).start();
+
+    assertTrue(completion.await().isAllConnected());
+  }
+
+  /** Sends the offer after a delay, then connects (or fails) after another. */
+  private class FakePeers implements BatchConnector.Starter {
+    private final long offerMillis;
+    private final long connectMillis;
+    private final List<String> failing;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger starting = new AtomicInteger();
+    private final AtomicInteger maxStarting = new AtomicInteger();
+
+    private FakePeers(long offerMillis, long connectMillis, List<String> failing) {
+      this.offerMillis = offerMillis;
+      this.connectMillis = connectMillis;
+      this.failing = failing;
+    }
+
+    @Override
+    public void start(final String peerId, final BatchConnector batch) {
+      started.incrementAndGet();
+      int now = starting.incrementAndGet();
+      for (int max = maxStarting.get(); now > max && !maxStarting.compareAndSet(max, now);) {
+        max = maxStarting.get();
+      }
+      peers.schedule(new Runnable() {
+        @Override
+        public void run() {
+          starting.decrementAndGet();
+          batch.onSessionDescriptionSent(peerId);
+          peers.schedule(new Runnable() {
+            @Override
+            public void run() {
+              if (failing.contains(peerId)) {
+                batch.onFailed(peerId, "Disconnected.");
+              } else {
+                batch.onConnected(peerId);
+              }
+            }
+          }, connectMillis, TimeUnit.MILLISECONDS);
+        }
+      }, offerMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static class Completion implements BatchConnectResult.Callback {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicReference<BatchConnectResult> result = new AtomicReference<>();
+
+    @Override
+    public void onBatchConnectCompleted(BatchConnectResult result) {
+      calls.incrementAndGet();
+      this.result.set(result);
+      done.countDown();
+    }
+
+    private BatchConnectResult await() throws InterruptedException {
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      return result.get();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package cceh.androidrtclibrary;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.MediaStream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link EventDispatcher}.
+ */
+public class EventDispatcherTest {
+  private ManualExecutor executor;
+  private RecordingListener listener;
+  private EventDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    executor = new ManualExecutor();
+    listener = new RecordingListener();
+    dispatcher = new EventDispatcher(listener, executor);
+  }
+
+  @Test
+  public void deliversOnExecutorInOrder() {
+    dispatcher.onClientReady();
+    dispatcher.onConnected("a");
+    dispatcher.onConnected("b");
+
+    assertTrue(listener.events.isEmpty());
+    executor.runAll();
+
+    assertEquals(Arrays.asList("ready", "connected a", "connected b"), listener.events);
+    // One task for the whole burst.
+    assertEquals(1, executor.executed);
+  }
+
+  @Test
+  public void connectThenDisconnectIsDropped() {
+    dispatcher.onConnected("a");
+    dispatcher.onRemoteStreamAdded("a", null);
+    dispatcher.onConnected("b");
+    dispatcher.onDisconnected("a");
+    executor.runAll();
+
+    assertEquals(Collections.singletonList("connected b"), listener.events);
+    assertEquals(3, dispatcher.getEventsCoalesced());
+  }
+
+  @Test
+  public void streamAddedThenConnectThenDisconnectIsDropped() {
+    // The callee adds the remote stream before the connection is up.
+    dispatcher.onRemoteStreamAdded("a", null);
+    dispatcher.onConnected("a");
+    dispatcher.onDisconnected("a");
+    executor.runAll();
+
+    assertTrue(listener.events.isEmpty());
+    assertEquals(3, dispatcher.getEventsCoalesced());
+  }
+
+  @Test
+  public void disconnectOnlyDropsTheLastConnection() {
+    dispatcher.onConnected("a");
+    executor.runAll();
+    dispatcher.onDisconnected("a");
+
+    dispatcher.onRemoteStreamAdded("a", null);
+    dispatcher.onConnected("a");
+    dispatcher.onDisconnected("a");
+    executor.runAll();
+
+    assertEquals(Arrays.asList("connected a", "disconnected a"), listener.events);
+    assertEquals(3, dispatcher.getEventsCoalesced());
+  }
+
+  @Test
+  public void disconnectOfDeliveredConnectionIsKept() {
+    dispatcher.onConnected("a");
+    executor.runAll();
+
+    dispatcher.onRemoteStreamAdded("a", null);
+    dispatcher.onDisconnected("a");
+    dispatcher.onDisconnected("a");
+    executor.runAll();
+
+    assertEquals(Arrays.asList("connected a", "disconnected a"), listener.events);
+  }
+
+  @Test
+  public void reconnectAfterDeliveredDisconnectIsKept() {
+    dispatcher.onConnected("a");
+    executor.runAll();
+
+    dispatcher.onDisconnected("a");
+    dispatcher.onConnected("a");
+    dispatcher.onConnected("a");
+    executor.runAll();
+
+    assertEquals(Arrays.asList("connected a", "disconnected a", "connected a"), listener.events);
+  }
+
+  @Test
+  public void streamAddedThenRemovedIsDropped() {
+    dispatcher.onConnected("a");
+    executor.runAll();
+
+    dispatcher.onRemoteStreamAdded("a", null);
+    dispatcher.onRemoteStreamRemoved("a", null);
+    executor.runAll();
+
+    assertEquals(Collections.singletonList("connected a"), listener.events);
+  }
+
+  @Test
+  public void clientEventsAreNeverDropped() {
+    dispatcher.onClientReady();
+    dispatcher.onClientDied(new RtcException("Gone."));
+    executor.runAll();
+
+    assertEquals(Arrays.asList("ready", "died"), listener.events);
+  }
+
+  @Test
+  public void massChurnIsDeliveredInBoundedTasks() {
+    for (int i = 0; i < 1000; i++) {
+      dispatcher.onConnected("peer" + i);
+      if (i % 2 == 0) dispatcher.onDisconnected("peer" + i);
+    }
+    executor.runAll();
+
+    assertEquals(500, listener.events.size());
+    assertEquals(1000, dispatcher.getEventsCoalesced());
+    assertTrue(executor.executed > 1);
+  }
+
+  @Test
+  public void withoutExecutorDeliversRightAway() {
+    EventDispatcher direct = new EventDispatcher(listener, null);
+
+    direct.onConnected("a");
+    direct.onDisconnected("a");
+
+    assertEquals(Arrays.asList("connected a", "disconnected a"), listener.events);
+  }
+
+  private static class ManualExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private int executed;
+
+    @Override
+    public void execute(Runnable task) {
+      tasks.add(task);
+    }
+
+    private void runAll() {
+      for (Runnable task; (task = tasks.poll()) != null; ) {
+        executed++;
+        task.run();
+      }
+    }
+  }
+
+  private static class RecordingListener implements RtcEventListener {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onClientReady() {
+      events.add("ready");
+    }
+
+    @Override
+    public void onClientDied(Throwable e) {
+      events.add("died");
+    }
+
+    @Override
+    public void onConnected(String peerId) {
+      events.add("connected " + peerId);
+    }
+
+    @Override
+    public void onDisconnected(String peerId) {
+      events.add("disconnected " + peerId);
+    }
+
+    @Override
+    public void onRemoteStreamAdded(String peerId, MediaStream mediaStream) {
+      events.add("stream added " + peerId);
+    }
+
+    @Override
+    public void onRemoteStreamRemoved(String peerId, MediaStream mediaStream) {
+      events.add("stream removed " + peerId);
+    }
+  }
+}
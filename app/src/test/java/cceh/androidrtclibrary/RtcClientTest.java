@@ -0,0 +1,250 @@
+package cceh.androidrtclibrary;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.MediaStream;
+import org.webrtc.PeerConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cceh.androidrtclibrary.network.NetworkException;
+import cceh.androidrtclibrary.network.StunTurnServerProvider;
+import cceh.androidrtclibrary.signaling.SignalingException;
+import cceh.androidrtclibrary.signaling.SignalingService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the startup and close of {@link RtcClient}.
+ */
+public class RtcClientTest {
+  private static final String USER_ID = "alice";
+
+  private FakeSignalingService signalingService;
+  private FakeProvider provider;
+  private RecordingListener listener;
+  private RtcClient client;
+
+  @Before
+  public void setUp() {
+    signalingService = new FakeSignalingService();
+    provider = new FakeProvider();
+    listener = new RecordingListener();
+  }
+
+  @After
+  public void tearDown() {
+    provider.unblock.countDown();
+    if (client != null) {
+      client.close();
+    }
+  }
+
+  @Test
+  public void readyOnceSubscribedThenFetched() throws Exception {
+    client = newClient(0);
+    provider.awaitFetch();
+
+    signalingService.handler.onConnected(USER_ID);
+    assertTrue(listener.events().isEmpty());
+    provider.callback.onServersFetched();
+
+    assertEquals(Collections.singletonList("ready"), listener.events());
+    assertTrue(client.getStartupTrace().isReady());
+  }
+
+  @Test
+  public void readyOnceFetchedThenSubscribed() throws Exception {
+    client = newClient(0);
+    provider.awaitFetch();
+
+    provider.callback.onServersFetched();
+    assertTrue(listener.events().isEmpty());
+    signalingService.handler.onConnected(USER_ID);
+    signalingService.handler.onConnected(USER_ID);
+
+    assertEquals(Collections.singletonList("ready"), listener.events());
+  }
+
+  @Test
+  public void readyTimeoutFiresWhileTheProviderBlocks() throws Exception {
+    provider.blocking = true;
+    long start = System.nanoTime();
+    client = newClient(200);
+
+    // Neither the constructor nor subscribing waits for the provider.
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 150);
+    assertNotNull(signalingService.handler);
+    signalingService.handler.onConnected(USER_ID);
+
+    assertTrue(listener.died.await(2, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("died"), listener.events());
+
+    // A late answer of the provider changes nothing.
+    provider.unblock.countDown();
+    provider.awaitFetch();
+    provider.callback.onServersFetched();
+    assertEquals(Collections.singletonList("died"), listener.events());
+  }
+
+  @Test
+  public void readyTimeoutIsCancelledOnceReady() throws Exception {
+    client = newClient(100);
+    provider.awaitFetch();
+    signalingService.handler.onConnected(USER_ID);
+    provider.callback.onServersFetched();
+
+    Thread.sleep(300);
+    assertEquals(Collections.singletonList("ready"), listener.events());
+  }
+
+  @Test
+  public void failedFetchKillsTheClientOnce() throws Exception {
+    client = newClient(0);
+    provider.awaitFetch();
+
+    provider.callback.onServerFetchFails(new NetworkException("Unreachable."));
+    signalingService.handler.onDisconnected(USER_ID);
+    signalingService.handler.onConnected(USER_ID);
+
+    assertEquals(Collections.singletonList("died"), listener.events());
+  }
+
+  @Test
+  public void noEventsAfterClose() throws Exception {
+    client = newClient(100);
+    provider.awaitFetch();
+
+    client.close();
+    assertTrue(provider.cancelled);
+    assertEquals(Collections.singletonList(USER_ID), signalingService.stoppedListening);
+
+    signalingService.handler.onConnected(USER_ID);
+    provider.callback.onServersFetched();
+    provider.callback.onServerFetchFails(new NetworkException("Unreachable."));
+    signalingService.handler.onDisconnected(USER_ID);
+    // Past the ready timeout.
+    Thread.sleep(300);
+
+    assertTrue(listener.events().isEmpty());
+    assertEquals(0, client.getConnectionCount());
+  }
+
+  private RtcClient newClient(long readyTimeoutMillis) {
+    RtcClientParams params = new RtcClientParams.Builder()
+        .setReadyTimeoutMillis(readyTimeoutMillis)
+        .setStatsIntervalMillis(0)
+        .build();
+    return new RtcClient(USER_ID, null, signalingService, provider, listener, params);
+  }
+
+  /** Keeps the handler, the test plays the service's callbacks. */
+  private static class FakeSignalingService implements SignalingService {
+    private final List<String> stoppedListening =
+        Collections.synchronizedList(new ArrayList<String>());
+    private volatile SignalHandler handler;
+
+    @Override
+    public void listenOn(String userId, SignalHandler signalHandler) throws SignalingException {
+      handler = signalHandler;
+    }
+
+    @Override
+    public void stopListening(String userId) {
+      stoppedListening.add(userId);
+    }
+
+    @Override
+    public void sendSignal(String peerUserId, JSONObject signal) {}
+
+    @Override
+    public void sendSignal(String peerUserId, JSONObject signal, SendCallback sendCallback) {
+      sendCallback.onSendSucceeded();
+    }
+  }
+
+  /** Keeps the callback, the test plays the answer. Can block the fetching thread. */
+  private static class FakeProvider implements StunTurnServerProvider {
+    private final CountDownLatch fetched = new CountDownLatch(1);
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private volatile boolean blocking = false;
+    private volatile boolean cancelled = false;
+    private volatile Callback callback;
+
+    @Override
+    public void fetchServers(Callback callback) {
+      if (blocking) {
+        try {
+          unblock.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      this.callback = callback;
+      fetched.countDown();
+    }
+
+    @Override
+    public void cancelFetch() {
+      cancelled = true;
+    }
+
+    @Override
+    public List<PeerConnection.IceServer> getServers() throws NetworkException {
+      return Arrays.asList(new PeerConnection.IceServer("stun:stun.example.com"));
+    }
+
+    private void awaitFetch() throws InterruptedException {
+      assertTrue(fetched.await(2, TimeUnit.SECONDS));
+    }
+  }
+
+  private static class RecordingListener implements RtcEventListener {
+    private final List<String> events = new ArrayList<>();
+    private final CountDownLatch died = new CountDownLatch(1);
+
+    private synchronized List<String> events() {
+      return new ArrayList<>(events);
+    }
+
+    @Override
+    public synchronized void onClientReady() {
+      events.add("ready");
+    }
+
+    @Override
+    public void onClientDied(Throwable e) {
+      synchronized (this) {
+        events.add("died");
+      }
+      died.countDown();
+    }
+
+    @Override
+    public synchronized void onConnected(String peerId) {
+      events.add("connected " + peerId);
+    }
+
+    @Override
+    public synchronized void onDisconnected(String peerId) {
+      events.add("disconnected " + peerId);
+    }
+
+    @Override
+    public synchronized void onRemoteStreamAdded(String peerId, MediaStream mediaStream) {
+      events.add("stream added " + peerId);
+    }
+
+    @Override
+    public synchronized void onRemoteStreamRemoved(String peerId, MediaStream mediaStream) {
+      events.add("stream removed " + peerId);
+    }
+  }
+}
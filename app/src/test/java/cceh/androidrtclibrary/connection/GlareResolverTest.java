@@ -0,0 +1,271 @@
+package cceh.androidrtclibrary.connection;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.SessionDescription;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cceh.androidrtclibrary.signaling.JsonSignalCodec;
+import cceh.androidrtclibrary.signaling.LoopbackSignalingService;
+import cceh.androidrtclibrary.signaling.Signal;
+import cceh.androidrtclibrary.signaling.SignalCodec;
+import cceh.androidrtclibrary.signaling.SignalMessages;
+import cceh.androidrtclibrary.signaling.SignalingException;
+import cceh.androidrtclibrary.signaling.SignalingService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link GlareResolver}.
+ */
+public class GlareResolverTest {
+  private static final int ROUNDS = 200;
+
+  private ExecutorService dialers;
+  private LoopbackSignalingService signalingService;
+  private SignalCodec signalCodec;
+  private AtomicInteger answersSent;
+
+  @Before
+  public void setUp() {
+    dialers = Executors.newFixedThreadPool(2);
+    // Both offers are in flight at the same time, in random order.
+    signalingService = new LoopbackSignalingService.Builder()
+        .setDelayMillis(1)
+        .setJitterMillis(3)
+        .setSeed(7)
+        .build();
+    signalCodec = new JsonSignalCodec();
+    answersSent = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    dialers.shutdownNow();
+    signalingService.shutdown();
+  }
+
+  @Test
+  public void exactlyOneSideIsPolite() {
+    assertNotEquals(GlareResolver.isPolite("alice", "bob"), GlareResolver.isPolite("bob", "alice"));
+  }
+
+  @Test
+  public void collidingOfferIsAnsweredByPolitePeerOnly() {
+    assertEquals(GlareResolver.Action.ROLLBACK_AND_ANSWER,
+        GlareResolver.onOffer(Connection.Status.CALLING_WAITING_ANSWER, true));
+    assertEquals(GlareResolver.Action.ROLLBACK_AND_ANSWER,
+        GlareResolver.onOffer(Connection.Status.STARTED_WAITING_CALL, true));
+    assertEquals(GlareResolver.Action.IGNORE,
+        GlareResolver.onOffer(Connection.Status.CALLING_WAITING_ANSWER, false));
+  }
+
+  @Test
+  public void offersOutsideGlare() {
+    assertEquals(GlareResolver.Action.ANSWER,
+        GlareResolver.onOffer(Connection.Status.NEW, false));
+    assertEquals(GlareResolver.Action.IGNORE,
+        GlareResolver.onOffer(Connection.Status.ANSWER_RECEIVED, true));
+    assertEquals(GlareResolver.Action.IGNORE,
+        GlareResolver.onOffer(Connection.Status.DISCONNECTED, true));
+    assertEquals(GlareResolver.Action.ANSWER_RENEGOTIATION,
+        GlareResolver.onOffer(Connection.Status.ANSWERED, true));
+    assertEquals(GlareResolver.Action.IGNORE,
+        GlareResolver.onOffer(Connection.Status.RENEGOTIATING, false));
+  }
+
+  @Test
+  public void simultaneousDialsConvergeInOneRoundTrip() throws Exception {
+    Random random = new Random(7);
+    int collisions = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      answersSent.set(0);
+      FakePeer alice = new FakePeer("alice", "bob", random.nextInt(3));
+      FakePeer bob = new FakePeer("bob", "alice", random.nextInt(3));
+      final CyclicBarrier start = new CyclicBarrier(2);
+      Future<?> aliceDial = dialers.submit(new Dial(alice, start));
+      Future<?> bobDial = dialers.submit(new Dial(bob, start));
+
+      assertTrue("Round " + round, alice.settled.await(5, TimeUnit.SECONDS));
+      assertTrue("Round " + round, bob.settled.await(5, TimeUnit.SECONDS));
+      aliceDial.get(5, TimeUnit.SECONDS);
+      bobDial.get(5, TimeUnit.SECONDS);
+      alice.close();
+      bob.close();
+
+      // One call, whichever offer won.
+      assertEquals("Round " + round, 1, answersSent.get());
+      FakePeer answerer = alice.status == Connection.Status.ANSWERED ? alice : bob;
+      FakePeer other = answerer == alice ? bob : alice;
+      assertEquals("Round " + round, Connection.Status.ANSWERED, answerer.status);
+      assertEquals("Round " + round, Connection.Status.ANSWER_RECEIVED, other.status);
+      if (alice.offersSent + bob.offersSent == 2) {
+        // The offers crossed, the polite peer rolled back its own.
+        collisions++;
+        assertTrue("Round " + round, answerer.polite);
+        assertEquals("Round " + round, 1, answerer.rollbacks);
+      }
+      assertEquals("Round " + round, 0, other.rollbacks);
+    }
+    assertTrue("Collisions " + collisions, collisions > 0);
+  }
+
+  private static class Dial implements Runnable {
+    private final FakePeer peer;
+    private final CyclicBarrier start;
+
+    private Dial(FakePeer peer, CyclicBarrier start) {
+      this.peer = peer;
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start.await();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      peer.dial();
+    }
+  }
+
+  /**
+   * Handles offers and answers like a {@link Connection} on its own lane, creating the local
+   * offer takes a few lane turns so that the peer's offer can come in meanwhile.
+   */
+  private class FakePeer implements SignalingService.SignalHandler {
+    private final String userId;
+    private final String peerId;
+    private final int offerCreationTurns;
+    private final boolean polite;
+    private final ExecutorService lane;
+    private final CountDownLatch settled;
+
+    // Confined to the lane.
+    private Connection.Status status;
+    private int peerConnectionGeneration;
+    private int offersSent;
+    private int rollbacks;
+
+    private FakePeer(String userId, String peerId, int offerCreationTurns)
+        throws SignalingException {
+      this.userId = userId;
+      this.peerId = peerId;
+      this.offerCreationTurns = offerCreationTurns;
+      this.polite = GlareResolver.isPolite(userId, peerId);
+      this.lane = Executors.newSingleThreadExecutor();
+      this.settled = new CountDownLatch(1);
+      this.status = Connection.Status.NEW;
+      this.peerConnectionGeneration = 0;
+      this.offersSent = 0;
+      this.rollbacks = 0;
+      signalingService.listenOn(userId, this);
+    }
+
+    private void dial() {
+      lane.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (status != Connection.Status.NEW) return;
+          setStatus(Connection.Status.STARTED_WAITING_CALL);
+          createOffer(peerConnectionGeneration, offerCreationTurns);
+        }
+      });
+    }
+
+    private void createOffer(final int generation, final int turnsLeft) {
+      lane.execute(new Runnable() {
+        @Override
+        public void run() {
+          // Callbacks of a rolled back peer connection are dropped.
+          if (generation != peerConnectionGeneration) return;
+          if (turnsLeft > 0) {
+            createOffer(generation, turnsLeft - 1);
+            return;
+          }
+          setStatus(Connection.Status.CALLING_WAITING_ANSWER);
+          offersSent++;
+          send(Signal.offer(userId,
+              new SessionDescription(SessionDescription.Type.OFFER, "offer of " + userId)));
+        }
+      });
+    }
+
+    @Override
+    public void onConnected(String userId) {}
+
+    @Override
+    public void onDisconnected(String userId) {}
+
+    @Override
+    public void onSignalReiceived(String userId, final JSONObject message) {
+      lane.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            handle(signalCodec.decode(message));
+          } catch (SignalingException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+    }
+
+    private void handle(Signal signal) {
+      if (signal.getType().equals(SignalMessages.TYPE_ANSWER)) {
+        if (status == Connection.Status.CALLING_WAITING_ANSWER) {
+          setStatus(Connection.Status.ANSWER_RECEIVED);
+        }
+        return;
+      }
+      switch (GlareResolver.onOffer(status, polite)) {
+        case ROLLBACK_AND_ANSWER:
+          peerConnectionGeneration++;
+          rollbacks++;
+          // Fall through.
+        case ANSWER:
+          setStatus(Connection.Status.RECEIVED_WAITING_ANSWER);
+          setStatus(Connection.Status.ANSWERED);
+          answersSent.incrementAndGet();
+          send(Signal.answer(userId,
+              new SessionDescription(SessionDescription.Type.ANSWER, "answer of " + userId)));
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void send(Signal signal) {
+      try {
+        signalingService.sendSignal(peerId, signalCodec.encode(signal));
+      } catch (SignalingException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private void setStatus(Connection.Status newStatus) {
+      status = newStatus;
+      if (newStatus == Connection.Status.ANSWERED
+          || newStatus == Connection.Status.ANSWER_RECEIVED) {
+        settled.countDown();
+      }
+    }
+
+    private void close() throws InterruptedException {
+      signalingService.stopListening(userId);
+      lane.shutdown();
+      assertTrue(lane.awaitTermination(5, TimeUnit.SECONDS));
+    }
+  }
+}
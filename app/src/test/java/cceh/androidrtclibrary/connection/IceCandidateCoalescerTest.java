@@ -0,0 +1,116 @@
+package cceh.androidrtclibrary.connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link IceCandidateCoalescer}.
+ */
+public class IceCandidateCoalescerTest {
+  private ScheduledExecutorService scheduler;
+  private List<List<IceCandidate>> batches;
+  private IceCandidateCoalescer.FlushHandler flushHandler;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    batches = new ArrayList<>();
+    flushHandler = new IceCandidateCoalescer.FlushHandler() {
+      @Override
+      public void onFlush(List<IceCandidate> iceCandidates) {
+        synchronized (batches) {
+          batches.add(iceCandidates);
+          batches.notifyAll();
+        }
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void flushesAfterWindow() throws Exception {
+    IceCandidateCoalescer coalescer = new IceCandidateCoalescer(scheduler, 50, 10, flushHandler);
+    coalescer.add(candidate(0));
+    coalescer.add(candidate(1));
+    coalescer.add(candidate(2));
+    assertTrue(batches.isEmpty());
+
+    awaitBatches(1);
+    assertEquals(3, batches.get(0).size());
+  }
+
+  @Test
+  public void flushesWhenBatchIsFull() throws Exception {
+    IceCandidateCoalescer coalescer =
+        new IceCandidateCoalescer(scheduler, TimeUnit.MINUTES.toMillis(1), 2, flushHandler);
+    for (int i = 0; i < 5; i++) {
+      coalescer.add(candidate(i));
+    }
+    assertEquals(2, batches.size());
+
+    coalescer.flush();
+    assertEquals(3, batches.size());
+    assertEquals(1, batches.get(2).size());
+  }
+
+  @Test
+  public void zeroWindowSendsEveryCandidate() {
+    IceCandidateCoalescer coalescer = new IceCandidateCoalescer(scheduler, 0, 10, flushHandler);
+    coalescer.add(candidate(0));
+    coalescer.add(candidate(1));
+    assertEquals(2, batches.size());
+  }
+
+  @Test
+  public void cancelDropsPendingCandidates() throws Exception {
+    IceCandidateCoalescer coalescer = new IceCandidateCoalescer(scheduler, 20, 10, flushHandler);
+    coalescer.add(candidate(0));
+    coalescer.cancel();
+    coalescer.add(candidate(1));
+    coalescer.flush();
+
+    Thread.sleep(100);
+    assertTrue(batches.isEmpty());
+  }
+
+  @Test
+  public void clearDropsPendingCandidatesOnly() throws Exception {
+    IceCandidateCoalescer coalescer = new IceCandidateCoalescer(scheduler, 20, 10, flushHandler);
+    coalescer.add(candidate(0));
+    coalescer.clear();
+    coalescer.add(candidate(1));
+
+    awaitBatches(1);
+    assertEquals(1, batches.get(0).size());
+    assertEquals(candidate(1).sdp, batches.get(0).get(0).sdp);
+  }
+
+  private void awaitBatches(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 2000;
+    synchronized (batches) {
+      while (batches.size() < count && System.currentTimeMillis() < deadline) {
+        batches.wait(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+    }
+    assertEquals(count, batches.size());
+  }
+
+  private static IceCandidate candidate(int index) {
+    return new IceCandidate(
+        "video", 1, "candidate:" + index + " 1 udp 2122260223 10.0.0.1 5000" + index + " typ host");
+  }
+}
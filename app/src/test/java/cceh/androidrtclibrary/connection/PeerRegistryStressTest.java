@@ -0,0 +1,234 @@
+package cceh.androidrtclibrary.connection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of {@link PeerRegistry} with hundreds of simulated peers, whose signals come in
+ * from several threads at once, like the signaling, WebRTC and UI threads of a client.
+ */
+public class PeerRegistryStressTest {
+  private static final int PEERS = 500;
+  private static final int SIGNALS_PER_PEER = 40;
+  private static final int DISPATCH_THREADS = 8;
+
+  private ExecutorService executor;
+  private PeerRegistry<SimulatedPeer> registry;
+  private AtomicInteger created;
+  private PeerRegistry.Factory<SimulatedPeer> factory;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(8);
+    registry = new PeerRegistry<>(executor);
+    created = new AtomicInteger();
+    factory = new PeerRegistry.Factory<SimulatedPeer>() {
+      @Override
+      public SimulatedPeer create(String peerId, Executor lane) {
+        created.incrementAndGet();
+        return new SimulatedPeer(lane);
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void signalsOfEachPeerAreOrderedAndPeersRunInParallel() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch dispatched = new CountDownLatch(DISPATCH_THREADS);
+    for (int t = 0; t < DISPATCH_THREADS; t++) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          // Every thread races to create every peer, the signals of a peer come from one thread.
+          for (int peer = 0; peer < PEERS; peer++) {
+            registry.getOrCreate("peer" + peer, factory);
+          }
+          for (int seq = 0; seq < SIGNALS_PER_PEER; seq++) {
+            for (int peer = thread; peer < PEERS; peer += DISPATCH_THREADS) {
+              registry.getOrCreate("peer" + peer, factory).handleSignal(seq);
+            }
+          }
+          dispatched.countDown();
+        }
+      }).start();
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+    assertTrue(dispatched.await(10, TimeUnit.SECONDS));
+    for (SimulatedPeer peer : registry.values()) {
+      assertTrue(peer.done.await(10, TimeUnit.SECONDS));
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    System.out.println(String.format("%d peers, %d signals in %dms, max %d peers in parallel.",
+        PEERS, PEERS * SIGNALS_PER_PEER, elapsedMillis, SimulatedPeer.maxRunning.get()));
+
+    assertEquals(PEERS, created.get());
+    assertEquals(PEERS, registry.size());
+    for (SimulatedPeer peer : registry.values()) {
+      assertFalse("Signals of a peer overlapped.", peer.overlapped);
+      assertEquals(SIGNALS_PER_PEER, peer.received.size());
+      for (int seq = 0; seq < SIGNALS_PER_PEER; seq++) {
+        assertEquals(seq, (int) peer.received.get(seq));
+      }
+    }
+    assertTrue(SimulatedPeer.maxRunning.get() > 1);
+  }
+
+  @Test
+  public void removedPeerIsCreatedAgain() {
+    SimulatedPeer first = registry.getOrCreate("peer", factory);
+    assertSame(first, registry.getOrCreate("peer", factory));
+
+    assertTrue(registry.remove("peer", first));
+    assertFalse(registry.remove("peer", first));
+    assertNull(registry.get("peer"));
+
+    SimulatedPeer second = registry.getOrCreate("peer", factory);
+    assertNotSame(first, second);
+    // A stale value does not remove its replacement.
+    assertFalse(registry.remove("peer", first));
+    assertSame(second, registry.get("peer"));
+    assertEquals(2, created.get());
+  }
+
+  @Test
+  public void failedCreateLeavesNothingRegistered() {
+    try {
+      registry.getOrCreate("peer", new PeerRegistry.Factory<SimulatedPeer>() {
+        @Override
+        public SimulatedPeer create(String peerId, Executor lane) {
+          throw new IllegalStateException("No peer connection.");
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("No peer connection.", e.getMessage());
+    }
+    assertNull(registry.get("peer"));
+    assertEquals(0, registry.size());
+
+    assertNotNull(registry.getOrCreate("peer", factory));
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void neverHoldsMorePeersThanCapacity() throws Exception {
+    final PeerRegistry<SimulatedPeer> bounded = new PeerRegistry<>(executor, 50);
+    final AtomicInteger refused = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(DISPATCH_THREADS);
+    for (int t = 0; t < DISPATCH_THREADS; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          // A burst of stray peers, all racing for the same few slots.
+          for (int peer = 0; peer < PEERS; peer++) {
+            if (bounded.getOrCreate("stray" + peer, factory) == null) {
+              refused.incrementAndGet();
+            }
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    start.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    assertEquals(50, bounded.size());
+    assertEquals(50, bounded.values().size());
+    assertEquals(50, created.get());
+    assertNull(bounded.getOrCreate("latecomer", factory));
+
+    // Removing one makes room for exactly one more.
+    SimulatedPeer removed = bounded.values().get(0);
+    assertTrue(bounded.remove(findPeerId(bounded, removed), removed));
+    assertNotNull(bounded.getOrCreate("latecomer", factory));
+    assertNull(bounded.getOrCreate("another", factory));
+    assertEquals(50, bounded.size());
+  }
+
+  private static String findPeerId(PeerRegistry<SimulatedPeer> registry, SimulatedPeer value) {
+    for (int peer = 0; peer < PEERS; peer++) {
+      if (registry.get("stray" + peer) == value) {
+        return "stray" + peer;
+      }
+    }
+    throw new AssertionError("Not registered.");
+  }
+
+  /** Records the signals it handles on its lane, like a {@link Connection}. */
+  private static class SimulatedPeer {
+    private static final AtomicInteger running = new AtomicInteger();
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    private final Executor lane;
+    private final List<Integer> received;
+    private final CountDownLatch done;
+    private final AtomicInteger inFlight;
+    private volatile boolean overlapped;
+
+    private SimulatedPeer(Executor lane) {
+      this.lane = lane;
+      this.received = new ArrayList<>();
+      this.done = new CountDownLatch(SIGNALS_PER_PEER);
+      this.inFlight = new AtomicInteger();
+      this.overlapped = false;
+    }
+
+    private void handleSignal(final int seq) {
+      lane.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (inFlight.incrementAndGet() > 1) {
+            overlapped = true;
+          }
+          int now = running.incrementAndGet();
+          for (int max = maxRunning.get(); now > max && !maxRunning.compareAndSet(max, now);) {
+            max = maxRunning.get();
+          }
+          // Not synchronized, the lane keeps it to one thread at a time.
+          received.add(seq);
+          if (seq % 10 == 0) {
+            try {
+              Thread.sleep(1);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+          running.decrementAndGet();
+          inFlight.decrementAndGet();
+          done.countDown();
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package cceh.androidrtclibrary.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link CachingStunTurnServerProvider}.
+ */
+public class CachingStunTurnServerProviderTest {
+  private static final String CACHE_KEY = "example.com/default/room";
+
+  private File cacheDir;
+  private FakeProvider delegate;
+
+  @Before
+  public void setUp() throws IOException {
+    CachingStunTurnServerProvider.clearMemoryCache();
+    cacheDir = File.createTempFile("ice-cache", "");
+    assertTrue(cacheDir.delete() && cacheDir.mkdir());
+    delegate = new FakeProvider();
+  }
+
+  @After
+  public void tearDown() {
+    CachingStunTurnServerProvider.clearMemoryCache();
+    for (File file : cacheDir.listFiles()) {
+      file.delete();
+    }
+    cacheDir.delete();
+  }
+
+  @Test
+  public void secondFetchIsServedFromMemory() throws Exception {
+    fetch(newProvider(60000));
+    assertEquals(1, delegate.fetches.get());
+
+    CachingStunTurnServerProvider second = newProvider(60000);
+    final AtomicInteger calls = new AtomicInteger();
+    second.fetchServers(new StunTurnServerProvider.Callback() {
+      @Override
+      public void onServersFetched() {
+        calls.incrementAndGet();
+      }
+
+      @Override
+      public void onServerFetchFails(NetworkException e) {
+        fail();
+      }
+    });
+
+    // Called back synchronously, without asking the delegate.
+    assertEquals(1, calls.get());
+    assertEquals(1, delegate.fetches.get());
+    assertEquals(2, second.getServers().size());
+  }
+
+  @Test
+  public void fetchIsServedFromDiskAfterRestart() throws Exception {
+    fetch(newProvider(60000));
+    waitForCacheFile();
+    CachingStunTurnServerProvider.clearMemoryCache();
+
+    CachingStunTurnServerProvider restarted = newProvider(60000);
+    fetch(restarted);
+
+    assertEquals(1, delegate.fetches.get());
+    List<PeerConnection.IceServer> servers = restarted.getServers();
+    assertEquals("turn:turn.example.com:443", servers.get(1).uri);
+    assertEquals("secret", servers.get(1).password);
+  }
+
+  @Test
+  public void expiredEntryIsFetchedAgain() throws Exception {
+    CachingStunTurnServerProvider provider = newProvider(100, 1.0);
+    fetch(provider);
+    provider.cancelFetch(); // No background refresh.
+    Thread.sleep(150);
+
+    // Only servers without credentials survive expiry.
+    assertEquals(1, provider.getServers().size());
+
+    fetch(newProvider(100, 1.0));
+    assertEquals(2, delegate.fetches.get());
+  }
+
+  @Test
+  public void expiryInTheUsernameShortensTheTtl() throws Exception {
+    long expirySeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 2;
+    delegate.username = expirySeconds + ":alice";
+    CachingStunTurnServerProvider provider = newProvider(60000, 1.0);
+    fetch(provider);
+    provider.cancelFetch(); // No background refresh.
+    assertEquals(2, provider.getServers().size());
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(expirySeconds) - System.currentTimeMillis() + 50);
+
+    assertEquals(1, provider.getServers().size());
+  }
+
+  @Test
+  public void refreshesInBackgroundBeforeExpiry() throws Exception {
+    CachingStunTurnServerProvider provider = newProvider(400, 0.25);
+    fetch(provider);
+    assertEquals(1, delegate.fetches.get());
+
+    Thread.sleep(200);
+
+    assertTrue(delegate.fetches.get() >= 2);
+    assertEquals(2, provider.getServers().size());
+    provider.cancelFetch();
+  }
+
+  @Test
+  public void failureWithoutCacheIsReported() throws Exception {
+    delegate.fail = true;
+    final CountDownLatch failed = new CountDownLatch(1);
+    newProvider(60000).fetchServers(new StunTurnServerProvider.Callback() {
+      @Override
+      public void onServersFetched() {
+        fail();
+      }
+
+      @Override
+      public void onServerFetchFails(NetworkException e) {
+        failed.countDown();
+      }
+    });
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+  }
+
+  private CachingStunTurnServerProvider newProvider(long ttlMillis) {
+    return newProvider(ttlMillis, CachingStunTurnServerProvider.DEFAULT_REFRESH_FRACTION);
+  }
+
+  private CachingStunTurnServerProvider newProvider(long ttlMillis, double refreshFraction) {
+    return new CachingStunTurnServerProvider.Builder(delegate, CACHE_KEY)
+        .setCacheDir(cacheDir)
+        .setTtlMillis(ttlMillis)
+        .setRefreshFraction(refreshFraction)
+        .build();
+  }
+
+  private static void fetch(StunTurnServerProvider provider) throws InterruptedException {
+    final CountDownLatch fetched = new CountDownLatch(1);
+    provider.fetchServers(new StunTurnServerProvider.Callback() {
+      @Override
+      public void onServersFetched() {
+        fetched.countDown();
+      }
+
+      @Override
+      public void onServerFetchFails(NetworkException e) {
+        throw new AssertionError(e);
+      }
+    });
+    assertTrue(fetched.await(5, TimeUnit.SECONDS));
+  }
+
+  /** Waits for the renamed cache file, the temp file it is written to shows up first. */
+  private void waitForCacheFile() throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (cacheFiles().length == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, cacheFiles().length);
+  }
+
+  private File[] cacheFiles() {
+    return cacheDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().endsWith(".json");
+      }
+    });
+  }
+
+  /** Answers on a background thread, like a real provider. */
+  private static class FakeProvider implements StunTurnServerProvider {
+    private final AtomicInteger fetches = new AtomicInteger();
+    private volatile boolean fail = false;
+    private volatile String username = "user";
+    private volatile List<PeerConnection.IceServer> servers;
+
+    @Override
+    public void fetchServers(final Callback callback) {
+      fetches.incrementAndGet();
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          if (fail) {
+            callback.onServerFetchFails(new NetworkException("Unreachable."));
+            return;
+          }
+          servers = new ArrayList<>(Arrays.asList(
+              new PeerConnection.IceServer("stun:stun.example.com"),
+              new PeerConnection.IceServer("turn:turn.example.com:443", username, "secret")));
+          callback.onServersFetched();
+        }
+      }).start();
+    }
+
+    @Override
+    public void cancelFetch() {}
+
+    @Override
+    public List<PeerConnection.IceServer> getServers() throws NetworkException {
+      if (servers == null) throw new NetworkException("Not fetched.");
+      return servers;
+    }
+  }
+}
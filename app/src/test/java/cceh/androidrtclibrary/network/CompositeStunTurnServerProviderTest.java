@@ -0,0 +1,195 @@
+package cceh.androidrtclibrary.network;
+
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link CompositeStunTurnServerProvider}.
+ */
+public class CompositeStunTurnServerProviderTest {
+  private static final PeerConnection.IceServer STUN =
+      new PeerConnection.IceServer("stun:stun.example.com");
+  private static final PeerConnection.IceServer TURN_A =
+      new PeerConnection.IceServer("turn:turn.vendor-a.com", "a", "secret");
+  private static final PeerConnection.IceServer TURN_B =
+      new PeerConnection.IceServer("turn:turn.vendor-b.com", "b", "secret");
+
+  @Test
+  public void hedgesSlowProviderAndCompletesOnFirstAdequateAnswer() throws Exception {
+    FakeProvider slow = new FakeProvider(2000, STUN, TURN_A);
+    FakeProvider fast = new FakeProvider(20, STUN, TURN_B);
+    CompositeStunTurnServerProvider composite = new CompositeStunTurnServerProvider.Builder()
+        .addProvider(slow)
+        .addProvider(fast)
+        .setInitialHedgeDelayMillis(100)
+        .build();
+
+    long start = System.nanoTime();
+    assertTrue(fetch(composite).fetched.await(1, TimeUnit.SECONDS));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 500);
+    assertEquals(1, slow.fetches.get());
+    assertEquals(1, fast.fetches.get());
+    assertEquals(Arrays.asList(STUN, TURN_B), composite.getServers());
+  }
+
+  @Test
+  public void fastProviderIsNotHedged() throws Exception {
+    FakeProvider first = new FakeProvider(10, TURN_A);
+    FakeProvider second = new FakeProvider(10, TURN_B);
+    CompositeStunTurnServerProvider composite = new CompositeStunTurnServerProvider.Builder()
+        .addProvider(first)
+        .addProvider(second)
+        .setInitialHedgeDelayMillis(500)
+        .build();
+
+    assertTrue(fetch(composite).fetched.await(1, TimeUnit.SECONDS));
+
+    assertEquals(0, second.fetches.get());
+    assertEquals(Arrays.asList(TURN_A), composite.getServers());
+    assertEquals(1, composite.getLatencyStats(0).getSuccessCount());
+  }
+
+  @Test
+  public void failsOverRightAwayAndMergesWithoutDuplicates() throws Exception {
+    FakeProvider failing = new FakeProvider(10);
+    FakeProvider stunOnly = new FakeProvider(10, STUN);
+    FakeProvider turn = new FakeProvider(10, STUN, TURN_B);
+    CompositeStunTurnServerProvider composite = new CompositeStunTurnServerProvider.Builder()
+        .addProvider(failing)
+        .addProvider(stunOnly)
+        .addProvider(turn)
+        .setInitialHedgeDelayMillis(5000)
+        .build();
+
+    long start = System.nanoTime();
+    assertTrue(fetch(composite).fetched.await(1, TimeUnit.SECONDS));
+
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    assertEquals(Arrays.asList(STUN, TURN_B), composite.getServers());
+    assertEquals(1, composite.getLatencyStats(0).getFailureCount());
+  }
+
+  @Test
+  public void reportsFailureOnceWhenAllProvidersFail() throws Exception {
+    CompositeStunTurnServerProvider composite = new CompositeStunTurnServerProvider.Builder()
+        .addProvider(new FakeProvider(10))
+        .addProvider(new FakeProvider(10))
+        .build();
+
+    RecordingCallback callback = fetch(composite);
+
+    assertTrue(callback.failed.await(1, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertEquals(1, callback.calls.get());
+  }
+
+  @Test
+  public void completesWithWhatItHasWhenNoAnswerIsAdequate() throws Exception {
+    CompositeStunTurnServerProvider composite = new CompositeStunTurnServerProvider.Builder()
+        .addProvider(new FakeProvider(10, STUN))
+        .addProvider(new FakeProvider(10))
+        .build();
+
+    assertTrue(fetch(composite).fetched.await(1, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(STUN), composite.getServers());
+  }
+
+  @Test
+  public void hedgeDelayFollowsLatencyPercentile() throws Exception {
+    FakeProvider first = new FakeProvider(30, TURN_A);
+    FakeProvider second = new FakeProvider(10, TURN_B);
+    CompositeStunTurnServerProvider composite = new CompositeStunTurnServerProvider.Builder()
+        .addProvider(first)
+        .addProvider(second)
+        .setInitialHedgeDelayMillis(5000)
+        .build();
+    for (int i = 0; i < 5; i++) {
+      assertTrue(fetch(composite).fetched.await(1, TimeUnit.SECONDS));
+    }
+    assertEquals(0, second.fetches.get());
+    assertTrue(composite.getLatencyStats(0).getPercentileMillis(0.95) < 200);
+
+    // Now much slower than usual, hedged after about the usual p95 instead of 5s.
+    first.delayMillis = 2000;
+    long start = System.nanoTime();
+    assertTrue(fetch(composite).fetched.await(1, TimeUnit.SECONDS));
+
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+    assertEquals(1, second.fetches.get());
+  }
+
+  private static RecordingCallback fetch(StunTurnServerProvider provider) {
+    RecordingCallback callback = new RecordingCallback();
+    provider.fetchServers(callback);
+    return callback;
+  }
+
+  private static class RecordingCallback implements StunTurnServerProvider.Callback {
+    private final CountDownLatch fetched = new CountDownLatch(1);
+    private final CountDownLatch failed = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Override
+    public void onServersFetched() {
+      calls.incrementAndGet();
+      fetched.countDown();
+    }
+
+    @Override
+    public void onServerFetchFails(NetworkException e) {
+      calls.incrementAndGet();
+      failed.countDown();
+    }
+  }
+
+  /** Answers after a delay with the given servers, or fails if there are none. */
+  private static class FakeProvider implements StunTurnServerProvider {
+    private final List<PeerConnection.IceServer> servers;
+    private final AtomicInteger fetches = new AtomicInteger();
+    private volatile long delayMillis;
+
+    private FakeProvider(long delayMillis, PeerConnection.IceServer... servers) {
+      this.delayMillis = delayMillis;
+      this.servers = Arrays.asList(servers);
+    }
+
+    @Override
+    public void fetchServers(final Callback callback) {
+      fetches.incrementAndGet();
+      final long delay = delayMillis;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(delay);
+          } catch (InterruptedException e) {
+            return;
+          }
+          if (servers.isEmpty()) {
+            callback.onServerFetchFails(new NetworkException("Unavailable."));
+          } else {
+            callback.onServersFetched();
+          }
+        }
+      }).start();
+    }
+
+    @Override
+    public void cancelFetch() {}
+
+    @Override
+    public List<PeerConnection.IceServer> getServers() {
+      return servers;
+    }
+  }
+}
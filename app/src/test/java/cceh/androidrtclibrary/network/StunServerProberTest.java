@@ -0,0 +1,168 @@
+package cceh.androidrtclibrary.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.PeerConnection;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link StunServerProber} against STUN stand-ins on localhost.
+ */
+public class StunServerProberTest {
+  private List<StunResponder> responders;
+  private ServerSocket tcpServer;
+
+  @Before
+  public void setUp() throws IOException {
+    responders = new ArrayList<>();
+    tcpServer = new ServerSocket(0);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (StunResponder responder : responders) {
+      responder.close();
+    }
+    tcpServer.close();
+  }
+
+  @Test
+  public void ranksReachableServersByRoundTripTime() throws Exception {
+    StunResponder slow = startResponder(150);
+    StunResponder fast = startResponder(0);
+    StunResponder medium = startResponder(60);
+    StunResponder silent = startResponder(-1);
+    PeerConnection.IceServer slowServer = stun(slow);
+    PeerConnection.IceServer fastServer = stun(fast);
+    PeerConnection.IceServer mediumServer = stun(medium);
+    PeerConnection.IceServer silentServer = stun(silent);
+    PeerConnection.IceServer tcpTurn = new PeerConnection.IceServer(
+        "turn:127.0.0.1:" + tcpServer.getLocalPort() + "?transport=tcp", "user", "pass");
+
+    StunServerProber prober = new StunServerProber(500, 60000);
+    long start = System.nanoTime();
+    List<StunServerProber.ProbeResult> results = prober.probe(
+        Arrays.asList(slowServer, fastServer, mediumServer, silentServer, tcpTurn));
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+    // All probed in parallel, within about one timeout.
+    assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 900);
+    assertEquals(5, results.size());
+    assertTrue(results.get(0).isReachable());
+    assertFalse(results.get(3).isReachable());
+    assertEquals(-1, results.get(3).getRttMillis());
+    assertEquals(StunServerProber.ServerType.TURN_TCP, results.get(4).getType());
+    assertTrue(results.get(4).isReachable());
+    assertTrue(results.get(0).getRttMillis() >= 150);
+
+    List<PeerConnection.IceServer> ranked = StunServerProber.rank(results, 2);
+    assertEquals(3, ranked.size());
+    assertTrue(ranked.indexOf(fastServer) >= 0);
+    assertTrue(ranked.indexOf(fastServer) < ranked.indexOf(mediumServer));
+    assertTrue(ranked.contains(tcpTurn));
+  }
+
+  @Test
+  public void cachedResultsAreNotProbedAgain() throws Exception {
+    StunResponder responder = startResponder(0);
+    PeerConnection.IceServer server = stun(responder);
+    StunServerProber prober = new StunServerProber(300, 60000);
+
+    prober.probe(Arrays.asList(server));
+    int requests = responder.requests.get();
+    List<StunServerProber.ProbeResult> again = prober.probe(Arrays.asList(server));
+
+    assertEquals(requests, responder.requests.get());
+    assertTrue(again.get(0).isReachable());
+  }
+
+  @Test
+  public void expiredResultsAreProbedAgain() throws Exception {
+    StunResponder responder = startResponder(0);
+    PeerConnection.IceServer server = stun(responder);
+    StunServerProber prober = new StunServerProber(300, 50);
+
+    prober.probe(Arrays.asList(server));
+    int requests = responder.requests.get();
+    Thread.sleep(100);
+    prober.probe(Arrays.asList(server));
+
+    assertTrue(responder.requests.get() > requests);
+  }
+
+  @Test
+  public void unresolvableServerIsUnreachable() {
+    StunServerProber prober = new StunServerProber(200, 60000);
+
+    List<StunServerProber.ProbeResult> results = prober.probe(Arrays.asList(
+        new PeerConnection.IceServer("stun:host.invalid:3478")));
+
+    assertFalse(results.get(0).isReachable());
+  }
+
+  private StunResponder startResponder(long delayMillis) throws SocketException {
+    StunResponder responder = new StunResponder(delayMillis);
+    responders.add(responder);
+    return responder;
+  }
+
+  private static PeerConnection.IceServer stun(StunResponder responder) {
+    return new PeerConnection.IceServer("stun:127.0.0.1:" + responder.socket.getLocalPort());
+  }
+
+  /** Answers binding requests after a delay, or never if the delay is negative. */
+  private static class StunResponder implements Runnable {
+    private final DatagramSocket socket;
+    private final long delayMillis;
+    private final AtomicInteger requests;
+
+    private StunResponder(long delayMillis) throws SocketException {
+      this.socket = new DatagramSocket(0);
+      this.delayMillis = delayMillis;
+      this.requests = new AtomicInteger();
+      Thread thread = new Thread(this, "StunResponder");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void close() {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      byte[] buffer = new byte[1500];
+      while (!socket.isClosed()) {
+        DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+        try {
+          socket.receive(request);
+          requests.incrementAndGet();
+          if (delayMillis < 0) continue;
+          Thread.sleep(delayMillis);
+          // Binding success response, echoing cookie and transaction id, without attributes.
+          byte[] response = Arrays.copyOf(request.getData(), 20);
+          response[0] = 0x01;
+          response[1] = 0x01;
+          response[2] = 0;
+          response[3] = 0;
+          socket.send(new DatagramPacket(
+              response, response.length, request.getAddress(), request.getPort()));
+        } catch (IOException | InterruptedException e) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package cceh.androidrtclibrary.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link XirSysStunTurnServerProvider} against a local HTTP stub server. The response
+ * is parsed with the {@link GsonJsonTokenReader}.
+ */
+public class XirSysStunTurnServerProviderTest {
+  private static final String RESPONSE = "{\"e\":null,\"s\":200,\"d\":{\"iceServers\":["
+      + "{\"url\":\"stun:turn1.xirsys.com\"},"
+      + "{\"username\":\"user\",\"url\":\"turn:turn1.xirsys.com:443?transport=tcp\","
+      + "\"credential\":\"pass\"}]}}";
+  private static final int KNOWN_SERVERS = 23;
+
+  private StubServer server;
+  private RecordingCallback callback;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new StubServer();
+    callback = new RecordingCallback();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void fetchesServersWithoutBlockingTheCaller() throws Exception {
+    server.respond(200, RESPONSE, 300);
+    XirSysStunTurnServerProvider provider = newBuilder().build();
+
+    long start = System.nanoTime();
+    provider.fetchServers(callback);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+
+    assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, callback.fetched.get());
+    assertEquals(0, callback.failed.get());
+    assertEquals(2 + KNOWN_SERVERS, provider.getServers().size());
+    assertEquals("turn:turn1.xirsys.com:443?transport=tcp", provider.getServers().get(1).uri);
+    assertEquals("pass", provider.getServers().get(1).password);
+    assertTrue(server.lastBody.get().contains("domain=example.com"));
+    assertTrue(server.lastBody.get().contains("room=default+room"));
+  }
+
+  @Test
+  public void failureIsReportedOnlyOnce() throws Exception {
+    server.respond(500, "{}", 0);
+    XirSysStunTurnServerProvider provider = newBuilder().build();
+
+    provider.fetchServers(callback);
+
+    assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(100);
+    assertEquals(0, callback.fetched.get());
+    assertEquals(1, callback.failed.get());
+    try {
+      provider.getServers();
+      fail("Servers should not be available after a failed fetch.");
+    } catch (NetworkException expected) {
+    }
+  }
+
+  @Test
+  public void errorInResponseFailsTheFetch() throws Exception {
+    server.respond(200, "{\"e\":\"Unauthorized\",\"s\":401,\"d\":null}", 0);
+    XirSysStunTurnServerProvider provider = newBuilder().build();
+
+    provider.fetchServers(callback);
+
+    assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, callback.fetched.get());
+    assertEquals(1, callback.failed.get());
+  }
+
+  @Test
+  public void readTimeoutFailsTheFetch() throws Exception {
+    server.respond(200, RESPONSE, 5000);
+    XirSysStunTurnServerProvider provider = newBuilder().setReadTimeoutMillis(200).build();
+
+    long start = System.nanoTime();
+    provider.fetchServers(callback);
+
+    assertTrue(callback.done.await(3, TimeUnit.SECONDS));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+    assertEquals(1, callback.failed.get());
+  }
+
+  @Test
+  public void cancelledFetchDoesNotCallBack() throws Exception {
+    server.respond(200, RESPONSE, 300);
+    XirSysStunTurnServerProvider provider = newBuilder().build();
+
+    provider.fetchServers(callback);
+    Thread.sleep(50);
+    provider.cancelFetch();
+
+    assertFalse(callback.done.await(600, TimeUnit.MILLISECONDS));
+    assertEquals(0, callback.fetched.get() + callback.failed.get());
+  }
+
+  @Test
+  public void callbackRunsOnTheCallbackExecutor() throws Exception {
+    server.respond(200, RESPONSE, 0);
+    final AtomicReference<String> callbackThread = new AtomicReference<>();
+    Executor callbackExecutor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        Thread thread = new Thread(command, "callback-thread");
+        thread.start();
+      }
+    };
+    XirSysStunTurnServerProvider provider =
+        newBuilder().setCallbackExecutor(callbackExecutor).build();
+
+    provider.fetchServers(new StunTurnServerProvider.Callback() {
+      @Override
+      public void onServersFetched() {
+        callbackThread.set(Thread.currentThread().getName());
+        callback.onServersFetched();
+      }
+
+      @Override
+      public void onServerFetchFails(NetworkException e) {
+        callback.onServerFetchFails(e);
+      }
+    });
+
+    assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+    assertEquals("callback-thread", callbackThread.get());
+  }
+
+  private XirSysStunTurnServerProvider.Builder newBuilder() {
+    return new XirSysStunTurnServerProvider.Builder(
+        "example.com", "default", "default room", "ident", "secret", "1")
+        .setUrl("http://127.0.0.1:" + server.getPort() + "/ice")
+        .setReaderFactory(GsonJsonTokenReader.FACTORY);
+  }
+
+  private static class RecordingCallback implements StunTurnServerProvider.Callback {
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    @Override
+    public void onServersFetched() {
+      fetched.incrementAndGet();
+      done.countDown();
+    }
+
+    @Override
+    public void onServerFetchFails(NetworkException e) {
+      failed.incrementAndGet();
+      done.countDown();
+    }
+  }
+
+  /** Answers every request with a canned response after a delay. */
+  private static class StubServer implements Runnable {
+    private final ServerSocket serverSocket;
+    private final AtomicReference<String> lastBody;
+    private volatile int status;
+    private volatile String body;
+    private volatile long delayMillis;
+
+    private StubServer() throws IOException {
+      this.serverSocket = new ServerSocket(0);
+      this.lastBody = new AtomicReference<>();
+      Thread thread = new Thread(this, "StubServer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private void respond(int status, String body, long delayMillis) {
+      this.status = status;
+      this.body = body;
+      this.delayMillis = delayMillis;
+    }
+
+    private int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    private void close() throws IOException {
+      serverSocket.close();
+    }
+
+    @Override
+    public void run() {
+      while (!serverSocket.isClosed()) {
+        try {
+          final Socket socket = serverSocket.accept();
+          new Thread(new Runnable() {
+            @Override
+            public void run() {
+              serve(socket);
+            }
+          }).start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        int contentLength = 0;
+        for (String line; (line = reader.readLine()) != null && !line.isEmpty();) {
+          if (line.toLowerCase().startsWith("content-length:")) {
+            contentLength = Integer.parseInt(line.substring(15).trim());
+          }
+        }
+        char[] requestBody = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+          read += reader.read(requestBody, read, contentLength - read);
+        }
+        lastBody.set(new String(requestBody));
+
+        Thread.sleep(delayMillis);
+        byte[] responseBody = body.getBytes("UTF-8");
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 " + status + " Stub\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: " + responseBody.length + "\r\n"
+            + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+        out.write(responseBody);
+        out.flush();
+      } catch (IOException | InterruptedException e) {
+        // Client went away, e.g. timed out.
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Nothing to do.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package cceh.androidrtclibrary.sdp;
+
+/**
+ * Session descriptions captured from calls, for the sdp tests.
+ */
+final class CapturedSdps {
+
+  /** Offer of an Android client, audio and video. */
+  static final String ANDROID_OFFER = "v=0\r\n"
+      + "o=- 5820432924453862405 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n"
+      + "a=group:BUNDLE audio video\r\n"
+      + "a=msid-semantic: WMS local_media_stream\r\n"
+      + "m=audio 9 RTP/SAVPF 111 103 9 102 0 8 106 105 13 127 126\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=ice-ufrag:Fw3sPK1bZ9Ka1NxB\r\n"
+      + "a=ice-pwd:0c3rP9QNnM8Yb0PeWCZUpgcn\r\n"
+      + "a=fingerprint:sha-256 6C:F1:1F:3E:2A:9B:71:01:5B:2A:3A:4D:83:AA:6E:3E:0D:1E:5C:7D:21:60:"
+      + "E1:C4:72:AE:3D:8C:28:9B:1F:90\r\n"
+      + "a=setup:actpass\r\n"
+      + "a=mid:audio\r\n"
+      + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+      + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:102 ILBC/8000\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\n"
+      + "a=rtpmap:8 PCMA/8000\r\n"
+      + "a=rtpmap:106 CN/32000\r\n"
+      + "a=rtpmap:105 CN/16000\r\n"
+      + "a=rtpmap:13 CN/8000\r\n"
+      + "a=rtpmap:127 red/8000\r\n"
+      + "a=rtpmap:126 telephone-event/8000\r\n"
+      + "a=maxptime:60\r\n"
+      + "a=ssrc:3570614608 cname:4TOk42mSjXCkVIa6\r\n"
+      + "a=ssrc:3570614608 msid:local_media_stream audio_track\r\n"
+      + "m=video 9 RTP/SAVPF 100 116 117 96\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=ice-ufrag:Fw3sPK1bZ9Ka1NxB\r\n"
+      + "a=ice-pwd:0c3rP9QNnM8Yb0PeWCZUpgcn\r\n"
+      + "a=setup:actpass\r\n"
+      + "a=mid:video\r\n"
+      + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+      + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time\r\n"
+      + "a=extmap:4 urn:3gpp:video-orientation\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:100 VP8/90000\r\n"
+      + "a=rtcp-fb:100 ccm fir\r\n"
+      + "a=rtcp-fb:100 nack\r\n"
+      + "a=rtcp-fb:100 nack pli\r\n"
+      + "a=rtcp-fb:100 goog-remb\r\n"
+      + "a=rtpmap:116 red/90000\r\n"
+      + "a=rtpmap:117 ulpfec/90000\r\n"
+      + "a=rtpmap:96 rtx/90000\r\n"
+      + "a=fmtp:96 apt=100\r\n"
+      + "a=ssrc-group:FID 1897217426 2395316541\r\n"
+      + "a=ssrc:1897217426 cname:4TOk42mSjXCkVIa6\r\n"
+      + "a=ssrc:1897217426 msid:local_media_stream video_track\r\n"
+      + "a=ssrc:2395316541 cname:4TOk42mSjXCkVIa6\r\n"
+      + "a=ssrc:2395316541 msid:local_media_stream video_track\r\n";
+
+  /** Offer of a desktop browser with H264, VP9 and a data channel. */
+  static final String BROWSER_OFFER = "v=0\r\n"
+      + "o=- 1432893712339431298 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n"
+      + "a=group:BUNDLE audio video data\r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 126\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=mid:audio\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=rtcp-fb:111 transport-cc\r\n"
+      + "a=fmtp:111 minptime=10;useinbandfec=1\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:104 ISAC/32000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\n"
+      + "a=rtpmap:8 PCMA/8000\r\n"
+      + "a=rtpmap:106 CN/32000\r\n"
+      + "a=rtpmap:105 CN/16000\r\n"
+      + "a=rtpmap:13 CN/8000\r\n"
+      + "a=rtpmap:126 telephone-event/8000\r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 96 98 100 102 127 125 97 99 101\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "b=AS:2000\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=mid:video\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:96 VP8/90000\r\n"
+      + "a=rtcp-fb:96 goog-remb\r\n"
+      + "a=rtcp-fb:96 nack\r\n"
+      + "a=rtcp-fb:96 nack pli\r\n"
+      + "a=rtpmap:98 VP9/90000\r\n"
+      + "a=rtcp-fb:98 nack\r\n"
+      + "a=rtpmap:100 H264/90000\r\n"
+      + "a=rtcp-fb:100 nack\r\n"
+      + "a=rtcp-fb:100 nack pli\r\n"
+      + "a=fmtp:100 level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n"
+      + "a=rtpmap:102 red/90000\r\n"
+      + "a=rtpmap:127 ulpfec/90000\r\n"
+      + "a=rtpmap:125 rtx/90000\r\n"
+      + "a=fmtp:125 apt=102\r\n"
+      + "a=rtpmap:97 rtx/90000\r\n"
+      + "a=fmtp:97 apt=96\r\n"
+      + "a=rtpmap:99 rtx/90000\r\n"
+      + "a=fmtp:99 apt=98\r\n"
+      + "a=rtpmap:101 rtx/90000\r\n"
+      + "a=fmtp:101 apt=100\r\n"
+      + "m=application 9 DTLS/SCTP 5000\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=mid:data\r\n"
+      + "a=sctpmap:5000 webrtc-datachannel 1024\r\n";
+
+  private CapturedSdps() {}
+}
@@ -0,0 +1,120 @@
+package cceh.androidrtclibrary.sdp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link Sdp} and {@link MediaSection}.
+ */
+public class SdpTest {
+
+  @Test
+  public void writesBackWhatItParsed() {
+    assertEquals(CapturedSdps.ANDROID_OFFER, Sdp.parse(CapturedSdps.ANDROID_OFFER).write());
+    assertEquals(CapturedSdps.BROWSER_OFFER, Sdp.parse(CapturedSdps.BROWSER_OFFER).write());
+  }
+
+  @Test
+  public void parsesLineFeedsAndDropsEmptyLines() {
+    Sdp sdp = Sdp.parse("v=0\ns=-\n\nm=audio 9 RTP/SAVPF 0\na=rtpmap:0 PCMU/8000");
+    assertEquals("v=0\r\ns=-\r\nm=audio 9 RTP/SAVPF 0\r\na=rtpmap:0 PCMU/8000\r\n", sdp.write());
+  }
+
+  @Test
+  public void splitsMediaSections() {
+    Sdp sdp = Sdp.parse(CapturedSdps.BROWSER_OFFER);
+    assertEquals(5, sdp.getSessionLines().size());
+    assertEquals(3, sdp.getMediaSections().size());
+    MediaSection video = sdp.getMediaSections(MediaSection.VIDEO).get(0);
+    assertEquals("9", video.getPort());
+    assertEquals("UDP/TLS/RTP/SAVPF", video.getProtocol());
+    assertEquals(Arrays.asList("96", "98", "100", "102", "127", "125", "97", "99", "101"),
+        video.getFormats());
+    MediaSection data = sdp.getMediaSections().get(2);
+    assertEquals("application", data.getType());
+    assertEquals(Collections.singletonList("5000"), data.getFormats());
+  }
+
+  @Test
+  public void readsCodecs() {
+    MediaSection video = Sdp.parse(CapturedSdps.BROWSER_OFFER)
+        .getMediaSections(MediaSection.VIDEO).get(0);
+    assertEquals(Collections.singletonList("100"), video.getPayloadTypes("h264"));
+    assertEquals(Arrays.asList("125", "97", "99", "101"), video.getPayloadTypes("rtx"));
+    assertTrue(video.getPayloadTypes("H265").isEmpty());
+    assertEquals("VP9", video.getCodecName("98"));
+    assertNull(video.getCodecName("1"));
+    assertEquals("42e01f", video.getFmtpParameter("100", "profile-level-id"));
+    assertEquals("96", video.getFmtpParameter("97", "apt"));
+    assertNull(video.getFmtpParameter("96", "apt"));
+    assertEquals(2000, video.getBandwidth());
+  }
+
+  @Test
+  public void editsFmtp() {
+    MediaSection audio = Sdp.parse(CapturedSdps.ANDROID_OFFER)
+        .getMediaSections(MediaSection.AUDIO).get(0);
+    audio.setFmtpParameter("111", "minptime", "20");
+    audio.setFmtpParameter("111", "usedtx", "1");
+    assertTrue(audio.getLines().contains("a=fmtp:111 minptime=20;usedtx=1"));
+
+    // Added after the rtpmap of a payload type without fmtp.
+    audio.setFmtpParameter("103", "maxaveragebitrate", "32000");
+    int rtpmap = audio.getLines().indexOf("a=rtpmap:103 ISAC/16000");
+    assertEquals("a=fmtp:103 maxaveragebitrate=32000", audio.getLines().get(rtpmap + 1));
+  }
+
+  @Test
+  public void editsAttributes() {
+    MediaSection audio = Sdp.parse(CapturedSdps.ANDROID_OFFER)
+        .getMediaSections(MediaSection.AUDIO).get(0);
+    assertEquals("", audio.getAttribute("rtcp-mux"));
+    assertEquals("60", audio.getAttribute("maxptime"));
+    assertNull(audio.getAttribute("ptime"));
+    // Not a prefix match.
+    assertNull(audio.getAttribute("rtcp-m"));
+
+    audio.setAttribute("ptime", "40");
+    audio.setAttribute("maxptime", "120");
+    assertEquals("40", audio.getAttribute("ptime"));
+    assertEquals("120", audio.getAttribute("maxptime"));
+    audio.removeAttribute("maxptime");
+    assertNull(audio.getAttribute("maxptime"));
+  }
+
+  @Test
+  public void removesPayloadTypesWithTheirLines() {
+    Sdp sdp = Sdp.parse(CapturedSdps.ANDROID_OFFER);
+    MediaSection video = sdp.getMediaSections(MediaSection.VIDEO).get(0);
+    video.removePayloadTypes(Arrays.asList("100", "96"));
+    assertEquals(Arrays.asList("116", "117"), video.getFormats());
+    String written = sdp.write();
+    assertFalse(written.contains("VP8"));
+    assertFalse(written.contains("a=rtcp-fb:100"));
+    assertFalse(written.contains("apt=100"));
+    assertTrue(written.contains("m=video 9 RTP/SAVPF 116 117\r\n"));
+    // Other lines naming the numbers stay.
+    assertTrue(written.contains("a=ssrc-group:FID 1897217426 2395316541\r\n"));
+  }
+
+  @Test
+  public void setsBandwidthAfterConnectionLine() {
+    Sdp sdp = Sdp.parse(CapturedSdps.ANDROID_OFFER);
+    MediaSection video = sdp.getMediaSections(MediaSection.VIDEO).get(0);
+    video.setBandwidth(500);
+    assertEquals("b=AS:500", video.getLines().get(1));
+    video.setBandwidth(300);
+    assertEquals(300, video.getBandwidth());
+    video.setBandwidth(0);
+    assertEquals(CapturedSdps.ANDROID_OFFER, sdp.write());
+
+    MediaSection bare = Sdp.parse("v=0\r\nm=video 9 RTP/SAVPF 100\r\n")
+        .getMediaSections().get(0);
+    bare.setBandwidth(200);
+    assertEquals(Collections.singletonList("b=AS:200"), bare.getLines());
+  }
+}
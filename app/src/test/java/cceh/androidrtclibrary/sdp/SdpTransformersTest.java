@@ -0,0 +1,96 @@
+package cceh.androidrtclibrary.sdp;
+
+import org.junit.Test;
+import org.webrtc.SessionDescription;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SdpTransformers}.
+ */
+public class SdpTransformersTest {
+
+  @Test
+  public void prefersCodec() {
+    Sdp sdp = Sdp.parse(CapturedSdps.BROWSER_OFFER);
+    SdpTransformers.preferCodec(MediaSection.VIDEO, "H264").transform(sdp);
+    assertEquals(Arrays.asList("100", "96", "98", "102", "127", "125", "97", "99", "101"),
+        sdp.getMediaSections(MediaSection.VIDEO).get(0).getFormats());
+    // Audio is untouched.
+    assertEquals("111", sdp.getMediaSections(MediaSection.AUDIO).get(0).getFormats().get(0));
+  }
+
+  @Test
+  public void keepsCodecsWithTheirRtx() {
+    Sdp sdp = Sdp.parse(CapturedSdps.BROWSER_OFFER);
+    SdpTransformers.keepCodecs(MediaSection.VIDEO, "H264", "VP8").transform(sdp);
+    SdpTransformers.keepCodecs(MediaSection.AUDIO, "opus", "telephone-event").transform(sdp);
+    assertEquals(Arrays.asList("96", "100", "97", "101"),
+        sdp.getMediaSections(MediaSection.VIDEO).get(0).getFormats());
+    assertEquals(Arrays.asList("111", "126"),
+        sdp.getMediaSections(MediaSection.AUDIO).get(0).getFormats());
+    String written = sdp.write();
+    assertFalse(written.contains("VP9"));
+    assertFalse(written.contains("ISAC"));
+    assertFalse(written.contains("apt=98"));
+    assertTrue(written.contains("a=fmtp:101 apt=100\r\n"));
+    assertTrue(written.length() < CapturedSdps.BROWSER_OFFER.length() * 3 / 4);
+    // The data channel is untouched.
+    assertTrue(written.endsWith("a=sctpmap:5000 webrtc-datachannel 1024\r\n"));
+  }
+
+  @Test
+  public void keepsSectionWithoutTheCodecs() {
+    Sdp sdp = Sdp.parse(CapturedSdps.ANDROID_OFFER);
+    SdpTransformers.keepCodecs(MediaSection.VIDEO, "H264").transform(sdp);
+    assertEquals(CapturedSdps.ANDROID_OFFER, sdp.write());
+  }
+
+  @Test
+  public void tunesOpus() {
+    Sdp sdp = Sdp.parse(CapturedSdps.BROWSER_OFFER);
+    SdpTransformers.opus(true, true).transform(sdp);
+    SdpTransformers.ptime(40).transform(sdp);
+    MediaSection audio = sdp.getMediaSections(MediaSection.AUDIO).get(0);
+    assertTrue(audio.getLines().contains("a=fmtp:111 minptime=10;useinbandfec=1;usedtx=1"));
+    assertEquals("40", audio.getAttribute("ptime"));
+
+    Sdp android = Sdp.parse(CapturedSdps.ANDROID_OFFER);
+    SdpTransformers.opus(false, true).transform(android);
+    assertEquals("1", android.getMediaSections(MediaSection.AUDIO).get(0)
+        .getFmtpParameter("111", "useinbandfec"));
+    assertNull(android.getMediaSections(MediaSection.AUDIO).get(0)
+        .getFmtpParameter("111", "usedtx"));
+  }
+
+  @Test
+  public void appliesChainInOrder() {
+    SessionDescription offer =
+        new SessionDescription(SessionDescription.Type.OFFER, CapturedSdps.BROWSER_OFFER);
+    SessionDescription transformed = SdpTransformers.apply(Arrays.asList(
+        SdpTransformers.keepCodecs(MediaSection.VIDEO, "VP8", "H264"),
+        SdpTransformers.preferCodec(MediaSection.VIDEO, "H264"),
+        SdpTransformers.limitBandwidth(MediaSection.VIDEO, 800)), offer);
+    assertEquals(SessionDescription.Type.OFFER, transformed.type);
+    assertTrue(transformed.description.contains(
+        "m=video 9 UDP/TLS/RTP/SAVPF 100 96 97 101\r\nc=IN IP4 0.0.0.0\r\nb=AS:800\r\n"));
+  }
+
+  @Test
+  public void keepsDescriptionWithoutTransformersOrOnFailure() {
+    SessionDescription offer =
+        new SessionDescription(SessionDescription.Type.OFFER, CapturedSdps.ANDROID_OFFER);
+    assertSame(offer,
+        SdpTransformers.apply(Collections.<SdpTransformer>emptyList(), offer));
+    assertSame(offer, SdpTransformers.apply(
+        Collections.<SdpTransformer>singletonList(new SdpTransformer() {
+          @Override
+          public void transform(Sdp sdp) {
+            throw new IllegalStateException("Broken transformer.");
+          }
+        }), offer));
+  }
+}
@@ -0,0 +1,196 @@
+package cceh.androidrtclibrary.signaling;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LoopbackSignalingService}.
+ */
+public class LoopbackSignalingServiceTest {
+  private static final long SEED = 42;
+
+  private final List<LoopbackSignalingService> services = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    for (LoopbackSignalingService service : services) {
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void delaysSignalsByDelayPlusJitter() throws Exception {
+    LoopbackSignalingService service = newService(new LoopbackSignalingService.Builder()
+        .setDelayMillis(30)
+        .setJitterMillis(20)
+        .setSeed(SEED));
+    Recorder recorder = listen(service, "bob");
+    for (int i = 0; i < 50; i++) {
+      service.sendSignal("bob", signal(i));
+      Thread.sleep(2);
+    }
+    recorder.await(50);
+
+    List<Long> latencies = new ArrayList<>(recorder.latenciesNanos);
+    Collections.sort(latencies);
+    long min = TimeUnit.NANOSECONDS.toMillis(latencies.get(0));
+    long max = TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() - 1));
+    assertTrue("min " + min + "ms", min >= 30);
+    // The jitter spreads the delays, a signal waits at most for the one before it.
+    assertTrue("max " + max + "ms", max >= 40 && max < 30 + 20 + 50);
+  }
+
+  @Test
+  public void signalsNotReorderedKeepTheirOrder() throws Exception {
+    LoopbackSignalingService service = newService(new LoopbackSignalingService.Builder()
+        .setDelayMillis(1)
+        .setJitterMillis(10)
+        .setSeed(SEED));
+    Recorder recorder = listen(service, "bob");
+    for (int i = 0; i < 300; i++) {
+      service.sendSignal("bob", signal(i));
+    }
+    recorder.await(300);
+    assertEquals(ids(300), recorder.ids);
+  }
+
+  @Test
+  public void reordersAndDropsAtTheConfiguredRates() throws Exception {
+    LoopbackSignalingService service = newService(new LoopbackSignalingService.Builder()
+        .setDelayMillis(1)
+        .setJitterMillis(2)
+        .setReorderRate(0.2)
+        .setDropRate(0.1)
+        .setSeed(SEED));
+    Recorder recorder = listen(service, "bob");
+    for (int i = 0; i < 2000; i++) {
+      service.sendSignal("bob", signal(i));
+      if (i % 20 == 0) {
+        Thread.sleep(1);
+      }
+    }
+    long expected = 2000 - service.getSignalsDropped();
+    recorder.await((int) expected);
+
+    assertEquals(2000, service.getSignalsSent());
+    assertEquals(expected, service.getSignalsDelivered());
+    double dropRate = service.getSignalsDropped() / 2000.0;
+    assertEquals(0.1, dropRate, 0.03);
+    // A signal arriving after one sent later was held back.
+    int late = 0;
+    int highest = -1;
+    for (int id : recorder.ids) {
+      if (id < highest) {
+        late++;
+      }
+      highest = Math.max(highest, id);
+    }
+    assertEquals(0.2, late / (double) expected, 0.05);
+  }
+
+  @Test
+  public void sameSeedDropsAndReordersTheSameSignals() throws Exception {
+    List<Integer> first = deliveredIds(SEED);
+    assertEquals(first, deliveredIds(SEED));
+    assertNotEquals(first, deliveredIds(SEED + 1));
+  }
+
+  @Test
+  public void countsSignalsWithoutListener() throws Exception {
+    LoopbackSignalingService service =
+        newService(new LoopbackSignalingService.Builder().setSeed(SEED));
+    Recorder recorder = listen(service, "bob");
+    service.sendSignal("carol", signal(0));
+    service.sendSignal("bob", signal(1));
+    recorder.await(1);
+    assertEquals(2, service.getSignalsSent());
+    assertEquals(1, service.getSignalsDelivered());
+    assertEquals(0, service.getSignalsDropped());
+  }
+
+  /**
+   * Ids delivered with drops and reordering, sorted: with an idle receiver, what is dropped and
+   * what is reordered only depends on the seed.
+   */
+  private List<Integer> deliveredIds(long seed) throws Exception {
+    LoopbackSignalingService service = newService(new LoopbackSignalingService.Builder()
+        .setReorderRate(0.3)
+        .setDropRate(0.3)
+        .setSeed(seed));
+    Recorder recorder = listen(service, "bob");
+    for (int i = 0; i < 200; i++) {
+      service.sendSignal("bob", signal(i));
+    }
+    recorder.await((int) (200 - service.getSignalsDropped()));
+    List<Integer> ids = new ArrayList<>(recorder.ids);
+    Collections.sort(ids);
+    return ids;
+  }
+
+  private LoopbackSignalingService newService(LoopbackSignalingService.Builder builder) {
+    LoopbackSignalingService service = builder.build();
+    services.add(service);
+    return service;
+  }
+
+  private static Recorder listen(LoopbackSignalingService service, String userId)
+      throws SignalingException {
+    Recorder recorder = new Recorder();
+    service.listenOn(userId, recorder);
+    return recorder;
+  }
+
+  private static JSONObject signal(int id) throws JSONException {
+    return new JSONObject().put("id", id).put("sentAt", System.nanoTime());
+  }
+
+  private static List<Integer> ids(int count) {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add(i);
+    }
+    return ids;
+  }
+
+  /** Records the signals of one user id in the order they arrive. */
+  private static class Recorder implements SignalingService.SignalHandler {
+    private final List<Integer> ids = new ArrayList<>();
+    private final List<Long> latenciesNanos = new ArrayList<>();
+    private boolean connected = false;
+
+    @Override
+    public synchronized void onConnected(String userId) {
+      connected = true;
+      notifyAll();
+    }
+
+    @Override
+    public void onDisconnected(String userId) {}
+
+    @Override
+    public synchronized void onSignalReiceived(String userId, JSONObject signal) {
+      latenciesNanos.add(System.nanoTime() - signal.optLong("sentAt"));
+      ids.add(signal.optInt("id"));
+      notifyAll();
+    }
+
+    /** Also waits for the connect, so that nothing is left on the lane at shutdown. */
+    private synchronized void await(int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 5000;
+      while ((ids.size() < count || !connected) && System.currentTimeMillis() < deadline) {
+        wait(100);
+      }
+      assertTrue(connected);
+      assertEquals(count, ids.size());
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package cceh.androidrtclibrary.signaling;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SignalDispatcher}.
+ */
+public class SignalDispatcherTest {
+  private static final int USERS = 500;
+  private static final int SIGNALS_PER_USER = 10;
+
+  private ExecutorService dispatchExecutor;
+  private SignalDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    dispatchExecutor = Executors.newFixedThreadPool(4);
+    dispatcher = new SignalDispatcher(dispatchExecutor);
+  }
+
+  @After
+  public void tearDown() {
+    dispatchExecutor.shutdownNow();
+  }
+
+  @Test
+  public void slowHandlerDoesNotDelayOtherUsers() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    RecordingHandler slow = new RecordingHandler(SIGNALS_PER_USER) {
+      @Override
+      public void onSignalReiceived(String userId, JSONObject signal) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        super.onSignalReiceived(userId, signal);
+      }
+    };
+    assertTrue(dispatcher.register("slow", slow));
+    List<RecordingHandler> others = new ArrayList<>();
+    for (int user = 0; user < USERS; user++) {
+      RecordingHandler handler = new RecordingHandler(SIGNALS_PER_USER);
+      assertTrue(dispatcher.register("u" + user, handler));
+      others.add(handler);
+    }
+
+    // The slow user gets its signals first, and blocks in the first one.
+    for (int i = 0; i < SIGNALS_PER_USER; i++) {
+      dispatcher.dispatchSignal("slow", signal(i));
+      for (int user = 0; user < USERS; user++) {
+        dispatcher.dispatchSignal("u" + user, signal(i));
+      }
+    }
+
+    List<Long> latenciesNanos = new ArrayList<>();
+    for (RecordingHandler handler : others) {
+      assertTrue(handler.received.await(5, TimeUnit.SECONDS));
+      assertEquals(ids(SIGNALS_PER_USER), handler.ids);
+      latenciesNanos.addAll(handler.latenciesNanos);
+    }
+    Collections.sort(latenciesNanos);
+    long p99 = latenciesNanos.get(latenciesNanos.size() * 99 / 100);
+    System.out.println(String.format(
+        "%d users, one blocked: dispatch latency p50 %.2fms, p99 %.2fms",
+        USERS, latenciesNanos.get(latenciesNanos.size() / 2) / 1e6, p99 / 1e6));
+    assertTrue("p99 " + p99 / 1e6 + "ms", p99 < TimeUnit.MILLISECONDS.toNanos(500));
+    assertTrue(slow.ids.isEmpty());
+
+    // The slow user still gets everything, in order.
+    release.countDown();
+    assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+    assertEquals(ids(SIGNALS_PER_USER), slow.ids);
+  }
+
+  @Test
+  public void callsHandlerInOrderUntilDisconnected() throws Exception {
+    RecordingHandler handler = new RecordingHandler(2);
+    assertTrue(dispatcher.register("alice", handler));
+    assertFalse(dispatcher.register("alice", new RecordingHandler(0)));
+
+    dispatcher.dispatchConnected("alice");
+    dispatcher.dispatchSignal("alice", signal(0));
+    dispatcher.dispatchSignal("alice", signal(1));
+    dispatcher.dispatchDisconnected("alice");
+    dispatcher.dispatchSignal("alice", signal(2));
+    dispatcher.dispatchSignal("bob", signal(3));
+
+    assertTrue(handler.disconnected.await(5, TimeUnit.SECONDS));
+    assertEquals(ids(2), handler.ids);
+    assertEquals(1, handler.connectedCount);
+    // Listened on again after the disconnect.
+    assertTrue(dispatcher.register("alice", new RecordingHandler(0)));
+  }
+
+  @Test
+  public void unregistersOnlyTheGivenHandler() {
+    RecordingHandler first = new RecordingHandler(0);
+    assertTrue(dispatcher.register("alice", first));
+    dispatcher.unregister("alice", new RecordingHandler(0));
+    assertFalse(dispatcher.register("alice", new RecordingHandler(0)));
+    dispatcher.unregister("alice", first);
+    assertTrue(dispatcher.register("alice", new RecordingHandler(0)));
+  }
+
+  private static JSONObject signal(int id) throws JSONException {
+    return new JSONObject().put("id", id).put("sentAt", System.nanoTime());
+  }
+
+  private static List<Integer> ids(int count) {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add(i);
+    }
+    return ids;
+  }
+
+  /** Records the signals of one user id, called on its lane only. */
+  private static class RecordingHandler implements SignalingService.SignalHandler {
+    private final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Long> latenciesNanos =
+        Collections.synchronizedList(new ArrayList<Long>());
+    private final CountDownLatch received;
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+    private volatile int connectedCount = 0;
+
+    private RecordingHandler(int expectedSignals) {
+      this.received = new CountDownLatch(expectedSignals);
+    }
+
+    @Override
+    public void onConnected(String userId) {
+      connectedCount++;
+    }
+
+    @Override
+    public void onDisconnected(String userId) {
+      disconnected.countDown();
+    }
+
+    @Override
+    public void onSignalReiceived(String userId, JSONObject signal) {
+      latenciesNanos.add(System.nanoTime() - signal.optLong("sentAt"));
+      ids.add(signal.optInt("id"));
+      received.countDown();
+    }
+  }
+}
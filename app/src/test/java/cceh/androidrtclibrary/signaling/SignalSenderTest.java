@@ -0,0 +1,250 @@
+package cceh.androidrtclibrary.signaling;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SignalSender}.
+ */
+public class SignalSenderTest {
+  private static final String PEER = "bob";
+
+  private ScheduledExecutorService scheduler;
+  private FakeSignalingService signalingService;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    signalingService = new FakeSignalingService();
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void keepsOrderWithSendsInFlight() throws Exception {
+    SignalSender sender = new SignalSender(signalingService, scheduler, 100, 4, 3, 10);
+    List<SignalFuture> futures = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      futures.add(sender.send(PEER, signal(i)));
+    }
+
+    // Completes the sends in flight in random order.
+    Random random = new Random(3);
+    List<Send> inFlight = new ArrayList<>();
+    List<Integer> sent = new ArrayList<>();
+    int maxInFlight = 0;
+    while (sent.size() < 50 || !inFlight.isEmpty()) {
+      Send send = signalingService.sends.poll(10, TimeUnit.MILLISECONDS);
+      if (send != null) {
+        inFlight.add(send);
+        sent.add(send.id);
+        maxInFlight = Math.max(maxInFlight, inFlight.size());
+      } else if (!inFlight.isEmpty()) {
+        inFlight.remove(random.nextInt(inFlight.size())).callback.onSendSucceeded();
+      } else {
+        fail("Sent " + sent.size() + " of 50.");
+      }
+    }
+
+    assertEquals(range(0, 50), sent);
+    assertEquals(4, maxInFlight);
+    for (SignalFuture future : futures) {
+      future.get(1, TimeUnit.SECONDS);
+    }
+    assertEquals(0, sender.getPendingSignalCount(PEER));
+  }
+
+  @Test
+  public void laterSignalsDoNotOvertakeRetries() throws Exception {
+    SignalSender sender = new SignalSender(signalingService, scheduler, 100, 4, 3, 10);
+    for (int i = 0; i < 6; i++) {
+      sender.send(PEER, signal(i));
+    }
+    List<Send> inFlight = Arrays.asList(next(), next(), next(), next());
+    assertNull(signalingService.sends.poll(50, TimeUnit.MILLISECONDS));
+
+    // Two sends fail in reverse order, the others go through.
+    inFlight.get(1).callback.onSendFailed(new SignalingException("Lost."));
+    inFlight.get(0).callback.onSendFailed(new SignalingException("Lost."));
+    inFlight.get(2).callback.onSendSucceeded();
+    inFlight.get(3).callback.onSendSucceeded();
+
+    // From now on one at a time, retries first, in the order they were submitted.
+    for (int id : new int[] {0, 1, 4, 5}) {
+      Send send = next();
+      assertEquals(id, send.id);
+      assertNull(signalingService.sends.poll(50, TimeUnit.MILLISECONDS));
+      send.callback.onSendSucceeded();
+    }
+    assertNull(signalingService.sends.poll(50, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void rejectsSignalsWhenTheQueueIsFull() throws Exception {
+    SignalSender sender = new SignalSender(signalingService, scheduler, 2, 1, 3, 10);
+    SignalFuture first = sender.send(PEER, signal(0));
+    assertEquals(0, next().id);
+    SignalFuture second = sender.send(PEER, signal(1));
+    SignalFuture third = sender.send(PEER, signal(2));
+
+    final AtomicReference<SignalingException> failure = new AtomicReference<>();
+    SignalFuture rejected = sender.send(PEER, signal(3));
+    rejected.addCallback(new SignalingService.SendCallback() {
+      @Override
+      public void onSendSucceeded() {}
+
+      @Override
+      public void onSendFailed(SignalingException e) {
+        failure.set(e);
+      }
+    });
+    assertTrue(rejected.isDone());
+    assertNotNull(failure.get());
+    assertFalse(first.isDone() || second.isDone() || third.isDone());
+    assertEquals(3, sender.getPendingSignalCount(PEER));
+    // Other peers have their own queue.
+    sender.send("carol", signal(4));
+    assertEquals(4, next().id);
+  }
+
+  @Test
+  public void retriesWithExponentialBackoff() throws Exception {
+    SignalSender sender = new SignalSender(signalingService, scheduler, 100, 4, 3, 50);
+    SignalFuture future = sender.send(PEER, signal(0));
+
+    Send first = next();
+    first.callback.onSendFailed(new SignalingException("Lost."));
+    Send second = next();
+    second.callback.onSendFailed(new SignalingException("Lost."));
+    Send third = next();
+    third.callback.onSendSucceeded();
+
+    future.get(1, TimeUnit.SECONDS);
+    assertEquals(0, second.id);
+    assertEquals(0, third.id);
+    assertTrue(second.atNanos - first.atNanos >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertTrue(third.atNanos - second.atNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+  }
+
+  @Test
+  public void failsFutureAfterTheLastAttempt() throws Exception {
+    SignalSender sender = new SignalSender(signalingService, scheduler, 100, 4, 3, 10);
+    SignalFuture future = sender.send(PEER, signal(0));
+    final AtomicInteger failures = new AtomicInteger();
+    future.addCallback(new SignalingService.SendCallback() {
+      @Override
+      public void onSendSucceeded() {
+        fail();
+      }
+
+      @Override
+      public void onSendFailed(SignalingException e) {
+        failures.incrementAndGet();
+      }
+    });
+
+    for (int attempt = 0; attempt < 3; attempt++) {
+      assertFalse(future.isDone());
+      next().callback.onSendFailed(new SignalingException("Lost."));
+    }
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof SignalingException);
+    }
+    assertEquals(1, failures.get());
+    assertNull(signalingService.sends.poll(50, TimeUnit.MILLISECONDS));
+    assertEquals(0, sender.getPendingSignalCount(PEER));
+  }
+
+  @Test
+  public void treatsThrowingServiceAsFailedSend() throws Exception {
+    signalingService.throwing = true;
+    SignalSender sender = new SignalSender(signalingService, scheduler, 100, 4, 2, 10);
+    try {
+      sender.send(PEER, signal(0)).get(1, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof SignalingException);
+    }
+    assertEquals(2, signalingService.sends.size());
+  }
+
+  private Send next() throws InterruptedException {
+    Send send = signalingService.sends.poll(1, TimeUnit.SECONDS);
+    assertNotNull(send);
+    return send;
+  }
+
+  private static JSONObject signal(int id) throws JSONException {
+    return new JSONObject().put("id", id);
+  }
+
+  private static List<Integer> range(int from, int to) {
+    List<Integer> range = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      range.add(i);
+    }
+    return range;
+  }
+
+  /** One call to {@link SignalingService#sendSignal}, completed by the test. */
+  private static class Send {
+    private final int id;
+    private final long atNanos;
+    private final SignalingService.SendCallback callback;
+
+    private Send(int id, SignalingService.SendCallback callback) {
+      this.id = id;
+      this.atNanos = System.nanoTime();
+      this.callback = callback;
+    }
+  }
+
+  /** Hands every send to the test instead of delivering it. */
+  private static class FakeSignalingService implements SignalingService {
+    private final BlockingQueue<Send> sends = new LinkedBlockingQueue<>();
+    private volatile boolean throwing = false;
+
+    @Override
+    public void listenOn(String userId, SignalHandler signalHandler) {}
+
+    @Override
+    public void stopListening(String userId) {}
+
+    @Override
+    public void sendSignal(String peerUserId, JSONObject signal) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendSignal(String peerUserId, JSONObject signal, SendCallback sendCallback) {
+      sends.add(new Send(signal.optInt("id"), sendCallback));
+      if (throwing) {
+        throw new IllegalStateException("Not connected.");
+      }
+    }
+  }
+}
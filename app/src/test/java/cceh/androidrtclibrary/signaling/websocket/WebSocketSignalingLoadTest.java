@@ -0,0 +1,182 @@
+package cceh.androidrtclibrary.signaling.websocket;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cceh.androidrtclibrary.signaling.SignalingException;
+import cceh.androidrtclibrary.signaling.SignalingService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load test of {@link WebSocketSignalingRelay} with {@link WebSocketSignalingService} clients over
+ * localhost. Pairs of simulated users exchange an offer, an answer and ice candidates, and the
+ * throughput and relay latency are printed.
+ */
+public class WebSocketSignalingLoadTest {
+  private static final int CLIENTS = 100;
+  private static final int USERS = 2000;
+  private static final int CANDIDATES_PER_SIDE = 4;
+  /** Offer, answer and the candidates of both sides, for every pair. */
+  private static final int MESSAGES = USERS / 2 * (2 + 2 * CANDIDATES_PER_SIDE);
+
+  private WebSocketSignalingRelay relay;
+  private ExecutorService dispatchExecutor;
+  private List<WebSocketSignalingService> clients;
+
+  private long[] latenciesNanos;
+  private AtomicInteger received;
+  private AtomicLong acked;
+  private AtomicLong failed;
+  private CountDownLatch allReceived;
+
+  @Before
+  public void setUp() throws Exception {
+    relay = new WebSocketSignalingRelay(0);
+    relay.start();
+    dispatchExecutor = Executors.newFixedThreadPool(8);
+    clients = new ArrayList<>();
+    for (int i = 0; i < CLIENTS; i++) {
+      clients.add(new WebSocketSignalingService(
+          "127.0.0.1", relay.getPort(), "/", dispatchExecutor));
+    }
+    latenciesNanos = new long[MESSAGES];
+    received = new AtomicInteger();
+    acked = new AtomicLong();
+    failed = new AtomicLong();
+    allReceived = new CountDownLatch(MESSAGES);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    for (WebSocketSignalingService client : clients) {
+      client.close();
+    }
+    dispatchExecutor.shutdownNow();
+    relay.close();
+  }
+
+  @Test
+  public void relaysOfferAnswerAndCandidatesBetweenThousandsOfUsers() throws Exception {
+    final CountDownLatch allListening = new CountDownLatch(USERS);
+    for (int user = 0; user < USERS; user++) {
+      client(user).listenOn(userId(user), new SignalingService.SignalHandler() {
+        @Override
+        public void onConnected(String userId) {
+          allListening.countDown();
+        }
+
+        @Override
+        public void onDisconnected(String userId) {}
+
+        @Override
+        public void onSignalReiceived(String userId, JSONObject signal) {
+          onSignal(userId, signal);
+        }
+      });
+    }
+    assertTrue(allListening.await(30, TimeUnit.SECONDS));
+
+    long start = System.nanoTime();
+    for (int caller = 0; caller < USERS; caller += 2) {
+      sendSide(caller, caller + 1, "offer");
+    }
+    assertTrue("Received " + received.get() + " of " + MESSAGES,
+        allReceived.await(60, TimeUnit.SECONDS));
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long[] sorted = Arrays.copyOf(latenciesNanos, MESSAGES);
+    Arrays.sort(sorted);
+    System.out.println(String.format(
+        "%d users over %d connections: %d signals in %.2fs, %.0f msg/s, "
+            + "relay latency p50 %.2fms, p99 %.2fms, max %.2fms",
+        USERS, CLIENTS, MESSAGES, seconds, MESSAGES / seconds,
+        sorted[MESSAGES / 2] / 1e6, sorted[MESSAGES * 99 / 100] / 1e6,
+        sorted[MESSAGES - 1] / 1e6));
+
+    assertEquals(MESSAGES, relay.getMessagesRelayed());
+    long deadline = System.currentTimeMillis() + 10000;
+    while (acked.get() < MESSAGES && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(MESSAGES, acked.get());
+    assertEquals(0, failed.get());
+  }
+
+  private void onSignal(String userId, JSONObject signal) {
+    try {
+      int index = received.getAndIncrement();
+      latenciesNanos[index] = System.nanoTime() - signal.getLong("sentAt");
+      if ("offer".equals(signal.getString("type"))) {
+        int callee = Integer.parseInt(userId.substring(1));
+        sendSide(callee, Integer.parseInt(signal.getString("sender").substring(1)), "answer");
+      }
+    } catch (JSONException e) {
+      throw new AssertionError(e);
+    } finally {
+      allReceived.countDown();
+    }
+  }
+
+  /** Sends the session description and candidates of one side. */
+  private void sendSide(int from, int to, String sdpType) {
+    send(from, to, sdpType, fakeSdp(sdpType));
+    for (int i = 0; i < CANDIDATES_PER_SIDE; i++) {
+      send(from, to, "candidate",
+          "candidate:" + i + " 1 udp 2122260223 192.168.1." + i + " 5" + from + " typ host");
+    }
+  }
+
+  private void send(int from, int to, String type, String content) {
+    try {
+      JSONObject signal = new JSONObject()
+          .put("sender", userId(from))
+          .put("type", type)
+          .put("content", content)
+          .put("sentAt", System.nanoTime());
+      client(from).sendSignal(userId(to), signal, new SignalingService.SendCallback() {
+        @Override
+        public void onSendSucceeded() {
+          acked.incrementAndGet();
+        }
+
+        @Override
+        public void onSendFailed(SignalingException e) {
+          failed.incrementAndGet();
+        }
+      });
+    } catch (JSONException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private WebSocketSignalingService client(int user) {
+    return clients.get(user % CLIENTS);
+  }
+
+  private static String userId(int user) {
+    return "u" + user;
+  }
+
+  /** About the size of a real audio and video offer. */
+  private static String fakeSdp(String sdpType) {
+    StringBuilder sdp = new StringBuilder("v=0\r\no=- 0 2 IN IP4 127.0.0.1\r\ns=" + sdpType + "\r\n");
+    while (sdp.length() < 2400) {
+      sdp.append("a=rtpmap:").append(sdp.length() % 128).append(" VP8/90000\r\n");
+    }
+    return sdp.toString();
+  }
+}
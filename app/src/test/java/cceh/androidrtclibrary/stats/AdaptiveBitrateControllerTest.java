@@ -0,0 +1,172 @@
+package cceh.androidrtclibrary.stats;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AdaptiveBitrateController}, over a simulated link.
+ */
+public class AdaptiveBitrateControllerTest {
+  private FakeCallback callback;
+  private AdaptiveBitrateController controller;
+
+  @Before
+  public void setUp() {
+    callback = new FakeCallback();
+    controller = new AdaptiveBitrateController(AdaptiveBitrateParams.defaults(), callback);
+  }
+
+  @Test
+  public void congestionStepsDownAfterSeveralSamples() {
+    controller.onStatsUpdated(sample("bob", 0, 50));
+    assertEquals(0, controller.getLevel("bob"));
+
+    controller.onStatsUpdated(sample("bob", 20, 50));
+    assertEquals(0, controller.getLevel("bob"));
+    controller.onStatsUpdated(sample("bob", 20, 50));
+    assertEquals(1, controller.getLevel("bob"));
+    assertEquals(Integer.valueOf(1100), callback.maxBitrates.get("bob"));
+
+    // A sample between clear and congested holds the level and resets the count.
+    controller.onStatsUpdated(sample("bob", 0, 600));
+    controller.onStatsUpdated(sample("bob", 5, 50));
+    controller.onStatsUpdated(sample("bob", 0, 600));
+    assertEquals(1, controller.getLevel("bob"));
+  }
+
+  @Test
+  public void clearSamplesStepUpSlowerThanCongestionStepsDown() {
+    AdaptiveBitrateController controller = new AdaptiveBitrateController(
+        new AdaptiveBitrateParams.Builder().setInitialLevel(4).build(), callback);
+    controller.onStatsUpdated(sample("bob", 0, 50));
+    assertEquals(Integer.valueOf(200), callback.maxBitrates.get("bob"));
+    for (int i = 0; i < 3; i++) {
+      controller.onStatsUpdated(sample("bob", 0, 50));
+    }
+    assertEquals(4, controller.getLevel("bob"));
+    controller.onStatsUpdated(sample("bob", 0, 50));
+    assertEquals(3, controller.getLevel("bob"));
+  }
+
+  @Test
+  public void captureFollowsTheBestPeer() {
+    for (int i = 0; i < 4; i++) {
+      controller.onStatsUpdated(sample("alice", 30, 50));
+      controller.onStatsUpdated(sample("bob", 0, 50));
+    }
+    assertEquals(2, controller.getLevel("alice"));
+    assertEquals(0, controller.getLevel("bob"));
+    assertEquals(1, callback.captureLevels.size());
+    assertEquals(1280, callback.captureLevels.get(0).getWidth());
+
+    controller.removePeer("bob");
+    assertEquals(2, callback.captureLevels.size());
+    assertEquals(640, callback.captureLevels.get(1).getWidth());
+    assertEquals(-1, controller.getLevel("bob"));
+  }
+
+  @Test
+  public void convergesToTheLinkCapacity() {
+    Link link = new Link(3000);
+    simulate(link, 20);
+    assertEquals(0, controller.getLevel("bob"));
+
+    // The link drops under the 700 kbps level, the peer settles on 400 kbps.
+    link.capacityKbps = 500;
+    simulate(link, 20);
+    assertEquals(3, controller.getLevel("bob"));
+    int changes = callback.changes;
+    int atLevel = simulate(link, 300);
+    // Failed probes back off up to one every 40 samples, each costing 2 congested samples.
+    assertTrue("Changes " + (callback.changes - changes), callback.changes - changes <= 16);
+    assertTrue("Samples at level " + atLevel, atLevel >= 280);
+    assertEquals(3, controller.getLevel("bob"));
+
+    // The link recovers, the peer climbs back up to 1100 kbps.
+    link.capacityKbps = 1300;
+    simulate(link, 300);
+    assertEquals(1, controller.getLevel("bob"));
+  }
+
+  @Test
+  public void noisyLinkDoesNotFlap() {
+    Link link = new Link(3000);
+    link.noiseLossPercent = 6;
+    link.noiseRttMillis = 200;
+    simulate(link, 500);
+    // Random spikes of loss and delay are mostly single samples, which the hysteresis absorbs.
+    assertTrue("Changes " + callback.changes, callback.changes <= 10);
+  }
+
+  /** Runs the link for a number of samples, returns the samples spent at the final level. */
+  private int simulate(Link link, int samples) {
+    int atFinalLevel = 0;
+    int[] levels = new int[samples];
+    for (int i = 0; i < samples; i++) {
+      int level = Math.max(0, controller.getLevel("bob"));
+      int sendKbps = AdaptiveBitrateParams.defaultLevels().get(level).getMaxBitrateKbps();
+      controller.onStatsUpdated(link.sample("bob", sendKbps));
+      levels[i] = controller.getLevel("bob");
+    }
+    for (int level : levels) {
+      if (level == levels[samples - 1]) atFinalLevel++;
+    }
+    return atFinalLevel;
+  }
+
+  private static ConnectionStats sample(String peerId, double lossPercent, double rttMillis) {
+    return new ConnectionStats(peerId, 1, rttMillis, rttMillis, rttMillis, 0, 0, lossPercent,
+        lossPercent, 0, 0, 0, 0);
+  }
+
+  /**
+   * A link of a given capacity with a base delay: sending above the capacity fills the queue,
+   * which adds delay and drops the excess, plus random spikes.
+   */
+  private static class Link {
+    private final Random random = new Random(11);
+    private double capacityKbps;
+    private double noiseLossPercent = 0;
+    private double noiseRttMillis = 0;
+
+    private Link(double capacityKbps) {
+      this.capacityKbps = capacityKbps;
+    }
+
+    private ConnectionStats sample(String peerId, double sendKbps) {
+      double overload = Math.max(0, sendKbps - capacityKbps) / sendKbps;
+      double loss = overload * 100 * (0.8 + 0.4 * random.nextDouble());
+      double rtt = 60 + overload * 1500 + 20 * random.nextDouble();
+      if (random.nextInt(10) == 0) {
+        loss += noiseLossPercent;
+        rtt += noiseRttMillis;
+      }
+      return AdaptiveBitrateControllerTest.sample(peerId, loss, rtt);
+    }
+  }
+
+  private static class FakeCallback implements AdaptiveBitrateController.Callback {
+    private final Map<String, Integer> maxBitrates = new HashMap<>();
+    private final List<QualityLevel> captureLevels = new ArrayList<>();
+    private int changes = 0;
+
+    @Override
+    public void onMaxBitrateChanged(String peerId, int maxBitrateKbps) {
+      maxBitrates.put(peerId, maxBitrateKbps);
+      changes++;
+    }
+
+    @Override
+    public void onCaptureFormatChanged(QualityLevel level) {
+      captureLevels.add(level);
+    }
+  }
+}
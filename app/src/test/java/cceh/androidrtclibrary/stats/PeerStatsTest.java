@@ -0,0 +1,142 @@
+package cceh.androidrtclibrary.stats;
+
+import org.junit.Test;
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PeerStats} and {@link RingBuffer}.
+ */
+public class PeerStatsTest {
+  private static final double DELTA = 1e-6;
+
+  @Test
+  public void ringBufferKeepsTheLatestSamples() {
+    RingBuffer buffer = new RingBuffer(3);
+    assertTrue(Double.isNaN(buffer.getMean()));
+    buffer.add(1);
+    buffer.add(2);
+    buffer.add(Double.NaN);
+    assertEquals(2, buffer.getCount());
+    assertEquals(1.5, buffer.getMean(), DELTA);
+
+    buffer.add(3);
+    buffer.add(10);
+    assertEquals(3, buffer.getCount());
+    assertEquals(5, buffer.getMean(), DELTA);
+    assertEquals(10, buffer.getMax(), DELTA);
+    assertEquals(10, buffer.getLatest(), DELTA);
+
+    buffer.clear();
+    assertEquals(0, buffer.getCount());
+    assertTrue(Double.isNaN(buffer.getLatest()));
+  }
+
+  @Test
+  public void ratesAreDeltasBetweenSamples() {
+    PeerStats peerStats = new PeerStats("bob", 10, null);
+    peerStats.onComplete(reports(1000, 50, 0, 0, 100, 0));
+    ConnectionStats first = peerStats.snapshot();
+    assertEquals(1, first.getSampleCount());
+    assertEquals(50, first.getRttMillis(), DELTA);
+    assertTrue(Double.isNaN(first.getSendKbps()));
+
+    // 2 seconds, 250000 bytes sent and 125000 received, 10 of 200 packets lost.
+    peerStats.onComplete(reports(3000, 70, 250000, 125000, 290, 10));
+    ConnectionStats second = peerStats.snapshot();
+    assertEquals(2, second.getSampleCount());
+    assertEquals(60, second.getRttMillis(), DELTA);
+    assertEquals(70, second.getMaxRttMillis(), DELTA);
+    assertEquals(1000, second.getSendKbps(), DELTA);
+    assertEquals(500, second.getReceiveKbps(), DELTA);
+    assertEquals(5, second.getPacketLossPercent(), DELTA);
+    assertEquals(12, second.getJitterMillis(), DELTA);
+    assertEquals(30, second.getSentFrameRate(), DELTA);
+    assertEquals(24, second.getReceivedFrameRate(), DELTA);
+  }
+
+  @Test
+  public void reportsWithoutActivePairAreNoSample() {
+    final List<ConnectionStats> updates = new ArrayList<>();
+    PeerStats peerStats = new PeerStats("bob", 10, new StatsListener() {
+      @Override
+      public void onStatsUpdated(ConnectionStats stats) {
+        updates.add(stats);
+      }
+    });
+    assertTrue(peerStats.tryRequest(1, 100));
+    assertFalse(peerStats.tryRequest(50, 100));
+
+    peerStats.onComplete(new StatsReport[0]);
+    assertEquals(0, peerStats.snapshot().getSampleCount());
+    assertTrue(updates.isEmpty());
+    // The request is done even without a sample.
+    assertTrue(peerStats.tryRequest(60, 100));
+
+    peerStats.onComplete(reports(1000, 50, 0, 0, 100, 0));
+    assertEquals(1, updates.size());
+  }
+
+  @Test
+  public void stalledRequestIsGivenUp() {
+    PeerStats peerStats = new PeerStats("bob", 10, null);
+    assertTrue(peerStats.tryRequest(1000, 100));
+    assertFalse(peerStats.tryRequest(1099, 100));
+    assertTrue(peerStats.tryRequest(1100, 100));
+    peerStats.cancelRequest();
+    assertTrue(peerStats.tryRequest(1101, 100));
+  }
+
+  @Test
+  public void restartedCountersSkipTheInterval() {
+    PeerStats peerStats = new PeerStats("bob", 10, null);
+    peerStats.onComplete(reports(1000, 50, 500000, 500000, 100, 0));
+    // A new candidate pair after an ice restart starts from 0 bytes.
+    peerStats.onComplete(reports(2000, 50, 1000, 1000, 200, 0));
+    assertTrue(Double.isNaN(peerStats.snapshot().getSendKbps()));
+    peerStats.onComplete(reports(3000, 50, 126000, 1000, 300, 0));
+    assertEquals(1000, peerStats.snapshot().getSendKbps(), DELTA);
+  }
+
+  /** The legacy reports of an audio and video call, the active pair and an inactive one. */
+  static StatsReport[] reports(double timestamp, double rtt, long bytesSent,
+      long bytesReceived, long packetsReceived, long packetsLost) {
+    long half = packetsReceived / 2;
+    return new StatsReport[] {
+        report("Conn-video-0", PeerStats.TYPE_CANDIDATE_PAIR, timestamp,
+            value(PeerStats.ACTIVE_CONNECTION, "false"),
+            value(PeerStats.RTT, "900"),
+            value(PeerStats.BYTES_SENT, "1")),
+        report("Conn-video-1", PeerStats.TYPE_CANDIDATE_PAIR, timestamp,
+            value(PeerStats.ACTIVE_CONNECTION, "true"),
+            value(PeerStats.RTT, String.valueOf(rtt)),
+            value(PeerStats.BYTES_SENT, String.valueOf(bytesSent)),
+            value(PeerStats.BYTES_RECEIVED, String.valueOf(bytesReceived))),
+        report("ssrc_1_recv", PeerStats.TYPE_SSRC, timestamp,
+            value(PeerStats.PACKETS_RECEIVED, String.valueOf(half)),
+            value(PeerStats.PACKETS_LOST, String.valueOf(packetsLost)),
+            value(PeerStats.JITTER_RECEIVED, "12")),
+        report("ssrc_2_recv", PeerStats.TYPE_SSRC, timestamp,
+            value(PeerStats.PACKETS_RECEIVED, String.valueOf(packetsReceived - half)),
+            value(PeerStats.PACKETS_LOST, "0"),
+            value(PeerStats.JITTER_RECEIVED, "4"),
+            value(PeerStats.FRAME_RATE_RECEIVED, "24")),
+        report("ssrc_3_send", PeerStats.TYPE_SSRC, timestamp,
+            value(PeerStats.PACKETS_SENT, "1000"),
+            value(PeerStats.FRAME_RATE_SENT, "30"))
+    };
+  }
+
+  private static StatsReport report(
+      String id, String type, double timestamp, StatsReport.Value... values) {
+    return new StatsReport(id, type, timestamp, values);
+  }
+
+  private static StatsReport.Value value(String name, String value) {
+    return new StatsReport.Value(name, value);
+  }
+}
@@ -0,0 +1,172 @@
+package cceh.androidrtclibrary.stats;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.StatsObserver;
+import org.webrtc.StatsReport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link StatsCollector}.
+ */
+public class StatsCollectorTest {
+  private ScheduledExecutorService scheduler;
+  private FakeTarget target;
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    target = new FakeTarget();
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void ticksAreBoundedAndRoundRobin() {
+    for (int i = 0; i < 10; i++) {
+      target.peerIds.add("peer" + i);
+    }
+    StatsCollector collector = new StatsCollector(target, scheduler, 1000, 5, 4, null);
+
+    collector.poll();
+    assertEquals(4, target.pending.size());
+    target.completeAll(1000);
+    collector.poll();
+    target.completeAll(1000);
+    collector.poll();
+    target.completeAll(1000);
+
+    // 12 requests over 3 ticks, every peer sampled at least once.
+    assertEquals(12, target.requests.size());
+    for (String peerId : target.peerIds) {
+      assertNotNull(peerId, collector.getStats(peerId));
+      assertTrue(peerId, collector.getStats(peerId).getSampleCount() >= 1);
+    }
+  }
+
+  @Test
+  public void peerWithRequestInFlightIsSkipped() {
+    target.peerIds.add("slow");
+    target.peerIds.add("fast");
+    StatsCollector collector = new StatsCollector(target, scheduler, 1000, 5, 8, null);
+
+    collector.poll();
+    target.complete("fast", 1000);
+    collector.poll();
+    collector.poll();
+
+    assertEquals(1, count(target.requests, "slow"));
+    assertEquals(2, count(target.requests, "fast"));
+    target.complete("slow", 1000);
+    collector.poll();
+    assertEquals(2, count(target.requests, "slow"));
+  }
+
+  @Test
+  public void peersWhichAreGoneAreDropped() {
+    target.peerIds.add("alice");
+    target.peerIds.add("bob");
+    StatsCollector collector = new StatsCollector(target, scheduler, 1000, 5, 8, null);
+    collector.poll();
+    target.completeAll(1000);
+    assertNotNull(collector.getStats("alice"));
+
+    target.peerIds.remove("alice");
+    collector.poll();
+    assertNull(collector.getStats("alice"));
+    collector.removePeer("bob");
+    assertNull(collector.getStats("bob"));
+  }
+
+  @Test
+  public void listenerGetsRollingStats() throws Exception {
+    target.peerIds.add("bob");
+    target.autoComplete = true;
+    final List<ConnectionStats> updates = new CopyOnWriteArrayList<>();
+    final CountDownLatch done = new CountDownLatch(4);
+    StatsCollector collector = new StatsCollector(target, scheduler, 5, 3, 8,
+        new StatsListener() {
+          @Override
+          public void onStatsUpdated(ConnectionStats stats) {
+            updates.add(stats);
+            done.countDown();
+          }
+        });
+
+    collector.start();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    collector.stop();
+
+    assertEquals("bob", updates.get(0).getPeerId());
+    assertEquals(1, updates.get(0).getSampleCount());
+    // The window holds the last 3 samples.
+    assertEquals(3, updates.get(3).getSampleCount());
+    assertEquals(1000, updates.get(3).getSendKbps(), 1e-6);
+  }
+
+  private static int count(List<String> values, String value) {
+    int count = 0;
+    for (String each : values) {
+      if (each.equals(value)) count++;
+    }
+    return count;
+  }
+
+  /** Connections answering with reports of a steady 1000 kbps stream, 1 second apart. */
+  private static class FakeTarget implements StatsCollector.Target {
+    private final List<String> peerIds = new CopyOnWriteArrayList<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final Map<String, StatsObserver> pending = new HashMap<>();
+    private final Map<String, Integer> samples = new HashMap<>();
+    private volatile boolean autoComplete = false;
+
+    @Override
+    public List<String> getPeerIds() {
+      return new ArrayList<>(peerIds);
+    }
+
+    @Override
+    public synchronized boolean requestStats(String peerId, StatsObserver observer) {
+      requests.add(peerId);
+      pending.put(peerId, observer);
+      if (autoComplete) {
+        complete(peerId, 1000);
+      }
+      return true;
+    }
+
+    private synchronized void complete(String peerId, double rtt) {
+      StatsObserver observer = pending.remove(peerId);
+      Integer sample = samples.get(peerId);
+      int next = sample == null ? 0 : sample + 1;
+      samples.put(peerId, next);
+      observer.onComplete(reports(next, rtt));
+    }
+
+    private synchronized void completeAll(double rtt) {
+      for (String peerId : new ArrayList<>(pending.keySet())) {
+        complete(peerId, rtt);
+      }
+    }
+
+    private static StatsReport[] reports(int sample, double rtt) {
+      return PeerStatsTest.reports(
+          1000.0 * sample, rtt, 125000L * sample, 125000L * sample, 100L * sample, 0);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package cceh.androidrtclibrary.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SerialExecutor}.
+ */
+public class SerialExecutorTest {
+
+  @Test
+  public void runsTasksOneAfterAnother() {
+    ManualExecutor executor = new ManualExecutor();
+    SerialExecutor lane = new SerialExecutor(executor);
+    List<Integer> ran = new ArrayList<>();
+
+    lane.execute(record(ran, 0));
+    lane.execute(record(ran, 1));
+    assertEquals(1, executor.tasks.size());
+    assertEquals(1, lane.getPendingTaskCount());
+
+    executor.runNext();
+    executor.runNext();
+    assertEquals(Arrays.asList(0, 1), ran);
+    assertTrue(executor.tasks.isEmpty());
+  }
+
+  @Test
+  public void rejectedTaskDoesNotStallTheLane() {
+    ManualExecutor executor = new ManualExecutor();
+    SerialExecutor lane = new SerialExecutor(executor);
+    List<Integer> ran = new ArrayList<>();
+
+    executor.rejecting = true;
+    try {
+      lane.execute(record(ran, 0));
+      fail();
+    } catch (RejectedExecutionException e) {
+      assertEquals(0, lane.getPendingTaskCount());
+    }
+
+    executor.rejecting = false;
+    lane.execute(record(ran, 1));
+    executor.runNext();
+    assertEquals(Arrays.asList(1), ran);
+  }
+
+  private static Runnable record(final List<Integer> ran, final int id) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran.add(id);
+      }
+    };
+  }
+
+  /** Runs the tasks when the test says so, rejects them like a shut down pool if asked to. */
+  private static class ManualExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private boolean rejecting = false;
+
+    @Override
+    public void execute(Runnable task) {
+      if (rejecting) {
+        throw new RejectedExecutionException("Shut down.");
+      }
+      tasks.add(task);
+    }
+
+    private void runNext() {
+      tasks.remove(0).run();
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package cceh.androidrtclibrary.signaling.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * The bits of RFC 6455 needed by {@link WebSocketSignalingRelay} and
+ * {@code WebSocketSignalingService}: the handshake keys, and encoding and decoding of frames.
+ */
+final class WebSocketFrames {
+  static final int OPCODE_CONTINUATION = 0x0;
+  static final int OPCODE_TEXT = 0x1;
+  static final int OPCODE_BINARY = 0x2;
+  static final int OPCODE_CLOSE = 0x8;
+  static final int OPCODE_PING = 0x9;
+  static final int OPCODE_PONG = 0xA;
+
+  /** Largest message accepted, signals are a few KB at most. */
+  static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+
+  private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+  private static final char[] BASE64_ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  /** A decoded frame. */
+  static class Frame {
+    final boolean fin;
+    final int opcode;
+    final byte[] payload;
+
+    Frame(boolean fin, int opcode, byte[] payload) {
+      this.fin = fin;
+      this.opcode = opcode;
+      this.payload = payload;
+    }
+  }
+
+  /** Thrown when the peer violates the protocol. */
+  static class ProtocolException extends Exception {
+    ProtocolException(String message) {
+      super(message);
+    }
+  }
+
+  private WebSocketFrames() {}
+
+  /** Creates a random Sec-WebSocket-Key for a client handshake. */
+  static String newKey(Random random) {
+    byte[] nonce = new byte[16];
+    random.nextBytes(nonce);
+    return base64(nonce);
+  }
+
+  /** The Sec-WebSocket-Accept value the server answers to a Sec-WebSocket-Key. */
+  static String acceptKey(String key) {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      return base64(sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available.", e);
+    }
+  }
+
+  /**
+   * Encodes a single final frame. Clients must mask their frames with a random key, servers must
+   * not mask theirs.
+   */
+  static ByteBuffer encode(int opcode, byte[] payload, int offset, int length, Random maskRandom) {
+    boolean masked = maskRandom != null;
+    int headerLength = 2 + (length < 126 ? 0 : length <= 0xFFFF ? 2 : 8) + (masked ? 4 : 0);
+    ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+    frame.put((byte) (0x80 | opcode));
+    int maskBit = masked ? 0x80 : 0;
+    if (length < 126) {
+      frame.put((byte) (maskBit | length));
+    } else if (length <= 0xFFFF) {
+      frame.put((byte) (maskBit | 126));
+      frame.putShort((short) length);
+    } else {
+      frame.put((byte) (maskBit | 127));
+      frame.putLong(length);
+    }
+    if (masked) {
+      byte[] mask = new byte[4];
+      maskRandom.nextBytes(mask);
+      frame.put(mask);
+      for (int i = 0; i < length; i++) {
+        frame.put((byte) (payload[offset + i] ^ mask[i & 3]));
+      }
+    } else {
+      frame.put(payload, offset, length);
+    }
+    frame.flip();
+    return frame;
+  }
+
+  static ByteBuffer encode(int opcode, byte[] payload, Random maskRandom) {
+    return encode(opcode, payload, 0, payload.length, maskRandom);
+  }
+
+  /**
+   * Decodes the next frame from a buffer in read mode. Returns null and leaves the buffer
+   * untouched if the frame is not complete yet, otherwise consumes the frame from the buffer.
+   */
+  static Frame decode(ByteBuffer buffer) throws ProtocolException {
+    int start = buffer.position();
+    if (buffer.remaining() < 2) return null;
+    int first = buffer.get(start) & 0xFF;
+    int second = buffer.get(start + 1) & 0xFF;
+    boolean masked = (second & 0x80) != 0;
+    int lengthCode = second & 0x7F;
+    int headerLength = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + (masked ? 4 : 0);
+    if (buffer.remaining() < headerLength) return null;
+
+    long length;
+    if (lengthCode == 126) {
+      length = buffer.getShort(start + 2) & 0xFFFF;
+    } else if (lengthCode == 127) {
+      length = buffer.getLong(start + 2);
+    } else {
+      length = lengthCode;
+    }
+    if (length < 0 || length > MAX_PAYLOAD_LENGTH) {
+      throw new ProtocolException("Frame too large: " + length);
+    }
+    if (buffer.remaining() < headerLength + length) return null;
+
+    byte[] payload = new byte[(int) length];
+    buffer.position(start + headerLength);
+    buffer.get(payload);
+    if (masked) {
+      int maskOffset = start + headerLength - 4;
+      for (int i = 0; i < payload.length; i++) {
+        payload[i] ^= buffer.get(maskOffset + (i & 3));
+      }
+    }
+    return new Frame((first & 0x80) != 0, first & 0x0F, payload);
+  }
+
+  /** Length of the frame at the buffer position, or -1 if its header is not complete yet. */
+  static long frameLength(ByteBuffer buffer) {
+    int start = buffer.position();
+    if (buffer.remaining() < 2) return -1;
+    int second = buffer.get(start + 1) & 0xFF;
+    int lengthCode = second & 0x7F;
+    int headerLength =
+        2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + ((second & 0x80) != 0 ? 4 : 0);
+    if (buffer.remaining() < headerLength) return -1;
+    if (lengthCode == 126) return headerLength + (buffer.getShort(start + 2) & 0xFFFF);
+    if (lengthCode == 127) return headerLength + buffer.getLong(start + 2);
+    return headerLength + lengthCode;
+  }
+
+  static String base64(byte[] data) {
+    StringBuilder encoded = new StringBuilder((data.length + 2) / 3 * 4);
+    for (int i = 0; i < data.length; i += 3) {
+      int chunk = (data[i] & 0xFF) << 16;
+      if (i + 1 < data.length) chunk |= (data[i + 1] & 0xFF) << 8;
+      if (i + 2 < data.length) chunk |= data[i + 2] & 0xFF;
+      encoded.append(BASE64_ALPHABET[(chunk >> 18) & 0x3F]);
+      encoded.append(BASE64_ALPHABET[(chunk >> 12) & 0x3F]);
+      encoded.append(i + 1 < data.length ? BASE64_ALPHABET[(chunk >> 6) & 0x3F] : '=');
+      encoded.append(i + 2 < data.length ? BASE64_ALPHABET[chunk & 0x3F] : '=');
+    }
+    return encoded.toString();
+  }
+}
@@ -0,0 +1,481 @@
+package cceh.androidrtclibrary.signaling.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Self-hosted signaling relay for {@code WebSocketSignalingService} clients.
+ *
+ * A single thread serves all clients with a {@link Selector} and non-blocking channels. Each
+ * client keeps one WebSocket connection and may listen on any number of user ids over it. The
+ * relay only reads the header line of a message to route it, the signal itself is forwarded as
+ * is without being parsed.
+ *
+ * The protocol is made of text messages:
+ * <pre>
+ *   client: LISTEN &lt;userId&gt;               relay: LISTENING &lt;userId&gt;
+ *   client: UNLISTEN &lt;userId&gt;
+ *   client: SEND &lt;id&gt; &lt;userId&gt;\n&lt;signal&gt;    relay: ACK &lt;id&gt;, or NACK &lt;id&gt; &lt;reason&gt;
+ *                                       relay to the listener: SIGNAL &lt;userId&gt;\n&lt;signal&gt;
+ * </pre>
+ * Like a publish to a channel nobody subscribed to, a signal to a user id nobody listens on is
+ * acknowledged and dropped.
+ *
+ * Lives in the plain Java relay module, as its socket apis are above the app's minimum sdk. The
+ * app depends on the module for the {@link WebSocketFrames} it shares with the client. Run it on
+ * any JVM with {@link #main(String[])}, e.g. {@code ./gradlew :relay:run}.
+ */
+public class WebSocketSignalingRelay implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger("WebSocketSignalingRelay");
+
+  public static final int DEFAULT_PORT = 8765;
+
+  static final String OP_LISTEN = "LISTEN";
+  static final String OP_LISTENING = "LISTENING";
+  static final String OP_UNLISTEN = "UNLISTEN";
+  static final String OP_SEND = "SEND";
+  static final String OP_SIGNAL = "SIGNAL";
+  static final String OP_ACK = "ACK";
+  static final String OP_NACK = "NACK";
+
+  private static final int INITIAL_READ_BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_HANDSHAKE_LENGTH = 8 * 1024;
+  /** A client which does not read its signals is dropped once this much is queued to it. */
+  private static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+
+  private final InetSocketAddress bindAddress;
+  private final Map<String, ClientConnection> routes;
+  private final AtomicLong messagesRelayed;
+  private final AtomicLong connectionsAccepted;
+
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private Thread selectorThread;
+  private volatile boolean running;
+
+  public WebSocketSignalingRelay(int port) {
+    this(new InetSocketAddress(port));
+  }
+
+  public WebSocketSignalingRelay(InetSocketAddress bindAddress) {
+    this.bindAddress = bindAddress;
+    this.routes = new HashMap<>();
+    this.messagesRelayed = new AtomicLong();
+    this.connectionsAccepted = new AtomicLong();
+    this.running = false;
+  }
+
+  /** Binds the port and starts serving on a background thread. */
+  public synchronized void start() throws IOException {
+    if (running) return;
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+    serverChannel.bind(bindAddress, 1024);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    running = true;
+
+    selectorThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runLoop();
+      }
+    }, "WebSocketSignalingRelay");
+    selectorThread.start();
+    LOGGER.info("Relaying signals on " + serverChannel.getLocalAddress());
+  }
+
+  /** The port bound, useful when started on port 0. */
+  public int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  /** Number of signals forwarded to a listener. */
+  public long getMessagesRelayed() {
+    return messagesRelayed.get();
+  }
+
+  public long getConnectionsAccepted() {
+    return connectionsAccepted.get();
+  }
+
+  /** Closes all client connections and stops the relay. */
+  @Override
+  public void close() throws IOException {
+    Thread thread;
+    synchronized (this) {
+      if (!running) return;
+      running = false;
+      thread = selectorThread;
+    }
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runLoop() {
+    try {
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) continue;
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          ClientConnection client = (ClientConnection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              client.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+              client.onWritable();
+            }
+          } catch (IOException | WebSocketFrames.ProtocolException e) {
+            LOGGER.log(Level.FINE, "Dropping client.", e);
+            client.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Relay stopped.", e);
+    } finally {
+      for (SelectionKey key : new ArrayList<>(selector.keys())) {
+        if (key.attachment() instanceof ClientConnection) {
+          ((ClientConnection) key.attachment()).close();
+        }
+      }
+      try {
+        serverChannel.close();
+        selector.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed closing relay.", e);
+      }
+    }
+  }
+
+  /**
+   * Accepts the pending connections. A failure, e.g. when out of file descriptors, is logged and
+   * the relay keeps serving the clients it has.
+   */
+  private void accept() {
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Failed accepting a client.", e);
+        return;
+      }
+      if (channel == null) return;
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        ClientConnection client = new ClientConnection(channel);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        connectionsAccepted.incrementAndGet();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Dropping client before it connected.", e);
+        try {
+          channel.close();
+        } catch (IOException closeFailure) {
+          // Nothing to do.
+        }
+      }
+    }
+  }
+
+  private void onMessage(ClientConnection client, byte[] message) {
+    int headerEnd = indexOf(message, (byte) '\n');
+    String header = new String(
+        message, 0, headerEnd < 0 ? message.length : headerEnd, StandardCharsets.UTF_8);
+    String[] parts = header.split(" ");
+    switch (parts[0]) {
+      case OP_SEND:
+        if (parts.length != 3 || headerEnd < 0) {
+          client.sendText(OP_NACK + " " + (parts.length > 1 ? parts[1] : "-") + " malformed");
+          return;
+        }
+        relay(parts[2], message, headerEnd + 1);
+        client.sendText(OP_ACK + " " + parts[1]);
+        break;
+      case OP_LISTEN:
+        if (parts.length != 2) return;
+        ClientConnection previous = routes.put(parts[1], client);
+        if (previous != null && previous != client) {
+          previous.userIds.remove(parts[1]);
+        }
+        client.userIds.add(parts[1]);
+        client.sendText(OP_LISTENING + " " + parts[1]);
+        break;
+      case OP_UNLISTEN:
+        if (parts.length != 2) return;
+        if (routes.get(parts[1]) == client) {
+          routes.remove(parts[1]);
+        }
+        client.userIds.remove(parts[1]);
+        break;
+      default:
+        LOGGER.fine("Ignoring unknown message: " + header);
+    }
+  }
+
+  private void relay(String userId, byte[] message, int signalOffset) {
+    ClientConnection listener = routes.get(userId);
+    if (listener == null) return;
+    byte[] header = (OP_SIGNAL + " " + userId + "\n").getBytes(StandardCharsets.UTF_8);
+    byte[] payload = new byte[header.length + message.length - signalOffset];
+    System.arraycopy(header, 0, payload, 0, header.length);
+    System.arraycopy(message, signalOffset, payload, header.length, message.length - signalOffset);
+    listener.send(WebSocketFrames.encode(WebSocketFrames.OPCODE_TEXT, payload, null));
+    messagesRelayed.incrementAndGet();
+  }
+
+  private static int indexOf(byte[] bytes, byte value) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (bytes[i] == value) return i;
+    }
+    return -1;
+  }
+
+  /** State of one client, only touched on the selector thread. */
+  private class ClientConnection {
+    private final SocketChannel channel;
+    private final Set<String> userIds;
+    private final Deque<ByteBuffer> writeQueue;
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private boolean handshakeDone;
+    private int queuedBytes;
+    private List<byte[]> fragments;
+    private boolean closed;
+
+    private ClientConnection(SocketChannel channel) {
+      this.channel = channel;
+      this.userIds = new HashSet<>();
+      this.writeQueue = new ArrayDeque<>();
+      this.readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+      this.handshakeDone = false;
+      this.queuedBytes = 0;
+      this.fragments = null;
+      this.closed = false;
+    }
+
+    private void onReadable() throws IOException, WebSocketFrames.ProtocolException {
+      int read = channel.read(readBuffer);
+      if (read < 0) {
+        close();
+        return;
+      }
+      readBuffer.flip();
+      try {
+        if (!handshakeDone && !readHandshake()) return;
+        readFrames();
+      } finally {
+        if (!closed) {
+          readBuffer.compact();
+        }
+      }
+    }
+
+    /** Returns true once the upgrade request is complete and answered. */
+    private boolean readHandshake() throws WebSocketFrames.ProtocolException {
+      int end = -1;
+      for (int i = readBuffer.position(); i + 3 < readBuffer.limit(); i++) {
+        if (readBuffer.get(i) == '\r' && readBuffer.get(i + 1) == '\n'
+            && readBuffer.get(i + 2) == '\r' && readBuffer.get(i + 3) == '\n') {
+          end = i + 4;
+          break;
+        }
+      }
+      if (end < 0) {
+        if (readBuffer.remaining() > MAX_HANDSHAKE_LENGTH) {
+          throw new WebSocketFrames.ProtocolException("Handshake too long.");
+        }
+        return false;
+      }
+      byte[] request = new byte[end - readBuffer.position()];
+      readBuffer.get(request);
+      String key = null;
+      for (String line : new String(request, StandardCharsets.US_ASCII).split("\r\n")) {
+        int colon = line.indexOf(':');
+        if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+          key = line.substring(colon + 1).trim();
+        }
+      }
+      if (key == null) {
+        throw new WebSocketFrames.ProtocolException("Not a WebSocket upgrade request.");
+      }
+      String response = "HTTP/1.1 101 Switching Protocols\r\n"
+          + "Upgrade: websocket\r\n"
+          + "Connection: Upgrade\r\n"
+          + "Sec-WebSocket-Accept: " + WebSocketFrames.acceptKey(key) + "\r\n\r\n";
+      send(ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+      handshakeDone = true;
+      return true;
+    }
+
+    private void readFrames() throws WebSocketFrames.ProtocolException {
+      WebSocketFrames.Frame frame;
+      while (!closed && (frame = WebSocketFrames.decode(readBuffer)) != null) {
+        onFrame(frame);
+      }
+      if (closed) return;
+      long pending = WebSocketFrames.frameLength(readBuffer);
+      if (pending > readBuffer.capacity()) {
+        // Grow to fit the frame, decode() already rejected frames over the limit.
+        ByteBuffer larger = ByteBuffer.allocate((int) pending);
+        larger.put(readBuffer);
+        larger.flip();
+        readBuffer = larger;
+      }
+    }
+
+    private void onFrame(WebSocketFrames.Frame frame) throws WebSocketFrames.ProtocolException {
+      switch (frame.opcode) {
+        case WebSocketFrames.OPCODE_TEXT:
+        case WebSocketFrames.OPCODE_BINARY:
+          if (frame.fin) {
+            onMessage(this, frame.payload);
+          } else {
+            fragments = new ArrayList<>();
+            fragments.add(frame.payload);
+          }
+          break;
+        case WebSocketFrames.OPCODE_CONTINUATION:
+          if (fragments == null) {
+            throw new WebSocketFrames.ProtocolException("Unexpected continuation frame.");
+          }
+          fragments.add(frame.payload);
+          if (frame.fin) {
+            onMessage(this, join(fragments));
+            fragments = null;
+          }
+          break;
+        case WebSocketFrames.OPCODE_PING:
+          send(WebSocketFrames.encode(WebSocketFrames.OPCODE_PONG, frame.payload, null));
+          break;
+        case WebSocketFrames.OPCODE_CLOSE:
+          send(WebSocketFrames.encode(WebSocketFrames.OPCODE_CLOSE, new byte[0], null));
+          flushAndClose();
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void sendText(String text) {
+      send(WebSocketFrames.encode(
+          WebSocketFrames.OPCODE_TEXT, text.getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    /** Writes right away if possible, queues the rest until the channel is writable. */
+    private void send(ByteBuffer data) {
+      if (closed) return;
+      if (writeQueue.isEmpty()) {
+        try {
+          channel.write(data);
+        } catch (IOException e) {
+          close();
+          return;
+        }
+        if (!data.hasRemaining()) return;
+      }
+      writeQueue.add(data);
+      queuedBytes += data.remaining();
+      if (queuedBytes > MAX_QUEUED_BYTES) {
+        LOGGER.warning("Dropping client which does not keep up: " + userIds);
+        close();
+        return;
+      }
+      key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+    }
+
+    private void onWritable() throws IOException {
+      while (!writeQueue.isEmpty()) {
+        ByteBuffer data = writeQueue.peek();
+        int written = channel.write(data);
+        queuedBytes -= written;
+        if (data.hasRemaining()) return;
+        writeQueue.poll();
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private void flushAndClose() {
+      try {
+        onWritable();
+      } catch (IOException e) {
+        // Closing anyway.
+      }
+      close();
+    }
+
+    private void close() {
+      if (closed) return;
+      closed = true;
+      for (String userId : userIds) {
+        if (routes.get(userId) == this) {
+          routes.remove(userId);
+        }
+      }
+      userIds.clear();
+      writeQueue.clear();
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing to do.
+      }
+    }
+  }
+
+  private static byte[] join(List<byte[]> parts) {
+    int length = 0;
+    for (byte[] part : parts) {
+      length += part.length;
+    }
+    byte[] joined = new byte[length];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, joined, offset, part.length);
+      offset += part.length;
+    }
+    return joined;
+  }
+
+  /** Runs a relay on the port given as first argument, {@link #DEFAULT_PORT} by default. */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    new WebSocketSignalingRelay(port).start();
+  }
+}